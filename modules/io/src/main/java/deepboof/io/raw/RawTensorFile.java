@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.io.raw;
+
+import deepboof.Tensor;
+import deepboof.misc.TensorOps;
+import deepboof.tensors.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * <p>Reads files in DeepBoof's raw tensor format. The header is read when the file is opened. The payload
+ * of each tensor is memory mapped when it's requested. A tensor can be accessed as a zero copy view
+ * into the file, e.g. {@link #viewF32}, or copied into a new tensor with a single bulk copy,
+ * e.g. {@link #readF32}.</p>
+ *
+ * <p>File format. Everything is encoded in the byte order indicated by the byte order mark. The payload
+ * of each tensor starts at a location which is a multiple of {@link #ALIGNMENT} bytes and is stored in
+ * row-major order.</p>
+ *
+ * <pre>
+ * 8 bytes      magic     "DBTENSOR"
+ * int32        byte order mark, 0x01020304
+ * int32        version
+ * int32        number of tensors
+ * int32        reserved
+ * for each tensor:
+ *   int32      length of name in bytes
+ *   bytes      name encoded with UTF-8
+ *   int32      type. 1 = F64, 2 = F32, 3 = U8, 4 = S32, 5 = S64
+ *   int32      number of axes
+ *   int32[]    shape
+ *   int64      location of payload in bytes from start of file
+ *   int64      length of payload in bytes
+ * payloads
+ * </pre>
+ *
+ * @author Peter Abeles
+ */
+public class RawTensorFile implements Closeable {
+	public static final byte[] MAGIC = "DBTENSOR".getBytes(StandardCharsets.US_ASCII);
+	public static final int BYTE_ORDER_MARK = 0x01020304;
+	public static final int VERSION = 1;
+	public static final int ALIGNMENT = 64;
+	/** Name given to a tensor when a single tensor is saved */
+	public static final String DEFAULT_NAME = "tensor";
+
+	// size of the header before the list of tensors
+	static final int PREFIX_SIZE = 8 + 4*4;
+
+	FileChannel channel;
+	ByteOrder order;
+
+	Map<String,Entry> entries = new LinkedHashMap<>();
+
+	/**
+	 * Opens the file and reads the header
+	 */
+	public RawTensorFile( File file ) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			readHeader();
+		} catch( IOException | RuntimeException e ) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void readHeader() throws IOException {
+		ByteBuffer prefix = readBytes(0, PREFIX_SIZE);
+		byte[] magic = new byte[MAGIC.length];
+		prefix.get(magic);
+		if( !Arrays.equals(magic, MAGIC) )
+			throw new IOException("Not a raw tensor file. Bad magic bytes");
+
+		int mark = prefix.getInt();
+		if( mark == BYTE_ORDER_MARK ) {
+			order = ByteOrder.BIG_ENDIAN;
+		} else if( mark == Integer.reverseBytes(BYTE_ORDER_MARK) ) {
+			order = ByteOrder.LITTLE_ENDIAN;
+		} else {
+			throw new IOException("Bad byte order mark");
+		}
+		prefix.order(order);
+
+		int version = prefix.getInt();
+		if( version != VERSION )
+			throw new IOException("Unsupported version "+version);
+		int count = prefix.getInt();
+
+		long location = PREFIX_SIZE;
+		for (int i = 0; i < count; i++) {
+			int nameLength = readBytes(location, 4).getInt();
+			location += 4;
+			ByteBuffer b = readBytes(location, nameLength + 8);
+			byte[] name = new byte[nameLength];
+			b.get(name);
+			location += nameLength + 8;
+
+			Entry e = new Entry();
+			e.name = new String(name, StandardCharsets.UTF_8);
+			e.type = codeToType(b.getInt());
+			int rank = b.getInt();
+			if( rank < 0 )
+				throw new IOException("Negative number of axes");
+
+			b = readBytes(location, 4*rank + 16);
+			location += 4*rank + 16;
+			e.shape = new int[rank];
+			for (int j = 0; j < rank; j++) {
+				e.shape[j] = b.getInt();
+			}
+			e.offset = b.getLong();
+			e.byteLength = b.getLong();
+
+			if( e.byteLength != (long)TensorOps.tensorLength(e.shape)*bytesPerElement(e.type) )
+				throw new IOException("Payload length doesn't match shape for "+e.name);
+			if( e.offset + e.byteLength > channel.size() )
+				throw new IOException("File is truncated. Payload for "+e.name+" is missing");
+
+			entries.put(e.name, e);
+		}
+	}
+
+	private ByteBuffer readBytes( long position , int length ) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		if( order != null )
+			b.order(order);
+		while( b.hasRemaining() ) {
+			if( channel.read(b, position + b.position()) < 0 )
+				throw new IOException("Unexpected end of file");
+		}
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Memory maps the tensor's payload. The returned buffer is read only and has the file's byte order.
+	 */
+	public ByteBuffer map( String name ) throws IOException {
+		Entry e = lookup(name);
+		if( e.byteLength > Integer.MAX_VALUE )
+			throw new IOException("Tensor is too large to map. "+name);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, e.offset, e.byteLength);
+		buffer.order(order);
+		return buffer;
+	}
+
+	/** Zero copy view of a F64 tensor's data */
+	public DoubleBuffer viewF64( String name ) throws IOException {
+		checkType(name, Tensor_F64.class);
+		return map(name).asDoubleBuffer();
+	}
+
+	/** Zero copy view of a F32 tensor's data */
+	public FloatBuffer viewF32( String name ) throws IOException {
+		checkType(name, Tensor_F32.class);
+		return map(name).asFloatBuffer();
+	}
+
+	/** Zero copy view of a U8 tensor's data */
+	public ByteBuffer viewU8( String name ) throws IOException {
+		checkType(name, Tensor_U8.class);
+		return map(name);
+	}
+
+	/** Zero copy view of a S32 tensor's data */
+	public IntBuffer viewS32( String name ) throws IOException {
+		checkType(name, Tensor_S32.class);
+		return map(name).asIntBuffer();
+	}
+
+	/** Zero copy view of a S64 tensor's data */
+	public LongBuffer viewS64( String name ) throws IOException {
+		checkType(name, Tensor_S64.class);
+		return map(name).asLongBuffer();
+	}
+
+	/** Copies a F64 tensor out of the file */
+	public Tensor_F64 readF64( String name ) throws IOException {
+		Tensor_F64 tensor = new Tensor_F64(getShape(name));
+		viewF64(name).get(tensor.d, 0, tensor.length());
+		return tensor;
+	}
+
+	/** Copies a F32 tensor out of the file */
+	public Tensor_F32 readF32( String name ) throws IOException {
+		Tensor_F32 tensor = new Tensor_F32(getShape(name));
+		viewF32(name).get(tensor.d, 0, tensor.length());
+		return tensor;
+	}
+
+	/** Copies a U8 tensor out of the file */
+	public Tensor_U8 readU8( String name ) throws IOException {
+		Tensor_U8 tensor = new Tensor_U8(getShape(name));
+		viewU8(name).get(tensor.d, 0, tensor.length());
+		return tensor;
+	}
+
+	/** Copies a S32 tensor out of the file */
+	public Tensor_S32 readS32( String name ) throws IOException {
+		Tensor_S32 tensor = new Tensor_S32(getShape(name));
+		viewS32(name).get(tensor.d, 0, tensor.length());
+		return tensor;
+	}
+
+	/** Copies a S64 tensor out of the file */
+	public Tensor_S64 readS64( String name ) throws IOException {
+		Tensor_S64 tensor = new Tensor_S64(getShape(name));
+		viewS64(name).get(tensor.d, 0, tensor.length());
+		return tensor;
+	}
+
+	/**
+	 * Copies a tensor out of the file. Its type is the same as in the file
+	 */
+	public Tensor<?> read( String name ) throws IOException {
+		Class<?> type = getType(name);
+		if( type == Tensor_F64.class )
+			return readF64(name);
+		else if( type == Tensor_F32.class )
+			return readF32(name);
+		else if( type == Tensor_U8.class )
+			return readU8(name);
+		else if( type == Tensor_S32.class )
+			return readS32(name);
+		else
+			return readS64(name);
+	}
+
+	/**
+	 * Reads parameters which were saved using {@link RawTensorWriter#writeParameters}.
+	 *
+	 * @param type Expected type of the tensors
+	 * @return Map from node name to that node's parameters
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Tensor<T>> Map<String,List<T>> readParameters( Class<T> type ) throws IOException {
+		Map<String,List<T>> parameters = new LinkedHashMap<>();
+		for( String name : entries.keySet() ) {
+			int split = name.lastIndexOf('/');
+			if( split < 0 )
+				throw new IOException("Not a parameter name. "+name);
+			checkType(name, type);
+
+			String node = name.substring(0, split);
+			int index = Integer.parseInt(name.substring(split+1));
+			List<T> list = parameters.computeIfAbsent(node, k -> new ArrayList<>());
+			while( list.size() <= index )
+				list.add(null);
+			list.set(index, (T)read(name));
+		}
+		return parameters;
+	}
+
+	/**
+	 * Names of all the tensors in the order they were written
+	 */
+	public List<String> getNames() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	public boolean contains( String name ) {
+		return entries.containsKey(name);
+	}
+
+	public int[] getShape( String name ) {
+		return lookup(name).shape.clone();
+	}
+
+	public Class<? extends Tensor<?>> getType( String name ) {
+		return lookup(name).type;
+	}
+
+	/**
+	 * Byte order the file was written in
+	 */
+	public ByteOrder getOrder() {
+		return order;
+	}
+
+	/**
+	 * Closes the file. Mapped buffers remain valid until they are garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	Entry lookup( String name ) {
+		Entry e = entries.get(name);
+		if( e == null )
+			throw new IllegalArgumentException("No tensor named "+name);
+		return e;
+	}
+
+	private void checkType( String name , Class<?> type ) {
+		Entry e = lookup(name);
+		if( e.type != type )
+			throw new IllegalArgumentException("Tensor "+name+" is "+e.type.getSimpleName()+" not "+type.getSimpleName());
+	}
+
+	static int typeToCode( Class<?> type ) {
+		if( type == Tensor_F64.class )
+			return 1;
+		else if( type == Tensor_F32.class )
+			return 2;
+		else if( type == Tensor_U8.class )
+			return 3;
+		else if( type == Tensor_S32.class )
+			return 4;
+		else if( type == Tensor_S64.class )
+			return 5;
+		throw new IllegalArgumentException("Unsupported tensor type "+type.getSimpleName());
+	}
+
+	static Class<? extends Tensor<?>> codeToType( int code ) throws IOException {
+		switch( code ) {
+			case 1: return Tensor_F64.class;
+			case 2: return Tensor_F32.class;
+			case 3: return Tensor_U8.class;
+			case 4: return Tensor_S32.class;
+			case 5: return Tensor_S64.class;
+			default: throw new IOException("Unknown tensor type code "+code);
+		}
+	}
+
+	static int bytesPerElement( Class<?> type ) {
+		if( type == Tensor_F64.class || type == Tensor_S64.class )
+			return 8;
+		else if( type == Tensor_F32.class || type == Tensor_S32.class )
+			return 4;
+		else if( type == Tensor_U8.class )
+			return 1;
+		throw new IllegalArgumentException("Unsupported tensor type "+type.getSimpleName());
+	}
+
+	/**
+	 * Description of a tensor in the file
+	 */
+	static class Entry {
+		String name;
+		Class<? extends Tensor<?>> type;
+		int[] shape;
+		long offset;
+		long byteLength;
+	}
+}
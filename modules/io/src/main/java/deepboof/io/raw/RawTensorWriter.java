@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.io.raw;
+
+import deepboof.Tensor;
+import deepboof.tensors.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes named tensors to a file in the raw tensor format. See {@link RawTensorFile} for a description
+ * of the format.
+ *
+ * @author Peter Abeles
+ */
+public class RawTensorWriter {
+
+	// byte order that the file is written in
+	ByteOrder order;
+
+	// used to copy arrays into the file
+	ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+	/**
+	 * Writes files using the specified byte order
+	 */
+	public RawTensorWriter( ByteOrder order ) {
+		this.order = order;
+		buffer.order(order);
+	}
+
+	/**
+	 * Writes files in the native byte order so that they can be read without swapping bytes
+	 */
+	public RawTensorWriter() {
+		this(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Saves a single tensor
+	 *
+	 * @param tensor The tensor being saved
+	 * @param file Output file
+	 */
+	public void write( Tensor<?> tensor , File file ) throws IOException {
+		Map<String,Tensor<?>> map = new LinkedHashMap<>();
+		map.put(RawTensorFile.DEFAULT_NAME, tensor);
+		write(map, file);
+	}
+
+	/**
+	 * Saves the parameters for every node in a network. Tensors are named "node/index".
+	 *
+	 * @param parameters Map from node name to that node's parameters
+	 * @param file Output file
+	 */
+	public <T extends Tensor<T>> void writeParameters( Map<String,List<T>> parameters , File file )
+			throws IOException
+	{
+		Map<String,Tensor<?>> map = new LinkedHashMap<>();
+		for( Map.Entry<String,List<T>> e : parameters.entrySet() ) {
+			List<T> list = e.getValue();
+			for (int i = 0; i < list.size(); i++) {
+				map.put(e.getKey()+"/"+i, list.get(i));
+			}
+		}
+		write(map, file);
+	}
+
+	/**
+	 * Saves a set of named tensors. Order of the tensors is preserved.
+	 *
+	 * @param tensors Map from name to tensor
+	 * @param file Output file
+	 */
+	public void write( Map<String,? extends Tensor<?>> tensors , File file ) throws IOException {
+		List<String> names = new ArrayList<>(tensors.keySet());
+
+		// compute the size of the header so that the payload offsets are known
+		List<byte[]> encodedNames = new ArrayList<>();
+		long headerSize = RawTensorFile.PREFIX_SIZE;
+		for( String name : names ) {
+			byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+			encodedNames.add(encoded);
+			Tensor<?> tensor = tensors.get(name);
+			headerSize += 4 + encoded.length + 4 + 4 + 4*tensor.shape.length + 8 + 8;
+		}
+
+		long[] offsets = new long[names.size()];
+		long location = align(headerSize);
+		for (int i = 0; i < names.size(); i++) {
+			Tensor<?> tensor = tensors.get(names.get(i));
+			offsets[i] = location;
+			location = align(location + payloadBytes(tensor));
+		}
+
+		try( FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) ) {
+			ByteBuffer header = ByteBuffer.allocate((int)headerSize).order(order);
+			header.put(RawTensorFile.MAGIC);
+			header.putInt(RawTensorFile.BYTE_ORDER_MARK);
+			header.putInt(RawTensorFile.VERSION);
+			header.putInt(names.size());
+			header.putInt(0);
+			for (int i = 0; i < names.size(); i++) {
+				Tensor<?> tensor = tensors.get(names.get(i));
+				header.putInt(encodedNames.get(i).length);
+				header.put(encodedNames.get(i));
+				header.putInt(RawTensorFile.typeToCode(tensor.getClass()));
+				header.putInt(tensor.shape.length);
+				for (int j = 0; j < tensor.shape.length; j++) {
+					header.putInt(tensor.shape[j]);
+				}
+				header.putLong(offsets[i]);
+				header.putLong(payloadBytes(tensor));
+			}
+			header.flip();
+			writeFully(channel, header, 0);
+
+			for (int i = 0; i < names.size(); i++) {
+				writePayload(channel, tensors.get(names.get(i)), offsets[i]);
+			}
+
+			// pad the end of the file so that every payload, including empty ones, is inside of it
+			if( channel.size() < location )
+				writeFully(channel, ByteBuffer.allocate(1), location-1);
+		}
+	}
+
+	private void writePayload( FileChannel channel , Tensor<?> tensor , long position ) throws IOException {
+		int index = tensor.startIndex;
+		int remaining = tensor.length();
+		int bytesPerElement = RawTensorFile.bytesPerElement(tensor.getClass());
+		int maxElements = buffer.capacity()/bytesPerElement;
+
+		while( remaining > 0 ) {
+			int N = Math.min(maxElements, remaining);
+			buffer.clear();
+			if( tensor instanceof Tensor_F64 ) {
+				buffer.asDoubleBuffer().put(((Tensor_F64)tensor).d, index, N);
+			} else if( tensor instanceof Tensor_F32 ) {
+				buffer.asFloatBuffer().put(((Tensor_F32)tensor).d, index, N);
+			} else if( tensor instanceof Tensor_U8 ) {
+				buffer.put(((Tensor_U8)tensor).d, index, N);
+			} else if( tensor instanceof Tensor_S32 ) {
+				buffer.asIntBuffer().put(((Tensor_S32)tensor).d, index, N);
+			} else if( tensor instanceof Tensor_S64 ) {
+				buffer.asLongBuffer().put(((Tensor_S64)tensor).d, index, N);
+			}
+			buffer.position(0);
+			buffer.limit(N*bytesPerElement);
+			position = writeFully(channel, buffer, position);
+
+			index += N;
+			remaining -= N;
+		}
+	}
+
+	private static long writeFully( FileChannel channel , ByteBuffer buffer , long position ) throws IOException {
+		while( buffer.hasRemaining() ) {
+			position += channel.write(buffer, position);
+		}
+		return position;
+	}
+
+	private static long payloadBytes( Tensor<?> tensor ) {
+		return (long)tensor.length()*RawTensorFile.bytesPerElement(tensor.getClass());
+	}
+
+	private static long align( long location ) {
+		long a = RawTensorFile.ALIGNMENT;
+		return (location + a - 1)/a*a;
+	}
+
+	public ByteOrder getOrder() {
+		return order;
+	}
+}
@@ -22,6 +22,7 @@ import deepboof.Function;
 import deepboof.Tensor;
 import deepboof.graph.FunctionSequence;
 import deepboof.graph.Node;
+import deepboof.graph.optimize.GraphOptimizer;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -50,4 +51,12 @@ public class SequenceAndParameters< T extends Tensor<T>,F extends Function<T>> {
 		network.setParameters(parameters);
 		return network;
 	}
+
+	/**
+	 * Simplifies the network for inference using {@link GraphOptimizer#standard}, e.g. dropout scaling is folded
+	 * into the weights of the previous layer. Should be called before {@link #createForward}.
+	 */
+	public void optimize() {
+		GraphOptimizer.<T>standard().optimize(sequence, parameters);
+	}
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.io.raw;
+
+import deepboof.DeepUnitTest;
+import deepboof.Tensor;
+import deepboof.misc.TensorFactory_F32;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestRawTensorFile {
+
+	Random rand = new Random(234);
+
+	/**
+	 * Write out every type of tensor in both byte orders and read them back in
+	 */
+	@Test
+	public void writeRead_allTypes() throws IOException {
+		Tensor_S32 s32 = new Tensor_S32(3,2);
+		Tensor_S64 s64 = new Tensor_S64(5);
+		Tensor_U8 u8 = new Tensor_U8(7,3);
+		for (int i = 0; i < s32.d.length; i++) s32.d[i] = rand.nextInt();
+		for (int i = 0; i < s64.d.length; i++) s64.d[i] = rand.nextLong();
+		rand.nextBytes(u8.d);
+
+		Map<String,Tensor<?>> tensors = new LinkedHashMap<>();
+		tensors.put("f64", TensorFactory_F64.random(rand, true, 2, 3, 4));
+		tensors.put("f32", TensorFactory_F32.random(rand, true, 5, 1));
+		tensors.put("u8", u8);
+		tensors.put("s32", s32);
+		tensors.put("s64", s64);
+		tensors.put("empty", new Tensor_F32());
+
+		for( ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN,ByteOrder.LITTLE_ENDIAN}) {
+			File file = File.createTempFile("raw", ".tensors");
+			try {
+				new RawTensorWriter(order).write(tensors, file);
+
+				try( RawTensorFile alg = new RawTensorFile(file) ) {
+					assertSame(order, alg.getOrder());
+					assertEquals(new ArrayList<>(tensors.keySet()), alg.getNames());
+
+					DeepUnitTest.assertEquals((Tensor_F64)tensors.get("f64"), alg.readF64("f64"), 0);
+					DeepUnitTest.assertEquals((Tensor_F32)tensors.get("f32"), alg.readF32("f32"), 0);
+					assertArrayEquals(u8.d, alg.readU8("u8").d);
+					assertArrayEquals(s32.d, alg.readS32("s32").d);
+					assertArrayEquals(s64.d, alg.readS64("s64").d);
+					assertEquals(0, alg.readF32("empty").length());
+
+					for( String name : tensors.keySet() ) {
+						assertSame(tensors.get(name).getClass(), alg.getType(name));
+						assertArrayEquals(tensors.get(name).shape, alg.getShape(name));
+						assertEquals(0, alg.lookup(name).offset % RawTensorFile.ALIGNMENT);
+					}
+				}
+			} finally {
+				assertTrue(file.delete());
+			}
+		}
+	}
+
+	@Test
+	public void view() throws IOException {
+		Tensor_F32 tensor = TensorFactory_F32.random(rand, false, 10, 20);
+
+		File file = File.createTempFile("raw", ".tensors");
+		try {
+			new RawTensorWriter().write(tensor, file);
+
+			FloatBuffer view;
+			try( RawTensorFile alg = new RawTensorFile(file) ) {
+				view = alg.viewF32(RawTensorFile.DEFAULT_NAME);
+			}
+
+			// still valid after the file has been closed
+			assertEquals(tensor.length(), view.remaining());
+			for (int i = 0; i < tensor.length(); i++) {
+				assertEquals(tensor.d[i], view.get(i), 0.0f);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void parameters() throws IOException {
+		Map<String,List<Tensor_F32>> parameters = new LinkedHashMap<>();
+		parameters.put("conv", Arrays.asList(TensorFactory_F32.random(rand, false, 4, 3, 3, 3),
+				TensorFactory_F32.random(rand, false, 4)));
+		parameters.put("linear", Collections.singletonList(TensorFactory_F32.random(rand, false, 10, 4)));
+
+		File file = File.createTempFile("raw", ".tensors");
+		try {
+			new RawTensorWriter().writeParameters(parameters, file);
+
+			try( RawTensorFile alg = new RawTensorFile(file) ) {
+				Map<String,List<Tensor_F32>> found = alg.readParameters(Tensor_F32.class);
+
+				assertEquals(parameters.keySet(), found.keySet());
+				for( String key : parameters.keySet() ) {
+					List<Tensor_F32> expected = parameters.get(key);
+					assertEquals(expected.size(), found.get(key).size());
+					for (int i = 0; i < expected.size(); i++) {
+						DeepUnitTest.assertEquals(expected.get(i), found.get(key).get(i), 0.0f);
+					}
+				}
+
+				try {
+					alg.readParameters(Tensor_F64.class);
+					fail("Exception expected");
+				} catch( IllegalArgumentException ignore ){}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void badFile() throws IOException {
+		File file = File.createTempFile("raw", ".tensors");
+		try {
+			try( FileOutputStream out = new FileOutputStream(file) ) {
+				out.write("NOTATENSORFILEATALL12345678".getBytes());
+			}
+			try {
+				new RawTensorFile(file).close();
+				fail("Exception expected");
+			} catch( IOException ignore ){}
+		} finally {
+			file.delete();
+		}
+	}
+}
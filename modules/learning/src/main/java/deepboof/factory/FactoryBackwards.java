@@ -22,8 +22,11 @@ import deepboof.Tensor;
 import deepboof.backward.DSpatialPadding2D;
 import deepboof.backward.NumericalGradient;
 import deepboof.forward.ConfigPadding;
+import deepboof.impl.backward.standard.DClippedPadding2D_F32;
 import deepboof.impl.backward.standard.DClippedPadding2D_F64;
+import deepboof.impl.backward.standard.DConstantPadding2D_F32;
 import deepboof.impl.backward.standard.DConstantPadding2D_F64;
+import deepboof.impl.backward.standard.NumericalGradient_F32;
 import deepboof.impl.backward.standard.NumericalGradient_F64;
 import deepboof.tensors.Tensor_F32;
 import deepboof.tensors.Tensor_F64;
@@ -42,6 +45,8 @@ public class FactoryBackwards<T extends Tensor<T>> {
 	public NumericalGradient<T> createNumericalGradient() {
 		if( tensorType == Tensor_F64.class )
 			return (NumericalGradient)new NumericalGradient_F64();
+		else if( tensorType == Tensor_F32.class )
+			return (NumericalGradient)new NumericalGradient_F32();
 		else
 			throw new IllegalArgumentException("Unknown");
 	}
@@ -57,11 +62,14 @@ public class FactoryBackwards<T extends Tensor<T>> {
 					return (P)new DClippedPadding2D_F64(config);
 			}
 		} else if( tensorType == Tensor_F32.class ) {
-//			switch( config.type ) {
-//				case ZERO:
-//				case MAX_NEGATIVE:
-//					return (P)new DConstantPadding2D_F64(config);
-//			}
+			switch( config.type ) {
+				case ZERO:
+				case MAX_NEGATIVE:
+					return (P)new DConstantPadding2D_F32(config);
+
+				case CLIPPED:
+					return (P)new DClippedPadding2D_F32(config);
+			}
 		}
 		throw new IllegalArgumentException("Unsupported");
 	}
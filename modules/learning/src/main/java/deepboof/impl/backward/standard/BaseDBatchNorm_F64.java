@@ -105,13 +105,13 @@ public abstract class BaseDBatchNorm_F64 extends BaseDFunction<Tensor_F64> imple
     }
 
     @Override
-    public double getEPS() {
+    public /**/double getEPS() {
         return EPS;
     }
 
     @Override
-    public void setEPS(double EPS) {
-        this.EPS = EPS;
+    public void setEPS( /**/double EPS) {
+        this.EPS = (double)EPS;
     }
 
     @Override
@@ -22,6 +22,7 @@ import deepboof.DFunction;
 import deepboof.Tensor;
 import deepboof.impl.forward.standard.BaseFunction;
 import deepboof.misc.TensorOps;
+import deepboof.misc.TensorPool;
 
 import java.util.List;
 
@@ -36,6 +37,9 @@ public abstract class BaseDFunction<T extends Tensor<T>>
 {
 	protected boolean learningMode = false;
 
+	// If not null, workspace tensors which change size with the mini-batch are recycled through this pool
+	protected TensorPool pool;
+
 	@Override
 	public void learning() {
 		learningMode = true;
@@ -70,4 +74,27 @@ public abstract class BaseDFunction<T extends Tensor<T>>
 	public boolean isLearning() {
 		return learningMode;
 	}
+
+	/**
+	 * Reshapes a workspace tensor. If a pool has been specified its memory is drawn from the pool.
+	 */
+	protected void reshapeWorkspace( Tensor<?> tensor , int ...shape ) {
+		if( pool == null )
+			tensor.reshape(shape);
+		else
+			pool.reshape(tensor,shape);
+	}
+
+	/**
+	 * Specifies a pool which workspace memory that depends on the mini-batch size is drawn from.
+	 *
+	 * @param pool The pool or null to have workspace tensors manage their own memory
+	 */
+	public void setTensorPool( TensorPool pool ) {
+		this.pool = pool;
+	}
+
+	public TensorPool getTensorPool() {
+		return pool;
+	}
 }
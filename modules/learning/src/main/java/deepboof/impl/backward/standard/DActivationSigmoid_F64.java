@@ -38,7 +38,7 @@ public class DActivationSigmoid_F64 extends ElementWiseDFunction<Tensor_F64>
 	@Override
 	public void _forward(Tensor_F64 input, Tensor_F64 output) {
 
-		memorySigmoid.reshape(input.shape);
+		reshapeWorkspace(memorySigmoid,input.shape);
 
 		int length = input.length();
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.impl.backward.standard;
+
+import deepboof.backward.DActivationTanH;
+import deepboof.tensors.Tensor_F32;
+
+import java.util.List;
+
+/**
+ * Implementation of {@link DActivationTanH} for {@link Tensor_F32}. Forward pass tanh is
+ * cached to reduce computations in backwards pass.
+ *
+ * @author Peter Abeles
+ */
+public class DActivationTanH_F32 extends ElementWiseDFunction<Tensor_F32>
+	implements DActivationTanH<Tensor_F32>
+{
+	// cache tanh computation to avoid doing it more than once
+	Tensor_F32 memory = new Tensor_F32();
+
+	@Override
+	protected void _backwards(Tensor_F32 input, Tensor_F32 dout,
+							  Tensor_F32 gradientInput, List<Tensor_F32> gradientParameters) {
+		reshapeWorkspace(memory,input.getShape());
+
+		int length = input.length();
+
+		int indexDIn = gradientInput.startIndex;
+		int indexDout = dout.startIndex;
+
+		for (int i = 0; i < length; i++) {
+			float tanh = memory.d[i];
+			gradientInput.d[indexDIn++] = (1.0f-tanh*tanh)*dout.d[indexDout++];
+		}
+	}
+
+	@Override
+	public void _forward(Tensor_F32 input, Tensor_F32 output) {
+		reshapeWorkspace(memory,input.getShape());
+
+		int length = input.length();
+
+		int indexIn = input.startIndex;
+		int indexOut = output.startIndex;
+
+		for (int i = 0; i < length; i++) {
+			float v = (float)Math.tanh(input.d[indexIn+i]);
+			output.d[indexOut+i] = v;
+			memory.d[i] = v;
+		}
+	}
+
+	@Override
+	public Class<Tensor_F32> getTensorType() {
+		return Tensor_F32.class;
+	}
+}
@@ -38,7 +38,7 @@ public class DActivationTanH_F64 extends ElementWiseDFunction<Tensor_F64>
 	@Override
 	protected void _backwards(Tensor_F64 input, Tensor_F64 dout,
 							  Tensor_F64 gradientInput, List<Tensor_F64> gradientParameters) {
-		memory.reshape(input.getShape());
+		reshapeWorkspace(memory,input.getShape());
 
 		int length = input.length();
 
@@ -53,7 +53,7 @@ public class DActivationTanH_F64 extends ElementWiseDFunction<Tensor_F64>
 
 	@Override
 	public void _forward(Tensor_F64 input, Tensor_F64 output) {
-		memory.reshape(input.getShape());
+		reshapeWorkspace(memory,input.getShape());
 
 		int length = input.length();
 
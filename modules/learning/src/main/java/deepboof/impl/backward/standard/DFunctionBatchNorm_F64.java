@@ -55,8 +55,8 @@ public class DFunctionBatchNorm_F64 extends BaseDBatchNorm_F64
 	}
 
 	private void forwardsLearning(Tensor_F64 input, Tensor_F64 output) {
-		tensorDiffX.reshape( input.shape );
-		tensorXhat.reshape( input.shape );
+		reshapeWorkspace(tensorDiffX,input.shape);
+		reshapeWorkspace(tensorXhat,input.shape);
 		computeStatisticsAndNormalize(input);
 
 		if (requiresGammaBeta) {
@@ -174,7 +174,7 @@ public class DFunctionBatchNorm_F64 extends BaseDBatchNorm_F64
 							  List<Tensor_F64> gradientParameters)
 	{
 		// NOTE: @l/@y = dout
-		tensorDXhat.reshape( input.shape );
+		reshapeWorkspace(tensorDXhat,input.shape);
 
 		if( requiresGammaBeta ) {
 			partialXHat(dout);
@@ -35,7 +35,7 @@ public class DFunctionDropOut_F64 extends BaseDFunction<Tensor_F64> implements D
 	Random random;
 
 	// Specifies chance of a neuron being dropped from 0 to 1.0
-	double dropRate;
+	/**/double dropRate;
 
 	// used to indicate if a neuron is turned off or not. Using a double since it should be faster
 	// than adding conditional statements (need to verify this)
@@ -46,7 +46,7 @@ public class DFunctionDropOut_F64 extends BaseDFunction<Tensor_F64> implements D
 	 * @param randomSeed random seed used to pick which neurons are dropped
 	 * @param dropRate Fraction of time a neuron is dropped
 	 */
-	public DFunctionDropOut_F64( long randomSeed , double dropRate) {
+	public DFunctionDropOut_F64( long randomSeed , /**/double dropRate) {
 		this.random = new Random(randomSeed);
 		this.dropRate = dropRate;
 	}
@@ -62,7 +62,7 @@ public class DFunctionDropOut_F64 extends BaseDFunction<Tensor_F64> implements D
 	@Override
 	public void _forward(Tensor_F64 input, Tensor_F64 output) {
 		if( learningMode ) {
-			drops.reshape(input.shape);
+			reshapeWorkspace(drops,input.shape);
 			int N = drops.length();
 
 			int indexIn = input.startIndex;
@@ -73,12 +73,12 @@ public class DFunctionDropOut_F64 extends BaseDFunction<Tensor_F64> implements D
 				output.d[indexOut++] = input.d[indexIn++]*d;
 			}
 		} else {
-			TensorOps_F64.elementMult(input,1.0-dropRate,output);
+			TensorOps_F64.elementMult(input,(double)(1.0-dropRate),output);
 		}
 	}
 
 	@Override
-	public double getDropRate() {
+	public /**/double getDropRate() {
 		return dropRate;
 	}
 
@@ -54,8 +54,8 @@ public class DSpatialBatchNorm_F64 extends BaseDBatchNorm_F64
 		if( input.length(0) <= 1 )
 			throw new IllegalArgumentException("There must be more than 1 minibatch");
 
-		tensorDiffX.reshape( input.shape );
-		tensorXhat.reshape( input.shape );
+		reshapeWorkspace(tensorDiffX,input.shape);
+		reshapeWorkspace(tensorXhat,input.shape);
 
 		// just compute these variables onces. They are used all over the place
 		numChannels = input.length(1);
@@ -198,7 +198,7 @@ public class DSpatialBatchNorm_F64 extends BaseDBatchNorm_F64
 	protected void _backwards(Tensor_F64 input, Tensor_F64 dout, Tensor_F64 gradientInput, List<Tensor_F64> gradientParameters) {
 
 		// NOTE: @l/@y = dout
-		tensorDXhat.reshape( input.shape );
+		reshapeWorkspace(tensorDXhat,input.shape);
 
 		if( requiresGammaBeta ) {
 			partialXHat(dout);
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.impl.backward.standard;
+
+import deepboof.backward.DSpatialPadding2D_F64;
+import deepboof.forward.ConfigConvolve2D;
+import deepboof.tensors.Tensor_F64;
+
+/**
+ * <p>Implementation of {@link deepboof.backward.DSpatialConvolve2D} for {@link Tensor_F64} where the backwards
+ * pass is computed with matrix multiplications. Each image's padded input is unrolled into a column matrix,
+ * (C*HH*WW, Ho*Wo), where each column is the window used to compute one output pixel (im2col). The gradients
+ * are then</p>
+ *
+ * <pre>
+ * dWeights = dout*cols<sup>T</sup>       (F, C*HH*WW)
+ * dCols    = weights<sup>T</sup>*dout    (C*HH*WW, Ho*Wo)
+ * </pre>
+ *
+ * <p>where dout is (F, Ho*Wo) and weights is (F, C*HH*WW). dCols is summed back into the padded input's gradient
+ * (col2im). Output pixels are processed in blocks of {@link #BLOCK_COLUMNS}, from im2col through col2im, so
+ * the column buffers are only (C*HH*WW, BLOCK_COLUMNS) and the rows being worked on stay in the cache.
+ * Column buffers are owned by each worker and reused. The forward pass is the same as
+ * {@link DSpatialConvolve2D_F64}.</p>
+ *
+ * @author Peter Abeles
+ */
+public class DSpatialConvolve2DGemm_F64 extends DSpatialConvolve2D_F64 {
+
+	/**
+	 * Number of columns processed at once by the matrix multiplications
+	 */
+	public static int BLOCK_COLUMNS = 256;
+
+	public DSpatialConvolve2DGemm_F64(ConfigConvolve2D config, DSpatialPadding2D_F64 padding) {
+		super(config, padding);
+	}
+
+	@Override
+	protected Worker createWorker() {
+		return new GemmWorker();
+	}
+
+	@Override
+	protected void backwardsSingle( Worker w , Tensor_F64 input , int batchIndex ) {
+		GemmWorker g = (GemmWorker)w;
+		final int K = C*HH*WW;
+		final int P = Ho*Wo;
+
+		int indexDout = dout.idx(batchIndex,0,0,0);
+		for (int p0 = 0; p0 < P; p0 += BLOCK_COLUMNS) {
+			int p1 = Math.min(P, p0 + BLOCK_COLUMNS);
+
+			im2col(input, batchIndex, p0, p1, g.cols);
+			gradientWeights(dout.d, indexDout, g.cols, g.dWeights, g.dBias, F, K, P, p0, p1);
+			gradientColumns(weights.d, weights.startIndex, dout.d, indexDout, g.dcols, F, K, P, p0, p1);
+			col2im(g.dcols, p0, p1, g.dpadding);
+		}
+	}
+
+	/**
+	 * Copies the window used to compute each output pixel in a block into a column. (C*HH*WW, p1-p0)
+	 *
+	 * @param p0 First output pixel in the block, inclusive
+	 * @param p1 Last output pixel in the block, exclusive
+	 */
+	protected void im2col( Tensor_F64 input , int batch , int p0 , int p1 , double cols[] ) {
+		final int paddingY0 = padding.getPaddingRow0();
+		final int paddingX0 = padding.getPaddingCol0();
+		final int periodY = config.periodY, periodX = config.periodX;
+
+		int indexCol = 0;
+		for (int channel = 0; channel < C; channel++) {
+			for (int kerY = 0; kerY < HH; kerY++) {
+				for (int kerX = 0; kerX < WW; kerX++) {
+					// the block can start and end part way through a row of the output
+					int outY = p0/Wo;
+					int outX = p0%Wo;
+					for (int p = p0; p < p1; outY++, outX = 0) {
+						int paddedY = outY*periodY + kerY;
+						int inY = paddedY - paddingY0;
+						boolean insideY = inY >= 0 && inY < H;
+						int indexRow = insideY ? input.idx(batch, channel, inY, 0) : -1;
+
+						int end = Math.min(p1, p + Wo - outX);
+						for (; p < end; p++, outX++) {
+							int paddedX = outX*periodX + kerX;
+							int inX = paddedX - paddingX0;
+							if( insideY && inX >= 0 && inX < W )
+								cols[indexCol++] = input.d[indexRow + inX];
+							else
+								cols[indexCol++] = padding.get(batch, channel, paddedY, paddedX);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the columns for a block of output pixels back into the padded image. Inverse of {@link #im2col}
+	 */
+	protected void col2im( double dcols[] , int p0 , int p1 , Tensor_F64 dpadding ) {
+		final int periodY = config.periodY, periodX = config.periodX;
+		final double d[] = dpadding.d;
+
+		int indexCol = 0;
+		for (int channel = 0; channel < C; channel++) {
+			for (int kerY = 0; kerY < HH; kerY++) {
+				for (int kerX = 0; kerX < WW; kerX++) {
+					int outY = p0/Wo;
+					int outX = p0%Wo;
+					for (int p = p0; p < p1; outY++, outX = 0) {
+						int indexPad = dpadding.idx(channel, outY*periodY + kerY, outX*periodX + kerX);
+						int end = Math.min(p1, p + Wo - outX);
+						for (; p < end; p++, indexPad += periodX) {
+							d[indexPad] += dcols[indexCol++];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * dWeights(F,K) += dout(F,p0:p1)*cols(K,B)<sup>T</sup> and dBias(F) += sum of each row in dout(F,p0:p1),
+	 * where cols only contains the block of B = p1-p0 columns
+	 */
+	static void gradientWeights( double dout[] , int indexDout , double cols[] ,
+								 double dWeights[] , double dBias[] , int F , int K , int P , int p0 , int p1 ) {
+		final int B = p1-p0;
+
+		for (int f = 0; f < F; f++) {
+			int rowDout = indexDout + f*P + p0;
+
+			double sumBias = 0;
+			for (int j = 0; j < B; j++) {
+				sumBias += dout[rowDout + j];
+			}
+			dBias[f] += sumBias;
+
+			int indexW = f*K;
+			for (int k = 0; k < K; k++) {
+				int rowCols = k*B;
+				double sum = 0;
+				for (int j = 0; j < B; j++) {
+					sum += dout[rowDout + j]*cols[rowCols + j];
+				}
+				dWeights[indexW++] += sum;
+			}
+		}
+	}
+
+	/**
+	 * dcols(K,B) = weights(F,K)<sup>T</sup>*dout(F,p0:p1), where B = p1-p0
+	 */
+	static void gradientColumns( double weights[] , int indexWeights , double dout[] , int indexDout ,
+								 double dcols[] , int F , int K , int P , int p0 , int p1 ) {
+		final int B = p1-p0;
+
+		for (int i = 0; i < K*B; i++) {
+			dcols[i] = 0;
+		}
+
+		for (int f = 0; f < F; f++) {
+			int rowDout = indexDout + f*P + p0;
+			int indexW = indexWeights + f*K;
+			for (int k = 0; k < K; k++) {
+				double w = weights[indexW++];
+				if( w == 0 )
+					continue;
+				int rowCols = k*B;
+				for (int j = 0; j < B; j++) {
+					dcols[rowCols + j] += w*dout[rowDout + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the column buffers to a worker's storage
+	 */
+	protected class GemmWorker extends Worker {
+		// unrolled windows in the padded input for a block of output pixels. (C*HH*WW, BLOCK_COLUMNS)
+		double cols[] = new double[0];
+		// gradient of the columns
+		double dcols[] = new double[0];
+
+		@Override
+		void declare( int[] paddingShape ) {
+			super.declare(paddingShape);
+			int length = C*HH*WW*Math.min(Ho*Wo, BLOCK_COLUMNS);
+			if( cols.length != length ) {
+				cols = new double[length];
+				dcols = new double[length];
+			}
+		}
+	}
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.impl.backward.standard;
+
+import deepboof.Tensor;
+import deepboof.backward.DSpatialConvolve2D;
+import deepboof.backward.DSpatialPadding2D_F32;
+import deepboof.forward.ConfigConvolve2D;
+import deepboof.impl.forward.standard.SpatialWindowImage;
+import deepboof.misc.DeepBoofConcurrency;
+import deepboof.misc.TensorOps;
+import deepboof.tensors.Tensor_F32;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static deepboof.misc.TensorOps.WI;
+
+/**
+ * Implementation of {@link DSpatialConvolve2D} for {@link Tensor_F32}.
+ *
+ * <p>Local caches of the spatial tensor are used to reduce cache misses. The cache will contain
+ * a region across all of the tensor's channels that encompasses the region that a single convolution
+ * would interact with.
+ *
+ * <p>In the backwards pass the mini-batch is split between workers which run in parallel, see
+ * {@link DeepBoofConcurrency}. Each worker has its own padded input gradient, which is updated directly,
+ * and its own parameter gradients. Parameter gradients are summed across workers with a tree reduction.
+ * The order of the summation depends on the number of workers so results can differ by round off. Since
+ * each worker needs its own gradient storage the per-pixel backwards template in {@link DSpatialWindowImage}
+ * isn't used.</p>
+ *
+ * @author Peter Abeles
+ */
+public class DSpatialConvolve2D_F32
+		extends SpatialWindowImage<Tensor_F32,DSpatialPadding2D_F32>
+		implements DSpatialConvolve2D<Tensor_F32>
+{
+	// Toggle indicating if it's in learning mode or not
+	protected boolean learningMode = false;
+
+	// see variable definitions in SpacialTensor2D javadoc
+	protected int F; // number of kernels
+
+	// Tensors extracted from parameters and output
+	protected Tensor_F32 weights;
+	protected Tensor_F32 bias;
+
+	// gradient of parameters
+	protected Tensor_F32 dWeights;
+	protected Tensor_F32 dBias;
+
+	// Reference to gradient from forward layer
+	protected Tensor_F32 dout;
+
+	// cache used to store the local region in the input tensor which is being examined
+	// reduces cache misses and can be used to store the image border
+	protected float cachedPadded[] = new float[0];
+
+	// work space for computing the gradient of each image in the mini-batch. One for each thread
+	protected List<Worker> workers = new ArrayList<>();
+
+
+	public DSpatialConvolve2D_F32(ConfigConvolve2D config, DSpatialPadding2D_F32 padding) {
+		super(config, padding);
+
+		this.F = config.F;
+	}
+
+	@Override
+	public void _setParameters(List<Tensor_F32> parameters) {
+		// input = (N,C,H,W), weights = (F, C, HH, WW), bias = (F,), output = (N, F, Hp, Wp)
+		weights = parameters.get(0);
+		bias = parameters.get(1);
+
+		cachedPadded = new float[HH*WW*C];
+	}
+
+	@Override
+	public void _initialize() {
+		super._initialize();
+
+		shapeOutput = WI(F,Ho,Wo);
+
+		// weights
+		shapeParameters.add( WI(F,C,HH,WW) );
+		// bias
+		shapeParameters.add( WI(F) );
+	}
+
+	@Override
+	public void _forward(Tensor_F32 input, Tensor_F32 output) {
+		super.forwardImage(input, output);
+	}
+
+	@Override
+	protected void forwardAt_inner(Tensor_F32 input, int batch, int inY, int inX, int outY, int outX) {
+		tensorToCache(input, batch, inY, inX,cachedPadded);
+
+		// perform convolution
+		forwardCache(batch, outY, outX);
+	}
+
+	@Override
+	protected void forwardAt_border(DSpatialPadding2D_F32 padded, int batch, int padY, int padX, int outY, int outX) {
+		// copy the local region into a cache
+		borderToCache(padded, batch, padY, padX, cachedPadded);
+
+		// perform convolution
+		forwardCache(batch, outY, outX);
+	}
+
+	/**
+	 * Convolves using the local spatial cache
+	 */
+	private void forwardCache(int batch, int outY, int outX) {
+		final int length = C*HH*WW;
+		final float d[] = weights.d; // appears to result in a very very small speed boost
+
+		int indexW = weights.startIndex;
+
+		for (int kernelIndex = 0; kernelIndex < F; kernelIndex++) {
+			float sum = 0;
+			int cacheIndex = 0;
+
+			while( cacheIndex < length ) {
+				sum += cachedPadded[cacheIndex++] * d[indexW++];
+			}
+
+			sum += bias.d[bias.idx(kernelIndex)];
+
+			output.d[output.idx(batch, kernelIndex, outY, outX)] = sum;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void backwards(Tensor_F32 input, Tensor_F32 dout, Tensor_F32 gradientInput, List<Tensor_F32> gradientParameters) {
+
+		if( shapeInput == null )
+			throw new IllegalArgumentException("Must initialize first!");
+
+		TensorOps.checkShape("input",-1,shapeInput,input.getShape(),true);
+
+		TensorOps.checkShape("dout", -1, shapeOutput, dout.getShape(),true);
+		TensorOps.checkShape("gradientInput",-1, shapeInput,gradientInput.getShape(),true);
+		TensorOps.checkShape("gradientParameters", shapeParameters,(List<Tensor<?>>)(List<?>)gradientParameters,false);
+
+		_backwards(input,dout,gradientInput,gradientParameters);
+	}
+
+	protected void _backwards(Tensor_F32 input, Tensor_F32 dout,
+							  Tensor_F32 gradientInput, List<Tensor_F32> gradientParameters) {
+
+		dWeights = gradientParameters.get(0);
+		dBias = gradientParameters.get(1);
+
+		this.dout = dout;
+
+		padding.setInput(input);
+		int[] paddingShape = padding.getShape();
+		N = input.length(0);
+
+		// split the mini-batch between workers. Each has its own gradient accumulators
+		int numWorkers = DeepBoofConcurrency.USE_CONCURRENT ?
+				Math.max(1,Math.min(N, DeepBoofConcurrency.getPool().getParallelism())) : 1;
+		while( workers.size() < numWorkers ) {
+			workers.add(createWorker());
+		}
+		for (int i = 0; i < numWorkers; i++) {
+			workers.get(i).declare(paddingShape);
+		}
+
+		DeepBoofConcurrency.loopFor(0, numWorkers, index -> {
+			Worker w = workers.get(index);
+			int batch0 = index*N/numWorkers;
+			int batch1 = (index+1)*N/numWorkers;
+			for (int batchIndex = batch0; batchIndex < batch1; batchIndex++) {
+				w.dpadding.zero();
+				backwardsSingle(w, input, batchIndex);
+				padding.backwardsImage(w.dpadding, batchIndex, gradientInput);
+			}
+		});
+
+		// tree reduction of the parameter gradients into the first worker
+		for (int step = 1; step < numWorkers; step *= 2) {
+			final int _step = step;
+			DeepBoofConcurrency.loopFor(0, (numWorkers + 2*step - 1)/(2*step), pair -> {
+				int dst = pair*2*_step;
+				if( dst + _step < numWorkers )
+					workers.get(dst).add(workers.get(dst + _step));
+			});
+		}
+
+		Worker w = workers.get(0);
+		System.arraycopy(w.dWeights, 0, dWeights.d, dWeights.startIndex, w.dWeights.length);
+		System.arraycopy(w.dBias, 0, dBias.d, dBias.startIndex, w.dBias.length);
+	}
+
+	/**
+	 * Computes the gradient for a single image in the mini-batch. The gradient of the padded input is written
+	 * into the worker's padded gradient, which has been zeroed, and parameter gradients are added to the
+	 * worker's accumulators.
+	 */
+	protected void backwardsSingle( Worker w , Tensor_F32 input , int batchIndex ) {
+		// lower and upper extends for where the input image is inside of the padded image
+		int paddingX0 = padding.getPaddingCol0();
+		int paddingY0 = padding.getPaddingRow0();
+		int outC0 = innerLowerExtent(config.periodX,paddingX0);
+		int outC1 = innerUpperExtent(config.WW,config.periodX,paddingX0,W);
+		int outR0 = innerLowerExtent(config.periodY,paddingY0);
+		int outR1 = innerUpperExtent(config.HH,config.periodY,paddingY0,H);
+
+		if( isEntirelyBorder(outR0, outC0) ) {
+			backwardsBorder(w, batchIndex, 0, 0, Ho, Wo);
+			return;
+		}
+
+		// do the inner region first, which can be processed efficiently
+		for (int outRow = outR0; outRow < outR1; outRow++) {
+			int inputRow = outRow * config.periodY - paddingY0;
+
+			for (int outCol = outC0; outCol < outC1; outCol++) {
+				int inputCol = outCol * config.periodX - paddingX0;
+
+				tensorToCache(input, batchIndex, inputRow, inputCol, w.cachedPadded);
+				backwardsCache(w, batchIndex, outRow, outCol);
+			}
+		}
+
+		// Process the borders, top, bottom, left, right
+		backwardsBorder(w, batchIndex, 0, 0, outR0, Wo);
+		backwardsBorder(w, batchIndex, outR1, 0, Ho, Wo);
+		backwardsBorder(w, batchIndex, outR0, 0, outR1, outC0);
+		backwardsBorder(w, batchIndex, outR0, outC1, outR1, Wo);
+	}
+
+	/**
+	 * Creates the storage for a single worker
+	 */
+	protected Worker createWorker() {
+		return new Worker();
+	}
+
+	private void backwardsBorder( Worker w , int batchIndex , int row0, int col0, int row1, int col1 ) {
+		for (int outRow = row0; outRow < row1; outRow++) {
+			int paddedRow = outRow*config.periodY;
+			for (int outCol = col0; outCol < col1; outCol++) {
+				int paddedCol = outCol*config.periodX;
+
+				borderToCache(padding, batchIndex, paddedRow, paddedCol, w.cachedPadded);
+				backwardsCache(w, batchIndex, outRow, outCol);
+			}
+		}
+	}
+
+	/**
+	 * Perform backwards for a single convolution of each kernel using the locally cached padded
+	 * tensor. The gradient of the padded input is accumulated directly in the worker's padded gradient.
+	 */
+	private void backwardsCache( Worker w , int batch, int outY, int outX) {
+		final int length = C*HH*WW;
+		final float d[] = weights.d; // appears to result in a very very small speed boost
+		final float cache[] = w.cachedPadded;
+		final float dpad[] = w.dpadding.d;
+		final float dw[] = w.dWeights;
+
+		// location of the window in the padded image
+		final int stride = w.dpadding.length(-1);
+		final int indexPad = w.dpadding.idx(0, outY*config.periodY, outX*config.periodX);
+		final int strideChannel = w.dpadding.stride(0);
+
+		int indexW = weights.startIndex;
+		int dweightsIndex = 0;
+
+		for (int kernelIndex = 0; kernelIndex < F; kernelIndex++) {
+			float val_dout = dout.d[dout.idx(batch,kernelIndex,outY,outX)];
+			if( val_dout == 0 ) {
+				indexW += length;
+				dweightsIndex += length;
+				continue;
+			}
+
+			int cacheIndex = 0;
+			for (int channel = 0; channel < C; channel++) {
+				int indexRow = indexPad + channel*strideChannel;
+				for (int kerY = 0; kerY < HH; kerY++) {
+					int indexP = indexRow;
+					for (int kerX = 0; kerX < WW; kerX++) {
+						dpad[indexP++] += d[indexW++]*val_dout;
+						dw[dweightsIndex++] += cache[cacheIndex++]*val_dout;
+					}
+					indexRow += stride;
+				}
+			}
+
+			w.dBias[kernelIndex] += val_dout;
+		}
+	}
+
+	private void tensorToCache(Tensor_F32 input, int batch, int inY, int inX,
+							   float cache[] ) {
+		int cacheIndex = 0;
+		int stride = input.length(-1);
+		for (int channel = 0; channel < C; channel++) {
+			int indexImageStart = batch >= 0 ? input.idx(batch, channel, inY, inX)
+					: input.idx(channel, inY, inX);
+
+			for (int kerY = 0; kerY < HH; kerY++) {
+				int indexI = indexImageStart;
+
+				for (int kerX = 0; kerX < WW; kerX++) {
+					cache[cacheIndex++] = input.d[indexI++];
+				}
+				indexImageStart += stride;
+			}
+		}
+	}
+
+	private void borderToCache(DSpatialPadding2D_F32 padded, int batch, int padY, int padX, float cache[]) {
+		int cacheIndex = 0;
+		for (int channel = 0; channel < C; channel++) {
+			for (int kerY = 0; kerY < HH; kerY++) {
+				for (int kerX = 0; kerX < WW; kerX++) {
+					cache[cacheIndex++] = padded.get(batch,channel, padY + kerY, padX + kerX);
+				}
+			}
+		}
+	}
+
+	@Override
+	public ConfigConvolve2D getConfiguration() {
+		return (ConfigConvolve2D)config;
+	}
+
+	@Override
+	public void learning() {
+		learningMode = true;
+	}
+
+	@Override
+	public void evaluating() {
+		learningMode = false;
+	}
+
+	@Override
+	public boolean isLearning() {
+		return learningMode;
+	}
+
+	@Override
+	public Class<Tensor_F32> getTensorType() {
+		return Tensor_F32.class;
+	}
+
+	/**
+	 * Storage for computing the gradient in a single thread
+	 */
+	protected class Worker {
+		// local region in the input tensor which is being examined
+		float cachedPadded[] = new float[0];
+		// gradient of the padded image. (C,Hp,Wp)
+		Tensor_F32 dpadding = new Tensor_F32(0);
+		// gradient of parameters, summed across the images processed by this worker
+		float dWeights[] = new float[0];
+		float dBias[] = new float[0];
+
+		void declare( int[] paddingShape ) {
+			if( cachedPadded.length != C*HH*WW )
+				cachedPadded = new float[C*HH*WW];
+			dpadding.reshape(paddingShape[1],paddingShape[2],paddingShape[3]);
+			if( dWeights.length != F*C*HH*WW )
+				dWeights = new float[F*C*HH*WW];
+			else
+				Arrays.fill(dWeights, 0);
+			if( dBias.length != F )
+				dBias = new float[F];
+			else
+				Arrays.fill(dBias, 0);
+		}
+
+		void add( Worker src ) {
+			for (int i = 0; i < dWeights.length; i++) {
+				dWeights[i] += src.dWeights[i];
+			}
+			for (int i = 0; i < dBias.length; i++) {
+				dBias[i] += src.dBias[i];
+			}
+		}
+	}
+}
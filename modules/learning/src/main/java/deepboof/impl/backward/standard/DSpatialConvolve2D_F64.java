@@ -18,11 +18,17 @@
 
 package deepboof.impl.backward.standard;
 
+import deepboof.Tensor;
 import deepboof.backward.DSpatialConvolve2D;
 import deepboof.backward.DSpatialPadding2D_F64;
 import deepboof.forward.ConfigConvolve2D;
+import deepboof.impl.forward.standard.SpatialWindowImage;
+import deepboof.misc.DeepBoofConcurrency;
+import deepboof.misc.TensorOps;
 import deepboof.tensors.Tensor_F64;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static deepboof.misc.TensorOps.WI;
@@ -32,15 +38,24 @@ import static deepboof.misc.TensorOps.WI;
  *
  * <p>Local caches of the spatial tensor are used to reduce cache misses. The cache will contain
  * a region across all of the tensor's channels that encompasses the region that a single convolution
- * would interact with. In the backwards pass the local cache is written back into the derivative
- * padded input tensor.
+ * would interact with.
+ *
+ * <p>In the backwards pass the mini-batch is split between workers which run in parallel, see
+ * {@link DeepBoofConcurrency}. Each worker has its own padded input gradient, which is updated directly,
+ * and its own parameter gradients. Parameter gradients are summed across workers with a tree reduction.
+ * The order of the summation depends on the number of workers so results can differ by round off. Since
+ * each worker needs its own gradient storage the per-pixel backwards template in {@link DSpatialWindowImage}
+ * isn't used.</p>
  *
  * @author Peter Abeles
  */
 public class DSpatialConvolve2D_F64
-		extends DSpatialWindowImage<Tensor_F64,DSpatialPadding2D_F64>
+		extends SpatialWindowImage<Tensor_F64,DSpatialPadding2D_F64>
 		implements DSpatialConvolve2D<Tensor_F64>
 {
+	// Toggle indicating if it's in learning mode or not
+	protected boolean learningMode = false;
+
 	// see variable definitions in SpacialTensor2D javadoc
 	protected int F; // number of kernels
 
@@ -58,7 +73,9 @@ public class DSpatialConvolve2D_F64
 	// cache used to store the local region in the input tensor which is being examined
 	// reduces cache misses and can be used to store the image border
 	protected double cachedPadded[] = new double[0];
-	protected double cachedDPadding[] = new double[0];
+
+	// work space for computing the gradient of each image in the mini-batch. One for each thread
+	protected List<Worker> workers = new ArrayList<>();
 
 
 	public DSpatialConvolve2D_F64(ConfigConvolve2D config, DSpatialPadding2D_F64 padding) {
@@ -74,7 +91,6 @@ public class DSpatialConvolve2D_F64
 		bias = parameters.get(1);
 
 		cachedPadded = new double[HH*WW*C];
-		cachedDPadding = new double[HH*WW*C];
 	}
 
 	@Override
@@ -105,7 +121,7 @@ public class DSpatialConvolve2D_F64
 	@Override
 	protected void forwardAt_border(DSpatialPadding2D_F64 padded, int batch, int padY, int padX, int outY, int outX) {
 		// copy the local region into a cache
-		borderToCache(padded, batch, padY, padX);
+		borderToCache(padded, batch, padY, padX, cachedPadded);
 
 		// perform convolution
 		forwardCache(batch, outY, outX);
@@ -135,72 +151,167 @@ public class DSpatialConvolve2D_F64
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
+	public void backwards(Tensor_F64 input, Tensor_F64 dout, Tensor_F64 gradientInput, List<Tensor_F64> gradientParameters) {
+
+		if( shapeInput == null )
+			throw new IllegalArgumentException("Must initialize first!");
+
+		TensorOps.checkShape("input",-1,shapeInput,input.getShape(),true);
+
+		TensorOps.checkShape("dout", -1, shapeOutput, dout.getShape(),true);
+		TensorOps.checkShape("gradientInput",-1, shapeInput,gradientInput.getShape(),true);
+		TensorOps.checkShape("gradientParameters", shapeParameters,(List<Tensor<?>>)(List<?>)gradientParameters,false);
+
+		_backwards(input,dout,gradientInput,gradientParameters);
+	}
+
 	protected void _backwards(Tensor_F64 input, Tensor_F64 dout,
 							  Tensor_F64 gradientInput, List<Tensor_F64> gradientParameters) {
 
 		dWeights = gradientParameters.get(0);
 		dBias = gradientParameters.get(1);
 
-		dWeights.zero();
-		dBias.zero();
-
 		this.dout = dout;
 
-		backwardsImage(input, gradientInput);
+		padding.setInput(input);
+		int[] paddingShape = padding.getShape();
+		N = input.length(0);
+
+		// split the mini-batch between workers. Each has its own gradient accumulators
+		int numWorkers = DeepBoofConcurrency.USE_CONCURRENT ?
+				Math.max(1,Math.min(N, DeepBoofConcurrency.getPool().getParallelism())) : 1;
+		while( workers.size() < numWorkers ) {
+			workers.add(createWorker());
+		}
+		for (int i = 0; i < numWorkers; i++) {
+			workers.get(i).declare(paddingShape);
+		}
+
+		DeepBoofConcurrency.loopFor(0, numWorkers, index -> {
+			Worker w = workers.get(index);
+			int batch0 = index*N/numWorkers;
+			int batch1 = (index+1)*N/numWorkers;
+			for (int batchIndex = batch0; batchIndex < batch1; batchIndex++) {
+				w.dpadding.zero();
+				backwardsSingle(w, input, batchIndex);
+				padding.backwardsImage(w.dpadding, batchIndex, gradientInput);
+			}
+		});
+
+		// tree reduction of the parameter gradients into the first worker
+		for (int step = 1; step < numWorkers; step *= 2) {
+			final int _step = step;
+			DeepBoofConcurrency.loopFor(0, (numWorkers + 2*step - 1)/(2*step), pair -> {
+				int dst = pair*2*_step;
+				if( dst + _step < numWorkers )
+					workers.get(dst).add(workers.get(dst + _step));
+			});
+		}
+
+		Worker w = workers.get(0);
+		System.arraycopy(w.dWeights, 0, dWeights.d, dWeights.startIndex, w.dWeights.length);
+		System.arraycopy(w.dBias, 0, dBias.d, dBias.startIndex, w.dBias.length);
 	}
 
-	@Override
-	protected void backwardsAt_inner(Tensor_F64 input, int batch, int inY, int inX, int outY, int outX) {
-		tensorToCache(input, batch, inY, inX, cachedPadded);
+	/**
+	 * Computes the gradient for a single image in the mini-batch. The gradient of the padded input is written
+	 * into the worker's padded gradient, which has been zeroed, and parameter gradients are added to the
+	 * worker's accumulators.
+	 */
+	protected void backwardsSingle( Worker w , Tensor_F64 input , int batchIndex ) {
+		// lower and upper extends for where the input image is inside of the padded image
+		int paddingX0 = padding.getPaddingCol0();
+		int paddingY0 = padding.getPaddingRow0();
+		int outC0 = innerLowerExtent(config.periodX,paddingX0);
+		int outC1 = innerUpperExtent(config.WW,config.periodX,paddingX0,W);
+		int outR0 = innerLowerExtent(config.periodY,paddingY0);
+		int outR1 = innerUpperExtent(config.HH,config.periodY,paddingY0,H);
+
+		if( isEntirelyBorder(outR0, outC0) ) {
+			backwardsBorder(w, batchIndex, 0, 0, Ho, Wo);
+			return;
+		}
 
-		// compute pixel location in padded image
-		int padY = outY*config.periodY;
-		int padX = outX*config.periodX;
+		// do the inner region first, which can be processed efficiently
+		for (int outRow = outR0; outRow < outR1; outRow++) {
+			int inputRow = outRow * config.periodY - paddingY0;
 
-		// dpadding is a 3-dof fredom and doesn't have mini-batch
-		tensorToCache(dpadding,-1,padY, padX, cachedDPadding);
+			for (int outCol = outC0; outCol < outC1; outCol++) {
+				int inputCol = outCol * config.periodX - paddingX0;
 
-		// perform calculation on cached tensors
-		backwardsCache(batch,outY,outX);
+				tensorToCache(input, batchIndex, inputRow, inputCol, w.cachedPadded);
+				backwardsCache(w, batchIndex, outRow, outCol);
+			}
+		}
 
-		// save changes to dpadding
-		cacheToTensor(cachedDPadding,dpadding,padY, padX);
+		// Process the borders, top, bottom, left, right
+		backwardsBorder(w, batchIndex, 0, 0, outR0, Wo);
+		backwardsBorder(w, batchIndex, outR1, 0, Ho, Wo);
+		backwardsBorder(w, batchIndex, outR0, 0, outR1, outC0);
+		backwardsBorder(w, batchIndex, outR0, outC1, outR1, Wo);
 	}
 
-	@Override
-	protected void backwardsAt_border(DSpatialPadding2D_F64 padded, int batch, int padY, int padX, int outY, int outX) {
-		borderToCache(padded, batch, padY, padX);
-		tensorToCache(dpadding,-1, padY, padX, cachedDPadding);
-		backwardsCache(batch,outY,outX);
-		cacheToTensor(cachedDPadding,dpadding,padY, padX);
+	/**
+	 * Creates the storage for a single worker
+	 */
+	protected Worker createWorker() {
+		return new Worker();
+	}
+
+	private void backwardsBorder( Worker w , int batchIndex , int row0, int col0, int row1, int col1 ) {
+		for (int outRow = row0; outRow < row1; outRow++) {
+			int paddedRow = outRow*config.periodY;
+			for (int outCol = col0; outCol < col1; outCol++) {
+				int paddedCol = outCol*config.periodX;
+
+				borderToCache(padding, batchIndex, paddedRow, paddedCol, w.cachedPadded);
+				backwardsCache(w, batchIndex, outRow, outCol);
+			}
+		}
 	}
 
 	/**
 	 * Perform backwards for a single convolution of each kernel using the locally cached padded
-	 * tensor and it's cached derivative
+	 * tensor. The gradient of the padded input is accumulated directly in the worker's padded gradient.
 	 */
-	private void backwardsCache(int batch, int outY, int outX) {
+	private void backwardsCache( Worker w , int batch, int outY, int outX) {
 		final int length = C*HH*WW;
 		final double d[] = weights.d; // appears to result in a very very small speed boost
+		final double cache[] = w.cachedPadded;
+		final double dpad[] = w.dpadding.d;
+		final double dw[] = w.dWeights;
+
+		// location of the window in the padded image
+		final int stride = w.dpadding.length(-1);
+		final int indexPad = w.dpadding.idx(0, outY*config.periodY, outX*config.periodX);
+		final int strideChannel = w.dpadding.stride(0);
 
 		int indexW = weights.startIndex;
-		int indexD = bias.startIndex;
-		int dweightsIndex = dWeights.startIndex;
+		int dweightsIndex = 0;
 
 		for (int kernelIndex = 0; kernelIndex < F; kernelIndex++) {
-			int cacheIndex = 0;
 			double val_dout = dout.d[dout.idx(batch,kernelIndex,outY,outX)];
+			if( val_dout == 0 ) {
+				indexW += length;
+				dweightsIndex += length;
+				continue;
+			}
 
-			while( cacheIndex < length ) {
-				double x = cachedPadded[cacheIndex];
-				double w = d[indexW++];
-				cachedDPadding[cacheIndex] += w*val_dout;
-				dWeights.d[dweightsIndex++] += x*val_dout;
-
-				cacheIndex++;
+			int cacheIndex = 0;
+			for (int channel = 0; channel < C; channel++) {
+				int indexRow = indexPad + channel*strideChannel;
+				for (int kerY = 0; kerY < HH; kerY++) {
+					int indexP = indexRow;
+					for (int kerX = 0; kerX < WW; kerX++) {
+						dpad[indexP++] += d[indexW++]*val_dout;
+						dw[dweightsIndex++] += cache[cacheIndex++]*val_dout;
+					}
+					indexRow += stride;
+				}
 			}
 
-			dBias.d[indexD++] += val_dout;
+			w.dBias[kernelIndex] += val_dout;
 		}
 	}
 
@@ -223,30 +334,12 @@ public class DSpatialConvolve2D_F64
 		}
 	}
 
-	private void cacheToTensor(double cache[],
-							   Tensor_F64 input, int inY, int inX ) {
-		int cacheIndex = 0;
-		int stride = input.length(-1);
-		for (int channel = 0; channel < C; channel++) {
-			int indexImageStart = input.idx(channel, inY, inX);
-
-			for (int kerY = 0; kerY < HH; kerY++) {
-				int indexI = indexImageStart;
-
-				for (int kerX = 0; kerX < WW; kerX++) {
-					input.d[indexI++] = cache[cacheIndex++];
-				}
-				indexImageStart += stride;
-			}
-		}
-	}
-
-	private void borderToCache(DSpatialPadding2D_F64 padded, int batch, int padY, int padX) {
+	private void borderToCache(DSpatialPadding2D_F64 padded, int batch, int padY, int padX, double cache[]) {
 		int cacheIndex = 0;
 		for (int channel = 0; channel < C; channel++) {
 			for (int kerY = 0; kerY < HH; kerY++) {
 				for (int kerX = 0; kerX < WW; kerX++) {
-					cachedPadded[cacheIndex++] = padded.get(batch,channel, padY + kerY, padX + kerX);
+					cache[cacheIndex++] = padded.get(batch,channel, padY + kerY, padX + kerX);
 				}
 			}
 		}
@@ -256,4 +349,60 @@ public class DSpatialConvolve2D_F64
 	public ConfigConvolve2D getConfiguration() {
 		return (ConfigConvolve2D)config;
 	}
+
+	@Override
+	public void learning() {
+		learningMode = true;
+	}
+
+	@Override
+	public void evaluating() {
+		learningMode = false;
+	}
+
+	@Override
+	public boolean isLearning() {
+		return learningMode;
+	}
+
+	@Override
+	public Class<Tensor_F64> getTensorType() {
+		return Tensor_F64.class;
+	}
+
+	/**
+	 * Storage for computing the gradient in a single thread
+	 */
+	protected class Worker {
+		// local region in the input tensor which is being examined
+		double cachedPadded[] = new double[0];
+		// gradient of the padded image. (C,Hp,Wp)
+		Tensor_F64 dpadding = new Tensor_F64(0);
+		// gradient of parameters, summed across the images processed by this worker
+		double dWeights[] = new double[0];
+		double dBias[] = new double[0];
+
+		void declare( int[] paddingShape ) {
+			if( cachedPadded.length != C*HH*WW )
+				cachedPadded = new double[C*HH*WW];
+			dpadding.reshape(paddingShape[1],paddingShape[2],paddingShape[3]);
+			if( dWeights.length != F*C*HH*WW )
+				dWeights = new double[F*C*HH*WW];
+			else
+				Arrays.fill(dWeights, 0);
+			if( dBias.length != F )
+				dBias = new double[F];
+			else
+				Arrays.fill(dBias, 0);
+		}
+
+		void add( Worker src ) {
+			for (int i = 0; i < dWeights.length; i++) {
+				dWeights[i] += src.dWeights[i];
+			}
+			for (int i = 0; i < dBias.length; i++) {
+				dBias[i] += src.dBias[i];
+			}
+		}
+	}
 }
@@ -117,14 +117,25 @@ public class DSpatialMaxPooling_F64 extends DSpatialWindowChannel<Tensor_F64,DSp
 	@Override
 	protected void forwardAt_border(DSpatialPadding2D_F64 padded, int batch, int channel, int padY, int padX, int outY, int outX) {
 
+		// with clipped padding only the part of the window inside the image is considered
+		int row0 = padY;
+		int row1 = padY + HH;
+		row0 += padded.getClippingOffsetRow(row0);
+		row1 += padded.getClippingOffsetRow(row1);
+
+		int col0 = padX;
+		int col1 = padX + WW;
+		col0 += padded.getClippingOffsetCol(col0);
+		col1 += padded.getClippingOffsetCol(col1);
+
 		double max = -Double.MAX_VALUE;
 
 		int maxX = -1, maxY = -1;
 
-		for (int i = 0; i < HH; i++) {
+		for (int i = row0; i < row1; i++) {
 
-			for (int j = 0; j < WW; j++ ) {
-				double value = padded.get(batch,channel, padY +i, padX +j);
+			for (int j = col0; j < col1; j++ ) {
+				double value = padded.get(batch,channel, i, j);
 				if( value > max ) {
 					max = value;
 					maxX = j;
@@ -134,7 +145,7 @@ public class DSpatialMaxPooling_F64 extends DSpatialWindowChannel<Tensor_F64,DSp
 		}
 
 		// Compute index of maximum in padded image coordinates
-		int index = (padY+maxY)*Wp + (padX+maxX);
+		int index = maxY*Wp + maxX;
 
 		// save the results
 		output.d[ output.idx(batch,channel,outY,outX) ] = max;
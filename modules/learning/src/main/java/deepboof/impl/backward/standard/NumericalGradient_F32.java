@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.impl.backward.standard;
+
+import deepboof.DeepBoofConstants;
+import deepboof.Function;
+import deepboof.backward.NumericalGradient;
+import deepboof.tensors.Tensor_F32;
+
+import java.util.List;
+
+import static deepboof.misc.TensorOps.WI;
+
+/**
+ * Implementation of {@link NumericalGradient} for {@link Tensor_F32}
+ *
+ * @author Peter Abeles
+ */
+public class NumericalGradient_F32 implements NumericalGradient<Tensor_F32>
+{
+	Function<Tensor_F32> function;
+	// sampling distance. Round off errors in the function's output are divided by this, so it's set well above
+	// the floating point precision. 1e-6 for F64 and 1e-2 for F32
+	float T = DeepBoofConstants.TEST_TOL_F32*100;
+
+	// output for the forward and backwards steps
+	Tensor_F32 output = new Tensor_F32();
+	Tensor_F32 outputMinus = new Tensor_F32();
+
+	// passed in parameters
+	Tensor_F32 input;
+	List<Tensor_F32> parameters;
+
+	@Override
+	public void configure( /**/double T ) {
+
+		if( T <= 0 )
+			throw new IllegalArgumentException("T must be > 0");
+
+		this.T = (float)T;
+	}
+
+	@Override
+	public void setFunction(Function<Tensor_F32> function) {
+		this.function = function;
+	}
+
+	@Override
+	public void differentiate(Tensor_F32 input, List<Tensor_F32> parameters, Tensor_F32 dout,
+							  Tensor_F32 gradientInput, List<Tensor_F32> gradientParameters)
+	{
+		int N = input.length(0);
+
+		output.reshape( WI(N,function.getOutputShape()) );
+		outputMinus.reshape( output.shape );
+
+		this.input = input;
+		this.parameters = parameters;
+
+		process(input,dout,gradientInput);
+
+		for (int i = 0; i < parameters.size(); i++) {
+			process(parameters.get(i),dout,gradientParameters.get(i));
+		}
+	}
+
+	/**
+	 * Computes the gradient for a specific tensor
+	 */
+	private void process( Tensor_F32 target , Tensor_F32 dout , Tensor_F32 gradientTarget ) {
+
+		int length = target.length();
+		int lengthOutput = output.length();
+
+		for (int i = 0; i < length; i++) {
+			int indexTarget = target.startIndex + i;
+			float v = target.d[indexTarget];
+
+			// value in forward direction. The step actually taken can differ from T due to round off
+			target.d[indexTarget] = v + T;
+			float v_plus = target.d[indexTarget];
+			function.setParameters(parameters);
+			function.forward(input,output);
+
+			// value in backwards direction
+			target.d[indexTarget] = v - T;
+			float v_minus = target.d[indexTarget];
+			function.setParameters(parameters);
+			function.forward(input,outputMinus);
+
+			// undo the changes
+			target.d[indexTarget] = v;
+
+			// Sum the change in each output instead of differencing two sums. Outputs which don't depend on
+			// the target cancel exactly and large sums don't swamp the change
+			/**/double sum = 0;
+			int indexDout = dout.startIndex;
+			for (int j = 0; j < lengthOutput; j++) {
+				sum += (output.d[j]-outputMinus.d[j])*dout.d[indexDout++];
+			}
+
+			// compute derivative and save the results
+			int indexGradient = gradientTarget.startIndex+i;
+			gradientTarget.d[indexGradient] = (float)(sum/(v_plus-v_minus));
+		}
+
+	}
+}
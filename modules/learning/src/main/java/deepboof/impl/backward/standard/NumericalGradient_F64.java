@@ -21,7 +21,6 @@ package deepboof.impl.backward.standard;
 import deepboof.DeepBoofConstants;
 import deepboof.Function;
 import deepboof.backward.NumericalGradient;
-import deepboof.misc.TensorOps_F64;
 import deepboof.tensors.Tensor_F64;
 
 import java.util.List;
@@ -36,17 +35,20 @@ import static deepboof.misc.TensorOps.WI;
 public class NumericalGradient_F64 implements NumericalGradient<Tensor_F64>
 {
 	Function<Tensor_F64> function;
-	// sampling distance
-	double T = DeepBoofConstants.TEST_TOL_A_F64;
+	// sampling distance. Round off errors in the function's output are divided by this, so it's set well above
+	// the floating point precision. 1e-6 for F64 and 1e-2 for F32
+	double T = DeepBoofConstants.TEST_TOL_F64*100;
 
+	// output for the forward and backwards steps
 	Tensor_F64 output = new Tensor_F64();
+	Tensor_F64 outputMinus = new Tensor_F64();
 
 	// passed in parameters
 	Tensor_F64 input;
 	List<Tensor_F64> parameters;
 
 	@Override
-	public void configure(double T) {
+	public void configure( /**/double T ) {
 
 		if( T <= 0 )
 			throw new IllegalArgumentException("T must be > 0");
@@ -66,6 +68,7 @@ public class NumericalGradient_F64 implements NumericalGradient<Tensor_F64>
 		int N = input.length(0);
 
 		output.reshape( WI(N,function.getOutputShape()) );
+		outputMinus.reshape( output.shape );
 
 		this.input = input;
 		this.parameters = parameters;
@@ -83,31 +86,38 @@ public class NumericalGradient_F64 implements NumericalGradient<Tensor_F64>
 	private void process( Tensor_F64 target , Tensor_F64 dout , Tensor_F64 gradientTarget ) {
 
 		int length = target.length();
+		int lengthOutput = output.length();
 
 		for (int i = 0; i < length; i++) {
 			int indexTarget = target.startIndex + i;
 			double v = target.d[indexTarget];
 
-			// value in forward direction
+			// value in forward direction. The step actually taken can differ from T due to round off
 			target.d[indexTarget] = v + T;
+			double v_plus = target.d[indexTarget];
 			function.setParameters(parameters);
 			function.forward(input,output);
-			TensorOps_F64.elementMult(output,dout,output);
-			double plus_T = TensorOps_F64.elementSum(output);
 
 			// value in backwards direction
 			target.d[indexTarget] = v - T;
+			double v_minus = target.d[indexTarget];
 			function.setParameters(parameters);
-			function.forward(input,output);
-			TensorOps_F64.elementMult(output,dout,output);
-			double minus_T = TensorOps_F64.elementSum(output);
+			function.forward(input,outputMinus);
 
 			// undo the changes
 			target.d[indexTarget] = v;
 
+			// Sum the change in each output instead of differencing two sums. Outputs which don't depend on
+			// the target cancel exactly and large sums don't swamp the change
+			/**/double sum = 0;
+			int indexDout = dout.startIndex;
+			for (int j = 0; j < lengthOutput; j++) {
+				sum += (output.d[j]-outputMinus.d[j])*dout.d[indexDout++];
+			}
+
 			// compute derivative and save the results
 			int indexGradient = gradientTarget.startIndex+i;
-			gradientTarget.d[indexGradient] = (plus_T-minus_T)/(2.0*T);
+			gradientTarget.d[indexGradient] = (double)(sum/(v_plus-v_minus));
 		}
 
 	}
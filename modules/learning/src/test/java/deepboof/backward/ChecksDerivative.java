@@ -42,6 +42,10 @@ public abstract class ChecksDerivative<T extends Tensor<T>>
 
 	protected Accuracy tolerance = Accuracy.RELAXED_A;
 
+	// sampling distance used by the numerical gradient. Functions which aren't smooth need a smaller value.
+	// If <= 0 then the default is used.
+	protected double numericalStep = 0;
+
 	public boolean verbose = false;
 
 	public abstract DFunction<T> createBackwards(int type );
@@ -59,6 +63,8 @@ public abstract class ChecksDerivative<T extends Tensor<T>>
 	public void checkBackwardsRandomInput() {
 
 		NumericalGradient<T> numeric = factoryD.createNumericalGradient();
+		if( numericalStep > 0 )
+			numeric.configure(numericalStep);
 
 		for (int algConfig = 0; algConfig < numberOfConfigurations ; algConfig++) {
 			if( verbose )
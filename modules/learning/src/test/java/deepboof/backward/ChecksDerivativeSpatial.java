@@ -21,7 +21,6 @@ package deepboof.backward;
 import deepboof.Tensor;
 import deepboof.forward.ConfigPadding;
 import deepboof.forward.ConfigSpatial;
-import deepboof.impl.backward.standard.DConstantPadding2D_F64;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -50,14 +49,14 @@ public abstract class ChecksDerivativeSpatial<T extends Tensor<T>>
 		configSpatial.HH = YY;
 	}
 
-	protected DSpatialPadding2D_F64 createPadding() {
+	protected ConfigPadding createConfigPadding() {
 		ConfigPadding config = new ConfigPadding();
 		config.y0 = padY0;
 		config.x0 = padX0;
 		config.y1 = padY1;
 		config.x1 = padX1;
 
-		return new DConstantPadding2D_F64(config);
+		return config;
 	}
 
 
@@ -22,6 +22,7 @@ import deepboof.Accuracy;
 import deepboof.DeepUnitTest;
 import deepboof.Tensor;
 import deepboof.forward.ChecksForward;
+import deepboof.tensors.Tensor_F32;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
@@ -80,8 +81,12 @@ public abstract class ChecksForward_DBatchNorm<T extends Tensor<T>> extends Chec
 				DeepUnitTest.assertEquals(origMean, alg.getMean(null), Accuracy.STANDARD);
 				DeepUnitTest.assertEquals(origVar, alg.getVariance(null), Accuracy.STANDARD);
 
-				// output should also have changed
-				DeepUnitTest.assertNotEquals(origOutput, output, Accuracy.STANDARD);
+				// output should also have changed. With F32 precision a few elements will be within the standard
+				// tolerance of the original by chance, so it only checks that every element is different
+				if( output instanceof Tensor_F32 )
+					DeepUnitTest.assertNotEquals((Tensor_F32)origOutput, (Tensor_F32)output, 0);
+				else
+					DeepUnitTest.assertNotEquals(origOutput, output, Accuracy.STANDARD);
 
 				// now give it the original input and see if it produces the original output
 				alg.forward(origInput, output);
@@ -45,17 +45,17 @@ public abstract class ChecksForward_DFunctionBatchNorm_F64 extends ChecksForward
     }
 
     @Override
-    protected Tensor_F64 createParameter( double gamma , double beta , int shape[] ) {
+    protected Tensor_F64 createParameter( /**/double gamma , /**/double beta , int shape[] ) {
         Tensor_F64 params = tensorFactory.create(WI(shape,2));
         for (int i = 0; i < params.d.length; i += 2 ) {
-            params.d[i] = gamma;
-            params.d[i+1] = beta;
+            params.d[i] = (double)gamma;
+            params.d[i+1] = (double)beta;
         }
         return params;
     }
 
     @Override
-    protected void verifyMean( Tensor_F64 tensor , double expected , double tol ) {
+    protected void verifyMean( Tensor_F64 tensor , /**/double expected , /**/double tol ) {
         Tensor_F64 means = tensorFactory.create((TensorOps.outerLength(tensor.shape,1)));
 
         int numBatch = tensor.length(0);
@@ -73,7 +73,7 @@ public abstract class ChecksForward_DFunctionBatchNorm_F64 extends ChecksForward
     }
 
     @Override
-    protected void verifyStd( Tensor_F64 tensor , double mean, double expected , double tol ) {
+    protected void verifyStd( Tensor_F64 tensor , /**/double mean, /**/double expected , /**/double tol ) {
         Tensor_F64 stdev = tensorFactory.create(TensorOps.outerLength(tensor.shape,1));
 
         int numBatch = tensor.length(0);
@@ -82,7 +82,7 @@ public abstract class ChecksForward_DFunctionBatchNorm_F64 extends ChecksForward
         int index = 0;
         for (int i = 0; i < numBatch; i++) {
             for (int j = 0; j < D; j++) {
-                double d = tensor.d[index++]-mean;
+                double d = tensor.d[index++]-(double)mean;
                 stdev.d[j] += d*d;
             }
         }
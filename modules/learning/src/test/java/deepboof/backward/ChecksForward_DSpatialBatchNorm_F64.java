@@ -45,17 +45,17 @@ public abstract class ChecksForward_DSpatialBatchNorm_F64 extends ChecksForward_
     }
 
     @Override
-    protected Tensor_F64 createParameter( double gamma , double beta , int numBands ) {
+    protected Tensor_F64 createParameter( /**/double gamma , /**/double beta , int numBands ) {
         Tensor_F64 params = tensorFactory.create(WI(numBands,2));
         for (int i = 0; i < params.d.length; i += 2 ) {
-            params.d[i] = gamma;
-            params.d[i+1] = beta;
+            params.d[i] = (double)gamma;
+            params.d[i+1] = (double)beta;
         }
         return params;
     }
 
     @Override
-    protected void verifyMean( Tensor_F64 tensor , double expected , double tol ) {
+    protected void verifyMean( Tensor_F64 tensor , /**/double expected , /**/double tol ) {
 
         int numBands = tensor.length(1);
         int numPixels = TensorOps.outerLength(tensor.shape,2);
@@ -79,7 +79,7 @@ public abstract class ChecksForward_DSpatialBatchNorm_F64 extends ChecksForward_
     }
 
     @Override
-    protected void verifyStd( Tensor_F64 tensor , double mean, double expected , double tol ) {
+    protected void verifyStd( Tensor_F64 tensor , /**/double mean, /**/double expected , /**/double tol ) {
 
         int numBands = tensor.length(1);
         int numPixels = TensorOps.outerLength(tensor.shape,2);
@@ -93,7 +93,7 @@ public abstract class ChecksForward_DSpatialBatchNorm_F64 extends ChecksForward_
         for (int i = 0; i < numBatch; i++) {
             for (int band = 0; band < numBands; band++) {
                 for (int pixel = 0; pixel < numPixels; pixel++) {
-                    double d = tensor.d[index++]-mean;
+                    double d = tensor.d[index++]-(double)mean;
                     stdev.d[band] += d*d;
                 }
             }
@@ -19,6 +19,7 @@
 package deepboof.impl.backward.standard;
 
 import deepboof.DFunction;
+import deepboof.DeepBoofConstants;
 import deepboof.backward.ChecksDerivativeElementWise;
 import deepboof.tensors.Tensor_F64;
 
@@ -30,6 +31,11 @@ import java.util.List;
  */
 public class TestBackwards_DActivationReLU_F64 extends ChecksDerivativeElementWise<Tensor_F64> {
 
+	public TestBackwards_DActivationReLU_F64() {
+		// small step so that inputs near zero don't straddle the kink
+		numericalStep = DeepBoofConstants.TEST_TOL_F64;
+	}
+
 	@Override
 	public DFunction<Tensor_F64> createBackwards(int type) {
 		return new DActivationReLU_F64();
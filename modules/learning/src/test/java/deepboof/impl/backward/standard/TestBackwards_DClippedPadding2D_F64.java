@@ -46,11 +46,17 @@ public class TestBackwards_DClippedPadding2D_F64
 	protected void applyPadding(Tensor_F64 input, Tensor_F64 output) {
 		alg.setInput(input);
 
+		int H = input.length(2), W = input.length(3);
+
 		for (int batch = 0; batch < input.length(0); batch++) {
 			for (int channel = 0; channel < input.length(1); channel++) {
 				for (int row = 0; row < output.length(2); row++) {
+					int inputRow = row - alg.getPaddingRow0();
 					for (int col = 0; col < output.length(3); col++) {
-						output.d[output.idx(batch,channel,row,col)] = alg.get(batch,channel,row,col);
+						int inputCol = col - alg.getPaddingCol0();
+						// the border is clipped and never read, so it doesn't depend on the input
+						boolean inside = inputRow >= 0 && inputRow < H && inputCol >= 0 && inputCol < W;
+						output.d[output.idx(batch,channel,row,col)] = inside ? alg.get(batch,channel,row,col) : 0;
 					}
 				}
 			}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.impl.backward.standard;
+
+import deepboof.DFunction;
+import deepboof.backward.DSpatialPadding2D_F64;
+import deepboof.factory.FactoryBackwards;
+import deepboof.forward.ConfigConvolve2D;
+import deepboof.forward.ConfigPadding;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestBackwards_DSpatialConvolve2DGemm_F64 extends TestBackwards_DSpatialConvolve2D_F64 {
+
+    public TestBackwards_DSpatialConvolve2DGemm_F64() {
+        numberOfConfigurations = 3;
+
+        // period larger than one so that windows skip over pixels in im2col and col2im
+        ConfigConvolve2D config = new ConfigConvolve2D();
+        config.F = 3;
+        config.WW = 3;
+        config.HH = 2;
+        config.periodX = 2;
+        config.periodY = 3;
+
+        configuration.add(config);
+
+        ConfigPadding padding = new ConfigPadding();
+        padding.x0 = 1;
+        padding.y0 = 0;
+        padding.x1 = 2;
+        padding.y1 = 1;
+        configurationPadding.add( padding );
+    }
+
+    @Override
+    public DFunction<Tensor_F64> createBackwards(int type) {
+        FactoryBackwards<Tensor_F64> factory = new FactoryBackwards<>(Tensor_F64.class);
+
+        DSpatialPadding2D_F64 padding = factory.spatialPadding(configurationPadding.get(type));
+
+        return new DSpatialConvolve2DGemm_F64(configuration.get(type),padding);
+    }
+
+    /**
+     * Blocks of output pixels which start and end part way through a row
+     */
+    @Test
+    public void checkBackwardsSmallBlocks() {
+        int before = DSpatialConvolve2DGemm_F64.BLOCK_COLUMNS;
+        DSpatialConvolve2DGemm_F64.BLOCK_COLUMNS = 5;
+        try {
+            checkBackwardsRandomInput();
+        } finally {
+            DSpatialConvolve2DGemm_F64.BLOCK_COLUMNS = before;
+        }
+    }
+}
@@ -24,10 +24,13 @@ import deepboof.backward.DSpatialPadding2D_F64;
 import deepboof.factory.FactoryBackwards;
 import deepboof.forward.ConfigConvolve2D;
 import deepboof.forward.ConfigPadding;
+import deepboof.misc.DeepBoofConcurrency;
 import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static deepboof.misc.TensorOps.WI;
 
@@ -112,4 +115,24 @@ public class TestBackwards_DSpatialConvolve2D_F64 extends ChecksDerivative<Tenso
 
         return inputs;
     }
+
+    /**
+     * Each image in the mini-batch is processed by a different worker. Gradients should still match
+     * the numerical gradient
+     */
+    @Test
+    public void checkBackwardsConcurrent() {
+        ForkJoinPool original = DeepBoofConcurrency.getPool();
+        boolean before = DeepBoofConcurrency.USE_CONCURRENT;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        DeepBoofConcurrency.setPool(pool);
+        DeepBoofConcurrency.USE_CONCURRENT = true;
+        try {
+            checkBackwardsRandomInput();
+        } finally {
+            DeepBoofConcurrency.setPool(original);
+            DeepBoofConcurrency.USE_CONCURRENT = before;
+            pool.shutdown();
+        }
+    }
 }
@@ -19,6 +19,7 @@
 package deepboof.impl.backward.standard;
 
 import deepboof.DFunction;
+import deepboof.DeepBoofConstants;
 import deepboof.Tensor;
 import deepboof.backward.ChecksDerivativeSpatial;
 
@@ -30,9 +31,14 @@ import java.util.List;
  */
 public class TestBackwards_DSpatialMaxPooling_F64 extends ChecksDerivativeSpatial {
 
+	public TestBackwards_DSpatialMaxPooling_F64() {
+		// small step so that the max inside a window doesn't change
+		numericalStep = DeepBoofConstants.TEST_TOL_F64;
+	}
+
 	@Override
 	public DFunction createBackwards(int type) {
-		return new DSpatialMaxPooling_F64(configSpatial, createPadding());
+		return new DSpatialMaxPooling_F64(configSpatial, new DConstantPadding2D_F64(createConfigPadding()));
 	}
 
 	@Override
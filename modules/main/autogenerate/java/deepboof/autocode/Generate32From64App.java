@@ -38,7 +38,9 @@ public class Generate32From64App extends RecursiveConvert {
 		String directories[] = new String[]{
 				"modules/main/src/main/java",
 				"modules/main/src/test/java",
-				"modules/io/src/main/java",};
+				"modules/io/src/main/java",
+				"modules/learning/src/main/java",
+				"modules/learning/src/test/java",};
 
 		ConvertFile32From64 converter = new ConvertFile32From64(false);
 
@@ -19,7 +19,14 @@
 package deepboof.factory;
 
 import deepboof.Tensor;
+import deepboof.forward.ConfigConvolve2D;
 import deepboof.forward.ConfigPadding;
+import deepboof.forward.ConfigSpatial;
+import deepboof.forward.SpatialBatchNorm;
+import deepboof.forward.SpatialConvolve2D;
+import deepboof.forward.SpatialPadding2D_F32;
+import deepboof.forward.SpatialPadding2D_F64;
+import deepboof.forward.SpatialPooling;
 import deepboof.impl.forward.standard.*;
 import deepboof.tensors.Tensor_F32;
 import deepboof.tensors.Tensor_F64;
@@ -50,4 +57,49 @@ public class FactoryForwards {
 		}
 		throw new IllegalArgumentException("Unsupported");
 	}
+
+	public static <T extends Tensor<T>> SpatialConvolve2D<T> convolve2D( ConfigConvolve2D config ,
+																	  ConfigPadding configPadding ,
+																	  Class<T> type ) {
+		BaseSpatialPadding2D<T> padding = spatialPadding(configPadding, type);
+		if( type == Tensor_F64.class ) {
+			return (SpatialConvolve2D<T>)new SpatialConvolve2D_F64(config, (SpatialPadding2D_F64)padding);
+		} else if( type == Tensor_F32.class ) {
+			return (SpatialConvolve2D<T>)new SpatialConvolve2D_F32(config, (SpatialPadding2D_F32)padding);
+		}
+		throw new IllegalArgumentException("Unsupported");
+	}
+
+	public static <T extends Tensor<T>> SpatialBatchNorm<T> spatialBatchNorm( boolean requiresGammaBeta , Class<T> type ) {
+		if( type == Tensor_F64.class ) {
+			return (SpatialBatchNorm<T>)new SpatialBatchNorm_F64(requiresGammaBeta);
+		} else if( type == Tensor_F32.class ) {
+			return (SpatialBatchNorm<T>)new SpatialBatchNorm_F32(requiresGammaBeta);
+		}
+		throw new IllegalArgumentException("Unsupported");
+	}
+
+	public static <T extends Tensor<T>> SpatialPooling<T> spatialMaxPooling( ConfigSpatial config ,
+																		  ConfigPadding configPadding ,
+																		  Class<T> type ) {
+		BaseSpatialPadding2D<T> padding = spatialPadding(configPadding, type);
+		if( type == Tensor_F64.class ) {
+			return (SpatialPooling<T>)new SpatialMaxPooling_F64(config, (SpatialPadding2D_F64)padding);
+		} else if( type == Tensor_F32.class ) {
+			return (SpatialPooling<T>)new SpatialMaxPooling_F32(config, (SpatialPadding2D_F32)padding);
+		}
+		throw new IllegalArgumentException("Unsupported");
+	}
+
+	public static <T extends Tensor<T>> SpatialPooling<T> spatialAveragePooling( ConfigSpatial config ,
+																			  ConfigPadding configPadding ,
+																			  Class<T> type ) {
+		BaseSpatialPadding2D<T> padding = spatialPadding(configPadding, type);
+		if( type == Tensor_F64.class ) {
+			return (SpatialPooling<T>)new SpatialAveragePooling_F64(config, (SpatialPadding2D_F64)padding);
+		} else if( type == Tensor_F32.class ) {
+			return (SpatialPooling<T>)new SpatialAveragePooling_F32(config, (SpatialPadding2D_F32)padding);
+		}
+		throw new IllegalArgumentException("Unsupported");
+	}
 }
@@ -45,4 +45,9 @@ public interface FunctionElementWiseMult<T extends Tensor<T>> extends Function<T
 	 */
 	@Override
 	void forward(T input , T output );
+
+	/**
+	 * Returns the value each element is multiplied by
+	 */
+	double getScalar();
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.Tensor;
+import deepboof.misc.TensorOps;
+import deepboof.misc.TensorOps_F32;
+import deepboof.misc.TensorOps_F64;
+import deepboof.tensors.Tensor_F32;
+import deepboof.tensors.Tensor_F64;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Adds all the inputs together element-wise, e.g. the shortcut connection in a residual network. All inputs
+ * must have the same shape. The output can be the first input, in which case the other inputs are accumulated
+ * into it in-place. {@link FunctionSequence} does this when the first input isn't used by any other node and
+ * memory isn't being planned.
+ *
+ * @author Peter Abeles
+ */
+public class AddMerger<T extends Tensor<T>> implements TensorMerger<T> {
+	int[] shapeOutput;
+
+	@Override
+	public void initialize( List<int[]> inputShapes ) {
+		int[] first = inputShapes.get(0);
+		for (int i = 1; i < inputShapes.size(); i++) {
+			if( !Arrays.equals(first, inputShapes.get(i)) )
+				throw new IllegalArgumentException("All inputs must have the same shape. "+
+						TensorOps.toStringShape(first)+" "+TensorOps.toStringShape(inputShapes.get(i)));
+		}
+		shapeOutput = first.clone();
+	}
+
+	@Override
+	public void combine( List<T> inputs , T output ) {
+		T first = inputs.get(0);
+		if( output != first && !(output.getData() == first.getData() && output.startIndex == first.startIndex) ) {
+			System.arraycopy(first.getData(), first.startIndex, output.getData(), output.startIndex, first.length());
+		}
+		for (int i = 1; i < inputs.size(); i++) {
+			add(output, inputs.get(i));
+		}
+	}
+
+	private void add( T output , T input ) {
+		if( output instanceof Tensor_F64 ) {
+			TensorOps_F64.elementAdd((Tensor_F64)output, (Tensor_F64)input, (Tensor_F64)output);
+		} else if( output instanceof Tensor_F32 ) {
+			TensorOps_F32.elementAdd((Tensor_F32)output, (Tensor_F32)input, (Tensor_F32)output);
+		} else {
+			throw new IllegalArgumentException("Unsupported tensor type "+output.getClass().getSimpleName());
+		}
+	}
+
+	@Override
+	public int[] getOutputShape() {
+		return shapeOutput;
+	}
+}
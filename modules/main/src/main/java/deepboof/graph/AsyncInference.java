@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.misc.TensorFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static deepboof.misc.TensorOps.WI;
+
+/**
+ * <p>Processes inputs asynchronously using an {@link InferenceModel}. Each call returns a {@link CompletableFuture}
+ * immediately so that callers can decode and prepare the next input while the network is running. At most
+ * {@link #getMaxConcurrent() max concurrent} inputs are processed at once, each with its own
+ * {@link InferenceSession}. Tasks run on virtual threads if the runtime supports them and on a fixed pool
+ * of daemon threads otherwise.</p>
+ *
+ * <p>Backpressure: no more than max concurrent plus {@link #getMaxQueued() max queued} inputs can be waiting or
+ * processing. When that limit is reached {@link #submit} blocks and {@link #trySubmit} fails immediately.</p>
+ *
+ * <p>Cancelling a future, or having it time out, stops the input from being processed if it hasn't started yet.
+ * Functions can't be interrupted, so an input which has started is finished and its output discarded.</p>
+ *
+ * @author Peter Abeles
+ */
+public class AsyncInference<T extends Tensor<T>, F extends Function<T>> implements AutoCloseable {
+	InferenceModel<T,F> model;
+	TensorFactory<T> factory;
+
+	// sessions which aren't being used. Created as needed
+	BlockingQueue<InferenceSession<T,F>> sessions;
+	AtomicInteger totalSessions = new AtomicInteger();
+
+	// limits the number of inputs which are waiting or processing
+	Semaphore permits;
+
+	int maxConcurrent;
+	int maxQueued;
+
+	ExecutorService executor;
+	boolean virtualThreads;
+
+	/**
+	 * Creates the async interface.
+	 *
+	 * @param model The model which is to be processed
+	 * @param maxConcurrent Maximum number of inputs processed at the same time
+	 * @param maxQueued Maximum number of inputs waiting to be processed
+	 */
+	public AsyncInference( InferenceModel<T,F> model , int maxConcurrent , int maxQueued ) {
+		if( maxConcurrent < 1 )
+			throw new IllegalArgumentException("Must process at least one input at a time");
+		if( maxQueued < 0 )
+			throw new IllegalArgumentException("Max queued can't be negative");
+		this.model = model;
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueued = maxQueued;
+		this.factory = new TensorFactory<>(model.getTensorType());
+		this.sessions = new ArrayBlockingQueue<>(maxConcurrent);
+		this.permits = new Semaphore(maxConcurrent+maxQueued);
+
+		executor = createVirtualExecutor();
+		virtualThreads = executor != null;
+		if( executor == null ) {
+			AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(maxConcurrent, r -> {
+				Thread t = new Thread(r, "DeepBoof-Async-"+count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * Creates an executor which starts a virtual thread for each task. Returns null if virtual threads are
+	 * not supported by the runtime.
+	 */
+	static ExecutorService createVirtualExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)m.invoke(null);
+		} catch( ReflectiveOperationException | RuntimeException e ) {
+			return null;
+		}
+	}
+
+	/**
+	 * Queues the input for processing. Blocks if too many inputs are waiting.
+	 *
+	 * @param input Input tensor, which includes the mini-batch. Must not be modified until the future is done.
+	 * @return Future for the output, a new tensor which includes the mini-batch
+	 */
+	public CompletableFuture<T> submit( T input ) {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			CompletableFuture<T> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+		return launch(input);
+	}
+
+	/**
+	 * Same as {@link #submit(Tensor)} but the future is completed with a {@link TimeoutException} if it takes
+	 * longer than the specified amount of time. Includes time spent waiting.
+	 */
+	public CompletableFuture<T> submit( T input , long timeout , TimeUnit unit ) {
+		return submit(input).orTimeout(timeout, unit);
+	}
+
+	/**
+	 * Queues the input for processing. If too many inputs are waiting the future is completed with a
+	 * {@link RejectedExecutionException} instead of blocking.
+	 */
+	public CompletableFuture<T> trySubmit( T input ) {
+		if( !permits.tryAcquire() ) {
+			CompletableFuture<T> future = new CompletableFuture<>();
+			future.completeExceptionally(new RejectedExecutionException("Too many inputs are waiting"));
+			return future;
+		}
+		return launch(input);
+	}
+
+	private CompletableFuture<T> launch( T input ) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> process(input, future));
+		} catch( RejectedExecutionException e ) {
+			permits.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private void process( T input , CompletableFuture<T> future ) {
+		try {
+			// skip inputs which were cancelled or timed out while waiting
+			if( future.isDone() )
+				return;
+			InferenceSession<T,F> session = acquireSession();
+			try {
+				if( future.isDone() )
+					return;
+				T output = factory.create(WI(input.length(0), model.getOutputShape()));
+				session.process(input, output);
+				future.complete(output);
+			} finally {
+				sessions.add(session);
+			}
+		} catch( Throwable e ) {
+			future.completeExceptionally(e);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Returns a session which isn't being used, creating one if there are fewer than max concurrent
+	 */
+	private InferenceSession<T,F> acquireSession() throws InterruptedException {
+		InferenceSession<T,F> session = sessions.poll();
+		if( session != null )
+			return session;
+		if( totalSessions.incrementAndGet() <= maxConcurrent ) {
+			try {
+				return model.createSession();
+			} catch( RuntimeException e ) {
+				totalSessions.decrementAndGet();
+				throw e;
+			}
+		}
+		totalSessions.decrementAndGet();
+		return sessions.take();
+	}
+
+	/**
+	 * Number of inputs which are waiting or being processed
+	 */
+	public int getPendingCount() {
+		return maxConcurrent + maxQueued - permits.availablePermits();
+	}
+
+	/**
+	 * Number of sessions which have been created
+	 */
+	public int getSessionCount() {
+		return Math.min(maxConcurrent, totalSessions.get());
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * True if tasks are run on virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Stops accepting new inputs. Inputs which have already been submitted are still processed.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Waits until all the submitted inputs have been processed after {@link #close()} has been called
+	 */
+	public boolean awaitTermination( long timeout , TimeUnit unit ) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.misc.TensorFactory;
+import deepboof.misc.TensorOps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static deepboof.misc.TensorOps.WI;
+
+/**
+ * <p>Combines individual inputs which are submitted by any number of threads into mini-batches. Processing a
+ * mini-batch is often much faster per input than processing each input by itself. Inputs are queued until
+ * there are {@link #setMaxBatch max batch} of them or the oldest one has waited for
+ * {@link #setMaxLatency max latency}. The queued inputs are then copied into a single tensor, processed
+ * with one call, and each row of the output is returned through the future for its input.</p>
+ *
+ * <pre>
+ * BatchingScheduler&lt;Tensor_F32,?&gt; scheduler = new BatchingScheduler&lt;&gt;(model);
+ * scheduler.setMaxBatch(16);
+ * scheduler.setMaxLatency(5, TimeUnit.MILLISECONDS);
+ * scheduler.start();
+ * // in any thread
+ * Tensor_F32 output = scheduler.submit(input).get();
+ * </pre>
+ *
+ * <p>Inputs don't have a mini-batch axis and must not be modified until their future is done.</p>
+ *
+ * @author Peter Abeles
+ */
+public class BatchingScheduler<T extends Tensor<T>, F extends Function<T>> {
+	InferenceSession<T,F> session;
+
+	// shape of a single input and output. Doesn't include the mini-batch
+	int[] inputShape;
+	int[] outputShape;
+
+	int maxBatch = 8;
+	long maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(2);
+
+	// inputs which are waiting to be processed
+	BlockingQueue<Request<T>> queue = new LinkedBlockingQueue<>();
+	// thread which processes the mini-batches. null if not running
+	volatile Thread thread;
+	// set by the thread when it has stopped taking inputs from the queue
+	volatile boolean finished;
+	// Held while changing the running state, so that an input can't be queued after STOP
+	final Object lock = new Object();
+
+	// storage for the mini-batch
+	T batchInput;
+	T batchOutput;
+	List<Request<T>> batch = new ArrayList<>();
+	TensorFactory<T> factory;
+
+	// Metrics
+	AtomicInteger maxQueueDepth = new AtomicInteger();
+	AtomicLong totalBatches = new AtomicLong();
+	AtomicLong totalRequests = new AtomicLong();
+	// number of mini-batches processed of each size
+	AtomicLongArray batchSizes = new AtomicLongArray(maxBatch+1);
+
+	// added to the queue to stop the thread
+	final Request<T> STOP = new Request<>(null);
+
+	/**
+	 * Creates the scheduler. A session is created from the model which is only used by this scheduler.
+	 */
+	public BatchingScheduler( InferenceModel<T,F> model ) {
+		this.session = model.createSession();
+		this.inputShape = model.getInputShape();
+		this.outputShape = model.getOutputShape();
+		this.factory = new TensorFactory<>(model.getTensorType());
+		this.batchInput = factory.create();
+		this.batchOutput = factory.create();
+	}
+
+	/**
+	 * Launches the thread which processes mini-batches
+	 */
+	public void start() {
+		synchronized (lock) {
+			if( isRunning() )
+				throw new IllegalStateException("Already running");
+			finished = false;
+			thread = new Thread(this::run, "DeepBoof-Batching");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues an input for processing
+	 *
+	 * @param input A single input. Doesn't include the mini-batch axis.
+	 * @return Future for the output. A new tensor which doesn't include the mini-batch axis. Completed
+	 *         exceptionally if processing failed or the thread stopped before the input was processed.
+	 */
+	public CompletableFuture<T> submit( T input ) {
+		if( !input.isShape(inputShape) )
+			throw new IllegalArgumentException("Unexpected input shape "+TensorOps.toStringShape(input.shape)+
+					" expected "+TensorOps.toStringShape(inputShape));
+
+		Request<T> request = new Request<>(input);
+		synchronized (lock) {
+			if( !isRunning() )
+				throw new IllegalStateException("Not running");
+			queue.add(request);
+		}
+		int depth = queue.size();
+		maxQueueDepth.accumulateAndGet(depth, Math::max);
+
+		// the thread exited unexpectedly and might have drained the queue before this was added
+		if( finished && queue.remove(request) )
+			request.future.completeExceptionally(new IllegalStateException("Not running"));
+		return request.future;
+	}
+
+	/**
+	 * Stops the thread after every input which has already been submitted has been processed
+	 */
+	public void stop() {
+		synchronized (lock) {
+			if( thread == null )
+				return;
+			queue.add(STOP);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			// still in the queue if the thread had already exited
+			queue.remove(STOP);
+			thread = null;
+		}
+	}
+
+	private void run() {
+		try {
+			boolean stop = false;
+			while( !stop ) {
+				Request<T> first = queue.take();
+				if( first == STOP )
+					break;
+				batch.add(first);
+
+				// wait for more inputs until the batch is full or the oldest input has waited long enough
+				long deadline = first.arrival + maxLatencyNanos;
+				while( batch.size() < maxBatch ) {
+					long remaining = deadline - System.nanoTime();
+					Request<T> r = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if( r == null )
+						break;
+					if( r == STOP ) {
+						stop = true;
+						break;
+					}
+					batch.add(r);
+				}
+				processBatch();
+			}
+		} catch (InterruptedException ignore) {
+		} finally {
+			finished = true;
+			failRemaining();
+		}
+	}
+
+	/**
+	 * Inputs which are still in the queue or the mini-batch when the thread exits won't be processed
+	 */
+	private void failRemaining() {
+		IllegalStateException e = new IllegalStateException("Stopped before the input was processed");
+		for( Request<T> r : batch ) {
+			r.future.completeExceptionally(e);
+		}
+		batch.clear();
+
+		Request<T> r;
+		while( (r = queue.poll()) != null ) {
+			if( r != STOP )
+				r.future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Copies the inputs into a mini-batch, processes it, and copies each row of the output into a new tensor
+	 */
+	private void processBatch() {
+		int N = batch.size();
+		int inputLength = TensorOps.tensorLength(inputShape);
+		int outputLength = TensorOps.tensorLength(outputShape);
+
+		// Any failure is passed to the inputs in this mini-batch and the thread keeps running
+		try {
+			batchInput.reshape(WI(N, inputShape));
+			batchOutput.reshape(WI(N, outputShape));
+			for (int i = 0; i < N; i++) {
+				T input = batch.get(i).input;
+				System.arraycopy(input.getData(), input.startIndex, batchInput.getData(), i*inputLength, inputLength);
+			}
+			session.process(batchInput, batchOutput);
+
+			totalBatches.incrementAndGet();
+			totalRequests.addAndGet(N);
+			batchSizes.incrementAndGet(N);
+
+			for (int i = 0; i < N; i++) {
+				T output = factory.create(outputShape);
+				System.arraycopy(batchOutput.getData(), i*outputLength, output.getData(), 0, outputLength);
+				batch.get(i).future.complete(output);
+			}
+		} catch( Throwable e ) {
+			for( Request<T> r : batch ) {
+				r.future.completeExceptionally(e);
+			}
+		} finally {
+			batch.clear();
+		}
+	}
+
+	/**
+	 * True if the thread has been started and is still accepting inputs
+	 */
+	public boolean isRunning() {
+		return thread != null && !finished;
+	}
+
+	/**
+	 * Maximum number of inputs in a mini-batch. Can only be changed when not running.
+	 */
+	public void setMaxBatch( int maxBatch ) {
+		if( isRunning() )
+			throw new IllegalStateException("Can't change while running");
+		if( maxBatch < 1 )
+			throw new IllegalArgumentException("Max batch must be at least one");
+		this.maxBatch = maxBatch;
+		this.batchSizes = new AtomicLongArray(maxBatch+1);
+	}
+
+	public int getMaxBatch() {
+		return maxBatch;
+	}
+
+	/**
+	 * Maximum amount of time the oldest input waits for the mini-batch to fill up. Can only be changed
+	 * when not running.
+	 */
+	public void setMaxLatency( long time , TimeUnit unit ) {
+		if( isRunning() )
+			throw new IllegalStateException("Can't change while running");
+		this.maxLatencyNanos = unit.toNanos(time);
+	}
+
+	public long getMaxLatency( TimeUnit unit ) {
+		return unit.convert(maxLatencyNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Number of inputs which are waiting to be put into a mini-batch
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Largest number of inputs which have been waiting at the same time
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * Number of mini-batches which have been processed
+	 */
+	public long getTotalBatches() {
+		return totalBatches.get();
+	}
+
+	/**
+	 * Number of inputs which have been processed
+	 */
+	public long getTotalRequests() {
+		return totalRequests.get();
+	}
+
+	/**
+	 * Average number of inputs in each mini-batch
+	 */
+	public double getAverageBatchSize() {
+		long batches = totalBatches.get();
+		return batches == 0 ? 0 : totalRequests.get()/(double)batches;
+	}
+
+	/**
+	 * Number of mini-batches which have been processed of each size. Element i is for size i.
+	 */
+	public long[] getBatchSizeHistogram() {
+		long[] out = new long[batchSizes.length()];
+		for (int i = 0; i < out.length; i++) {
+			out[i] = batchSizes.get(i);
+		}
+		return out;
+	}
+
+	/**
+	 * Resets all the metrics
+	 */
+	public void resetMetrics() {
+		maxQueueDepth.set(0);
+		totalBatches.set(0);
+		totalRequests.set(0);
+		for (int i = 0; i < batchSizes.length(); i++) {
+			batchSizes.set(i, 0);
+		}
+	}
+
+	public InferenceSession<T,F> getSession() {
+		return session;
+	}
+
+	/**
+	 * An input which is waiting to be processed
+	 */
+	static class Request<T> {
+		T input;
+		// when it was submitted
+		long arrival = System.nanoTime();
+		CompletableFuture<T> future = new CompletableFuture<>();
+
+		Request( T input ) {
+			this.input = input;
+		}
+	}
+}
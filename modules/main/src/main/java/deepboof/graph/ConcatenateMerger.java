@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.Tensor;
+import deepboof.misc.TensorOps;
+
+import java.util.List;
+
+/**
+ * <p>Concatenates the inputs along an axis, channels by default. Inputs must have the same shape except
+ * along that axis.</p>
+ *
+ * <p>When the inputs are concatenated along the first axis after the mini-batch and the mini-batch has a size
+ * of one, each input is a contiguous block in the output. {@link FunctionSequence} takes advantage of this by
+ * having the source nodes write directly into the output, so {@link #combine} isn't needed. This is only done
+ * when the sources aren't used by other nodes and memory isn't being planned.</p>
+ *
+ * @author Peter Abeles
+ */
+public class ConcatenateMerger<T extends Tensor<T>> implements TensorMerger<T> {
+	// axis the inputs are concatenated along. Doesn't include the mini-batch
+	int axis;
+
+	// number of elements in each input after the concatenation axis, including the axis
+	int[] inputBlocks;
+	// number of elements in the output after the concatenation axis, including the axis
+	int outputBlock;
+
+	int[] shapeOutput;
+
+	/**
+	 * @param axis The axis inputs are concatenated along, not including the mini-batch. 0 for channels.
+	 */
+	public ConcatenateMerger( int axis ) {
+		this.axis = axis;
+	}
+
+	/**
+	 * Concatenates along channels
+	 */
+	public ConcatenateMerger() {
+		this(0);
+	}
+
+	@Override
+	public void initialize( List<int[]> inputShapes ) {
+		int[] first = inputShapes.get(0);
+		if( axis < 0 || axis >= first.length )
+			throw new IllegalArgumentException("Axis is out of bounds for the input's shape");
+
+		shapeOutput = first.clone();
+		shapeOutput[axis] = 0;
+		inputBlocks = new int[inputShapes.size()];
+		for (int i = 0; i < inputShapes.size(); i++) {
+			int[] shape = inputShapes.get(i);
+			if( shape.length != first.length )
+				throw new IllegalArgumentException("All inputs must have the same number of dimensions");
+			for (int j = 0; j < shape.length; j++) {
+				if( j != axis && shape[j] != first[j] )
+					throw new IllegalArgumentException("Inputs must have the same shape except along axis "+axis);
+			}
+			shapeOutput[axis] += shape[axis];
+			inputBlocks[i] = TensorOps.tensorLength(shape)/outerLength(shape);
+		}
+		outputBlock = TensorOps.tensorLength(shapeOutput)/outerLength(shapeOutput);
+	}
+
+	/**
+	 * Number of blocks which are copied from each input, excluding the mini-batch
+	 */
+	private int outerLength( int[] shape ) {
+		int total = 1;
+		for (int i = 0; i < axis; i++) {
+			total *= shape[i];
+		}
+		return total;
+	}
+
+	@Override
+	public void combine( List<T> inputs , T output ) {
+		int numBatch = output.length(0);
+		int outer = numBatch*outerLength(shapeOutput);
+
+		Object dst = output.getData();
+		int offset = 0;
+		for (int i = 0; i < inputs.size(); i++) {
+			T input = inputs.get(i);
+			Object src = input.getData();
+			int block = inputBlocks[i];
+			for (int j = 0; j < outer; j++) {
+				System.arraycopy(src, input.startIndex + j*block, dst, output.startIndex + j*outputBlock + offset, block);
+			}
+			offset += block;
+		}
+	}
+
+	/**
+	 * Returns true if each input is a single contiguous block in the output. If so, the offset of each input
+	 * is the sum of the lengths of the inputs before it.
+	 *
+	 * @param numBatch Size of the mini-batch
+	 */
+	public boolean isContiguous( int numBatch ) {
+		return numBatch == 1 && axis == 0;
+	}
+
+	@Override
+	public int[] getOutputShape() {
+		return shapeOutput;
+	}
+
+	public int getAxis() {
+		return axis;
+	}
+}
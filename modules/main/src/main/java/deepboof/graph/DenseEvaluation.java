@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.factory.FactoryForwards;
+import deepboof.forward.*;
+
+import java.util.*;
+
+/**
+ * <p>Evaluates a network which classifies a fixed size window at every location in a larger image, in a single
+ * pass. Processing each window separately computes the convolutions in overlapping regions over and over again.
+ * Instead, the network is made fully convolutional and run once over the entire image. The output is a score map
+ * with the network's output for each window along the channel axis.</p>
+ *
+ * <p>Conversion. Linear layers which are applied to a spatial tensor (C,H,W) become a convolution with a
+ * (H,W) kernel. Later linear layers become 1x1 convolutions and batch normalization after them becomes
+ * spatial batch normalization. Weights are referenced, not copied. Functions which don't change the
+ * shape of their input, e.g. activation functions, are used as is.</p>
+ *
+ * <p>Stride. Each element in the score map is a window which is shifted by the product of the periods
+ * of all the convolution and pooling layers in the network. Element (i,j) is the window with its top left
+ * corner at ({@link #getWindowY(int) i*strideY}, {@link #getWindowX(int) j*strideX}) in the image.</p>
+ *
+ * <p>The score map is identical to processing each window separately if no layer before the linear layers pads
+ * its input. With padding, windows are only identical away from their border since the padding is now applied
+ * at the image's border instead of each window's.</p>
+ *
+ * @author Peter Abeles
+ */
+public class DenseEvaluation<T extends Tensor<T>> {
+	// the fully convolutional network
+	private final FunctionSequence<T,Function<T>> sequence;
+	// parameters for the fully convolutional network
+	private final Map<String,List<T>> parameters = new HashMap<>();
+	// shape of a window, (C,H,W)
+	private final int[] windowShape;
+	// how far apart windows are in the image
+	private int strideX = 1, strideY = 1;
+
+	/**
+	 * Converts the network
+	 *
+	 * @param nodes Network which processes a single window. Nodes don't need to be in forward order. The functions
+	 *              are used by the converted network and must not be used elsewhere.
+	 * @param parameters Map from node name to that node's parameters
+	 * @param type Type of tensor
+	 * @param windowShape Shape of the window the network processes, (C,H,W)
+	 */
+	@SuppressWarnings("unchecked")
+	public <F extends Function<T>> DenseEvaluation( List<Node<T,F>> nodes , Map<String,List<T>> parameters ,
+													Class<T> type , int ...windowShape ) {
+		if( windowShape.length != 3 )
+			throw new IllegalArgumentException("Window must have a shape of (C,H,W)");
+		this.windowShape = windowShape.clone();
+
+		// find the shape of each node's output for a single window
+		List<Node<T,Function<T>>> ordered = (List)new SequenceForwardOrder((List)copy(nodes)).putIntoForwardOrder();
+		FunctionSequence<T,Function<T>> window = new FunctionSequence<>(ordered, type);
+		window.initialize(windowShape);
+		Map<String,int[]> shapes = new HashMap<>();
+		for( Node<T,Function<T>> n : ordered ) {
+			shapes.put(n.name, window.getOutputShape(n.name).clone());
+		}
+		window.releaseStorage();
+
+		// names of nodes whose output was a vector and is now a score map
+		Set<String> dense = new HashSet<>();
+		Map<String,int[]> strides = new HashMap<>();
+
+		List<Node<T,Function<T>>> converted = copy(ordered);
+		for( Node<T,Function<T>> n : converted ) {
+			List<T> p = parameters.get(n.name);
+
+			int[] shapeIn;
+			int[] stride;
+			boolean denseIn = false;
+			if( n.sources.isEmpty() ) {
+				shapeIn = windowShape;
+				stride = new int[]{1,1};
+			} else {
+				String src = n.sources.get(0).nodeName;
+				shapeIn = shapes.get(src);
+				stride = strides.get(src);
+				for( InputAddress a : n.sources ) {
+					if( !Arrays.equals(stride, strides.get(a.nodeName)) )
+						throw new IllegalArgumentException("Sources have different strides. "+n.name);
+					denseIn |= dense.contains(a.nodeName);
+				}
+				if( denseIn && n.sources.size() > 1 )
+					throw new IllegalArgumentException("Can't merge the outputs of linear layers. "+n.name);
+			}
+
+			if( n.function instanceof FunctionLinear ) {
+				if( p == null )
+					throw new IllegalArgumentException("No parameters for linear layer "+n.name);
+				n.function = convertLinear(n.function, shapeIn, denseIn, type);
+				p = Arrays.asList(reshapeWeights(p.get(0), shapeIn, denseIn), p.get(1));
+				dense.add(n.name);
+			} else if( n.function instanceof FunctionBatchNorm && denseIn ) {
+				// parameters have a shape of (C,M) in both, where M is the number of variables
+				n.function = convertBatchNorm((FunctionBatchNorm<T>)n.function, type);
+				dense.add(n.name);
+			} else if( denseIn ) {
+				if( !Arrays.equals(shapeIn, shapes.get(n.name)) )
+					throw new IllegalArgumentException("Only functions which don't change the shape of their " +
+							"input can come after a linear layer. "+n.name);
+				dense.add(n.name);
+			} else {
+				ConfigSpatial config = null;
+				if( n.function instanceof SpatialConvolve2D )
+					config = ((SpatialConvolve2D)n.function).getConfiguration();
+				else if( n.function instanceof SpatialPooling )
+					config = ((SpatialPooling)n.function).getConfiguration();
+				if( config != null )
+					stride = new int[]{stride[0]*config.periodY, stride[1]*config.periodX};
+			}
+			strides.put(n.name, stride);
+			if( p != null )
+				this.parameters.put(n.name, p);
+		}
+
+		int[] last = strides.get(converted.get(converted.size()-1).name);
+		strideY = last[0];
+		strideX = last[1];
+
+		sequence = new FunctionSequence<>(converted, type);
+	}
+
+	/**
+	 * Initializes the network for images of the specified shape
+	 *
+	 * @param imageShape Shape of the image, (C,H,W). Must be at least as large as the window.
+	 */
+	public void initialize( int ...imageShape ) {
+		if( imageShape.length != 3 || imageShape[0] != windowShape[0] )
+			throw new IllegalArgumentException("Expected an image with a shape of ("+windowShape[0]+",H,W)");
+		if( imageShape[1] < windowShape[1] || imageShape[2] < windowShape[2] )
+			throw new IllegalArgumentException("Image is smaller than the window");
+		sequence.initialize(imageShape);
+		sequence.setParameters(parameters);
+	}
+
+	/**
+	 * Computes the score map
+	 *
+	 * @param image Images. (N,C,H,W)
+	 * @param scores Score map for each image. (N,M,rows,cols). See {@link #getOutputShape()}
+	 */
+	public void process( T image , T scores ) {
+		sequence.process(image, scores);
+	}
+
+	/**
+	 * Shape of the score map for a single image, (M,rows,cols). Only valid after {@link #initialize}.
+	 */
+	public int[] getOutputShape() {
+		return sequence.getOutputShape();
+	}
+
+	/**
+	 * Y-coordinate in the image of the top of the windows in a row of the score map
+	 */
+	public int getWindowY( int row ) {
+		return row*strideY;
+	}
+
+	/**
+	 * X-coordinate in the image of the left side of the windows in a column of the score map
+	 */
+	public int getWindowX( int col ) {
+		return col*strideX;
+	}
+
+	/**
+	 * Creates a convolution which is equivalent to a linear layer
+	 */
+	private Function<T> convertLinear( Function<T> linear , int[] shapeIn , boolean denseIn , Class<T> type ) {
+		ConfigConvolve2D config = new ConfigConvolve2D();
+		config.F = linear.getOutputShape()[0];
+		config.HH = denseIn ? 1 : shapeIn[1];
+		config.WW = denseIn ? 1 : shapeIn[2];
+		return FactoryForwards.convolve2D(config, new ConfigPadding(), type);
+	}
+
+	/**
+	 * Views the linear layer's weights as convolution kernels. Each row in the weight matrix is stored in the
+	 * same order as a kernel, so only the shape changes.
+	 */
+	private static <T extends Tensor<T>> T reshapeWeights( T weights , int[] shapeIn , boolean denseIn ) {
+		int M = weights.length(0);
+		int[] kernel;
+		if( denseIn && shapeIn.length == 1 ) {
+			kernel = new int[]{M,shapeIn[0],1,1};
+		} else if( !denseIn && shapeIn.length == 3 ) {
+			kernel = new int[]{M,shapeIn[0],shapeIn[1],shapeIn[2]};
+		} else {
+			throw new IllegalArgumentException("Linear layers must be applied to a spatial tensor " +
+					"or the output of another linear layer");
+		}
+		return weights.subtensor(weights.startIndex, kernel);
+	}
+
+	private SpatialBatchNorm<T> convertBatchNorm( FunctionBatchNorm<T> original , Class<T> type ) {
+		SpatialBatchNorm<T> spatial = FactoryForwards.spatialBatchNorm(original.hasGammaBeta(), type);
+		spatial.setEPS(original.getEPS());
+		return spatial;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Tensor<T>> List<Node<T,Function<T>>> copy( List<? extends Node<T,?>> nodes ) {
+		List<Node<T,Function<T>>> out = new ArrayList<>();
+		for( Node<T,?> n : nodes ) {
+			Node<T,Function<T>> c = new Node<>();
+			c.name = n.name;
+			c.sources = new ArrayList<>(n.sources);
+			c.combine = n.combine;
+			c.function = (Function<T>)n.function;
+			out.add(c);
+		}
+		return out;
+	}
+
+	/**
+	 * The fully convolutional network
+	 */
+	public FunctionSequence<T,Function<T>> getSequence() {
+		return sequence;
+	}
+
+	public int[] getWindowShape() {
+		return windowShape.clone();
+	}
+
+	public int getStrideX() {
+		return strideX;
+	}
+
+	public int getStrideY() {
+		return strideY;
+	}
+}
@@ -20,21 +20,26 @@ package deepboof.graph;
 
 import deepboof.Function;
 import deepboof.Tensor;
+import deepboof.impl.forward.standard.BaseFunction;
+import deepboof.misc.AllocationCounter;
+import deepboof.misc.DeepBoofConcurrency;
 import deepboof.misc.TensorFactory;
 import deepboof.misc.TensorOps;
+import deepboof.misc.TensorPool;
 import org.ddogleg.struct.Tuple2;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import static deepboof.misc.TensorOps.WI;
 
 /**
- * Processes a sequence of forward functions. Any non-cyclical graph with a single
- * input and a single output can be processed by this function. The list of functions passed in to the constructor
- * is assumed to have already been ordered.
+ * Processes a sequence of forward functions. Any non-cyclical graph can be processed by this function. Nodes
+ * without sources are inputs and by default the last node is the output. Graphs with several inputs or outputs,
+ * e.g. a shared trunk with multiple heads, are processed with a single call and each node is only processed
+ * once. The list of functions passed in to the constructor is assumed to have already been ordered.
  *
  * @author Peter Abeles
  */
@@ -45,6 +50,8 @@ public class FunctionSequence<T extends Tensor<T>, F extends Function<T>>
 	protected List<Node<T,F>> sequence = new ArrayList<>();
 	// Map to provide quick and easy lookup of
 	protected Map<String,Node<T,F>> lookup = new HashMap<>();
+	// Index of each node in the sequence
+	protected Map<String,Integer> indexes = new HashMap<>();
 
 	// map linking output storage for each node by name. data0 = function output, data1 = merge output
 	protected Map<String,Tuple2<T,T>> outputStorage = new HashMap<>();
@@ -52,6 +59,58 @@ public class FunctionSequence<T extends Tensor<T>, F extends Function<T>>
 	// used to create tensors
 	protected TensorFactory<T> factory;
 
+	// Output storage grows and shrinks with the mini-batch size by recycling arrays through this pool
+	protected TensorPool pool = new TensorPool();
+
+	// If true the output of nodes share memory, see SequenceMemoryPlan
+	protected boolean planMemory = false;
+	// Nodes whose output will not be overwritten when memory is planned
+	protected Set<String> retained = new HashSet<>();
+	// Assignment of node outputs to shared buffers. null if memory isn't planned
+	protected SequenceMemoryPlan plan;
+	// Shared buffers which node output point into
+	protected List<T> buffers = new ArrayList<>();
+
+	// If true then nodes in independent branches are processed at the same time
+	protected boolean concurrent = false;
+	// Index of nodes which consume the output of each node
+	protected int[][] consumers;
+
+	// Merges which don't need to be computed since the sources wrote directly into the merged tensor
+	protected boolean[] directMerge = new boolean[0];
+	// Node outputs which reference memory in another node's merge tensor
+	protected boolean[] aliasedOutput = new boolean[0];
+	// Merge tensors which reference the output of the node's first source
+	protected boolean[] aliasedMerge = new boolean[0];
+
+	// If not null then it's told how long each node took to process
+	protected SequenceListener<T> listener;
+
+	// mini-batch size which storage was last declared for. -1 if it hasn't been declared
+	protected int declaredBatch = -1;
+	// What each node reads and writes. Compiled when storage is declared
+	protected Instruction<T>[] program;
+
+	// Names of nodes whose output is returned by process. If empty then it's the last node
+	protected List<String> outputNames = new ArrayList<>();
+	// Index of each input node in the order inputs are passed in
+	protected int[] inputNodes = new int[0];
+	// Index of each output node in the order outputs are passed in
+	protected int[] outputNodes = new int[0];
+	// True if the node writes directly into the provided output, which is when no other node reads it
+	protected boolean[] providedOutput = new boolean[0];
+
+	// work space used to pass a single input and output
+	protected T[] singleInput;
+	protected T[] singleOutput;
+
+	// If true then outputs computed by processUntil() are reused by later calls with the same input
+	protected boolean cacheOutputs = false;
+	// Nodes whose output is valid for the cached input
+	protected boolean[] computed = new boolean[0];
+	// The inputs which computed outputs are for
+	protected Object[] cachedInputs;
+
 	boolean verbose = false;
 
 	/**
@@ -67,9 +126,12 @@ public class FunctionSequence<T extends Tensor<T>, F extends Function<T>>
 			if( lookup.containsKey(n.name ))
 				throw new IllegalArgumentException("Conflict. Multiple nodes with the same name. "+n.name);
 			lookup.put(n.name,n);
+			indexes.put(n.name,indexes.size());
 		}
 
-		factory = new TensorFactory<>(type);
+		factory = new TensorFactory<>(type,pool);
+		singleInput = createArray(1);
+		singleOutput = createArray(1);
 	}
 
 	/**
@@ -78,33 +140,74 @@ public class FunctionSequence<T extends Tensor<T>, F extends Function<T>>
 	 * @param inputShape Shape of input tensor.
 	 */
 	public void initialize(int[] inputShape ) {
-		initializeSequence(inputShape);
+		findInputs();
+		if( inputNodes.length != 1 )
+			throw new IllegalArgumentException("Graph has "+inputNodes.length+" inputs. Specify the shape of each.");
+		initializeSequence(Collections.singletonList(inputShape));
+	}
+
+	/**
+	 * Initialize and declare memory for all nodes in the network given the shape of every input.
+	 *
+	 * @param inputShapes Map from the name of each input node to the shape of its input.
+	 */
+	public void initialize( Map<String,int[]> inputShapes ) {
+		findInputs();
+		List<int[]> shapes = new ArrayList<>();
+		for( int index : inputNodes ) {
+			int[] shape = inputShapes.get(sequence.get(index).name);
+			if( shape == null )
+				throw new IllegalArgumentException("No shape for input "+sequence.get(index).name);
+			shapes.add(shape);
+		}
+		if( inputShapes.size() != inputNodes.length )
+			throw new IllegalArgumentException("Shapes were provided for nodes which aren't inputs");
+		initializeSequence(shapes);
+	}
+
+	/**
+	 * Nodes without sources are inputs
+	 */
+	private void findInputs() {
+		List<Integer> found = new ArrayList<>();
+		for (int i = 0; i < sequence.size(); i++) {
+			if( sequence.get(i).sources.isEmpty() )
+				found.add(i);
+		}
+		inputNodes = new int[found.size()];
+		for (int i = 0; i < found.size(); i++) {
+			inputNodes[i] = found.get(i);
+		}
 	}
 
 	/**
 	 * Run through the sequence initializing each node using the shape of the output of its inputs
 	 *
-	 * @param inputShape Shape of input tensor.
+	 * @param inputShapes Shape of each input tensor.
 	 */
-	private void initializeSequence(int[] inputShape) {
+	private void initializeSequence( List<int[]> inputShapes ) {
 		if( sequence.get(0).sources.size() != 0 )
 			throw new RuntimeException("Input sequence can't have a source address!");
 
-		List<int[]> inputs = new ArrayList<>();
-		sequence.get(0).function.initialize(inputShape);
-		outputStorage.put( sequence.get(0).name, new Tuple2<>(factory.create(),factory.create()) );
-		if( verbose ) {
-			System.out.println("ROOT ========= " + sequence.get(0).name);
-			printOutput(sequence.get(0), inputShape);
-		}
+		// return memory from a previous initialization
+		releaseStorage();
 
-		for (int i = 1; i < sequence.size(); i++) {
+		List<int[]> inputs = new ArrayList<>();
+		int inputIndex = 0;
+		for (int i = 0; i < sequence.size(); i++) {
 			Node<T,F> node = sequence.get(i);
+			outputStorage.put( node.name, new Tuple2<>(factory.create(),factory.create()) );
+			if( node.sources.size() == 0 ) {
+				int[] inputShape = inputShapes.get(inputIndex++);
+				node.function.initialize(inputShape);
+				if( verbose ) {
+					System.out.println("ROOT ========= " + node.name);
+					printOutput(node, inputShape);
+				}
+				continue;
+			}
 			if( verbose )
 				System.out.println("============== "+node.name);
-			outputStorage.put( node.name, new Tuple2<>(factory.create(),factory.create()) );
-			if( node.sources.size() == 0 )
-				throw new RuntimeException("No sources!  Node = "+node.name);
 
 			// collect the size of all the inputs for this node
 			inputs.clear();
@@ -133,6 +236,49 @@ public class FunctionSequence<T extends Tensor<T>, F extends Function<T>>
 					printOutput(node,node.combine.getOutputShape());
 			}
 		}
+
+		findConsumers();
+		findOutputs();
+		directMerge = new boolean[sequence.size()];
+		aliasedOutput = new boolean[sequence.size()];
+		aliasedMerge = new boolean[sequence.size()];
+		computed = new boolean[sequence.size()];
+		cachedInputs = null;
+
+		if( planMemory ) {
+			if( concurrent )
+				throw new IllegalArgumentException("Memory planning assumes nodes are processed in order. " +
+						"Can't be used with concurrent processing");
+			int[] outputLength = new int[sequence.size()];
+			int[] mergeLength = new int[sequence.size()];
+			for (int i = 0; i < sequence.size(); i++) {
+				Node<T,F> node = sequence.get(i);
+				outputLength[i] = TensorOps.tensorLength(node.function.getOutputShape());
+				if( node.sources.size() > 1 )
+					mergeLength[i] = TensorOps.tensorLength(node.combine.getOutputShape());
+			}
+			plan = SequenceMemoryPlan.compute(sequence, outputLength, mergeLength, retained, providedOutput);
+		} else {
+			plan = null;
+		}
+	}
+
+	/**
+	 * Looks up the output nodes and decides which ones can write directly into the provided tensor
+	 */
+	private void findOutputs() {
+		if( outputNames.isEmpty() ) {
+			outputNodes = new int[]{sequence.size()-1};
+		} else {
+			outputNodes = new int[outputNames.size()];
+			for (int i = 0; i < outputNodes.length; i++) {
+				outputNodes[i] = indexOf(outputNames.get(i));
+			}
+		}
+		providedOutput = new boolean[sequence.size()];
+		for( int index : outputNodes ) {
+			providedOutput[index] = consumers[index].length == 0;
+		}
 	}
 
 	private void printOutput( Node<T,F> node , int[] input  ) {
@@ -147,26 +293,138 @@ public class FunctionSequence<T extends Tensor<T>, F extends Function<T>>
 	 * Declare and save output tensors for each node and combine function
 	 */
 	private void declareOutputStorage( int numBatch ) {
-		// input and output is provided if size of one and it's impossible for it to have a combine function
-		if( sequence.size() == 1 ) {
+		if( plan != null ) {
+			declarePlannedStorage(numBatch);
 			return;
 		}
 
-		// Declare storage for output from each node.  The last node doesn't need additional storage
+		// tensors which referenced another node's memory the last time are given their own memory again
+		for (int i = 0; i < sequence.size(); i++) {
+			Tuple2<T,T> storage = outputStorage.get(sequence.get(i).name);
+			if( aliasedOutput[i] ) {
+				detach(storage.d0);
+				aliasedOutput[i] = false;
+			}
+			if( aliasedMerge[i] ) {
+				detach(storage.d1);
+				aliasedMerge[i] = false;
+			}
+		}
+		selectInPlaceMerges(numBatch);
+
+		// Declare storage for output from each node. Outputs which are provided don't need additional storage
 		for (int i = 0; i < sequence.size(); i++) {
 			Node<T,F> node = sequence.get(i);
 
 			Tuple2<T,T> storage = outputStorage.get(node.name);
-			if( i==0 || node.sources.size() == 1 ) {
-				if( i != sequence.size()-1 )
-					storage.d0.reshape(WI(numBatch,node.function.getOutputShape()));
-				storage.d1 = null;
-			} else {
-				// don't declare memory for output for the last node since it will be provided
-				if( i != sequence.size()-1 )
-					storage.d0.reshape(WI(node.function.getOutputShape()));
-				// however, the last node could still need storage for combining inputs
-				storage.d1.reshape(WI(node.combine.getOutputShape()));
+			if( !providedOutput[i] && !aliasedOutput[i] )
+				pool.reshape(storage.d0,WI(numBatch,node.function.getOutputShape()));
+
+			if( node.sources.size() <= 1 ) {
+				if( storage.d1 != null ) {
+					pool.release(storage.d1);
+					storage.d1 = null;
+				}
+			} else if( !aliasedMerge[i] ) {
+				// an output node could still need storage for combining inputs
+				pool.reshape(storage.d1,WI(numBatch,node.combine.getOutputShape()));
+			}
+		}
+
+		// point tensors at the memory they share
+		for (int i = 0; i < sequence.size(); i++) {
+			Node<T,F> node = sequence.get(i);
+			Tuple2<T,T> storage = outputStorage.get(node.name);
+			if( directMerge[i] ) {
+				// each source writes into its block of the concatenated tensor
+				int offset = storage.d1.startIndex;
+				for( InputAddress addr : node.sources ) {
+					Node<T,F> src = lookup.get(addr.nodeName);
+					T output = outputStorage.get(addr.nodeName).d0;
+					output.setData(storage.d1.getData());
+					output.startIndex = offset;
+					output.subtensor = true;
+					output.reshape(WI(numBatch,src.function.getOutputShape()));
+					offset += output.length();
+				}
+			} else if( aliasedMerge[i] ) {
+				// accumulate into the output of the first source
+				T first = outputStorage.get(node.sources.get(0).nodeName).d0;
+				pool.release(storage.d1);
+				storage.d1.setData(first.getData());
+				storage.d1.startIndex = first.startIndex;
+				storage.d1.subtensor = true;
+				storage.d1.reshape(WI(numBatch,node.combine.getOutputShape()));
+			}
+		}
+	}
+
+	/**
+	 * Selects which merges can be done without copying. A {@link ConcatenateMerger} is skipped if its sources
+	 * can write directly into it. An {@link AddMerger} accumulates into its first source. In both cases the
+	 * sources must not be used by any other node.
+	 */
+	private void selectInPlaceMerges( int numBatch ) {
+		Arrays.fill(directMerge, false);
+		for (int i = 1; i < sequence.size(); i++) {
+			Node<T,F> node = sequence.get(i);
+			if( node.sources.size() <= 1 )
+				continue;
+
+			if( node.combine instanceof ConcatenateMerger ) {
+				if( !((ConcatenateMerger<T>)node.combine).isContiguous(numBatch) )
+					continue;
+				boolean exclusive = true;
+				for( InputAddress addr : node.sources ) {
+					int src = indexOf(addr.nodeName);
+					exclusive &= consumers[src].length == 1 && !aliasedOutput[src];
+				}
+				if( !exclusive )
+					continue;
+				directMerge[i] = true;
+				for( InputAddress addr : node.sources ) {
+					aliasedOutput[indexOf(addr.nodeName)] = true;
+				}
+			} else if( node.combine instanceof AddMerger ) {
+				int src = indexOf(node.sources.get(0).nodeName);
+				if( consumers[src].length == 1 && !retained.contains(sequence.get(src).name) )
+					aliasedMerge[i] = true;
+			}
+		}
+	}
+
+	private int indexOf( String name ) {
+		Integer index = indexes.get(name);
+		if( index == null )
+			throw new IllegalArgumentException("Unknown node "+name);
+		return index;
+	}
+
+	/**
+	 * Grows the shared buffers so that they are large enough for this mini-batch size and points
+	 * the output and merge tensors of each node into their assigned buffer
+	 */
+	private void declarePlannedStorage( int numBatch ) {
+		while( buffers.size() < plan.getBufferCount() ) {
+			buffers.add(factory.create());
+		}
+		for (int i = 0; i < plan.getBufferCount(); i++) {
+			pool.reshape(buffers.get(i), numBatch*plan.bufferLength[i]);
+		}
+
+		for (int i = 0; i < sequence.size(); i++) {
+			Node<T,F> node = sequence.get(i);
+			Tuple2<T,T> storage = outputStorage.get(node.name);
+
+			if( plan.outputBuffer[i] >= 0 ) {
+				storage.d0.setData(buffers.get(plan.outputBuffer[i]).getData());
+				storage.d0.reshape(WI(numBatch,node.function.getOutputShape()));
+			}
+			if( plan.mergeBuffer[i] >= 0 ) {
+				if( storage.d1 == null )
+					storage.d1 = factory.create();
+				storage.d1.setData(buffers.get(plan.mergeBuffer[i]).getData());
+				storage.d1.reshape(WI(numBatch,node.combine.getOutputShape()));
 			}
 		}
 	}
@@ -193,75 +451,632 @@ public class FunctionSequence<T extends Tensor<T>, F extends Function<T>>
 	 * @param output Storage for output tensor.
 	 */
 	public void process( T input , T output ) {
-		if( sequence.size() == 1 ) {
-			sequence.get(0).function.forward(input, output);
-			return;
+		if( inputNodes.length != 1 || outputNodes.length != 1 )
+			throw new IllegalArgumentException("Graph has multiple inputs or outputs. Pass in arrays.");
+		singleInput[0] = input;
+		singleOutput[0] = output;
+		try {
+			process(singleInput, singleOutput);
+		} finally {
+			singleInput[0] = singleOutput[0] = null;
 		}
-		// Adjust the size of inner tensors
-		declareOutputStorage(input.length(0));
+	}
 
-		// TODO more meaningful error messages that say which node in the sequence it crashed on
-		// Handle the head node. No input node
-		{
-			Node<T,F> node = sequence.get(0);
-			Tuple2<T,T> storage = outputStorage.get(node.name);
-			node.function.forward(input, storage.d0 );
+	/**
+	 * Processes a graph with multiple inputs and outputs. Each node is only processed once.
+	 *
+	 * @param inputs Input tensors in the same order as {@link #getInputNames()}. All must have the same mini-batch.
+	 * @param outputs Storage for output tensors in the same order as {@link #getOutputNames()}.
+	 */
+	public void process( T[] inputs , T[] outputs ) {
+		if( inputs.length != inputNodes.length )
+			throw new IllegalArgumentException("Expected "+inputNodes.length+" inputs not "+inputs.length);
+		if( outputs.length != outputNodes.length )
+			throw new IllegalArgumentException("Expected "+outputNodes.length+" outputs not "+outputs.length);
+		invalidateCache();
+		// Adjust the size of inner tensors. Only needed when the mini-batch size changes
+		declareBatch(miniBatch(inputs));
+
+		if( concurrent && DeepBoofConcurrency.USE_CONCURRENT ) {
+			AtomicIntegerArray remaining = new AtomicIntegerArray(sequence.size());
+			for (int i = 0; i < sequence.size(); i++) {
+				remaining.set(i, sequence.get(i).sources.size());
+			}
+			DeepBoofConcurrency.getPool().invoke(new NodeTask(null, -1, remaining, inputs, outputs));
+		} else {
+			for (int i = 0; i < program.length; i++) {
+				processNode(i, inputs, outputs);
+			}
 		}
+	}
+
+	/**
+	 * Processes a graph with multiple inputs and outputs. See {@link #process(Tensor[], Tensor[])}.
+	 *
+	 * @param inputs Map from input node name to its input
+	 * @param outputs Map from output node name to storage for its output
+	 */
+	public void process( Map<String,T> inputs , Map<String,T> outputs ) {
+		T[] arrayInputs = createArray(inputNodes.length);
+		T[] arrayOutputs = createArray(outputNodes.length);
+		for (int i = 0; i < inputNodes.length; i++) {
+			arrayInputs[i] = inputs.get(sequence.get(inputNodes[i]).name);
+			if( arrayInputs[i] == null )
+				throw new IllegalArgumentException("Missing input "+sequence.get(inputNodes[i]).name);
+		}
+		for (int i = 0; i < outputNodes.length; i++) {
+			arrayOutputs[i] = outputs.get(sequence.get(outputNodes[i]).name);
+			if( arrayOutputs[i] == null )
+				throw new IllegalArgumentException("Missing output "+sequence.get(outputNodes[i]).name);
+		}
+		process(arrayInputs, arrayOutputs);
+	}
+
+	/**
+	 * Returns the size of the mini-batch after making sure all the inputs have the same size
+	 */
+	private int miniBatch( T[] inputs ) {
+		int numBatch = inputs[0].length(0);
+		for (int i = 1; i < inputs.length; i++) {
+			if( inputs[i].length(0) != numBatch )
+				throw new IllegalArgumentException("Inputs have different mini-batch sizes");
+		}
+		return numBatch;
+	}
+
+	/**
+	 * Declares storage and compiles the program if the mini-batch size has changed
+	 */
+	private void declareBatch( int numBatch ) {
+		if( numBatch == declaredBatch )
+			return;
+		declareOutputStorage(numBatch);
+		compile();
+		declaredBatch = numBatch;
+		invalidateCache();
+	}
 
-		// Handle all the inner nodes in the sequence.
-		List<T> inputs = new ArrayList<>();
-		for (int i = 1; i < sequence.size() - 1; i++) {
+	/**
+	 * Resolves what every node reads and writes into an array of instructions so that processing a node doesn't
+	 * involve looking anything up. Shapes of tensors owned by the sequence are checked here, once, instead of
+	 * every time a node is processed. Must be called after storage has been declared.
+	 */
+	@SuppressWarnings("unchecked")
+	private void compile() {
+		int N = sequence.size();
+		program = (Instruction<T>[])new Instruction<?>[N];
+		for (int i = 0; i < N; i++) {
 			Node<T,F> node = sequence.get(i);
-			Tuple2<T,T> nodeOutput = outputStorage.get(node.name);
+			Tuple2<T,T> storage = outputStorage.get(node.name);
 
-			// Collect input tensors from parent nodes
-			inputs.clear();
-			for (int j = 0; j < node.sources.size(); j++) {
-				InputAddress addr = node.sources.get(j);
-				inputs.add( outputStorage.get(addr.nodeName).d0 );
+			Instruction<T> inst = new Instruction<>();
+			inst.function = node.function;
+			inst.sources = new int[node.sources.size()];
+			for (int j = 0; j < inst.sources.length; j++) {
+				inst.sources[j] = indexOf(node.sources.get(j).nodeName);
+			}
+			// the sequence's inputs and outputs are provided when it's processed
+			inst.output = providedOutput[i] ? null : storage.d0;
+			inst.outputSlot = -1;
+			for (int k = 0; k < outputNodes.length; k++) {
+				if( outputNodes[k] == i )
+					inst.outputSlot = k;
+			}
+			if( inst.sources.length == 0 ) {
+				for (int k = 0; k < inputNodes.length; k++) {
+					if( inputNodes[k] == i )
+						inst.inputSlot = k;
+				}
+			} else if( inst.sources.length == 1 ) {
+				inst.input = outputStorage.get(node.sources.get(0).nodeName).d0;
+			} else if( inst.sources.length > 1 ) {
+				inst.input = storage.d1;
+				if( !directMerge[i] ) {
+					inst.combine = node.combine;
+					inst.merged = new ArrayList<>();
+					for( InputAddress addr : node.sources ) {
+						inst.merged.add(outputStorage.get(addr.nodeName).d0);
+					}
+				}
 			}
 
-			// Process the inputs now and store in output
-			if( node.sources.size() == 1 ) {
-				node.function.forward(inputs.get(0),nodeOutput.d0);
-			} else {
-				node.combine.combine(inputs,nodeOutput.d1);
-				node.function.forward(nodeOutput.d1,nodeOutput.d0);
+			if( inst.input != null && inst.output != null && node.function instanceof BaseFunction ) {
+				((BaseFunction<T>)node.function).checkShapes(inst.input, inst.output);
+				inst.unchecked = true;
 			}
+			program[i] = inst;
 		}
+	}
 
-		// Handle the tail node. No output node
-		{
-			Node<T, F> node = sequence.get(sequence.size() - 1);
-			inputs.clear();
-			for (int j = 0; j < node.sources.size(); j++) {
-				InputAddress addr = node.sources.get(j);
-				inputs.add(outputStorage.get(addr.nodeName).d0);
+	/**
+	 * <p>Only processes the nodes which are needed to compute the output of the target nodes. Nodes after
+	 * the targets are skipped, e.g. when only features from inside the network are needed. Results are read
+	 * using {@link #getNodeOutput(String)}, including for the last node.</p>
+	 *
+	 * <p>If {@link #setCacheOutputs caching} is turned on then outputs from previous calls with the same input
+	 * tensor are reused, so several heads which share a backbone only compute the backbone once. If the
+	 * contents of the input are modified then {@link #invalidateCache()} must be called.</p>
+	 *
+	 * <p>When memory is planned the targets must be {@link #retain retained} and only retained outputs are
+	 * reused between calls.</p>
+	 *
+	 * @param input Input tensor
+	 * @param targets Names of the nodes whose output is needed
+	 */
+	public void processUntil( T input , String... targets ) {
+		T[] inputs = createArray(1);
+		inputs[0] = input;
+		processUntil(inputs, targets);
+	}
+
+	/**
+	 * Same as {@link #processUntil(Tensor, String...)} but for graphs with multiple inputs.
+	 *
+	 * @param inputs Input tensors in the same order as {@link #getInputNames()}
+	 * @param targets Names of the nodes whose output is needed
+	 */
+	public void processUntil( T[] inputs , String... targets ) {
+		if( inputs.length != inputNodes.length )
+			throw new IllegalArgumentException("Expected "+inputNodes.length+" inputs not "+inputs.length);
+		int N = sequence.size();
+		int numBatch = miniBatch(inputs);
+		declareBatch(numBatch);
+		if( !cacheOutputs || !sameInputs(inputs) )
+			invalidateCache();
+		cachedInputs = inputs.clone();
+
+		// go backwards from the targets to find every node which needs to be processed
+		boolean[] needed = new boolean[N];
+		boolean[] target = new boolean[N];
+		for( String name : targets ) {
+			int index = indexOf(name);
+			if( plan != null && !retained.contains(name) )
+				throw new IllegalArgumentException("Targets must be retained when memory is planned. "+name);
+			target[index] = true;
+			needed[index] = !computed[index];
+		}
+		for (int i = N-1; i >= 0; i--) {
+			if( !needed[i] )
+				continue;
+			int[] sources = program[i].sources;
+			if( aliasedMerge[i] && target[sources[0]] )
+				throw new IllegalArgumentException("Output of "+sequence.get(sources[0]).name+
+						" is overwritten by an in-place add. Retain it before initializing.");
+			for( int src : sources ) {
+				if( !computed[src] )
+					needed[src] = true;
 			}
+		}
 
-			if( node.sources.size() == 1 ) {
-				node.function.forward(inputs.get(0),output);
-			} else {
-				Tuple2<T,T> nodeOutput = outputStorage.get(node.name);
-				node.combine.combine(inputs,nodeOutput.d1);
-				node.function.forward(nodeOutput.d1,output);
+		// outputs which normally write into the provided tensor write into the node's storage instead
+		T[] outputs = createArray(outputNodes.length);
+		for (int k = 0; k < outputNodes.length; k++) {
+			int index = outputNodes[k];
+			if( !providedOutput[index] )
+				continue;
+			outputs[k] = outputStorage.get(sequence.get(index).name).d0;
+			if( needed[index] )
+				pool.reshape(outputs[k], WI(numBatch, sequence.get(index).function.getOutputShape()));
+		}
+
+		for (int i = 0; i < N; i++) {
+			if( !needed[i] )
+				continue;
+			processNode(i, inputs, outputs);
+			computed[i] = true;
+			// the first input has been overwritten
+			if( aliasedMerge[i] )
+				computed[program[i].sources[0]] = false;
+		}
+
+		// outputs which aren't retained can share memory with later nodes
+		if( plan != null ) {
+			for (int i = 0; i < N; i++) {
+				computed[i] &= retained.contains(sequence.get(i).name);
 			}
 		}
 	}
 
+	/**
+	 * Discards cached outputs from {@link #processUntil}. Must be called if the input tensor is modified.
+	 */
+	public void invalidateCache() {
+		Arrays.fill(computed, false);
+		cachedInputs = null;
+	}
+
+	private boolean sameInputs( T[] inputs ) {
+		if( cachedInputs == null || cachedInputs.length != inputs.length )
+			return false;
+		for (int i = 0; i < inputs.length; i++) {
+			if( cachedInputs[i] != inputs[i] )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Processes a single node. The head node reads from the sequence's input and the tail node
+	 * writes to the sequence's output
+	 *
+	 */
+	private void processNode( int index , T[] inputs , T[] outputs ) {
+		if( listener == null ) {
+			forwardNode(index, inputs, outputs);
+			return;
+		}
+
+		long allocated = AllocationCounter.currentThread();
+		long before = System.nanoTime();
+		T nodeInput = forwardNode(index, inputs, outputs);
+		long elapsed = System.nanoTime() - before;
+		if( allocated >= 0 )
+			allocated = AllocationCounter.currentThread() - allocated;
+
+		Instruction<T> inst = program[index];
+		T nodeOutput = inst.output == null ? outputs[inst.outputSlot] : inst.output;
+		listener.nodeProcessed(index, sequence.get(index), nodeInput, nodeOutput, elapsed, allocated);
+	}
+
+	/**
+	 * Merges the node's inputs, if needed, and calls its function
+	 *
+	 * @return The tensor which was passed into the function
+	 */
+	@SuppressWarnings("unchecked")
+	private T forwardNode( int index , T[] inputs , T[] outputs ) {
+		Instruction<T> inst = program[index];
+		T src = inst.input == null ? inputs[inst.inputSlot] : inst.input;
+		T dst = inst.output == null ? outputs[inst.outputSlot] : inst.output;
+
+		if( inst.combine != null )
+			inst.combine.combine(inst.merged, src);
+		if( inst.unchecked )
+			((BaseFunction<T>)inst.function).forwardUnchecked(src, dst);
+		else
+			inst.function.forward(src, dst);
+
+		// outputs which are read by other nodes are copied
+		if( inst.output != null && inst.outputSlot >= 0 && outputs[inst.outputSlot] != null )
+			outputs[inst.outputSlot].setTo(dst);
+		return src;
+	}
+
+	/**
+	 * Computes the index of every node which consumes the output of each node
+	 */
+	private void findConsumers() {
+		Map<String,Integer> indexes = new HashMap<>();
+		for (int i = 0; i < sequence.size(); i++) {
+			indexes.put(sequence.get(i).name, i);
+		}
+
+		List<List<Integer>> found = new ArrayList<>();
+		for (int i = 0; i < sequence.size(); i++) {
+			found.add(new ArrayList<>());
+		}
+		for (int i = 0; i < sequence.size(); i++) {
+			for( InputAddress addr : sequence.get(i).sources ) {
+				found.get(indexes.get(addr.nodeName)).add(i);
+			}
+		}
+
+		consumers = new int[sequence.size()][];
+		for (int i = 0; i < sequence.size(); i++) {
+			List<Integer> list = found.get(i);
+			consumers[i] = new int[list.size()];
+			for (int j = 0; j < list.size(); j++) {
+				consumers[i][j] = list.get(j);
+			}
+		}
+	}
+
+	/**
+	 * Processes a node then every node which it made ready. The first ready node is processed in the
+	 * same thread and the others are forked. Completes once every task it forked has completed.
+	 */
+	@SuppressWarnings("serial")
+	private class NodeTask extends CountedCompleter<Void> {
+		int index;
+		AtomicIntegerArray remaining;
+		T[] inputs, outputs;
+
+		/**
+		 * @param index Node which is processed. If -1 then processing starts from every input node.
+		 */
+		NodeTask( CountedCompleter<?> parent , int index , AtomicIntegerArray remaining , T[] inputs , T[] outputs ) {
+			super(parent);
+			this.index = index;
+			this.remaining = remaining;
+			this.inputs = inputs;
+			this.outputs = outputs;
+		}
+
+		@Override
+		public void compute() {
+			int current = index;
+			if( current < 0 ) {
+				current = inputNodes[0];
+				for (int k = 1; k < inputNodes.length; k++) {
+					addToPendingCount(1);
+					new NodeTask(this, inputNodes[k], remaining, inputs, outputs).fork();
+				}
+			}
+			while( current >= 0 ) {
+				processNode(current, inputs, outputs);
+
+				// a consumer is ready once all of its sources have been processed
+				int next = -1;
+				for( int c : consumers[current] ) {
+					if( remaining.decrementAndGet(c) != 0 )
+						continue;
+					if( next < 0 ) {
+						next = c;
+					} else {
+						addToPendingCount(1);
+						new NodeTask(this, c, remaining, inputs, outputs).fork();
+					}
+				}
+				current = next;
+			}
+			tryComplete();
+		}
+	}
+
+	/**
+	 * Returns the memory used to store the output of each node to the pool. Memory will be
+	 * acquired again the next time {@link #process} is called. Combine with {@link TensorPool#trim()} to
+	 * release memory after a burst of large mini-batches.
+	 */
+	public void releaseStorage() {
+		declaredBatch = -1;
+		invalidateCache();
+		if( plan != null ) {
+			// node tensors only reference the shared buffers, except for provided outputs which own the memory
+			// given to them by processUntil()
+			for (int i = 0; i < sequence.size(); i++) {
+				Tuple2<T,T> storage = outputStorage.get(sequence.get(i).name);
+				if( storage == null )
+					continue;
+				if( i < providedOutput.length && providedOutput[i] )
+					pool.release(storage.d0);
+				else
+					detach(storage.d0);
+				if( storage.d1 != null )
+					detach(storage.d1);
+			}
+			for( T buffer : buffers ) {
+				pool.release(buffer);
+			}
+		} else {
+			for (int i = 0; i < sequence.size(); i++) {
+				Tuple2<T,T> storage = outputStorage.get(sequence.get(i).name);
+				if( storage == null )
+					continue;
+				// tensors which reference another node's memory don't own it
+				if( i < aliasedOutput.length && aliasedOutput[i] ) {
+					detach(storage.d0);
+					aliasedOutput[i] = false;
+				} else {
+					pool.release(storage.d0);
+				}
+				if( i < aliasedMerge.length && aliasedMerge[i] ) {
+					detach(storage.d1);
+					aliasedMerge[i] = false;
+				} else if( storage.d1 != null ) {
+					pool.release(storage.d1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates an array which can store tensors of the sequence's type
+	 */
+	@SuppressWarnings("unchecked")
+	private T[] createArray( int length ) {
+		return (T[])Array.newInstance(getTensorType(), length);
+	}
+
+	private void detach( T tensor ) {
+		tensor.setData(Array.newInstance(tensor.getDataType(),0));
+		tensor.startIndex = 0;
+		tensor.subtensor = false;
+		tensor.reshape(0);
+	}
+
+	/**
+	 * Pool which memory for the output of each node is drawn from
+	 */
+	public TensorPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Changes the pool which output memory is drawn from. Allows multiple sequences to share memory.
+	 * Should be called before {@link #initialize}.
+	 */
+	public void setPool( TensorPool pool ) {
+		this.pool = pool;
+		this.factory.setPool(pool);
+	}
+
+	/**
+	 * If true then the output of nodes will share memory once they are no longer needed, reducing peak memory
+	 * to close to the largest set of outputs which are needed at the same time. Only the output of nodes
+	 * which have been {@link #retain retained} can be inspected with {@link #getNodeOutput} after processing.
+	 * Must be called before {@link #initialize}.
+	 */
+	public void setMemoryPlanning( boolean planMemory ) {
+		this.planMemory = planMemory;
+	}
+
+	public boolean isMemoryPlanning() {
+		return planMemory;
+	}
+
+	/**
+	 * <p>If true then nodes are processed as soon as all of their sources have been processed, allowing
+	 * independent branches, e.g. inception modules, to be processed at the same time. Nodes are
+	 * scheduled on {@link DeepBoofConcurrency#getPool()}. Every node has its own output storage so branches
+	 * don't interfere with each other. Functions are only ever called by one thread at a time, but not always
+	 * the same thread.</p>
+	 *
+	 * <p>Can't be combined with {@link #setMemoryPlanning memory planning}. Must be called before
+	 * {@link #initialize}.</p>
+	 */
+	public void setConcurrent( boolean concurrent ) {
+		this.concurrent = concurrent;
+	}
+
+	public boolean isConcurrent() {
+		return concurrent;
+	}
+
+	/**
+	 * If true then outputs computed by {@link #processUntil} are kept and reused by later calls with the same
+	 * input tensor. Several heads which share a backbone can then be computed without processing the backbone
+	 * more than once.
+	 */
+	public void setCacheOutputs( boolean cacheOutputs ) {
+		this.cacheOutputs = cacheOutputs;
+		invalidateCache();
+	}
+
+	public boolean isCacheOutputs() {
+		return cacheOutputs;
+	}
+
+	/**
+	 * Marks nodes whose output should never be overwritten, either when memory is planned or by an in-place
+	 * merge. Must be called before {@link #initialize}.
+	 *
+	 * @param names Names of the nodes
+	 */
+	public void retain( String... names ) {
+		for( String name : names ) {
+			if( !lookup.containsKey(name) )
+				throw new IllegalArgumentException("Unknown node "+name);
+			retained.add(name);
+		}
+	}
+
+	/**
+	 * The memory plan or null if memory isn't being planned or it hasn't been initialized yet
+	 */
+	public SequenceMemoryPlan getMemoryPlan() {
+		return plan;
+	}
+
+	/**
+	 * Specifies a listener which is called after each node has been processed, e.g. {@link SequenceProfiler}.
+	 * Nodes are only timed when there is a listener.
+	 *
+	 * @param listener The listener or null to remove it
+	 */
+	public void setListener( SequenceListener<T> listener ) {
+		this.listener = listener;
+	}
+
+	public SequenceListener<T> getListener() {
+		return listener;
+	}
+
 	public List<Node<T, F>> getSequence() {
 		return sequence;
 	}
 
+	/**
+	 * Returns the output of a node. If memory is being planned then this is only valid for nodes
+	 * which have been retained.
+	 */
 	public T getNodeOutput(int index ) {
 		return outputStorage.get( sequence.get(index).name ).d0;
 	}
 
+	/**
+	 * Returns the output of the named node. See {@link #getNodeOutput(int)}.
+	 */
+	public T getNodeOutput( String name ) {
+		Tuple2<T,T> storage = outputStorage.get(name);
+		if( storage == null )
+			throw new IllegalArgumentException("Unknown node "+name);
+		return storage.d0;
+	}
+
+	/**
+	 * Shape of the first output, without the mini-batch
+	 */
 	public int[] getOutputShape() {
-		return sequence.get( sequence.size()-1 ).function.getOutputShape();
+		int index = outputNodes.length > 0 ? outputNodes[0] : sequence.size()-1;
+		return sequence.get(index).function.getOutputShape();
+	}
+
+	/**
+	 * Shape of the named node's output, without the mini-batch
+	 */
+	public int[] getOutputShape( String name ) {
+		return sequence.get(indexOf(name)).function.getOutputShape();
+	}
+
+	/**
+	 * Specifies which nodes are outputs and the order they are passed into {@link #process(Tensor[], Tensor[])}.
+	 * If not called then the last node is the only output. Must be called before {@link #initialize}.
+	 *
+	 * @param names Names of the output nodes
+	 */
+	public void setOutputs( String... names ) {
+		outputNames.clear();
+		for( String name : names ) {
+			indexOf(name);
+			outputNames.add(name);
+		}
+	}
+
+	/**
+	 * Names of the input nodes in the order the inputs are passed in. Valid after {@link #initialize}.
+	 */
+	public List<String> getInputNames() {
+		List<String> names = new ArrayList<>();
+		for( int index : inputNodes ) {
+			names.add(sequence.get(index).name);
+		}
+		return names;
+	}
+
+	/**
+	 * Names of the output nodes in the order the outputs are passed in. Valid after {@link #initialize}.
+	 */
+	public List<String> getOutputNames() {
+		List<String> names = new ArrayList<>();
+		for( int index : outputNodes ) {
+			names.add(sequence.get(index).name);
+		}
+		return names;
 	}
 
 	public Class<T> getTensorType() {
 		return factory.getTensorType();
 	}
+
+	/**
+	 * Everything needed to process a node with its addresses resolved
+	 */
+	protected static class Instruction<T extends Tensor<T>> {
+		Function<T> function;
+		// index of each source node
+		int[] sources;
+		// which of the sequence's inputs is read and which of its outputs is written. -1 if none
+		int inputSlot = -1;
+		int outputSlot = -1;
+		// tensor passed to the function. null for the sequence's inputs
+		T input;
+		// tensor the function writes to. null for outputs which are provided
+		T output;
+		// if not null then the merged tensors are combined into input
+		TensorMerger<T> combine;
+		List<T> merged;
+		// true if the shapes have already been checked
+		boolean unchecked;
+	}
 }
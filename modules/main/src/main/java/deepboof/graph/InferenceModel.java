@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * <p>Immutable description of a network which can be shared between threads. It contains the network's structure,
+ * the shape of its input, and one copy of its learned parameters. Processing is done by
+ * {@link InferenceSession sessions}, typically one for each thread, which only own the functions' work space and
+ * the output of each node. Parameter tensors are passed to every session's functions, and functions which
+ * only reference them, such as {@link deepboof.forward.FunctionLinear}, share a single copy of the weights. Functions
+ * which copy their parameters into an internal form, such as {@link deepboof.forward.FunctionBatchNorm}, keep a
+ * copy in each session.</p>
+ *
+ * <p>{@link Function Functions} store state while processing so they can't be shared. Instead the model is given
+ * a supplier which creates a new set of nodes each time it's called. Functions don't declare memory for their
+ * parameters until they have been set, so this is cheap.</p>
+ *
+ * <pre>
+ * InferenceModel&lt;Tensor_F32,?&gt; model = new InferenceModel&lt;&gt;(() -&gt; createNodes(), parameters, Tensor_F32.class, 3,224,224);
+ * // in each thread
+ * InferenceSession&lt;Tensor_F32,?&gt; session = model.createSession();
+ * session.process(input, output);
+ * </pre>
+ *
+ * <p>Parameter tensors must not be modified after the model has been created.</p>
+ *
+ * @author Peter Abeles
+ */
+public class InferenceModel<T extends Tensor<T>, F extends Function<T>> {
+	// creates a new set of nodes for each session
+	private final Supplier<List<Node<T,F>>> graph;
+	// learned parameters for each node. Given to every session
+	private final Map<String,List<T>> parameters;
+	private final Class<T> type;
+	// shape of a single input. Doesn't include the mini-batch
+	private final int[] inputShape;
+	// shape of a single output. Doesn't include the mini-batch
+	private final int[] outputShape;
+	// functions which have been given to a session. Used to detect a graph supplier which doesn't create new ones
+	private final Set<Object> usedFunctions = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+	/**
+	 * Creates the model. A session is created to make sure that the graph and parameters are compatible.
+	 *
+	 * @param graph Creates a new set of nodes each time it's called. Nodes don't need to be in forward order.
+	 * @param parameters Map from node name to that node's parameters. Tensors are referenced, not copied.
+	 * @param type Type of tensor
+	 * @param inputShape Shape of the input tensor, without the mini-batch
+	 */
+	public InferenceModel( Supplier<List<Node<T,F>>> graph , Map<String,List<T>> parameters ,
+						   Class<T> type , int ...inputShape ) {
+		this.graph = graph;
+		this.type = type;
+		this.inputShape = inputShape.clone();
+
+		Map<String,List<T>> copy = new HashMap<>();
+		for( Map.Entry<String,List<T>> e : parameters.entrySet() ) {
+			copy.put(e.getKey(), Collections.unmodifiableList(new ArrayList<>(e.getValue())));
+		}
+		this.parameters = Collections.unmodifiableMap(copy);
+
+		this.outputShape = createSession().getOutputShape().clone();
+	}
+
+	/**
+	 * Creates a new session for processing inputs. Each session can be used by one thread at a time.
+	 * Sessions are given the model's parameters and allocate memory for their own work space and for any
+	 * function which keeps an internal copy of its parameters.
+	 */
+	public InferenceSession<T,F> createSession() {
+		return new InferenceSession<>(this, createSequence(inputShape));
+	}
+
+	/**
+	 * Creates a new set of nodes and initializes them for the specified input shape
+	 *
+	 * @param inputShape Shape of the input tensor, without the mini-batch
+	 */
+	@SuppressWarnings("unchecked")
+	FunctionSequence<T,F> createSequence( int[] inputShape ) {
+		List<Node<T,F>> nodes = graph.get();
+		if( nodes.isEmpty() )
+			throw new IllegalArgumentException("Graph has no nodes");
+
+		for( Node<T,F> n : nodes ) {
+			if( !usedFunctions.add(n.function) )
+				throw new IllegalArgumentException("Function is already used by another node or session. "+n.name);
+		}
+
+		List<Node<?,?>> ordered = new SequenceForwardOrder((List)nodes).putIntoForwardOrder();
+		FunctionSequence<T,F> sequence = new FunctionSequence<>((List)ordered, type);
+		sequence.initialize(inputShape);
+		sequence.setParameters(parameters);
+		return sequence;
+	}
+
+	/**
+	 * Parameters for each node. Read only.
+	 */
+	public Map<String,List<T>> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Shape of the input without the mini-batch
+	 */
+	public int[] getInputShape() {
+		return inputShape.clone();
+	}
+
+	/**
+	 * Shape of the output without the mini-batch
+	 */
+	public int[] getOutputShape() {
+		return outputShape.clone();
+	}
+
+	public Class<T> getTensorType() {
+		return type;
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Processes inputs of different shapes using an {@link InferenceModel} without initializing the network each
+ * time the shape changes. A {@link FunctionSequence} is created for each input shape, including the mini-batch,
+ * and is kept along with its initialized functions and sized node outputs. Switching between a few common
+ * mini-batch sizes and resolutions then has no cost after each one has been seen once.</p>
+ *
+ * <p>The least recently used plan is discarded when there are more than {@link #setMaxEntries max entries}
+ * or the memory used by node outputs exceeds {@link #setMaxBytes max bytes}. The most recently used plan is
+ * never discarded. Memory used internally by functions isn't included.</p>
+ *
+ * <p>Like {@link InferenceSession}, a cache can only be used by one thread at a time.</p>
+ *
+ * @author Peter Abeles
+ */
+public class InferencePlanCache<T extends Tensor<T>, F extends Function<T>> {
+	InferenceModel<T,F> model;
+
+	// Plans ordered from least to most recently used
+	Map<ShapeKey,Entry<T,F>> entries = new LinkedHashMap<>(16, 0.75f, true);
+	// The most recently used plan. Checked first to avoid looking up the shape
+	Entry<T,F> last;
+
+	int maxEntries = 8;
+	long maxBytes = Long.MAX_VALUE;
+
+	// Memory used by all the plans
+	long totalBytes;
+
+	int hits, misses, evictions;
+
+	public InferencePlanCache( InferenceModel<T,F> model ) {
+		this.model = model;
+	}
+
+	/**
+	 * Processes the input using the plan for its shape, creating the plan if needed
+	 *
+	 * @param input Input tensor, which includes the mini-batch
+	 * @param output Storage for the output. Must have the expected shape.
+	 */
+	public void process( T input , T output ) {
+		Entry<T,F> entry = lookup(input.shape);
+		entry.sequence.process(input, output);
+
+		long bytes = entry.sequence.getPool().getBytesInUse();
+		totalBytes += bytes - entry.bytes;
+		entry.bytes = bytes;
+		evict();
+	}
+
+	/**
+	 * Shape of the output, which includes the mini-batch, for the specified input shape. Creates a plan
+	 * for the shape if there isn't one already.
+	 *
+	 * @param inputShape Shape of the input, which includes the mini-batch
+	 */
+	public int[] getOutputShape( int ...inputShape ) {
+		Entry<T,F> entry = lookup(inputShape);
+		int[] shape = entry.sequence.getOutputShape();
+		int[] out = new int[shape.length+1];
+		out[0] = inputShape[0];
+		System.arraycopy(shape,0,out,1,shape.length);
+		return out;
+	}
+
+	private Entry<T,F> lookup( int[] shape ) {
+		if( last != null && Arrays.equals(last.key.shape, shape) ) {
+			hits++;
+			return last;
+		}
+
+		ShapeKey key = new ShapeKey(shape.clone());
+		Entry<T,F> entry = entries.get(key);
+		if( entry == null ) {
+			misses++;
+			entry = new Entry<>();
+			entry.key = key;
+			entry.sequence = model.createSequence(Arrays.copyOfRange(shape,1,shape.length));
+			entries.put(key, entry);
+		} else {
+			hits++;
+		}
+		last = entry;
+		return entry;
+	}
+
+	/**
+	 * Discards the least recently used plans until the limits are satisfied
+	 */
+	private void evict() {
+		Iterator<Entry<T,F>> iter = entries.values().iterator();
+		while( entries.size() > 1 && (entries.size() > maxEntries || totalBytes > maxBytes) ) {
+			Entry<T,F> e = iter.next();
+			if( e == last )
+				break;
+			iter.remove();
+			totalBytes -= e.bytes;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Discards all the plans
+	 */
+	public void clear() {
+		entries.clear();
+		last = null;
+		totalBytes = 0;
+	}
+
+	/**
+	 * Maximum number of plans which are kept
+	 */
+	public void setMaxEntries( int maxEntries ) {
+		if( maxEntries < 1 )
+			throw new IllegalArgumentException("Must keep at least one plan");
+		this.maxEntries = maxEntries;
+		evict();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Maximum number of bytes used by node outputs of all the plans
+	 */
+	public void setMaxBytes( long maxBytes ) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Number of plans which are currently stored
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns true if there's a plan for the input shape, which includes the mini-batch
+	 */
+	public boolean contains( int ...inputShape ) {
+		return entries.containsKey(new ShapeKey(inputShape));
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	public int getEvictions() {
+		return evictions;
+	}
+
+	public InferenceModel<T,F> getModel() {
+		return model;
+	}
+
+	static class Entry<T extends Tensor<T>, F extends Function<T>> {
+		ShapeKey key;
+		FunctionSequence<T,F> sequence;
+		// memory used by node outputs the last time it was processed
+		long bytes;
+	}
+
+	/**
+	 * Wrapper around a shape so that it can be used as a key
+	 */
+	static class ShapeKey {
+		int[] shape;
+
+		ShapeKey( int[] shape ) {
+			this.shape = shape;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			return o instanceof ShapeKey && Arrays.equals(shape, ((ShapeKey)o).shape);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(shape);
+		}
+	}
+}
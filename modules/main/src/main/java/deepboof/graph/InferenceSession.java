@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.misc.TensorFactory;
+
+import static deepboof.misc.TensorOps.WI;
+
+/**
+ * Processes inputs using an {@link InferenceModel}. Owns its own functions, work space, and node outputs
+ * but references the model's parameters. A session can only be used by one thread at a time. Create
+ * a session for each thread instead.
+ *
+ * @author Peter Abeles
+ */
+public class InferenceSession<T extends Tensor<T>, F extends Function<T>> {
+	InferenceModel<T,F> model;
+	FunctionSequence<T,F> sequence;
+
+	// storage for the output when it isn't provided
+	T output;
+
+	InferenceSession( InferenceModel<T,F> model , FunctionSequence<T,F> sequence ) {
+		this.model = model;
+		this.sequence = sequence;
+		this.output = new TensorFactory<T>(model.getTensorType()).create();
+	}
+
+	/**
+	 * Processes the input
+	 *
+	 * @param input Input tensor, which includes the mini-batch
+	 * @param output Storage for the output. Must have the expected shape.
+	 */
+	public void process( T input , T output ) {
+		sequence.process(input, output);
+	}
+
+	/**
+	 * Processes the input and writes the results into storage owned by the session. The returned tensor
+	 * is overwritten the next time this function is called.
+	 *
+	 * @param input Input tensor, which includes the mini-batch
+	 * @return The output
+	 */
+	public T process( T input ) {
+		output.reshape(WI(input.length(0), getOutputShape()));
+		sequence.process(input, output);
+		return output;
+	}
+
+	/**
+	 * Returns the memory used by node outputs to the session's pool
+	 */
+	public void release() {
+		sequence.releaseStorage();
+	}
+
+	/**
+	 * Shape of the output without the mini-batch
+	 */
+	public int[] getOutputShape() {
+		return sequence.getOutputShape();
+	}
+
+	public InferenceModel<T,F> getModel() {
+		return model;
+	}
+
+	/**
+	 * The sequence owned by this session. Can be used to adjust settings such as memory planning,
+	 * after which it must be initialized again with the model's input shape.
+	 */
+	public FunctionSequence<T,F> getSequence() {
+		return sequence;
+	}
+}
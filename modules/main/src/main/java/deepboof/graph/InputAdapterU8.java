@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.Tensor;
+import deepboof.misc.TensorFactory;
+import deepboof.misc.TensorOps_F32;
+import deepboof.misc.TensorOps_F64;
+import deepboof.tensors.Tensor_F32;
+import deepboof.tensors.Tensor_F64;
+import deepboof.tensors.Tensor_U8;
+
+/**
+ * Lets a {@link FunctionSequence} process images composed of bytes, e.g. directly from a camera or
+ * a data set. Input is normalized using the mean and standard deviation of each channel and converted
+ * into the sequence's tensor type in a single pass, see {@link TensorOps_F32#normalizeU8}.
+ *
+ * @author Peter Abeles
+ */
+public class InputAdapterU8<T extends Tensor<T>> {
+
+	FunctionSequence<T,?> sequence;
+
+	// is the input interleaved (N,...,C) or planar (N,C,...)
+	boolean interleaved;
+	double[] mean;
+	double[] stdev;
+	// mean and stdev as floats. Converted once here instead of each time it's processed
+	float[] mean32;
+	float[] stdev32;
+
+	// storage for the normalized input
+	T normalized;
+
+	/**
+	 * Configures the adapter
+	 *
+	 * @param sequence The sequence which will process the normalized input
+	 * @param mean Mean of each channel, in the same units as the bytes, e.g. 0 to 255
+	 * @param stdev Standard deviation of each channel, in the same units as the bytes
+	 * @param interleaved true if the input is interleaved (N,...,C) or false if planar (N,C,...)
+	 */
+	public InputAdapterU8( FunctionSequence<T,?> sequence ,
+						   double[] mean , double[] stdev , boolean interleaved ) {
+		if( mean.length != stdev.length )
+			throw new IllegalArgumentException("mean and stdev must have the same length");
+		this.sequence = sequence;
+		this.mean = mean.clone();
+		this.stdev = stdev.clone();
+		this.interleaved = interleaved;
+
+		mean32 = new float[mean.length];
+		stdev32 = new float[mean.length];
+		for (int i = 0; i < mean.length; i++) {
+			mean32[i] = (float)mean[i];
+			stdev32[i] = (float)stdev[i];
+		}
+
+		normalized = new TensorFactory<T>(sequence.getTensorType()).create();
+	}
+
+	/**
+	 * Initializes the sequence using the shape of the byte input, without the mini-batch axis.
+	 *
+	 * @param inputShape Shape of the byte input. (C,...) if planar or (...,C) if interleaved
+	 */
+	public void initialize( int[] inputShape ) {
+		sequence.initialize(planarShape(inputShape));
+	}
+
+	/**
+	 * Normalizes the input then processes it with the sequence
+	 *
+	 * @param input Byte input which includes the mini-batch axis
+	 * @param output Storage for the sequence's output
+	 */
+	public void process( Tensor_U8 input , T output ) {
+		normalize(input, normalized);
+		sequence.process(normalized, output);
+	}
+
+	/**
+	 * Normalizes the input and converts it into the sequence's tensor type
+	 *
+	 * @param input Byte input which includes the mini-batch axis
+	 * @param output Storage for normalized input. Reshaped.
+	 */
+	public void normalize( Tensor_U8 input , T output ) {
+		if( output instanceof Tensor_F32 ) {
+			TensorOps_F32.normalizeU8(input, interleaved, mean32, stdev32, (Tensor_F32)output);
+		} else if( output instanceof Tensor_F64 ) {
+			TensorOps_F64.normalizeU8(input, interleaved, mean, stdev, (Tensor_F64)output);
+		} else {
+			throw new IllegalArgumentException("Unsupported tensor type "+output.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * Converts the shape of the byte input into the shape seen by the sequence
+	 */
+	public int[] planarShape( int[] inputShape ) {
+		if( !interleaved )
+			return inputShape.clone();
+
+		int[] shape = new int[inputShape.length];
+		shape[0] = inputShape[inputShape.length-1];
+		System.arraycopy(inputShape, 0, shape, 1, inputShape.length - 1);
+		return shape;
+	}
+
+	public FunctionSequence<T, ?> getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * The most recently normalized input
+	 */
+	public T getNormalized() {
+		return normalized;
+	}
+
+	public boolean isInterleaved() {
+		return interleaved;
+	}
+}
@@ -0,0 +1,605 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.misc.TensorFactory;
+import deepboof.misc.TensorOps;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static deepboof.misc.TensorOps.WI;
+
+/**
+ * <p>Processes a stream of inputs through a {@link FunctionSequence} by splitting the sequence into stages which
+ * run in their own threads. While one input is in the later stages the next input can be in the early stages,
+ * so throughput scales with the number of stages at the cost of a small increase in latency. Stages are
+ * contiguous ranges of nodes in the sequence's order and are selected so that the most expensive stage is as
+ * cheap as possible, using costs from {@link #calibrate} or provided by the user.</p>
+ *
+ * <p>Inputs move between stages through bounded queues. Outputs which are only read inside of a stage are
+ * stored once per stage, sharing memory as described in {@link SequenceMemoryPlan}. Outputs which are read by
+ * later stages are double buffered, so a stage can be writing one input's outputs while later stages read the
+ * previous input's. A stage waits when both of its buffers are still being read. When the pipeline is full
+ * {@link #push} blocks until the oldest input has been {@link #take taken}.</p>
+ *
+ * <pre>
+ * pipeline.calibrate(sample, 5);
+ * pipeline.start();
+ * for( ... ) {
+ *     pipeline.push(input, output);
+ *     ...
+ *     T result = pipeline.take();
+ * }
+ * pipeline.stop();
+ * </pre>
+ *
+ * <p>The sequence must be initialized and have its parameters set. It must not be processed by anything else
+ * while the pipeline is running.</p>
+ *
+ * @author Peter Abeles
+ */
+public class PipelinedSequence<T extends Tensor<T>, F extends Function<T>> {
+	// the sequence which is being pipelined
+	FunctionSequence<T,F> sequence;
+	// nodes in the order they are processed
+	List<Node<T,F>> nodes;
+	// index of each source for every node
+	int[][] sources;
+
+	// index of the first node in each stage. The last element is the number of nodes
+	int[] stageStart;
+	// stage which each node is in
+	int[] stageOf;
+	// true if the node's output is read by a later stage
+	boolean[] exported;
+	// the last stage which reads outputs exported by each stage
+	int[] lastReader;
+
+	// storage and workspace for each stage
+	List<Stage> stages = new ArrayList<>();
+	// One for each input which can be in the pipeline
+	List<Frame> frames = new ArrayList<>();
+	// Frames which are not in the pipeline
+	BlockingQueue<Frame> available;
+	// queues[i] feeds stage i. The last queue holds finished frames
+	List<BlockingQueue<Frame>> queues = new ArrayList<>();
+	// number of frames which have been pushed but not taken
+	AtomicInteger pending = new AtomicInteger();
+
+	List<Thread> threads = new ArrayList<>();
+
+	// used to create tensors
+	TensorFactory<T> factory;
+
+	// passed through the queues to shut down stages
+	final Frame STOP = new Frame();
+
+	/**
+	 * Creates the pipeline
+	 *
+	 * @param sequence The sequence which is to be processed. Must already be initialized.
+	 * @param numStages Number of stages/threads the sequence is split into
+	 */
+	public PipelinedSequence( FunctionSequence<T,F> sequence , int numStages ) {
+		this.sequence = sequence;
+		this.nodes = sequence.getSequence();
+		if( numStages <= 0 || numStages > nodes.size() )
+			throw new IllegalArgumentException("Number of stages must be from 1 to the number of nodes");
+		if( sequence.getInputNames().size() != 1 || !sequence.getOutputNames().equals(
+				Collections.singletonList(nodes.get(nodes.size()-1).name)) )
+			throw new IllegalArgumentException("Only sequences with one input and the last node as the output are supported");
+
+		Map<String,Integer> indexes = new HashMap<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			indexes.put(nodes.get(i).name, i);
+		}
+		sources = new int[nodes.size()][];
+		for (int i = 0; i < nodes.size(); i++) {
+			List<InputAddress> list = nodes.get(i).sources;
+			sources[i] = new int[list.size()];
+			for (int j = 0; j < list.size(); j++) {
+				sources[i][j] = indexes.get(list.get(j).nodeName);
+			}
+		}
+
+		factory = new TensorFactory<>(sequence.getTensorType());
+
+		// until costs are known give each stage the same number of nodes
+		double[] cost = new double[nodes.size()];
+		Arrays.fill(cost, 1);
+		stageStart = partition(cost, numStages);
+	}
+
+	/**
+	 * Measures how long it takes to process each node and selects the stages using the average. Must be called
+	 * before {@link #start}.
+	 *
+	 * @param input Example input
+	 * @param trials Number of times the input is processed
+	 * @return Average time in nanoseconds each node took
+	 */
+	public double[] calibrate( T input , int trials ) {
+		if( isRunning() )
+			throw new IllegalStateException("Can't calibrate while running");
+		if( trials <= 0 )
+			throw new IllegalArgumentException("trials must be positive");
+
+		T output = factory.create(WI(input.length(0),nodes.get(nodes.size()-1).function.getOutputShape()));
+
+		// the sequence times each node when it has a listener
+		double[] cost = new double[nodes.size()];
+		SequenceListener<T> previous = sequence.getListener();
+		sequence.setListener((index, node, in, out, nanoseconds, allocated) -> cost[index] += nanoseconds);
+		try {
+			for (int trial = 0; trial < trials; trial++) {
+				sequence.process(input, output);
+			}
+		} finally {
+			sequence.setListener(previous);
+		}
+		for (int i = 0; i < cost.length; i++) {
+			cost[i] /= trials;
+		}
+
+		setCost(cost);
+		return cost;
+	}
+
+	/**
+	 * Selects the stages using the cost of each node
+	 */
+	public void setCost( double[] cost ) {
+		if( isRunning() )
+			throw new IllegalStateException("Can't change stages while running");
+		if( cost.length != nodes.size() )
+			throw new IllegalArgumentException("Expected one cost for each node");
+		stageStart = partition(cost, getStageCount());
+	}
+
+	/**
+	 * Splits the costs into contiguous stages so that the cost of the most expensive stage is minimized.
+	 *
+	 * @param cost Cost of each element
+	 * @param numStages Number of stages
+	 * @return Index of the first element in each stage, followed by the number of elements
+	 */
+	public static int[] partition( double[] cost , int numStages ) {
+		int N = cost.length;
+		if( numStages <= 0 || numStages > N )
+			throw new IllegalArgumentException("Number of stages must be from 1 to the number of elements");
+
+		double[] prefix = new double[N+1];
+		for (int i = 0; i < N; i++) {
+			prefix[i+1] = prefix[i] + cost[i];
+		}
+
+		// best[k][i] = smallest maximum stage cost when the first i elements are split into k stages
+		double[][] best = new double[numStages+1][N+1];
+		int[][] split = new int[numStages+1][N+1];
+		for (int i = 1; i <= N; i++) {
+			best[1][i] = prefix[i];
+		}
+		for (int k = 2; k <= numStages; k++) {
+			for (int i = k; i <= N; i++) {
+				best[k][i] = Double.MAX_VALUE;
+				for (int j = k-1; j < i; j++) {
+					double c = Math.max(best[k-1][j], prefix[i]-prefix[j]);
+					if( c < best[k][i] ) {
+						best[k][i] = c;
+						split[k][i] = j;
+					}
+				}
+			}
+		}
+
+		int[] start = new int[numStages+1];
+		start[numStages] = N;
+		for (int k = numStages; k > 1; k--) {
+			start[k-1] = split[k][start[k]];
+		}
+		return start;
+	}
+
+	/**
+	 * Launches a thread for each stage
+	 */
+	public void start() {
+		if( isRunning() )
+			throw new IllegalStateException("Already running");
+
+		int numStages = getStageCount();
+		selectExported();
+		stages.clear();
+		for (int i = 0; i < numStages; i++) {
+			stages.add(new Stage(i));
+		}
+		frames.clear();
+		while( frames.size() < getCapacity() ) {
+			Frame frame = new Frame();
+			frame.exports.addAll(Collections.nCopies(numStages, null));
+			frames.add(frame);
+		}
+		available = new ArrayBlockingQueue<>(frames.size(), false, frames);
+		queues.clear();
+		for (int i = 0; i <= numStages; i++) {
+			queues.add(new ArrayBlockingQueue<>(frames.size()+1));
+		}
+		pending.set(0);
+
+		threads.clear();
+		for (int i = 0; i < numStages; i++) {
+			final int stage = i;
+			Thread t = new Thread(() -> runStage(stage), "DeepBoof-Stage-"+i);
+			t.setDaemon(true);
+			threads.add(t);
+			t.start();
+		}
+	}
+
+	/**
+	 * Adds an input to the pipeline. Blocks if the pipeline is full, until another thread calls {@link #take}.
+	 * If results are taken by the same thread then no more than {@link #getCapacity()} inputs can be pending.
+	 * Neither tensor can be modified until the result has been returned by {@link #take}.
+	 *
+	 * @param input Input tensor
+	 * @param output Storage for the output tensor. Must have the expected shape.
+	 */
+	public void push( T input , T output ) {
+		if( !isRunning() )
+			throw new IllegalStateException("Not running");
+		Frame frame = waitFor(available);
+		frame.input = input;
+		frame.output = output;
+		frame.error = null;
+		pending.incrementAndGet();
+		put(queues.get(0), frame);
+	}
+
+	/**
+	 * Waits for the oldest input to finish being processed and returns its output
+	 *
+	 * @return The output tensor which was passed into {@link #push}
+	 */
+	public T take() {
+		if( pending.get() <= 0 )
+			throw new IllegalStateException("Nothing has been pushed");
+		// stages process frames in the order they arrive so they finish in the order they were pushed
+		Frame frame = waitFor(queues.get(queues.size()-1));
+		pending.decrementAndGet();
+
+		T output = frame.output;
+		RuntimeException error = frame.error;
+		frame.input = frame.output = null;
+		frame.error = null;
+		put(available, frame);
+
+		if( error != null )
+			throw new RuntimeException("Processing failed", error);
+		return output;
+	}
+
+	/**
+	 * Number of inputs which have been pushed but not taken
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Maximum number of inputs which can be in the pipeline at once. Two for every stage, which is enough
+	 * to keep every stage busy since each stage has two buffers for its outputs.
+	 */
+	public int getCapacity() {
+		return 2*getStageCount();
+	}
+
+	/**
+	 * Stops all the stage threads once they have finished processing their inputs. Results which have not
+	 * been taken are discarded.
+	 */
+	public void stop() {
+		if( !isRunning() )
+			return;
+		put(queues.get(0), STOP);
+		for( Thread t : threads ) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+		threads.clear();
+		pending.set(0);
+	}
+
+	/**
+	 * Finds which outputs are read outside of the stage which computed them and the last stage to read them
+	 */
+	private void selectExported() {
+		int N = nodes.size();
+		int numStages = getStageCount();
+		stageOf = new int[N];
+		for (int stage = 0; stage < numStages; stage++) {
+			for (int i = stageStart[stage]; i < stageStart[stage+1]; i++) {
+				stageOf[i] = stage;
+			}
+		}
+		exported = new boolean[N];
+		lastReader = new int[numStages];
+		for (int stage = 0; stage < numStages; stage++) {
+			lastReader[stage] = stage;
+		}
+		for (int i = 0; i < N; i++) {
+			for( int src : sources[i] ) {
+				if( stageOf[src] == stageOf[i] )
+					continue;
+				exported[src] = true;
+				lastReader[stageOf[src]] = Math.max(lastReader[stageOf[src]], stageOf[i]);
+			}
+		}
+	}
+
+	private void runStage( int stage ) {
+		BlockingQueue<Frame> in = queues.get(stage);
+		BlockingQueue<Frame> out = queues.get(stage+1);
+		Stage storage = stages.get(stage);
+		try {
+			while( true ) {
+				Frame frame = in.take();
+				if( frame == STOP ) {
+					if( stage+1 < getStageCount() )
+						out.put(frame);
+					return;
+				}
+
+				// once a stage fails the frame is passed along without being processed
+				if( frame.error == null ) {
+					try {
+						storage.process(frame);
+					} catch( RuntimeException e ) {
+						frame.error = e;
+					}
+				}
+
+				// outputs which no later stage will read can be written to again
+				for (int i = 0; i <= stage; i++) {
+					Exports exports = frame.exports.get(i);
+					if( exports != null && lastReader[i] == stage ) {
+						frame.exports.set(i, null);
+						stages.get(i).free.put(exports);
+					}
+				}
+				out.put(frame);
+			}
+		} catch (InterruptedException ignore) {
+		}
+	}
+
+	private Frame waitFor( BlockingQueue<Frame> queue ) {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void put( BlockingQueue<Frame> queue , Frame frame ) {
+		try {
+			queue.put(frame);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	public boolean isRunning() {
+		return !threads.isEmpty();
+	}
+
+	public int getStageCount() {
+		return stageStart.length-1;
+	}
+
+	/**
+	 * Index of the first node in each stage followed by the number of nodes
+	 */
+	public int[] getStageStart() {
+		return stageStart.clone();
+	}
+
+	/**
+	 * One input as it moves through the pipeline
+	 */
+	class Frame {
+		T input, output;
+		// outputs which each stage exported for this input. null if the stage hasn't been processed or no
+		// longer needs to be read
+		List<Exports> exports = new ArrayList<>();
+		// exception thrown while processing this frame
+		RuntimeException error;
+	}
+
+	/**
+	 * Storage for the outputs of a stage which are read by later stages
+	 */
+	class Exports {
+		// indexed by node - first node in the stage. null for outputs which aren't exported
+		List<T> outputs = new ArrayList<>();
+	}
+
+	/**
+	 * Storage and workspace used by a stage. Only accessed by the stage's thread.
+	 */
+	class Stage {
+		int index;
+		// first node in the stage and one past the last
+		int first, last;
+		// Storage for exported outputs which isn't being used by a frame. null if nothing is exported
+		BlockingQueue<Exports> free;
+		// output and merge storage for nodes in this stage, indexed by node - first. Point into the buffers
+		List<T> outputs = new ArrayList<>();
+		List<T> merged = new ArrayList<>();
+		// Assignment of outputs which don't leave the stage and merge tensors to shared buffers. The first
+		// planOffset nodes in the plan are outputs of earlier stages
+		SequenceMemoryPlan plan;
+		int planOffset;
+		List<T> buffers = new ArrayList<>();
+		// mini-batch size the storage was declared for
+		int declaredBatch = -1;
+		// work space for the inputs of a merge
+		List<T> inputs = new ArrayList<>();
+
+		Stage( int index ) {
+			this.index = index;
+			this.first = stageStart[index];
+			this.last = stageStart[index+1];
+
+			// Outputs from earlier stages are stored elsewhere. They're added to the plan first, without
+			// sources, and treated as provided so that they aren't assigned a buffer
+			List<Node<T,F>> local = new ArrayList<>();
+			Set<Integer> external = new LinkedHashSet<>();
+			for (int i = first; i < last; i++) {
+				for( int src : sources[i] ) {
+					if( stageOf[src] != index )
+						external.add(src);
+				}
+			}
+			for( int src : external ) {
+				Node<T,F> n = new Node<>();
+				n.name = nodes.get(src).name;
+				local.add(n);
+			}
+			planOffset = local.size();
+
+			int total = planOffset + last - first;
+			int[] outputLength = new int[total];
+			int[] mergeLength = new int[total];
+			boolean[] provided = new boolean[total];
+			Arrays.fill(provided, 0, planOffset, true);
+			boolean anyExported = false;
+			for (int i = first; i < last; i++) {
+				Node<T,F> node = nodes.get(i);
+				int j = planOffset + i - first;
+				local.add(node);
+
+				outputLength[j] = TensorOps.tensorLength(node.function.getOutputShape());
+				if( node.sources.size() > 1 )
+					mergeLength[j] = TensorOps.tensorLength(node.combine.getOutputShape());
+				provided[j] = exported[i] || i == nodes.size()-1;
+				anyExported |= exported[i];
+
+				outputs.add(provided[j] ? null : factory.create());
+				merged.add(node.sources.size() > 1 ? factory.create() : null);
+			}
+			plan = SequenceMemoryPlan.compute(local, outputLength, mergeLength, new HashSet<>(), provided);
+
+			if( anyExported ) {
+				free = new ArrayBlockingQueue<>(2);
+				for (int k = 0; k < 2; k++) {
+					Exports e = new Exports();
+					for (int i = first; i < last; i++) {
+						e.outputs.add(exported[i] ? factory.create() : null);
+					}
+					free.add(e);
+				}
+			}
+		}
+
+		/**
+		 * Adjusts the storage for the mini-batch size and points tensors into the shared buffers
+		 */
+		void declareStorage( int numBatch ) {
+			if( numBatch == declaredBatch )
+				return;
+			while( buffers.size() < plan.getBufferCount() ) {
+				buffers.add(factory.create());
+			}
+			for (int i = 0; i < plan.getBufferCount(); i++) {
+				buffers.get(i).reshape(numBatch*plan.bufferLength[i]);
+			}
+			for (int i = first; i < last; i++) {
+				Node<T,F> node = nodes.get(i);
+				int j = i-first;
+				int outputBuffer = plan.outputBuffer[planOffset+j];
+				int mergeBuffer = plan.mergeBuffer[planOffset+j];
+				if( outputBuffer >= 0 ) {
+					outputs.get(j).setData(buffers.get(outputBuffer).getData());
+					outputs.get(j).reshape(WI(numBatch,node.function.getOutputShape()));
+				}
+				if( mergeBuffer >= 0 ) {
+					merged.get(j).setData(buffers.get(mergeBuffer).getData());
+					merged.get(j).reshape(WI(numBatch,node.combine.getOutputShape()));
+				}
+			}
+			declaredBatch = numBatch;
+		}
+
+		/**
+		 * Processes every node in the stage for the frame
+		 */
+		void process( Frame frame ) throws InterruptedException {
+			int numBatch = frame.input.length(0);
+			declareStorage(numBatch);
+			if( free != null ) {
+				Exports exports = free.take();
+				for (int i = first; i < last; i++) {
+					if( exported[i] )
+						exports.outputs.get(i-first).reshape(WI(numBatch,nodes.get(i).function.getOutputShape()));
+				}
+				frame.exports.set(index, exports);
+			}
+
+			for (int i = first; i < last; i++) {
+				Node<T,F> node = nodes.get(i);
+				T dst = i == nodes.size()-1 ? frame.output : read(frame, i);
+
+				if( sources[i].length == 0 ) {
+					node.function.forward(frame.input, dst);
+				} else if( sources[i].length == 1 ) {
+					node.function.forward(read(frame, sources[i][0]), dst);
+				} else {
+					inputs.clear();
+					for( int src : sources[i] ) {
+						inputs.add(read(frame, src));
+					}
+					T merge = merged.get(i-first);
+					node.combine.combine(inputs, merge);
+					node.function.forward(merge, dst);
+				}
+			}
+		}
+
+		/**
+		 * Storage for the output of a node in this stage or one exported by an earlier stage
+		 */
+		T read( Frame frame , int node ) {
+			int stage = stageOf[node];
+			if( exported[node] )
+				return frame.exports.get(stage).outputs.get(node-stageStart[stage]);
+			return outputs.get(node-first);
+		}
+	}
+}
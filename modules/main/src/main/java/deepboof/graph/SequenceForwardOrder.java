@@ -27,8 +27,7 @@ import java.util.*;
  * 
  * <pre>
  * Assumptions:
- * - One input node
- * - One output node
+ * - One or more input nodes
  * - No islands
  * - No cycles
  * </pre>
@@ -100,29 +99,18 @@ public class SequenceForwardOrder {
 	}
 
 	/**
-	 * Assigns a depth from the input node for all the elements in the graph. Depth is defined as the distance
+	 * Assigns a depth from the input nodes for all the elements in the graph. Depth is defined as the distance
 	 * of the longest path to the node.
 	 */
 	protected void assignDepth() {
 		resetNodeInfo();
 
-		NodeData input = findInput();
-		input.depth = 0;
-		List<NodeData> layer = new ArrayList<>();
+		List<NodeData> layer = new ArrayList<>(findInputs());
 		List<NodeData> nextLayer = new ArrayList<>();
-
-		layer.addAll(input.next);
-
-		for (int i = 0; i < input.next.size(); i++) {
-			NodeData c = input.next.get(i);
-			if( c.depth == Integer.MAX_VALUE ) {
-				c.depth = 1;
-			} else {
-				throw new RuntimeException("Input node connects to a child node more than once! "+c.node.name);
-			}
+		for (int i = 0; i < layer.size(); i++) {
+			layer.get(i).depth = 0;
 		}
 
-		int depth = 1;
 		while( !layer.isEmpty() ) {
 			nextLayer.clear();
 			for (int i = 0; i < layer.size(); i++) {
@@ -131,29 +119,25 @@ public class SequenceForwardOrder {
 				// Set the depth of all of its children
 				for (int j = 0; j < n.next.size(); j++) {
 					NodeData c = n.next.get(j);
-					if( c.depth == Integer.MAX_VALUE ) {
-						// have all of it's parents been assigned a depth?  If not wait. This will ensure that
-						// it's depth is the depth of the longest path
-						boolean allAssigned = true;
-						for (int k = 0; k < c.previous.size(); k++) {
-							if( c.previous.get(k).depth == Integer.MAX_VALUE ) {
-								allAssigned = false;
-								break;
-							}
-						}
-
-						if( allAssigned ) {
-							c.depth = depth + 1;
-							nextLayer.add(c);
+					if( c.depth != Integer.MAX_VALUE )
+						continue;
+
+					// have all of it's parents been assigned a depth?  If not wait. This will ensure that
+					// it's depth is the depth of the longest path
+					int depth = 0;
+					boolean allAssigned = true;
+					for (int k = 0; k < c.previous.size(); k++) {
+						int d = c.previous.get(k).depth;
+						if( d == Integer.MAX_VALUE ) {
+							allAssigned = false;
+							break;
 						}
+						depth = Math.max(depth, d+1);
 					}
-				}
 
-				// Sanity check the graph
-				for (int j = 0; j < n.previous.size(); j++) {
-					NodeData c = n.previous.get(j);
-					if( c.depth == Integer.MAX_VALUE ) {
-						throw new RuntimeException("An input to this node has not been traversed. Cycle or other graph error. "+c.node.name);
+					if( allAssigned ) {
+						c.depth = depth;
+						nextLayer.add(c);
 					}
 				}
 			}
@@ -161,26 +145,21 @@ public class SequenceForwardOrder {
 			List<NodeData> tmp = layer;
 			layer = nextLayer;
 			nextLayer = tmp;
-
-			depth++;
 		}
 	}
 
 	/**
-	 * Finds the input node. Throws an error if there isn't one and only one input node
-	 * @return Input node
+	 * Finds all the input nodes, which are nodes without any sources. Throws an error if there are none.
+	 * @return Input nodes
 	 */
-	protected NodeData findInput() {
-		NodeData found = null;
+	protected List<NodeData> findInputs() {
+		List<NodeData> found = new ArrayList<>();
 		for (int i = 0; i < sequence.size(); i++) {
 			NodeData n = sequence.get(i);
-			if( n.node.sources.isEmpty() ) {
-				if( found != null )
-					throw new RuntimeException("Found multiple input nodes");
-				found = n;
-			}
+			if( n.node.sources.isEmpty() )
+				found.add(n);
 		}
-		if( found == null )
+		if( found.isEmpty() )
 			throw new RuntimeException("No input node found");
 		return found;
 	}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.Tensor;
+
+/**
+ * Receives information on each node after it has been processed by a {@link FunctionSequence}. When
+ * branches are processed concurrently it can be called by multiple threads at the same time.
+ *
+ * @author Peter Abeles
+ */
+public interface SequenceListener<T extends Tensor<T>> {
+	/**
+	 * Called after a node has been processed
+	 *
+	 * @param index Index of the node in the sequence
+	 * @param node The node
+	 * @param input Input to the node's function. Output of the merger if there are multiple sources.
+	 * @param output Output of the node's function
+	 * @param nanoseconds How long it took to process the node, including merging its inputs
+	 * @param allocatedBytes Bytes allocated on the heap while processing the node. -1 if unknown.
+	 */
+	void nodeProcessed( int index , Node<T,?> node , T input , T output , long nanoseconds , long allocatedBytes );
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import java.util.*;
+
+/**
+ * <p>Assigns the output and merge tensors of each node in a sequence to a small number of shared buffers.
+ * The output of a node is live from when it's computed until its last consumer has been processed. Merge
+ * tensors are only live while their node is being processed. Buffers which are no longer live are reused
+ * by later nodes, selecting the smallest free buffer which is large enough (best-fit). If none are large
+ * enough then the largest free buffer is grown. A new buffer is only added when none are free. Peak memory
+ * is then close to the largest set of tensors which are live at the same time instead of the sum of all
+ * of them.</p>
+ *
+ * <p>A node's output never shares a buffer with its inputs or merge tensor, so functions don't need to support
+ * being processed in-place. Retained nodes are never released and their output can be inspected after
+ * the sequence has been processed.</p>
+ *
+ * <p>Lengths are the number of elements for a single item in the mini-batch. Buffer lengths scale
+ * linearly with the mini-batch size.</p>
+ *
+ * @author Peter Abeles
+ */
+public class SequenceMemoryPlan {
+	/** Which buffer the output of each node is assigned to. -1 for nodes whose output is provided */
+	public int[] outputBuffer;
+	/** Which buffer the merge tensor of each node is assigned to. -1 if the node has a single source */
+	public int[] mergeBuffer;
+	/** Index of the last node which reads the output of each node */
+	public int[] lastUse;
+	/** Length of each buffer. The largest tensor assigned to it */
+	public int[] bufferLength;
+
+	/**
+	 * Computes the plan for a sequence which has already been put into order
+	 *
+	 * @param sequence Nodes in the order they are processed
+	 * @param outputLength Length of each node's output
+	 * @param mergeLength Length of each node's merge tensor. Ignored for nodes with fewer than two sources.
+	 * @param retained Names of nodes whose output must not be overwritten
+	 */
+	public static SequenceMemoryPlan compute( List<? extends Node<?,?>> sequence ,
+											  int[] outputLength , int[] mergeLength ,
+											  Set<String> retained ) {
+		boolean[] provided = new boolean[sequence.size()];
+		provided[sequence.size()-1] = true;
+		return compute(sequence, outputLength, mergeLength, retained, provided);
+	}
+
+	/**
+	 * Computes the plan for a sequence which has already been put into order
+	 *
+	 * @param sequence Nodes in the order they are processed
+	 * @param outputLength Length of each node's output
+	 * @param mergeLength Length of each node's merge tensor. Ignored for nodes with fewer than two sources.
+	 * @param retained Names of nodes whose output must not be overwritten
+	 * @param provided Nodes which write into an output that is provided, and don't need a buffer
+	 */
+	public static SequenceMemoryPlan compute( List<? extends Node<?,?>> sequence ,
+											  int[] outputLength , int[] mergeLength ,
+											  Set<String> retained , boolean[] provided ) {
+		int N = sequence.size();
+		Map<String,Integer> indexes = new HashMap<>();
+		for (int i = 0; i < N; i++) {
+			indexes.put(sequence.get(i).name, i);
+		}
+
+		SequenceMemoryPlan plan = new SequenceMemoryPlan();
+		plan.outputBuffer = new int[N];
+		plan.mergeBuffer = new int[N];
+		plan.lastUse = new int[N];
+
+		// find the last node which consumes each node's output
+		for (int i = 0; i < N; i++) {
+			plan.lastUse[i] = retained.contains(sequence.get(i).name) ? N : i;
+		}
+		for (int i = 0; i < N; i++) {
+			for( InputAddress addr : sequence.get(i).sources ) {
+				Integer src = indexes.get(addr.nodeName);
+				if( src == null )
+					throw new IllegalArgumentException("Unknown source node "+addr.nodeName);
+				if( src >= i )
+					throw new IllegalArgumentException("Sequence is not in forward order. "+addr.nodeName);
+				plan.lastUse[src] = Math.max(plan.lastUse[src], i);
+			}
+		}
+
+		// which nodes have their last use at each step
+		List<List<Integer>> expiring = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			expiring.add(new ArrayList<>());
+		}
+		for (int i = 0; i < N; i++) {
+			if( !provided[i] && plan.lastUse[i] < N )
+				expiring.get(plan.lastUse[i]).add(i);
+		}
+
+		List<Integer> lengths = new ArrayList<>();
+		List<Integer> free = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			Node<?,?> node = sequence.get(i);
+
+			plan.mergeBuffer[i] = -1;
+			if( node.sources.size() > 1 )
+				plan.mergeBuffer[i] = assign(free, lengths, mergeLength[i]);
+
+			plan.outputBuffer[i] = -1;
+			if( !provided[i] )
+				plan.outputBuffer[i] = assign(free, lengths, outputLength[i]);
+
+			// release everything which won't be used again
+			if( plan.mergeBuffer[i] >= 0 )
+				free.add(plan.mergeBuffer[i]);
+			for( int j : expiring.get(i) ) {
+				free.add(plan.outputBuffer[j]);
+			}
+		}
+
+		plan.bufferLength = new int[lengths.size()];
+		for (int i = 0; i < lengths.size(); i++) {
+			plan.bufferLength[i] = lengths.get(i);
+		}
+		return plan;
+	}
+
+	/**
+	 * Selects a buffer from the free list or creates a new one.
+	 */
+	private static int assign( List<Integer> free , List<Integer> lengths , int length ) {
+		int best = -1;
+		int largest = -1;
+		for (int i = 0; i < free.size(); i++) {
+			int buffer = free.get(i);
+			int l = lengths.get(buffer);
+			if( l >= length && (best < 0 || l < lengths.get(free.get(best))) )
+				best = i;
+			if( largest < 0 || l > lengths.get(free.get(largest)) )
+				largest = i;
+		}
+
+		if( best < 0 )
+			best = largest;
+
+		if( best < 0 ) {
+			lengths.add(length);
+			return lengths.size()-1;
+		}
+
+		int buffer = free.remove(best);
+		lengths.set(buffer, Math.max(length, lengths.get(buffer)));
+		return buffer;
+	}
+
+	/**
+	 * Number of shared buffers
+	 */
+	public int getBufferCount() {
+		return bufferLength.length;
+	}
+
+	/**
+	 * Total length of all the shared buffers
+	 */
+	public long getTotalLength() {
+		long total = 0;
+		for( int length : bufferLength ) {
+			total += length;
+		}
+		return total;
+	}
+}
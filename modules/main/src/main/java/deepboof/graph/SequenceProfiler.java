@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.misc.AllocationCounter;
+import deepboof.misc.TensorPool;
+
+import java.util.*;
+
+/**
+ * <p>Records how much time is spent in each node of a {@link FunctionSequence} and estimates how much work
+ * each node did. Use {@link #report()} to see which nodes are the most expensive.</p>
+ *
+ * <pre>
+ * SequenceProfiler&lt;Tensor_F32&gt; profiler = new SequenceProfiler&lt;&gt;();
+ * sequence.setListener(profiler);
+ * ... process
+ * System.out.println(profiler.report());
+ * </pre>
+ *
+ * <p>The number of floating point operations is estimated from the shape of the tensors. If a function has
+ * parameters then it's assumed each output element is a dot product with a row of the first parameter tensor,
+ * e.g. linear and convolution layers. Otherwise one operation is assumed for each output element. Bytes moved
+ * is the size of the input, output, and parameters.</p>
+ *
+ * @author Peter Abeles
+ */
+public class SequenceProfiler<T extends Tensor<T>> implements SequenceListener<T> {
+	// statistics for each node in the order they were first seen
+	private final Map<String,NodeStats> stats = new LinkedHashMap<>();
+
+	@Override
+	public synchronized void nodeProcessed( int index , Node<T,?> node , T input , T output ,
+											long nanoseconds , long allocatedBytes ) {
+		NodeStats s = stats.get(node.name);
+		if( s == null ) {
+			s = new NodeStats();
+			s.name = node.name;
+			s.type = node.function.getClass().getSimpleName();
+			stats.put(node.name, s);
+		}
+
+		s.calls++;
+		s.totalNanos += nanoseconds;
+		s.minNanos = Math.min(s.minNanos, nanoseconds);
+		s.maxNanos = Math.max(s.maxNanos, nanoseconds);
+		s.totalFlops += estimateFlops(node.function, output);
+		s.totalBytes += estimateBytes(node.function, input, output);
+		if( allocatedBytes >= 0 ) {
+			s.allocatedBytes += allocatedBytes;
+			if( allocatedBytes > 0 )
+				s.allocatingCalls++;
+		}
+	}
+
+	/**
+	 * Estimates the number of floating point operations needed to compute the output
+	 */
+	public static <T extends Tensor<T>> double estimateFlops( Function<T> function , T output ) {
+		double outputLength = output.length();
+		List<T> parameters = function.getParameters();
+		if( parameters == null || parameters.isEmpty() || output.getDimension() < 2 )
+			return outputLength;
+
+		// output = (N,F,...). Each of the F outputs uses a slice of the weights
+		double weightsPerOutput = parameters.get(0).length()/(double)output.length(1);
+		return 2.0*outputLength*Math.max(1,weightsPerOutput);
+	}
+
+	/**
+	 * Estimates the number of bytes read and written. Sum of the input, output, and parameters.
+	 */
+	public static <T extends Tensor<T>> long estimateBytes( Function<T> function , T input , T output ) {
+		long elements = (long)input.length() + output.length();
+		List<T> parameters = function.getParameters();
+		if( parameters != null ) {
+			for( T p : parameters ) {
+				elements += p.length();
+			}
+		}
+		return TensorPool.bytes(output.getDataType(), elements);
+	}
+
+	/**
+	 * Statistics for each node sorted by total time, most expensive first
+	 */
+	public synchronized List<NodeStats> getRanked() {
+		List<NodeStats> list = new ArrayList<>();
+		for( NodeStats s : stats.values() ) {
+			list.add(s.copy());
+		}
+		list.sort((a,b) -> Long.compare(b.totalNanos, a.totalNanos));
+		return list;
+	}
+
+	/**
+	 * Statistics for a node or null if it hasn't been processed
+	 */
+	public synchronized NodeStats getStats( String name ) {
+		NodeStats s = stats.get(name);
+		return s == null ? null : s.copy();
+	}
+
+	/**
+	 * Total time spent in all nodes
+	 */
+	public synchronized long getTotalNanos() {
+		long total = 0;
+		for( NodeStats s : stats.values() ) {
+			total += s.totalNanos;
+		}
+		return total;
+	}
+
+	/**
+	 * Discards everything which has been recorded
+	 */
+	public synchronized void reset() {
+		stats.clear();
+	}
+
+	/**
+	 * Table with one row for each node, sorted by total time
+	 */
+	public String report() {
+		List<NodeStats> ranked = getRanked();
+		double total = Math.max(1,getTotalNanos());
+
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("%-20s %-24s %7s %10s %10s %6s %9s %8s %10s\n",
+				"name","type","calls","total ms","avg ms","%","GFLOP/s","GB/s","alloc KB"));
+		for( NodeStats s : ranked ) {
+			String alloc = s.allocatedBytes < 0 ? "-" : String.format("%.1f",s.allocatedBytes/1024.0);
+			out.append(String.format("%-20s %-24s %7d %10.3f %10.4f %6.1f %9.3f %8.3f %10s\n",
+					s.name, s.type, s.calls, s.totalNanos*1e-6, s.getAverageMillis(),
+					100.0*s.totalNanos/total, s.getGFlops(), s.getGigaBytesPerSecond(), alloc));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Statistics for a single node
+	 */
+	public static class NodeStats {
+		/** Name of the node */
+		public String name;
+		/** Name of the function's class */
+		public String type;
+		/** Number of times it was processed */
+		public int calls;
+		/** Total time spent processing it */
+		public long totalNanos;
+		public long minNanos = Long.MAX_VALUE;
+		public long maxNanos;
+		/** Estimated number of floating point operations, summed across all calls */
+		public double totalFlops;
+		/** Estimated number of bytes moved, summed across all calls */
+		public long totalBytes;
+		/** Bytes allocated on the heap, summed across all calls. -1 if unknown */
+		public long allocatedBytes = AllocationCounter.isSupported() ? 0 : -1;
+		/** Number of calls which allocated memory */
+		public int allocatingCalls;
+
+		public double getAverageMillis() {
+			return calls == 0 ? 0 : totalNanos*1e-6/calls;
+		}
+
+		/**
+		 * Achieved billions of floating point operations per second
+		 */
+		public double getGFlops() {
+			return totalNanos == 0 ? 0 : totalFlops/totalNanos;
+		}
+
+		/**
+		 * Achieved bandwidth in billions of bytes per second
+		 */
+		public double getGigaBytesPerSecond() {
+			return totalNanos == 0 ? 0 : totalBytes/(double)totalNanos;
+		}
+
+		public NodeStats copy() {
+			NodeStats c = new NodeStats();
+			c.name = name;
+			c.type = type;
+			c.calls = calls;
+			c.totalNanos = totalNanos;
+			c.minNanos = minNanos;
+			c.maxNanos = maxNanos;
+			c.totalFlops = totalFlops;
+			c.totalBytes = totalBytes;
+			c.allocatedBytes = allocatedBytes;
+			c.allocatingCalls = allocatingCalls;
+			return c;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.factory.FactoryForwards;
+import deepboof.forward.*;
+import deepboof.impl.forward.standard.BaseSpatialWindow;
+import deepboof.misc.DeepBoofConcurrency;
+import deepboof.misc.TensorFactory;
+import deepboof.misc.TensorOps;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <p>Processes a fully convolutional network one tile at a time so that memory used by activations depends on
+ * the tile size and not the image size. The output is split into tiles. Each tile is computed from the region of
+ * the input inside its receptive field, which is larger than the tile by a halo that depends on the kernel sizes,
+ * periods, and padding of each layer. Tiles are stitched together into the output and match processing the
+ * entire image at once.</p>
+ *
+ * <p>Padding. Each layer only pads the border of the image, not the border of a tile. Every spatial layer is
+ * replaced by one without padding and the part of its input tile which is outside the image is filled in
+ * with the layer's padding value. Only {@link ConstantPadding2D constant padding} is supported.</p>
+ *
+ * <p>The network must be a chain. Supported layers are {@link SpatialConvolve2D}, {@link SpatialMaxPooling},
+ * {@link SpatialAveragePooling}, {@link SpatialBatchNorm}, and functions without parameters which don't change
+ * the shape of their input, e.g. activation functions.</p>
+ *
+ * <p>Tiles can be processed in parallel using {@link DeepBoofConcurrency}'s pool. Each thread has its own set of
+ * functions, created using the graph supplier, and shares the parameters.</p>
+ *
+ * @author Peter Abeles
+ */
+public class TiledInference<T extends Tensor<T>, F extends Function<T>> {
+	// creates a new set of nodes for each thread
+	private final Supplier<List<Node<T,F>>> graph;
+	private final Map<String,List<T>> parameters;
+	private final Class<T> type;
+
+	// description of each layer. Shared by all threads
+	private final List<Layer> layers = new ArrayList<>();
+	// one set of functions for each thread
+	private final List<Lane> lanes = new ArrayList<>();
+
+	// size of a tile in the output
+	private int tileRows = 64, tileCols = 64;
+	// maximum number of threads that tiles are processed with
+	private int threads = 1;
+
+	// shape of the input, (C,H,W), which the layers have been initialized for
+	private int[] inputShape;
+
+	/**
+	 * Creates the executor
+	 *
+	 * @param graph Creates a new set of nodes each time it's called. Nodes don't need to be in forward order.
+	 * @param parameters Map from node name to that node's parameters. Tensors are referenced, not copied.
+	 * @param type Type of tensor
+	 */
+	public TiledInference( Supplier<List<Node<T,F>>> graph , Map<String,List<T>> parameters , Class<T> type ) {
+		this.graph = graph;
+		this.parameters = parameters;
+		this.type = type;
+
+		for( Node<T,F> n : putInOrder(graph.get()) ) {
+			Layer l = new Layer();
+			l.name = n.name;
+			if( n.function instanceof SpatialConvolve2D ) {
+				SpatialConvolve2D<T> conv = (SpatialConvolve2D<T>)n.function;
+				l.setWindow(conv.getConfiguration(), conv.getPadding());
+			} else if( n.function instanceof SpatialPooling ) {
+				if( !(n.function instanceof SpatialMaxPooling || n.function instanceof SpatialAveragePooling) )
+					throw new IllegalArgumentException("Unsupported pooling. "+n.name);
+				SpatialPooling<T> pool = (SpatialPooling<T>)n.function;
+				l.setWindow(pool.getConfiguration(), ((BaseSpatialWindow<T,?>)pool).getPadding());
+			}
+			l.function = n.function;
+			layers.add(l);
+		}
+	}
+
+	/**
+	 * Puts the nodes into forward order and makes sure they form a chain
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Node<T,F>> putInOrder( List<Node<T,F>> nodes ) {
+		if( nodes.isEmpty() )
+			throw new IllegalArgumentException("Graph has no nodes");
+		List<Node<T,F>> ordered = (List)new SequenceForwardOrder((List)nodes).putIntoForwardOrder();
+		for (int i = 0; i < ordered.size(); i++) {
+			Node<T,F> n = ordered.get(i);
+			if( i == 0 ? !n.sources.isEmpty() :
+					n.sources.size() != 1 || !n.sources.get(0).nodeName.equals(ordered.get(i-1).name) )
+				throw new IllegalArgumentException("Network must be a chain. "+n.name);
+		}
+		return ordered;
+	}
+
+	/**
+	 * Specifies the size of a tile in the output. The input tile is larger by the receptive field's halo.
+	 */
+	public void setTileSize( int rows , int cols ) {
+		if( rows <= 0 || cols <= 0 )
+			throw new IllegalArgumentException("Tile size must be positive");
+		this.tileRows = rows;
+		this.tileCols = cols;
+	}
+
+	/**
+	 * Maximum number of threads that tiles are processed with. Default is 1, which processes tiles in the
+	 * calling thread.
+	 */
+	public void setThreads( int threads ) {
+		if( threads <= 0 )
+			throw new IllegalArgumentException("Must have at least one thread");
+		this.threads = threads;
+	}
+
+	/**
+	 * Computes the shape of each layer's input and output for an input image and checks that every layer
+	 * can be processed in tiles.
+	 *
+	 * @param inputShape Shape of the input, (C,H,W)
+	 */
+	public void initialize( int ...inputShape ) {
+		if( inputShape.length != 3 )
+			throw new IllegalArgumentException("Input must have a shape of (C,H,W)");
+
+		// functions created in the constructor are only used to find the shapes
+		int[] shape = inputShape.clone();
+		for( Layer l : layers ) {
+			l.function.initialize(shape);
+			l.shapeIn = shape;
+			l.shapeOut = l.function.getOutputShape().clone();
+			if( !l.spatial && !(l.function instanceof SpatialBatchNorm) &&
+					(!Arrays.equals(l.shapeIn, l.shapeOut) || !l.function.getParameterShapes().isEmpty()) )
+				throw new IllegalArgumentException("Layer can't be processed in tiles. "+l.name);
+			shape = l.shapeOut;
+		}
+		this.inputShape = inputShape.clone();
+	}
+
+	/**
+	 * Shape of the output, (C,H,W), for the input shape passed into {@link #initialize}
+	 */
+	public int[] getOutputShape() {
+		return layers.get(layers.size()-1).shapeOut.clone();
+	}
+
+	/**
+	 * Processes the input one tile at a time. Calls {@link #initialize} if the input's shape has changed.
+	 *
+	 * @param input Input images. (N,C,H,W)
+	 * @param output Output. (N,C',H',W')
+	 */
+	public void process( T input , T output ) {
+		int[] shape = Arrays.copyOfRange(input.shape, 1, input.shape.length);
+		if( inputShape == null || !Arrays.equals(inputShape, shape) )
+			initialize(shape);
+		TensorOps.checkShape("output",-1,getOutputShape(),output.getShape(),true);
+
+		int[] shapeOut = getOutputShape();
+		int tilesY = (shapeOut[1] + tileRows - 1)/tileRows;
+		int tilesX = (shapeOut[2] + tileCols - 1)/tileCols;
+		int total = tilesY*tilesX;
+
+		// lanes are processed by the library's pool, see DeepBoofConcurrency
+		int numLanes = DeepBoofConcurrency.USE_CONCURRENT ? Math.min(threads, total) : 1;
+		while( lanes.size() < numLanes ) {
+			lanes.add(new Lane());
+		}
+
+		AtomicInteger next = new AtomicInteger();
+		DeepBoofConcurrency.loopFor(0, numLanes, index -> lanes.get(index).process(input, output, next, total, tilesX));
+	}
+
+	/**
+	 * Number of rows in the input which influence a single element in the output
+	 */
+	public int getReceptiveFieldY() {
+		int length = 1;
+		for (int i = layers.size()-1; i >= 0; i--) {
+			length = (length-1)*layers.get(i).periodY + layers.get(i).kernelY;
+		}
+		return length;
+	}
+
+	/**
+	 * Number of columns in the input which influence a single element in the output
+	 */
+	public int getReceptiveFieldX() {
+		int length = 1;
+		for (int i = layers.size()-1; i >= 0; i--) {
+			length = (length-1)*layers.get(i).periodX + layers.get(i).kernelX;
+		}
+		return length;
+	}
+
+	public int getTileRows() {
+		return tileRows;
+	}
+
+	public int getTileCols() {
+		return tileCols;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Copies a spatial region between two tensors with a shape of (N,C,H,W)
+	 */
+	static void copyRegion( Tensor<?> src , int srcY , int srcX ,
+							Tensor<?> dst , int dstY , int dstX , int rows , int cols ) {
+		int N = src.length(0), C = src.length(1);
+		for (int batch = 0; batch < N; batch++) {
+			for (int channel = 0; channel < C; channel++) {
+				for (int y = 0; y < rows; y++) {
+					System.arraycopy(src.getData(), src.idx(batch, channel, srcY + y, srcX),
+							dst.getData(), dst.idx(batch, channel, dstY + y, dstX), cols);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Description of a layer which is shared by all threads
+	 */
+	private class Layer {
+		String name;
+		// function with padding. Used to compute shapes
+		Function<T> function;
+		// if true it's a convolution or pooling and has a window
+		boolean spatial;
+		int kernelY = 1, kernelX = 1;
+		int periodY = 1, periodX = 1;
+		// padding along the lower extent
+		int padY = 0, padX = 0;
+		double paddingValue;
+		// shape of the entire input and output, (C,H,W)
+		int[] shapeIn, shapeOut;
+
+		void setWindow( ConfigSpatial config , SpatialPadding2D<T> padding ) {
+			if( !(padding instanceof ConstantPadding2D) )
+				throw new IllegalArgumentException("Only constant padding is supported. "+name);
+			spatial = true;
+			kernelY = config.HH;
+			kernelX = config.WW;
+			periodY = config.periodY;
+			periodX = config.periodX;
+			padY = padding.getPaddingRow0();
+			padX = padding.getPaddingCol0();
+			paddingValue = ((ConstantPadding2D)padding).getPaddingValue();
+		}
+	}
+
+	/**
+	 * Functions and work space for processing tiles in a single thread
+	 */
+	private class Lane {
+		// functions. Spatial layers don't have padding
+		List<Function<T>> functions = new ArrayList<>();
+		// shape each function was last initialized for
+		List<int[]> initialized = new ArrayList<>();
+		// input to each layer, including the padding
+		List<T> inputs = new ArrayList<>();
+		// output of each layer
+		List<T> outputs = new ArrayList<>();
+
+		// region of each layer's input which is needed. y0,x0,y1,x1 and can extend outside the input
+		int[][] regions;
+
+		Lane() {
+			TensorFactory<T> factory = new TensorFactory<>(type);
+			List<Node<T,F>> nodes = putInOrder(graph.get());
+			if( nodes.size() != layers.size() )
+				throw new IllegalArgumentException("Graph supplier created a different graph");
+			for (int i = 0; i < nodes.size(); i++) {
+				Function<T> f = nodes.get(i).function;
+				if( f instanceof SpatialConvolve2D ) {
+					f = FactoryForwards.convolve2D(((SpatialConvolve2D<T>)f).getConfiguration(), new ConfigPadding(), type);
+				} else if( f instanceof SpatialMaxPooling ) {
+					f = FactoryForwards.spatialMaxPooling(((SpatialPooling<T>)f).getConfiguration(), new ConfigPadding(), type);
+				} else if( f instanceof SpatialAveragePooling ) {
+					f = FactoryForwards.spatialAveragePooling(((SpatialPooling<T>)f).getConfiguration(), new ConfigPadding(), type);
+				}
+				functions.add(f);
+				initialized.add(null);
+				inputs.add(factory.create());
+				outputs.add(factory.create());
+			}
+			regions = new int[nodes.size()][4];
+		}
+
+		void process( T input , T output , AtomicInteger next , int total , int tilesX ) {
+			int[] shapeOut = getOutputShape();
+			int tile;
+			while( (tile = next.getAndIncrement()) < total ) {
+				int y0 = (tile/tilesX)*tileRows;
+				int x0 = (tile%tilesX)*tileCols;
+				int y1 = Math.min(shapeOut[1], y0 + tileRows);
+				int x1 = Math.min(shapeOut[2], x0 + tileCols);
+
+				T result = processTile(input, y0, x0, y1, x1);
+				copyRegion(result, 0, 0, output, y0, x0, y1-y0, x1-x0);
+			}
+		}
+
+		/**
+		 * Computes the output inside the specified region
+		 */
+		T processTile( T input , int y0 , int x0 , int y1 , int x1 ) {
+			int N = input.length(0);
+
+			// go backwards to find the region of each layer's input which is needed
+			for (int i = layers.size()-1; i >= 0; i--) {
+				Layer l = layers.get(i);
+				int[] r = regions[i];
+				r[0] = y0*l.periodY - l.padY;
+				r[1] = x0*l.periodX - l.padX;
+				r[2] = (y1-1)*l.periodY - l.padY + l.kernelY;
+				r[3] = (x1-1)*l.periodX - l.padX + l.kernelX;
+
+				// the previous layer only computes the part inside its output
+				y0 = Math.max(0,r[0]);
+				x0 = Math.max(0,r[1]);
+				y1 = Math.min(l.shapeIn[1],r[2]);
+				x1 = Math.min(l.shapeIn[2],r[3]);
+			}
+
+			T source = input;
+			int sourceY = 0, sourceX = 0;
+			for (int i = 0; i < layers.size(); i++) {
+				Layer l = layers.get(i);
+				int[] r = regions[i];
+				int rows = r[2]-r[0], cols = r[3]-r[1];
+
+				// the part of the region which is inside the layer's input
+				int insideY0 = Math.max(0,r[0]), insideX0 = Math.max(0,r[1]);
+				int insideY1 = Math.min(l.shapeIn[1],r[2]), insideX1 = Math.min(l.shapeIn[2],r[3]);
+
+				T layerInput;
+				if( i > 0 && insideY0 == r[0] && insideX0 == r[1] && insideY1 == r[2] && insideX1 == r[3] ) {
+					// the previous layer's output is exactly what's needed
+					layerInput = source;
+				} else {
+					layerInput = inputs.get(i);
+					layerInput.reshape(N, l.shapeIn[0], rows, cols);
+					if( rows*cols != (insideY1-insideY0)*(insideX1-insideX0) )
+						TensorOps.fill(layerInput, l.paddingValue);
+					copyRegion(source, insideY0-sourceY, insideX0-sourceX,
+							layerInput, insideY0-r[0], insideX0-r[1],
+							insideY1-insideY0, insideX1-insideX0);
+				}
+
+				Function<T> f = functions.get(i);
+				int[] shapeIn = new int[]{l.shapeIn[0], rows, cols};
+				if( !Arrays.equals(shapeIn, initialized.get(i)) ) {
+					f.initialize(shapeIn);
+					List<T> p = parameters.get(l.name);
+					if( p != null )
+						f.setParameters(p);
+					initialized.set(i, shapeIn);
+				}
+
+				T layerOutput = outputs.get(i);
+				int[] shapeOut = f.getOutputShape();
+				layerOutput.reshape(N, shapeOut[0], shapeOut[1], shapeOut[2]);
+				f.forward(layerInput, layerOutput);
+
+				// location of the output in the layer's entire output
+				source = layerOutput;
+				sourceY = i+1 < layers.size() ? Math.max(0,regions[i+1][0]) : 0;
+				sourceX = i+1 < layers.size() ? Math.max(0,regions[i+1][1]) : 0;
+			}
+			return source;
+		}
+	}
+}
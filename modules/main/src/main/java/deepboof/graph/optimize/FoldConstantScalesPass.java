@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph.optimize;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.forward.FunctionElementWiseMult;
+import deepboof.graph.Node;
+import deepboof.impl.forward.standard.FunctionElementWiseMult_F32;
+import deepboof.impl.forward.standard.FunctionElementWiseMult_F64;
+import deepboof.tensors.Tensor_F32;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Constant folding for chains of scalar multiplications. When a {@link FunctionElementWiseMult} is the only
+ * consumer of another one, they are replaced by a single multiplication by the product of the two constants.
+ *
+ * @author Peter Abeles
+ */
+public class FoldConstantScalesPass<T extends Tensor<T>> implements GraphPass<T> {
+	@Override
+	@SuppressWarnings("unchecked")
+	public <F extends Function<T>> boolean apply( List<Node<T,F>> nodes , Map<String,List<T>> parameters ,
+												  Set<String> outputs ) {
+		boolean changed = false;
+		for( Node<T,F> second : new ArrayList<>(nodes) ) {
+			// skip nodes which were removed earlier in this pass
+			if( !(second.function instanceof FunctionElementWiseMult) || !nodes.contains(second) )
+				continue;
+			Node<T,F> first = GraphEdits.singleSource(nodes, second);
+			if( first == null || !(first.function instanceof FunctionElementWiseMult) )
+				continue;
+			if( GraphEdits.countUses(nodes, first.name) != 1 )
+				continue;
+			if( !GraphEdits.bypass(nodes, first, parameters, outputs) )
+				continue;
+
+			double scalar = ((FunctionElementWiseMult)first.function).getScalar()*
+					((FunctionElementWiseMult)second.function).getScalar();
+			second.function = (F)createMult(second.function.getTensorType(), scalar);
+			changed = true;
+		}
+		return changed;
+	}
+
+	static Function<?> createMult( Class<?> type , double scalar ) {
+		if( type == Tensor_F32.class )
+			return new FunctionElementWiseMult_F32((float)scalar);
+		else
+			return new FunctionElementWiseMult_F64(scalar);
+	}
+
+	@Override
+	public String getName() {
+		return "constant-scales";
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph.optimize;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.forward.ConstantPadding2D;
+import deepboof.forward.FunctionElementWiseMult;
+import deepboof.forward.FunctionLinear;
+import deepboof.forward.SpatialConvolve2D;
+import deepboof.graph.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Removes a {@link FunctionElementWiseMult} by folding its scalar into the weights of an adjacent linear or
+ * convolution layer.</p>
+ *
+ * <pre>
+ * after:  s*(W*x + b) = (s*W)*x + s*b
+ * before: W*(s*x) + b = (s*W)*x + b
+ * </pre>
+ *
+ * <p>The layer must be the only connection to the multiplication. Folding into a following convolution is
+ * skipped if the image is padded with a constant other than zero, since the padding isn't scaled. A layer before
+ * the multiplication which is an output isn't changed, since its value would be scaled.</p>
+ *
+ * @author Peter Abeles
+ */
+public class FoldScaleIntoWeightsPass<T extends Tensor<T>> implements GraphPass<T> {
+	@Override
+	public <F extends Function<T>> boolean apply( List<Node<T,F>> nodes , Map<String,List<T>> parameters ,
+												  Set<String> outputs ) {
+		boolean changed = false;
+		for( Node<T,F> mult : new ArrayList<>(nodes) ) {
+			if( !(mult.function instanceof FunctionElementWiseMult) )
+				continue;
+			double scalar = ((FunctionElementWiseMult)mult.function).getScalar();
+
+			// try folding into the layer before first
+			Node<T,F> before = GraphEdits.singleSource(nodes, mult);
+			if( before != null && isWeighted(before.function) && parameters.containsKey(before.name) &&
+					GraphEdits.countUses(nodes, before.name) == 1 && !outputs.contains(before.name) ) {
+				if( GraphEdits.bypass(nodes, mult, parameters, outputs) ) {
+					List<T> p = parameters.get(before.name);
+					List<T> scaled = new ArrayList<>();
+					scaled.add(GraphEdits.scale(p.get(0), scalar));
+					scaled.add(GraphEdits.scale(p.get(1), scalar));
+					GraphEdits.setParameters(before, scaled, parameters);
+					changed = true;
+					continue;
+				}
+			}
+
+			// then the layer after
+			List<Node<T,F>> consumers = GraphEdits.consumers(nodes, mult.name);
+			if( consumers.size() != 1 || GraphEdits.countUses(nodes, mult.name) != 1 )
+				continue;
+			Node<T,F> after = consumers.get(0);
+			if( after.sources.size() != 1 || !isWeighted(after.function) || !isPaddingLinear(after.function) )
+				continue;
+			if( !parameters.containsKey(after.name) )
+				continue;
+			if( GraphEdits.bypass(nodes, mult, parameters, outputs) ) {
+				List<T> p = parameters.get(after.name);
+				List<T> scaled = new ArrayList<>();
+				scaled.add(GraphEdits.scale(p.get(0), scalar));
+				scaled.add(p.get(1));
+				GraphEdits.setParameters(after, scaled, parameters);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns true if the function is a linear or convolution layer, which has weights and a bias
+	 */
+	protected boolean isWeighted( Function<T> function ) {
+		return function instanceof FunctionLinear || function instanceof SpatialConvolve2D;
+	}
+
+	/**
+	 * Returns true if scaling the input will also scale the padding
+	 */
+	protected boolean isPaddingLinear( Function<T> function ) {
+		if( !(function instanceof SpatialConvolve2D) )
+			return true;
+		Object padding = ((SpatialConvolve2D)function).getPadding();
+		if( padding instanceof ConstantPadding2D )
+			return ((ConstantPadding2D)padding).getPaddingValue() == 0;
+		return true;
+	}
+
+	@Override
+	public String getName() {
+		return "scale-into-weights";
+	}
+}
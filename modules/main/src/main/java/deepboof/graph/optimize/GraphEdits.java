@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph.optimize;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.graph.InputAddress;
+import deepboof.graph.Node;
+import deepboof.misc.TensorOps_F32;
+import deepboof.misc.TensorOps_F64;
+import deepboof.tensors.Tensor_F32;
+import deepboof.tensors.Tensor_F64;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Functions for inspecting and modifying a graph which are shared by the {@link GraphPass passes}.
+ *
+ * @author Peter Abeles
+ */
+public class GraphEdits {
+	/**
+	 * Returns the node with the specified name or null if there is none
+	 */
+	public static <N extends Node<?,?>> N find( List<N> nodes , String name ) {
+		for( N n : nodes ) {
+			if( n.name.equals(name) )
+				return n;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns all the nodes which use the output of the specified node. A node is only included once
+	 * even if it uses the output more than once.
+	 */
+	public static <N extends Node<?,?>> List<N> consumers( List<N> nodes , String name ) {
+		List<N> found = new ArrayList<>();
+		for( N n : nodes ) {
+			for( InputAddress addr : n.sources ) {
+				if( addr.nodeName.equals(name) ) {
+					found.add(n);
+					break;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Counts how many times the output of the node is used
+	 */
+	public static int countUses( List<? extends Node<?,?>> nodes , String name ) {
+		int total = 0;
+		for( Node<?,?> n : nodes ) {
+			for( InputAddress addr : n.sources ) {
+				if( addr.nodeName.equals(name) )
+					total++;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the node which is the only source of the node or null if it doesn't have exactly one source
+	 */
+	public static <N extends Node<?,?>> N singleSource( List<N> nodes , N node ) {
+		if( node.sources.size() != 1 )
+			return null;
+		return find(nodes, node.sources.get(0).nodeName);
+	}
+
+	/**
+	 * Removes a node which doesn't change its input, e.g. an identity function, and connects the nodes
+	 * which consumed its output to its source. If the node is the input node then it can only be removed
+	 * when its only consumer has a single source, otherwise there would be multiple input nodes. Output nodes
+	 * are never removed.
+	 *
+	 * @param outputs Names of the output nodes
+	 * @return true if the node was removed
+	 */
+	public static boolean bypass( List<? extends Node<?,?>> nodes , Node<?,?> node , Map<String,?> parameters ,
+								  Set<String> outputs ) {
+		if( node.sources.size() > 1 || outputs.contains(node.name) )
+			return false;
+
+		if( node.sources.isEmpty() ) {
+			List<? extends Node<?,?>> consumers = consumers(nodes, node.name);
+			if( consumers.size() != 1 || consumers.get(0).sources.size() != 1 )
+				return false;
+			consumers.get(0).sources.clear();
+		} else {
+			String source = node.sources.get(0).nodeName;
+			for( Node<?,?> n : nodes ) {
+				for( InputAddress addr : n.sources ) {
+					if( addr.nodeName.equals(node.name) )
+						addr.nodeName = source;
+				}
+			}
+		}
+
+		nodes.remove(node);
+		parameters.remove(node.name);
+		return true;
+	}
+
+	/**
+	 * Creates a copy of the tensor with every element multiplied by the scalar
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Tensor<T>> T scale( T tensor , double scalar ) {
+		T out = tensor.copy();
+		if( out instanceof Tensor_F64 ) {
+			TensorOps_F64.elementMult((Tensor_F64)out, scalar);
+		} else if( out instanceof Tensor_F32 ) {
+			TensorOps_F32.elementMult((Tensor_F32)out, (float)scalar);
+		} else {
+			throw new IllegalArgumentException("Unsupported tensor type "+tensor.getClass().getSimpleName());
+		}
+		return out;
+	}
+
+	/**
+	 * Changes a node's parameters. If the function's parameters have already been set then they are updated too.
+	 */
+	public static <T extends Tensor<T>> void setParameters( Node<T,? extends Function<T>> node , List<T> parameters ,
+															Map<String,List<T>> map ) {
+		map.put(node.name, parameters);
+		if( node.function.getParameters() != null )
+			node.function.setParameters(parameters);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph.optimize;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.graph.Node;
+
+import java.util.*;
+
+/**
+ * <p>Rewrites a network's graph so that it can be processed more efficiently during inference, without changing
+ * its output. The graph is modified by a list of {@link GraphPass passes} which are applied repeatedly until none
+ * of them change the graph. Should be applied before the graph is used to create a
+ * {@link deepboof.graph.FunctionSequence}.</p>
+ *
+ * <pre>
+ * GraphOptimizer&lt;Tensor_F32&gt; optimizer = GraphOptimizer.standard();
+ * optimizer.optimize(model.sequence, model.parameters);
+ * </pre>
+ *
+ * @author Peter Abeles
+ */
+public class GraphOptimizer<T extends Tensor<T>> {
+	// Passes in the order they are applied
+	List<GraphPass<T>> passes = new ArrayList<>();
+
+	// Names of the output nodes, which the passes must preserve. If empty then nodes whose output isn't used are
+	// the outputs
+	Set<String> outputs = new HashSet<>();
+
+	// maximum number of times all the passes are applied
+	int maxIterations = 20;
+
+	// If true then the name of passes which changed the graph are printed
+	boolean verbose = false;
+
+	/**
+	 * Creates an optimizer with the standard passes. Identity removal, constant folding, scalar folding
+	 * into linear and convolution layers, and dead-node removal.
+	 *
+	 * @param outputs Names of the output nodes. See {@link #setOutputs}.
+	 */
+	public static <T extends Tensor<T>> GraphOptimizer<T> standard( String... outputs ) {
+		GraphOptimizer<T> optimizer = new GraphOptimizer<>();
+		optimizer.addPass(new RemoveIdentityPass<>());
+		optimizer.addPass(new FoldConstantScalesPass<>());
+		optimizer.addPass(new FoldScaleIntoWeightsPass<>());
+		optimizer.addPass(new RemoveDeadNodesPass<>());
+		optimizer.setOutputs(outputs);
+		return optimizer;
+	}
+
+	public GraphOptimizer<T> addPass( GraphPass<T> pass ) {
+		passes.add(pass);
+		return this;
+	}
+
+	/**
+	 * Applies the passes to the graph until none of them change it
+	 *
+	 * @param nodes Nodes in the graph. Modified.
+	 * @param parameters Map from node name to that node's parameters. Modified. Tensors are not modified.
+	 * @return Number of times a pass changed the graph
+	 */
+	public <F extends Function<T>> int optimize( List<Node<T,F>> nodes , Map<String,List<T>> parameters ) {
+		int total = 0;
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			boolean changed = false;
+			for( GraphPass<T> pass : passes ) {
+				if( pass.apply(nodes, parameters, outputs) ) {
+					if( verbose )
+						System.out.println("Applied "+pass.getName()+". nodes = "+nodes.size());
+					changed = true;
+					total++;
+				}
+			}
+			if( !changed )
+				break;
+		}
+		return total;
+	}
+
+	public List<GraphPass<T>> getPasses() {
+		return passes;
+	}
+
+	public Set<String> getOutputs() {
+		return outputs;
+	}
+
+	/**
+	 * Specifies which nodes are outputs of the network. Output nodes are kept and their values are not changed
+	 * by any pass. Nodes which aren't used by an output are removed.
+	 *
+	 * @param outputs Names of the output nodes. If none are specified then every node whose output isn't used
+	 *                is considered to be an output.
+	 */
+	public void setOutputs( String... outputs ) {
+		this.outputs = new HashSet<>(Arrays.asList(outputs));
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public void setMaxIterations( int maxIterations ) {
+		this.maxIterations = maxIterations;
+	}
+
+	public void setVerbose( boolean verbose ) {
+		this.verbose = verbose;
+	}
+}
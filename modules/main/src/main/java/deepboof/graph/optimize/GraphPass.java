@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph.optimize;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.graph.Node;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A single rewrite of a network's graph which is applied by {@link GraphOptimizer}. Passes must not change
+ * the network's output, other than by floating point round off. Nodes which are outputs are never removed and
+ * their values are never changed.
+ *
+ * @author Peter Abeles
+ */
+public interface GraphPass<T extends Tensor<T>> {
+	/**
+	 * Applies the pass to the graph. Nodes and parameters are modified in place. Parameter tensors
+	 * are never modified. If a parameter needs to change a new tensor is created.
+	 *
+	 * @param nodes Nodes in the graph. Order is preserved.
+	 * @param parameters Map from node name to that node's parameters
+	 * @param outputs Names of the output nodes. If empty then every node whose output isn't used is an output.
+	 * @return true if the graph was changed
+	 */
+	<F extends Function<T>> boolean apply( List<Node<T,F>> nodes , Map<String,List<T>> parameters ,
+										   Set<String> outputs );
+
+	/**
+	 * Short name which describes the pass
+	 */
+	String getName();
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph.optimize;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.graph.InputAddress;
+import deepboof.graph.Node;
+
+import java.util.*;
+
+/**
+ * Removes nodes which don't contribute to the outputs of the network, along with their parameters.
+ * Parameters for nodes which are not in the graph are also removed.
+ *
+ * @author Peter Abeles
+ */
+public class RemoveDeadNodesPass<T extends Tensor<T>> implements GraphPass<T> {
+	@Override
+	public <F extends Function<T>> boolean apply( List<Node<T,F>> nodes , Map<String,List<T>> parameters ,
+												  Set<String> outputs ) {
+		Map<String,Node<T,F>> lookup = new HashMap<>();
+		for( Node<T,F> n : nodes ) {
+			lookup.put(n.name, n);
+		}
+
+		// start at the outputs and mark everything they depend on
+		Deque<String> open = new ArrayDeque<>();
+		if( outputs.isEmpty() ) {
+			for( Node<T,F> n : nodes ) {
+				if( GraphEdits.countUses(nodes, n.name) == 0 )
+					open.add(n.name);
+			}
+		} else {
+			for( String name : outputs ) {
+				if( !lookup.containsKey(name) )
+					throw new IllegalArgumentException("Unknown output node "+name);
+				open.add(name);
+			}
+		}
+
+		Set<String> alive = new HashSet<>();
+		while( !open.isEmpty() ) {
+			String name = open.pop();
+			if( !alive.add(name) )
+				continue;
+			for( InputAddress addr : lookup.get(name).sources ) {
+				open.add(addr.nodeName);
+			}
+		}
+
+		boolean changed = nodes.removeIf(n -> !alive.contains(n.name));
+		changed |= parameters.keySet().removeIf(name -> !alive.contains(name));
+		return changed;
+	}
+
+	@Override
+	public String getName() {
+		return "dead-nodes";
+	}
+}
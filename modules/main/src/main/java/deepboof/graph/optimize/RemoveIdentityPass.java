@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph.optimize;
+
+import deepboof.Function;
+import deepboof.Tensor;
+import deepboof.forward.FunctionElementWiseMult;
+import deepboof.graph.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes nodes whose output is always the same as their input, e.g. multiplication by one. Nodes which
+ * consumed their output are connected to their source instead.
+ *
+ * @author Peter Abeles
+ */
+public class RemoveIdentityPass<T extends Tensor<T>> implements GraphPass<T> {
+	@Override
+	public <F extends Function<T>> boolean apply( List<Node<T,F>> nodes , Map<String,List<T>> parameters ,
+												  Set<String> outputs ) {
+		boolean changed = false;
+		for( Node<T,F> n : new ArrayList<>(nodes) ) {
+			if( isIdentity(n.function) )
+				changed |= GraphEdits.bypass(nodes, n, parameters, outputs);
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns true if the function doesn't modify its input
+	 */
+	protected boolean isIdentity( Function<T> function ) {
+		if( function instanceof FunctionElementWiseMult )
+			return ((FunctionElementWiseMult)function).getScalar() == 1.0;
+		return false;
+	}
+
+	@Override
+	public String getName() {
+		return "identity";
+	}
+}
@@ -72,6 +72,16 @@ public abstract class BaseFunction<T extends Tensor<T>> implements Function<T> {
 
 	@Override
 	public void forward(T input, T output) {
+		checkShapes(input, output);
+		_forward(input, output);
+	}
+
+	/**
+	 * Makes sure the input and output tensors have the expected shapes
+	 *
+	 * @throws IllegalArgumentException If a shape doesn't match
+	 */
+	public void checkShapes(T input, T output) {
 		if( shapeInput == null )
 			throw new IllegalArgumentException("Must initialize first!");
 
@@ -85,7 +95,14 @@ public abstract class BaseFunction<T extends Tensor<T>> implements Function<T> {
 			throw new IllegalArgumentException("Dimension 0 in the output is "+M+
 					" and does not match input dimension 0 of "+ miniBatchSize);
 		}
+	}
 
+	/**
+	 * Same as {@link #forward} but the shapes aren't checked. Only use when the same tensors have already
+	 * been passed to {@link #checkShapes}.
+	 */
+	public void forwardUnchecked(T input, T output) {
+		miniBatchSize = input.length(0);
 		_forward(input, output);
 	}
 
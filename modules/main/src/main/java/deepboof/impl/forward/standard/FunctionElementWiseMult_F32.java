@@ -52,7 +52,8 @@ public class FunctionElementWiseMult_F32
 		return Tensor_F32.class;
 	}
 
-	public float getScalar() {
+	@Override
+	public /**/double getScalar() {
 		return scalar;
 	}
 }
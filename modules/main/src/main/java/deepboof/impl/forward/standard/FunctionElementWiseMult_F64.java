@@ -52,7 +52,8 @@ public class FunctionElementWiseMult_F64
 		return Tensor_F64.class;
 	}
 
-	public double getScalar() {
+	@Override
+	public /**/double getScalar() {
 		return scalar;
 	}
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.misc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reports how many bytes have been allocated on the heap by the current thread. Only supported
+ * on JVMs which provide {@code com.sun.management.ThreadMXBean}, e.g. HotSpot. Elsewhere, e.g. Android,
+ * {@link #isSupported()} returns false.
+ *
+ * @author Peter Abeles
+ */
+public class AllocationCounter {
+	private static final com.sun.management.ThreadMXBean bean = lookup();
+
+	private static com.sun.management.ThreadMXBean lookup() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if( bean instanceof com.sun.management.ThreadMXBean ) {
+				com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean)bean;
+				if( b.isThreadAllocatedMemorySupported() ) {
+					b.setThreadAllocatedMemoryEnabled(true);
+					return b;
+				}
+			}
+		} catch( LinkageError | RuntimeException ignore ) {}
+		return null;
+	}
+
+	/**
+	 * Returns true if allocations can be measured
+	 */
+	public static boolean isSupported() {
+		return bean != null;
+	}
+
+	/**
+	 * Total number of bytes allocated by the current thread since it started or -1 if not supported
+	 */
+	public static long currentThread() {
+		if( bean == null )
+			return -1;
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
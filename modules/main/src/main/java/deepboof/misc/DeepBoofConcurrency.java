@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.misc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>Settings and functions for processing loops in parallel. Work is split up into a
+ * {@link ForkJoinPool}, the common pool by default.</p>
+ *
+ * <p>Bulk operations on arrays are split into fixed size blocks which are small enough to stay in cache. The
+ * way an array is split into blocks only depends on its length and not the number of threads, so reductions
+ * which combine per-block results in order will produce the same answer with and without concurrency.</p>
+ *
+ * @author Peter Abeles
+ */
+public class DeepBoofConcurrency {
+	/**
+	 * If false then everything will run in a single thread
+	 */
+	public static boolean USE_CONCURRENT = true;
+
+	/**
+	 * Arrays with fewer elements than this are processed in the calling thread
+	 */
+	public static int MIN_PARALLEL_LENGTH = 1 << 15;
+
+	/**
+	 * Number of elements in each block
+	 */
+	public static int BLOCK_LENGTH = 1 << 12;
+
+	private static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Number of blocks an array of the specified length will be split into
+	 */
+	public static int countBlocks( int length ) {
+		return (length + BLOCK_LENGTH - 1)/BLOCK_LENGTH;
+	}
+
+	/**
+	 * Processes the range of indexes in blocks of {@link #BLOCK_LENGTH}. If the range is large enough
+	 * and concurrency is turned on then the blocks are processed in parallel.
+	 *
+	 * @param start First index, inclusive
+	 * @param end Last index, exclusive
+	 * @param op Called once for each block
+	 */
+	public static void loopBlocks( int start , int end , BlockOp op ) {
+		int length = end - start;
+		if( length <= 0 )
+			return;
+
+		int numBlocks = countBlocks(length);
+		if( !USE_CONCURRENT || length < MIN_PARALLEL_LENGTH || numBlocks <= 1 ) {
+			for (int block = 0; block < numBlocks; block++) {
+				int i0 = start + block*BLOCK_LENGTH;
+				op.process(block, i0, Math.min(end, i0 + BLOCK_LENGTH));
+			}
+		} else {
+			pool.invoke(new BlockTask(start, end, 0, numBlocks, op));
+		}
+	}
+
+	/**
+	 * Calls the operation once for every index in the range, possibly in parallel. Intended for
+	 * loops where each iteration does a lot of work, e.g. one image in a mini-batch.
+	 *
+	 * @param start First index, inclusive
+	 * @param end Last index, exclusive
+	 * @param op Called once for each index
+	 */
+	public static void loopFor( int start , int end , IntConsumer op ) {
+		if( !USE_CONCURRENT || end - start <= 1 ) {
+			for (int i = start; i < end; i++) {
+				op.accept(i);
+			}
+		} else {
+			pool.invoke(new ForTask(start, end, op));
+		}
+	}
+
+	/**
+	 * Returns true if an array of this length would be processed by more than one thread
+	 */
+	public static boolean isParallel( int length ) {
+		return USE_CONCURRENT && length >= MIN_PARALLEL_LENGTH && countBlocks(length) > 1;
+	}
+
+	/**
+	 * Changes the pool that work is submitted to
+	 */
+	public static void setPool( ForkJoinPool pool ) {
+		DeepBoofConcurrency.pool = pool;
+	}
+
+	public static ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Operation applied to a block of indexes
+	 */
+	public interface BlockOp {
+		/**
+		 * @param block Which block is being processed
+		 * @param i0 First index in the block, inclusive
+		 * @param i1 Last index in the block, exclusive
+		 */
+		void process( int block , int i0 , int i1 );
+	}
+
+	@SuppressWarnings("serial")
+	private static class BlockTask extends RecursiveAction {
+		int start, end;
+		int block0, block1;
+		BlockOp op;
+
+		BlockTask( int start, int end, int block0, int block1, BlockOp op ) {
+			this.start = start;
+			this.end = end;
+			this.block0 = block0;
+			this.block1 = block1;
+			this.op = op;
+		}
+
+		@Override
+		protected void compute() {
+			if( block1 - block0 == 1 ) {
+				int i0 = start + block0*BLOCK_LENGTH;
+				op.process(block0, i0, Math.min(end, i0 + BLOCK_LENGTH));
+			} else {
+				int middle = (block0 + block1)/2;
+				invokeAll(new BlockTask(start, end, block0, middle, op),
+						new BlockTask(start, end, middle, block1, op));
+			}
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class ForTask extends RecursiveAction {
+		int i0, i1;
+		IntConsumer op;
+
+		ForTask( int i0, int i1, IntConsumer op ) {
+			this.i0 = i0;
+			this.i1 = i1;
+			this.op = op;
+		}
+
+		@Override
+		protected void compute() {
+			if( i1 - i0 == 1 ) {
+				op.accept(i0);
+			} else {
+				int middle = (i0 + i1)/2;
+				invokeAll(new ForTask(i0, middle, op), new ForTask(middle, i1, op));
+			}
+		}
+	}
+}
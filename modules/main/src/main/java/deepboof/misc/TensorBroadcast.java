@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.misc;
+
+import java.util.Arrays;
+
+/**
+ * <p>Loop structure for an element-wise operation between two tensors with NumPy style broadcasting. Shapes
+ * are aligned by their last dimension. Two dimensions are compatible if they are equal or one of them is 1,
+ * in which case that operand is repeated along the dimension. Missing leading dimensions are treated as 1.</p>
+ *
+ * <p>The output is described by a small number of loops. Dimensions of size 1 are dropped and adjacent
+ * dimensions which can be traversed with a single stride by every operand are merged together. What's left
+ * is a sequence of outer loops and an inner loop which the output always walks through contiguously and each
+ * input either walks through contiguously (stride of 1) or holds constant (stride of 0). Offsets only need
+ * to be updated once per row of the inner loop.</p>
+ *
+ * <pre>
+ * (N,C,H,W) + (C,1,1)  becomes loops of shape (N,C,H*W) with B strides (0,1,0)
+ * (N,C)     + (C)      becomes loops of shape (N,C) with B strides (0,1)
+ * </pre>
+ *
+ * @author Peter Abeles
+ */
+public class TensorBroadcast {
+	/** Shape of the output tensor */
+	public int[] outputShape;
+
+	/** Length of each loop. The last one is the inner loop */
+	public int[] loops;
+	/** Stride of operand A for each loop */
+	public int[] strideA;
+	/** Stride of operand B for each loop */
+	public int[] strideB;
+	/** Stride of the output for each loop */
+	public int[] strideOut;
+
+	/**
+	 * Creates the loop structure for the two shapes
+	 *
+	 * @throws IllegalArgumentException If the shapes are not compatible
+	 */
+	public static TensorBroadcast compile( int[] shapeA , int[] shapeB ) {
+		int[] shapeOut = broadcastShape(shapeA,shapeB);
+		int rank = shapeOut.length;
+
+		// strides in the output's coordinate system. Zero if the operand is repeated
+		int[] sA = alignedStrides(shapeA,shapeOut);
+		int[] sB = alignedStrides(shapeB,shapeOut);
+		int[] sO = alignedStrides(shapeOut,shapeOut);
+
+		int[] loops = new int[rank];
+		int[] lA = new int[rank], lB = new int[rank], lO = new int[rank];
+		int N = 0;
+		for (int i = 0; i < rank; i++) {
+			if( shapeOut[i] == 1 )
+				continue;
+
+			// merge with the previous loop if every operand can step through both with a single stride
+			if( N > 0 && lA[N-1] == sA[i]*shapeOut[i] && lB[N-1] == sB[i]*shapeOut[i] &&
+					lO[N-1] == sO[i]*shapeOut[i] ) {
+				loops[N-1] *= shapeOut[i];
+				lA[N-1] = sA[i]; lB[N-1] = sB[i]; lO[N-1] = sO[i];
+			} else {
+				loops[N] = shapeOut[i];
+				lA[N] = sA[i]; lB[N] = sB[i]; lO[N] = sO[i];
+				N++;
+			}
+		}
+
+		TensorBroadcast plan = new TensorBroadcast();
+		plan.outputShape = shapeOut;
+		if( N == 0 ) {
+			// every operand has a single element
+			plan.loops = new int[]{TensorOps.tensorLength(shapeOut) == 0 ? 0 : 1};
+			plan.strideA = new int[]{1};
+			plan.strideB = new int[]{1};
+			plan.strideOut = new int[]{1};
+		} else {
+			plan.loops = Arrays.copyOf(loops,N);
+			plan.strideA = Arrays.copyOf(lA,N);
+			plan.strideB = Arrays.copyOf(lB,N);
+			plan.strideOut = Arrays.copyOf(lO,N);
+		}
+		return plan;
+	}
+
+	/**
+	 * Computes the shape that results from broadcasting the two shapes together
+	 *
+	 * @throws IllegalArgumentException If the shapes are not compatible
+	 */
+	public static int[] broadcastShape( int[] shapeA , int[] shapeB ) {
+		int rank = Math.max(shapeA.length,shapeB.length);
+		int[] out = new int[rank];
+		for (int i = 0; i < rank; i++) {
+			int a = dimension(shapeA,i-rank+shapeA.length);
+			int b = dimension(shapeB,i-rank+shapeB.length);
+			if( a == b || b == 1 ) {
+				out[i] = a;
+			} else if( a == 1 ) {
+				out[i] = b;
+			} else {
+				throw new IllegalArgumentException("Shapes can't be broadcast together. "+
+						TensorOps.toStringShapeA(shapeA)+" and "+TensorOps.toStringShapeA(shapeB));
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Returns true if a tensor with shape A could be broadcast to shape B without changing B
+	 */
+	public static boolean isBroadcastableTo( int[] shapeA , int[] shapeB ) {
+		if( shapeA.length > shapeB.length )
+			return false;
+		for (int i = 0; i < shapeA.length; i++) {
+			int a = shapeA[shapeA.length-1-i];
+			if( a != 1 && a != shapeB[shapeB.length-1-i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Number of elements in the output
+	 */
+	public int length() {
+		return TensorOps.tensorLength(outputShape);
+	}
+
+	/**
+	 * Length of the inner loop
+	 */
+	public int innerLength() {
+		return loops[loops.length-1];
+	}
+
+	/**
+	 * Number of times the inner loop is run
+	 */
+	public int rows() {
+		int total = 1;
+		for (int i = 0; i < loops.length-1; i++) {
+			total *= loops[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Initializes the loop counters and offsets, relative to each tensor's start index, for the specified row
+	 *
+	 * @param row Which row
+	 * @param counters (Output) Loop counters. Length must be the number of loops.
+	 * @param offsets (Output) Offsets for A, B, and output
+	 */
+	public void seekRow( int row , int[] counters , int[] offsets ) {
+		offsets[0] = offsets[1] = offsets[2] = 0;
+		counters[loops.length-1] = 0;
+		for (int i = loops.length-2; i >= 0; i--) {
+			int c = row % loops[i];
+			row /= loops[i];
+			counters[i] = c;
+			offsets[0] += c*strideA[i];
+			offsets[1] += c*strideB[i];
+			offsets[2] += c*strideOut[i];
+		}
+	}
+
+	/**
+	 * Advances the counters and offsets to the next row
+	 */
+	public void nextRow( int[] counters , int[] offsets ) {
+		for (int i = loops.length-2; i >= 0; i--) {
+			offsets[0] += strideA[i];
+			offsets[1] += strideB[i];
+			offsets[2] += strideOut[i];
+			if( ++counters[i] < loops[i] )
+				return;
+			counters[i] = 0;
+			offsets[0] -= strideA[i]*loops[i];
+			offsets[1] -= strideB[i]*loops[i];
+			offsets[2] -= strideOut[i]*loops[i];
+		}
+	}
+
+	/**
+	 * Stride of A in the inner loop. Either 0 or 1
+	 */
+	public int innerStrideA() {
+		return strideA[strideA.length-1];
+	}
+
+	/**
+	 * Stride of B in the inner loop. Either 0 or 1
+	 */
+	public int innerStrideB() {
+		return strideB[strideB.length-1];
+	}
+
+	private static int dimension( int[] shape , int i ) {
+		return i < 0 ? 1 : shape[i];
+	}
+
+	/**
+	 * Strides of a row-major tensor with the specified shape after being aligned with the output shape
+	 */
+	private static int[] alignedStrides( int[] shape , int[] shapeOut ) {
+		int rank = shapeOut.length;
+		int[] strides = new int[rank];
+		int stride = 1;
+		for (int i = rank-1; i >= 0; i--) {
+			int length = dimension(shape,i-rank+shape.length);
+			strides[i] = length == 1 ? 0 : stride;
+			stride *= length;
+		}
+		return strides;
+	}
+}
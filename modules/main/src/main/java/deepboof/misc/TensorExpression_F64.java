@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.misc;
+
+import deepboof.tensors.Tensor_F64;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Lazily evaluated sequence of element-wise operations. Operations are recorded and nothing is computed
+ * until {@link #compute} is called. Then the input is processed one block at a time, see
+ * {@link DeepBoofConcurrency}, with every operation being applied to the block while it's in cache before
+ * it's written to the output. A chain of operations only makes a single pass through memory and
+ * doesn't create intermediate tensors. Blocks are processed in parallel for large tensors.</p>
+ *
+ * <pre>
+ * TensorExpression_F64 normalize = TensorExpression_F64.from(input).sub(mean).div(stdev).clamp(-3,3);
+ * normalize.compute(output);
+ * </pre>
+ *
+ * <p>Tensors passed into the expression are referenced and not copied, so an expression can be created once
+ * and computed each time the contents of its tensors change. The output can be the input or any of the
+ * tensor operands.</p>
+ *
+ * @author Peter Abeles
+ */
+public class TensorExpression_F64 {
+	private static final int MULT = 1;
+	private static final int DIV = 2;
+	private static final int SCALE = 3;
+	private static final int CLAMP = 4;
+	private static final int ABS = 5;
+	private static final int SQRT = 6;
+	private static final int EXP = 7;
+	private static final int LOG = 8;
+	private static final int ADD_TENSOR = 9;
+	private static final int SUB_TENSOR = 10;
+	private static final int MULT_TENSOR = 11;
+	private static final int DIV_TENSOR = 12;
+	private static final int MULT_ADD_TENSOR = 13;
+
+	// work space for a single block. One for each thread
+	private static final ThreadLocal<double[]> workspace = ThreadLocal.withInitial(() -> new double[0]);
+
+	// The tensor which the expression starts with
+	private Tensor_F64 input;
+
+	private List<Operation> operations = new ArrayList<>();
+
+	private TensorExpression_F64( Tensor_F64 input ) {
+		this.input = input;
+	}
+
+	/**
+	 * Starts a new expression.
+	 *
+	 * @param input The tensor which operations are applied to. Not modified unless it's also the output.
+	 */
+	public static TensorExpression_F64 from( Tensor_F64 input ) {
+		return new TensorExpression_F64(input);
+	}
+
+	/** {@code x + value} */
+	public TensorExpression_F64 add( double value ) {
+		return add(SCALE, 1, value);
+	}
+
+	/** {@code x - value} */
+	public TensorExpression_F64 sub( double value ) {
+		return add(SCALE, 1, -value);
+	}
+
+	/** {@code x*value} */
+	public TensorExpression_F64 mult( double value ) {
+		return add(MULT, value, 0);
+	}
+
+	/** {@code x/value} */
+	public TensorExpression_F64 div( double value ) {
+		return add(DIV, value, 0);
+	}
+
+	/** {@code alpha*x + beta} */
+	public TensorExpression_F64 scale( double alpha , double beta ) {
+		return add(SCALE, alpha, beta);
+	}
+
+	/** Forces values to be between min and max, inclusive */
+	public TensorExpression_F64 clamp( double min , double max ) {
+		if( min > max )
+			throw new IllegalArgumentException("min must be <= max");
+		return add(CLAMP, min, max);
+	}
+
+	/** {@code max(0,x)} */
+	public TensorExpression_F64 relu() {
+		return add(CLAMP, 0, Double.MAX_VALUE);
+	}
+
+	/** {@code |x|} */
+	public TensorExpression_F64 abs() {
+		return add(ABS, 0, 0);
+	}
+
+	/** {@code sqrt(x)} */
+	public TensorExpression_F64 sqrt() {
+		return add(SQRT, 0, 0);
+	}
+
+	/** {@code exp(x)} */
+	public TensorExpression_F64 exp() {
+		return add(EXP, 0, 0);
+	}
+
+	/** {@code log(x)} */
+	public TensorExpression_F64 log() {
+		return add(LOG, 0, 0);
+	}
+
+	/** {@code x + tensor}. Tensor must have the same shape as the input */
+	public TensorExpression_F64 add( Tensor_F64 tensor ) {
+		return add(ADD_TENSOR, tensor, null);
+	}
+
+	/** {@code x - tensor}. Tensor must have the same shape as the input */
+	public TensorExpression_F64 sub( Tensor_F64 tensor ) {
+		return add(SUB_TENSOR, tensor, null);
+	}
+
+	/** {@code x*tensor}. Tensor must have the same shape as the input */
+	public TensorExpression_F64 mult( Tensor_F64 tensor ) {
+		return add(MULT_TENSOR, tensor, null);
+	}
+
+	/** {@code x/tensor}. Tensor must have the same shape as the input */
+	public TensorExpression_F64 div( Tensor_F64 tensor ) {
+		return add(DIV_TENSOR, tensor, null);
+	}
+
+	/** {@code x*scale + offset}. Tensors must have the same shape as the input */
+	public TensorExpression_F64 multAdd( Tensor_F64 scale , Tensor_F64 offset ) {
+		return add(MULT_ADD_TENSOR, scale, offset);
+	}
+
+	/**
+	 * Creates a new tensor and computes the expression's value
+	 *
+	 * @return A new tensor with the same shape as the input
+	 */
+	public Tensor_F64 compute() {
+		Tensor_F64 output = new Tensor_F64(input.shape);
+		compute(output);
+		return output;
+	}
+
+	/**
+	 * Computes the expression's value and writes it to the output
+	 *
+	 * @param output Storage for the results. Must have the same shape as the input.
+	 */
+	public void compute( Tensor_F64 output ) {
+		TensorOps.checkShape(input, output);
+
+		// tensors could have been reshaped since they were added to the expression
+		final Operation[] ops = operations.toArray(new Operation[0]);
+		for( Operation op : ops ) {
+			if( op.tensorA != null )
+				TensorOps.checkShape(input, op.tensorA);
+			if( op.tensorB != null )
+				TensorOps.checkShape(input, op.tensorB);
+		}
+		DeepBoofConcurrency.loopBlocks(0, input.length(), (block, i0, i1) -> {
+			int length = i1 - i0;
+			double[] work = workspace.get();
+			if( work.length < length ) {
+				work = new double[Math.max(length,DeepBoofConcurrency.BLOCK_LENGTH)];
+				workspace.set(work);
+			}
+
+			System.arraycopy(input.d, input.startIndex + i0, work, 0, length);
+			for( Operation op : ops ) {
+				apply(op, work, i0, length);
+			}
+			System.arraycopy(work, 0, output.d, output.startIndex + i0, length);
+		});
+	}
+
+	/**
+	 * Number of operations in the expression
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	public Tensor_F64 getInput() {
+		return input;
+	}
+
+	/**
+	 * Applies the operation to the block, which starts at element 'offset' in the tensors
+	 */
+	private static void apply( Operation op , double[] work , int offset , int length ) {
+		final double a = op.a, b = op.b;
+		switch( op.type ) {
+			case MULT:
+				for (int i = 0; i < length; i++) work[i] *= a;
+				break;
+
+			case DIV:
+				for (int i = 0; i < length; i++) work[i] /= a;
+				break;
+
+			case SCALE:
+				for (int i = 0; i < length; i++) work[i] = a*work[i] + b;
+				break;
+
+			case CLAMP:
+				for (int i = 0; i < length; i++) {
+					double v = work[i];
+					work[i] = v < a ? a : (v > b ? b : v);
+				}
+				break;
+
+			case ABS:
+				for (int i = 0; i < length; i++) work[i] = Math.abs(work[i]);
+				break;
+
+			case SQRT:
+				for (int i = 0; i < length; i++) work[i] = Math.sqrt(work[i]);
+				break;
+
+			case EXP:
+				for (int i = 0; i < length; i++) work[i] = Math.exp(work[i]);
+				break;
+
+			case LOG:
+				for (int i = 0; i < length; i++) work[i] = Math.log(work[i]);
+				break;
+
+			default:
+				applyTensor(op, work, offset, length);
+		}
+	}
+
+	private static void applyTensor( Operation op , double[] work , int offset , int length ) {
+		final double[] t = op.tensorA.d;
+		final int start = op.tensorA.startIndex + offset;
+		switch( op.type ) {
+			case ADD_TENSOR:
+				for (int i = 0; i < length; i++) work[i] += t[start+i];
+				break;
+
+			case SUB_TENSOR:
+				for (int i = 0; i < length; i++) work[i] -= t[start+i];
+				break;
+
+			case MULT_TENSOR:
+				for (int i = 0; i < length; i++) work[i] *= t[start+i];
+				break;
+
+			case DIV_TENSOR:
+				for (int i = 0; i < length; i++) work[i] /= t[start+i];
+				break;
+
+			case MULT_ADD_TENSOR: {
+				final double[] u = op.tensorB.d;
+				final int startB = op.tensorB.startIndex + offset;
+				for (int i = 0; i < length; i++) work[i] = work[i]*t[start+i] + u[startB+i];
+			} break;
+
+			default:
+				throw new RuntimeException("BUG! Unknown operation "+op.type);
+		}
+	}
+
+	private TensorExpression_F64 add( int type , double a , double b ) {
+		Operation op = new Operation();
+		op.type = type;
+		op.a = a;
+		op.b = b;
+		operations.add(op);
+		return this;
+	}
+
+	private TensorExpression_F64 add( int type , Tensor_F64 tensorA , Tensor_F64 tensorB ) {
+		TensorOps.checkShape(input, tensorA);
+		if( tensorB != null )
+			TensorOps.checkShape(input, tensorB);
+
+		Operation op = new Operation();
+		op.type = type;
+		op.tensorA = tensorA;
+		op.tensorB = tensorB;
+		operations.add(op);
+		return this;
+	}
+
+	private static class Operation {
+		int type;
+		double a, b;
+		Tensor_F64 tensorA, tensorB;
+	}
+}
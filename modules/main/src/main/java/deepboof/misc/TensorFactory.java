@@ -30,14 +30,24 @@ import java.util.Random;
 @SuppressWarnings("unchecked")
 public class TensorFactory<T extends Tensor<T>> {
 
-	Class tensorType;
+	Class<?> tensorType;
 
-	public TensorFactory(Class tensorType) {
+	// If not null then tensors are created using arrays from this pool
+	TensorPool pool;
+
+	public TensorFactory(Class<?> tensorType) {
+		this.tensorType = tensorType;
+	}
+
+	public TensorFactory(Class<?> tensorType, TensorPool pool) {
 		this.tensorType = tensorType;
+		this.pool = pool;
 	}
 
 	public T create( int...shape) {
-		if( tensorType == Tensor_F64.class ) {
+		if( pool != null ) {
+			return pool.acquire((Class<T>)tensorType,shape);
+		} else if( tensorType == Tensor_F64.class ) {
 			return (T) new Tensor_F64(shape);
 		} else if( tensorType == Tensor_F32.class ) {
 			return (T)new Tensor_F32(shape);
@@ -91,6 +101,17 @@ public class TensorFactory<T extends Tensor<T>> {
 	}
 
 	public Class<T> getTensorType() {
-		return tensorType;
+		return (Class<T>)tensorType;
+	}
+
+	/**
+	 * Pool which tensors are created from. If null then new tensors are always declared.
+	 */
+	public TensorPool getPool() {
+		return pool;
+	}
+
+	public void setPool(TensorPool pool) {
+		this.pool = pool;
 	}
 }
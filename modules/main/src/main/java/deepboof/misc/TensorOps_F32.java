@@ -19,8 +19,10 @@
 package deepboof.misc;
 
 import deepboof.tensors.Tensor_F32;
+import deepboof.tensors.Tensor_U8;
 
 import java.util.Arrays;
+import java.util.function.IntConsumer;
 
 /**
  * @author Peter Abeles
@@ -33,12 +35,13 @@ public class TensorOps_F32 {
 	 * @param value value of the multiplication
 	 */
 	public static void elementMult(Tensor_F32 tensor , float value  ) {
-		int index = tensor.startIndex;
-		int end = index + tensor.length();
-		while( index < end ) {
-
-			tensor.d[index++] *= value;
-		}
+		final float[] d = tensor.d;
+		final int offset = tensor.startIndex;
+		DeepBoofConcurrency.loopBlocks(offset, offset + tensor.length(), (block, i0, i1) -> {
+			for (int i = i0; i < i1; i++) {
+				d[i] *= value;
+			}
+		});
 	}
 
 	/**
@@ -51,17 +54,19 @@ public class TensorOps_F32 {
 	public static void elementMult(Tensor_F32 input , float value , Tensor_F32 output ) {
 		TensorOps.checkShape(input,output);
 
-		int indexIn = input.startIndex;
-		int indexOut = output.startIndex;
-		int end = indexIn + input.length();
-		for( ; indexIn < end; indexIn++ , indexOut++ ) {
-			output.d[indexOut] = input.d[indexIn]*value;
-		}
+		final float[] in = input.d, out = output.d;
+		final int offIn = input.startIndex, offOut = output.startIndex;
+		DeepBoofConcurrency.loopBlocks(0, input.length(), (block, i0, i1) -> {
+			for (int i = i0; i < i1; i++) {
+				out[offOut+i] = in[offIn+i]*value;
+			}
+		});
 	}
 
 	/**
-	 * <p>Performs element-wise multiplication between the two tensors and stores results in output. All tensors
-	 * must have the same shape. </p>
+	 * <p>Performs element-wise multiplication between the two tensors and stores results in output. If A and B
+	 * have different shapes they are broadcast together, see {@link TensorBroadcast}, and output must have the
+	 * broadcast shape.</p>
 	 *
 	 * {@code output[i] = A[i]*B[i]}
 	 *
@@ -70,74 +75,858 @@ public class TensorOps_F32 {
 	 * @param output Output tensor.
 	 */
 	public static void elementMult(Tensor_F32 A , Tensor_F32 B , Tensor_F32 output ) {
-		int indexA = A.startIndex;
-		int endA = indexA + A.length();
-		int indexB = B.startIndex;
+		if( !A.isShape(B.shape) ) {
+			broadcast(A, B, output, false);
+			return;
+		}
 
-		if( A != output && B != output ) {
+		final float[] a = A.d, b = B.d, out = output.d;
+		final int offA = A.startIndex, offB = B.startIndex, offOut = output.startIndex;
+		DeepBoofConcurrency.loopBlocks(0, A.length(), (block, i0, i1) -> {
+			for (int i = i0; i < i1; i++) {
+				out[offOut+i] = a[offA+i]*b[offB+i];
+			}
+		});
+	}
 
-			int indexOut = output.startIndex;
+	/**
+	 * <p>Performs element-wise addition between the two tensors and stores results in output. If A and B
+	 * have different shapes they are broadcast together, see {@link TensorBroadcast}, and output must have the
+	 * broadcast shape.</p>
+	 *
+	 * {@code output[i] = A[i] + B[i]}
+	 *
+	 * @param A Input tensor. Can be the same as output.
+	 * @param B Input tensor. Can be the same as output.
+	 * @param output Output tensor.
+	 */
+	public static void elementAdd(Tensor_F32 A , Tensor_F32 B , Tensor_F32 output ) {
+		if( !A.isShape(B.shape) ) {
+			broadcast(A, B, output, true);
+			return;
+		}
 
-			while (indexA < endA) {
-				output.d[indexOut++] = A.d[indexA++] * B.d[indexB++];
+		final float[] a = A.d, b = B.d, out = output.d;
+		final int offA = A.startIndex, offB = B.startIndex, offOut = output.startIndex;
+		DeepBoofConcurrency.loopBlocks(0, A.length(), (block, i0, i1) -> {
+			for (int i = i0; i < i1; i++) {
+				out[offOut+i] = a[offA+i] + b[offB+i];
 			}
-		} else if( B == output ) {
-			while (indexA < endA) {
-				B.d[indexB++] *= A.d[indexA++];
+		});
+	}
+
+	/**
+	 * Element-wise addition or multiplication with broadcasting. Rows of the inner loop are split into
+	 * chunks which are processed in parallel when the output is large enough.
+	 */
+	private static void broadcast( Tensor_F32 A , Tensor_F32 B , Tensor_F32 output , boolean add ) {
+		final TensorBroadcast plan = TensorBroadcast.compile(A.shape, B.shape);
+		if( !output.isShape(plan.outputShape) )
+			throw new IllegalArgumentException("Output shape must be "+TensorOps.toStringShapeA(plan.outputShape)+
+					" not "+TensorOps.toStringShapeA(output.shape));
+		if( plan.length() == 0 )
+			return;
+		if( (output.d == A.d && !A.isShape(output.shape)) || (output.d == B.d && !B.isShape(output.shape)) )
+			throw new IllegalArgumentException("Output can't share data with an input which is being broadcast");
+
+		final int rows = plan.rows();
+		final int inner = plan.innerLength();
+		final int rowsPerChunk = Math.max(1, DeepBoofConcurrency.BLOCK_LENGTH/inner);
+		final int chunks = (rows + rowsPerChunk - 1)/rowsPerChunk;
+
+		IntConsumer op = chunk -> {
+			int row0 = chunk*rowsPerChunk;
+			int row1 = Math.min(rows, row0 + rowsPerChunk);
+			int[] counters = new int[plan.loops.length];
+			int[] offsets = new int[3];
+			plan.seekRow(row0, counters, offsets);
+			for (int row = row0; row < row1; row++) {
+				broadcastRow(plan, A.d, A.startIndex + offsets[0], B.d, B.startIndex + offsets[1],
+						output.d, output.startIndex + offsets[2], inner, add);
+				plan.nextRow(counters, offsets);
 			}
-		} else if( A == output ) {
-			while (indexA < endA) {
-				A.d[indexA++] *= B.d[indexB++];
+		};
+
+		if( DeepBoofConcurrency.isParallel(plan.length()) ) {
+			DeepBoofConcurrency.loopFor(0, chunks, op);
+		} else {
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				op.accept(chunk);
 			}
 		}
 	}
 
 	/**
-	 * <p>Performs element-wise addition between the two tensors and stores results in output. All tensors
-	 * must have the same shape. </p>
+	 * Inner loop of {@link #broadcast}. Each input is either contiguous or a constant along the row.
+	 */
+	private static void broadcastRow( TensorBroadcast plan ,
+									  float[] a , int indexA , float[] b , int indexB ,
+									  float[] out , int indexOut , int length , boolean add ) {
+		int end = indexOut + length;
+		if( plan.innerStrideA() == 0 ) {
+			float valueA = a[indexA];
+			if( add ) {
+				while( indexOut < end ) {
+					out[indexOut++] = valueA + b[indexB++];
+				}
+			} else {
+				while( indexOut < end ) {
+					out[indexOut++] = valueA*b[indexB++];
+				}
+			}
+		} else if( plan.innerStrideB() == 0 ) {
+			float valueB = b[indexB];
+			if( add ) {
+				while( indexOut < end ) {
+					out[indexOut++] = a[indexA++] + valueB;
+				}
+			} else {
+				while( indexOut < end ) {
+					out[indexOut++] = a[indexA++]*valueB;
+				}
+			}
+		} else {
+			if( add ) {
+				while( indexOut < end ) {
+					out[indexOut++] = a[indexA++] + b[indexB++];
+				}
+			} else {
+				while( indexOut < end ) {
+					out[indexOut++] = a[indexA++]*b[indexB++];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the sum of all the elements in the tensor. Kahan summation is used to reduce the
+	 * accumulation of round off errors and blocks are summed in parallel for large tensors.
 	 *
-	 * {@code output[i] = A[i] + B[i]}
+	 * @param tensor Tensor
+	 */
+	public static float elementSum( Tensor_F32 tensor ) {
+		final float[] d = tensor.d;
+		final /**/double[] sums = new /**/double[DeepBoofConcurrency.countBlocks(tensor.length())];
+		DeepBoofConcurrency.loopBlocks(tensor.startIndex, tensor.startIndex + tensor.length(), (block, i0, i1) -> {
+			/**/double sum = 0, error = 0;
+			for (int i = i0; i < i1; i++) {
+				/**/double y = d[i] - error;
+				/**/double t = sum + y;
+				error = (t - sum) - y;
+				sum = t;
+			}
+			sums[block] = sum;
+		});
+		return (float)kahanSum(sums);
+	}
+
+	/**
+	 * Computes the mean of all the elements in the tensor. See {@link #elementSum}.
+	 *
+	 * @param tensor Tensor. Can't be empty.
+	 */
+	public static float elementMean( Tensor_F32 tensor ) {
+		if( tensor.length() == 0 )
+			throw new IllegalArgumentException("Tensor is empty");
+		return (float)(elementSum(tensor)/(/**/double)tensor.length());
+	}
+
+	/**
+	 * <p>Computes the population variance of all the elements in the tensor, i.e. the sum of squared
+	 * differences from the mean is divided by N. Each block computes its mean and sum of squared differences
+	 * with two passes while it's in cache and then the blocks are merged using Chan's parallel algorithm.
+	 * Unlike the textbook sum of squares minus squared mean, this doesn't suffer from catastrophic
+	 * cancellation when the mean is large relative to the variance.</p>
+	 *
+	 * @param tensor Tensor. Can't be empty.
+	 */
+	public static float elementVariance( Tensor_F32 tensor ) {
+		final int N = tensor.length();
+		if( N == 0 )
+			throw new IllegalArgumentException("Tensor is empty");
+
+		final float[] d = tensor.d;
+		final int numBlocks = DeepBoofConcurrency.countBlocks(N);
+		final /**/double[] means = new /**/double[numBlocks];
+		final /**/double[] m2 = new /**/double[numBlocks];
+		DeepBoofConcurrency.loopBlocks(tensor.startIndex, tensor.startIndex + N, (block, i0, i1) -> {
+			/**/double sum = 0;
+			for (int i = i0; i < i1; i++) {
+				sum += d[i];
+			}
+			/**/double mean = sum/(i1-i0);
+			/**/double sum2 = 0;
+			for (int i = i0; i < i1; i++) {
+				/**/double delta = d[i] - mean;
+				sum2 += delta*delta;
+			}
+			means[block] = mean;
+			m2[block] = sum2;
+		});
+
+		// merge the blocks together
+		/**/double mean = means[0];
+		/**/double sum2 = m2[0];
+		long count = Math.min(N, DeepBoofConcurrency.BLOCK_LENGTH);
+		for (int block = 1; block < numBlocks; block++) {
+			long countB = Math.min(N - (long)block*DeepBoofConcurrency.BLOCK_LENGTH, DeepBoofConcurrency.BLOCK_LENGTH);
+			long total = count + countB;
+			/**/double delta = means[block] - mean;
+			mean += delta*countB/total;
+			sum2 += m2[block] + delta*delta*count*countB/total;
+			count = total;
+		}
+		return (float)(sum2/N);
+	}
+
+	/**
+	 * Computes the sum along the specified axis using Kahan summation.
+	 *
+	 * @param input Input tensor
+	 * @param axis The axis which is summed
+	 * @param output Storage for the results. Reshaped to the input's shape with the axis removed, or (1) if the
+	 *               input only has one axis.
+	 */
+	public static void sum( Tensor_F32 input , int axis , Tensor_F32 output ) {
+		reduceAxis(input, axis, output, ( indexIn , indexOut , length , L , stride ) -> {
+			/**/double[] sum = new /**/double[length];
+			/**/double[] error = new /**/double[length];
+			for (int k = 0; k < L; k++, indexIn += stride) {
+				for (int i = 0; i < length; i++) {
+					/**/double y = input.d[indexIn+i] - error[i];
+					/**/double t = sum[i] + y;
+					error[i] = (t - sum[i]) - y;
+					sum[i] = t;
+				}
+			}
+			for (int i = 0; i < length; i++) {
+				output.d[indexOut+i] = (float)sum[i];
+			}
+		});
+	}
+
+	/**
+	 * Computes the mean along the specified axis. See {@link #sum(Tensor_F32, int, Tensor_F32)}
+	 */
+	public static void mean( Tensor_F32 input , int axis , Tensor_F32 output ) {
+		sum(input, axis, output);
+		elementMult(output, 1.0f/input.length(axis));
+	}
+
+	/**
+	 * Computes the population variance along the specified axis. Two passes are made along the axis, the first
+	 * finds the mean and the second sums the squared difference from the mean.
+	 * See {@link #sum(Tensor_F32, int, Tensor_F32)}
+	 */
+	public static void variance( Tensor_F32 input , int axis , Tensor_F32 output ) {
+		reduceAxis(input, axis, output, ( indexIn , indexOut , length , L , stride ) -> {
+			/**/double[] mean = new /**/double[length];
+			for (int k = 0, index = indexIn; k < L; k++, index += stride) {
+				for (int i = 0; i < length; i++) {
+					mean[i] += input.d[index+i];
+				}
+			}
+			for (int i = 0; i < length; i++) {
+				mean[i] /= L;
+			}
+			/**/double[] sum2 = new /**/double[length];
+			for (int k = 0, index = indexIn; k < L; k++, index += stride) {
+				for (int i = 0; i < length; i++) {
+					/**/double delta = input.d[index+i] - mean[i];
+					sum2[i] += delta*delta;
+				}
+			}
+			for (int i = 0; i < length; i++) {
+				output.d[indexOut+i] = (float)(sum2[i]/L);
+			}
+		});
+	}
+
+	/**
+	 * Finds the minimum value along the specified axis. See {@link #sum(Tensor_F32, int, Tensor_F32)}
+	 */
+	public static void min( Tensor_F32 input , int axis , Tensor_F32 output ) {
+		reduceAxis(input, axis, output, ( indexIn , indexOut , length , L , stride ) -> {
+			System.arraycopy(input.d, indexIn, output.d, indexOut, length);
+			for (int k = 1; k < L; k++) {
+				indexIn += stride;
+				for (int i = 0; i < length; i++) {
+					output.d[indexOut+i] = Math.min(output.d[indexOut+i], input.d[indexIn+i]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Finds the maximum value along the specified axis. See {@link #sum(Tensor_F32, int, Tensor_F32)}
+	 */
+	public static void max( Tensor_F32 input , int axis , Tensor_F32 output ) {
+		reduceAxis(input, axis, output, ( indexIn , indexOut , length , L , stride ) -> {
+			System.arraycopy(input.d, indexIn, output.d, indexOut, length);
+			for (int k = 1; k < L; k++) {
+				indexIn += stride;
+				for (int i = 0; i < length; i++) {
+					output.d[indexOut+i] = Math.max(output.d[indexOut+i], input.d[indexIn+i]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reduction along a single axis of a tensor which has been reshaped into (outer, L, inner). Tasks are a
+	 * single 'outer' index and a block of 'inner' indexes. Tasks are processed in parallel for large tensors.
+	 */
+	private static void reduceAxis( Tensor_F32 input , int axis , Tensor_F32 output , AxisOp op ) {
+		if( axis < 0 || axis >= input.shape.length )
+			throw new IllegalArgumentException("Invalid axis "+axis);
+		final int L = input.shape[axis];
+		if( L == 0 )
+			throw new IllegalArgumentException("Can't reduce an empty axis");
+
+		int outer = 1;
+		for (int i = 0; i < axis; i++) {
+			outer *= input.shape[i];
+		}
+		int inner = 1;
+		for (int i = axis+1; i < input.shape.length; i++) {
+			inner *= input.shape[i];
+		}
+
+		if( input.shape.length == 1 ) {
+			output.reshape(1);
+		} else {
+			int[] shape = new int[input.shape.length-1];
+			for (int i = 0, j = 0; i < input.shape.length; i++) {
+				if( i != axis )
+					shape[j++] = input.shape[i];
+			}
+			output.reshape(shape);
+		}
+		if( output.length() == 0 )
+			return;
+
+		final int innerBlocks = DeepBoofConcurrency.countBlocks(inner);
+		final int fInner = inner;
+		IntConsumer task = index -> {
+			int o = index / innerBlocks;
+			int i0 = (index % innerBlocks)*DeepBoofConcurrency.BLOCK_LENGTH;
+			int i1 = Math.min(fInner, i0 + DeepBoofConcurrency.BLOCK_LENGTH);
+			op.process(input.startIndex + o*L*fInner + i0, output.startIndex + o*fInner + i0, i1 - i0, L, fInner);
+		};
+
+		int tasks = outer*innerBlocks;
+		if( DeepBoofConcurrency.isParallel(input.length()) ) {
+			DeepBoofConcurrency.loopFor(0, tasks, task);
+		} else {
+			for (int i = 0; i < tasks; i++) {
+				task.accept(i);
+			}
+		}
+	}
+
+	/**
+	 * Reduces a block of elements along an axis.
+	 */
+	private interface AxisOp {
+		/**
+		 * @param indexIn Index of the first input element when the axis is 0
+		 * @param indexOut Index of the first output element
+		 * @param length Number of elements in the block
+		 * @param L Length of the axis being reduced
+		 * @param stride Stride between elements along the axis
+		 */
+		void process( int indexIn , int indexOut , int length , int L , int stride );
+	}
+
+	/**
+	 * <p>Adds a scaled tensor to another tensor. Same as the BLAS function.</p>
+	 *
+	 * {@code Y[i] = alpha*X[i] + Y[i]}
+	 *
+	 * @param alpha Scale factor for X
+	 * @param X Input tensor. Not modified.
+	 * @param Y Input and output tensor. Modified.
+	 */
+	public static void axpy( float alpha , Tensor_F32 X , Tensor_F32 Y ) {
+		TensorOps.checkShape(X,Y);
+
+		final float[] x = X.d, y = Y.d;
+		final int offX = X.startIndex, offY = Y.startIndex;
+		DeepBoofConcurrency.loopBlocks(0, X.length(), (block, i0, i1) -> {
+			for (int i = i0; i < i1; i++) {
+				y[offY+i] += alpha*x[offX+i];
+			}
+		});
+	}
+
+	/**
+	 * <p>Scales and offsets every element in the tensor</p>
+	 *
+	 * {@code tensor[i] = alpha*tensor[i] + beta}
+	 *
+	 * @param tensor Tensor which is modified
+	 * @param alpha Scale factor
+	 * @param beta Offset
+	 */
+	public static void scale( Tensor_F32 tensor , float alpha , float beta ) {
+		final float[] d = tensor.d;
+		final int offset = tensor.startIndex;
+		DeepBoofConcurrency.loopBlocks(offset, offset + tensor.length(), (block, i0, i1) -> {
+			for (int i = i0; i < i1; i++) {
+				d[i] = alpha*d[i] + beta;
+			}
+		});
+	}
+
+	/**
+	 * <p>Element-wise multiply and add in a single pass. All tensors must have the same shape.</p>
+	 *
+	 * {@code output[i] = A[i]*B[i] + C[i]}
 	 *
 	 * @param A Input tensor. Can be the same as output.
 	 * @param B Input tensor. Can be the same as output.
+	 * @param C Input tensor. Can be the same as output.
 	 * @param output Output tensor.
 	 */
-	public static void elementAdd(Tensor_F32 A , Tensor_F32 B , Tensor_F32 output ) {
-		int indexA = A.startIndex;
-		int endA = indexA + A.length();
-		int indexB = B.startIndex;
+	public static void fma( Tensor_F32 A , Tensor_F32 B , Tensor_F32 C , Tensor_F32 output ) {
+		TensorOps.checkShape(A,B);
+		TensorOps.checkShape(A,C);
+		TensorOps.checkShape(A,output);
 
-		if( A != output && B != output ) {
+		final float[] a = A.d, b = B.d, c = C.d, out = output.d;
+		final int offA = A.startIndex, offB = B.startIndex, offC = C.startIndex, offOut = output.startIndex;
+		DeepBoofConcurrency.loopBlocks(0, A.length(), (block, i0, i1) -> {
+			for (int i = i0; i < i1; i++) {
+				out[offOut+i] = a[offA+i]*b[offB+i] + c[offC+i];
+			}
+		});
+	}
 
-			int indexOut = output.startIndex;
+	/**
+	 * Forces every element to be within the specified range, inclusive
+	 *
+	 * @param tensor Tensor which is modified
+	 * @param min Lower limit
+	 * @param max Upper limit
+	 */
+	public static void clamp( Tensor_F32 tensor , float min , float max ) {
+		clamp(tensor,min,max,tensor);
+	}
 
-			while (indexA < endA) {
-				output.d[indexOut++] = A.d[indexA++] + B.d[indexB++];
+	/**
+	 * Copies the input into the output while forcing every element to be within the specified range, inclusive
+	 *
+	 * @param input Input tensor. Can be the same as output.
+	 * @param min Lower limit
+	 * @param max Upper limit
+	 * @param output Output tensor.
+	 */
+	public static void clamp( Tensor_F32 input , float min , float max , Tensor_F32 output ) {
+		if( min > max )
+			throw new IllegalArgumentException("min must be <= max");
+		TensorOps.checkShape(input,output);
+
+		final float[] in = input.d, out = output.d;
+		final int offIn = input.startIndex, offOut = output.startIndex;
+		DeepBoofConcurrency.loopBlocks(0, input.length(), (block, i0, i1) -> {
+			for (int i = i0; i < i1; i++) {
+				float v = in[offIn+i];
+				out[offOut+i] = v < min ? min : (v > max ? max : v);
 			}
-		} else if( B == output ) {
-			while (indexA < endA) {
-				B.d[indexB++] += A.d[indexA++];
+		});
+	}
+
+	/**
+	 * Returns the value of the smallest element
+	 */
+	public static float elementMin( Tensor_F32 tensor ) {
+		return tensor.getAtIndex(argMin(tensor));
+	}
+
+	/**
+	 * Returns the value of the largest element
+	 */
+	public static float elementMax( Tensor_F32 tensor ) {
+		return tensor.getAtIndex(argMax(tensor));
+	}
+
+	/**
+	 * Finds the element with the smallest value. If there's a tie the first one is returned.
+	 *
+	 * @param tensor Tensor which is searched. Can't be empty.
+	 * @return Index of the smallest element, relative to the tensor's start index
+	 */
+	public static int argMin( Tensor_F32 tensor ) {
+		final float[] d = tensor.d;
+		final int offset = tensor.startIndex;
+		final int[] best = new int[countNonEmptyBlocks(tensor.length())];
+		DeepBoofConcurrency.loopBlocks(0, tensor.length(), (block, i0, i1) -> {
+			int bestIndex = i0;
+			float bestValue = d[offset+i0];
+			for (int i = i0+1; i < i1; i++) {
+				if( d[offset+i] < bestValue ) {
+					bestValue = d[offset+i];
+					bestIndex = i;
+				}
+			}
+			best[block] = bestIndex;
+		});
+
+		int bestIndex = best[0];
+		for (int block = 1; block < best.length; block++) {
+			if( d[offset+best[block]] < d[offset+bestIndex] )
+				bestIndex = best[block];
+		}
+		return bestIndex;
+	}
+
+	/**
+	 * Finds the element with the largest value. If there's a tie the first one is returned.
+	 *
+	 * @param tensor Tensor which is searched. Can't be empty.
+	 * @return Index of the largest element, relative to the tensor's start index
+	 */
+	public static int argMax( Tensor_F32 tensor ) {
+		final float[] d = tensor.d;
+		final int offset = tensor.startIndex;
+		final int[] best = new int[countNonEmptyBlocks(tensor.length())];
+		DeepBoofConcurrency.loopBlocks(0, tensor.length(), (block, i0, i1) -> {
+			int bestIndex = i0;
+			float bestValue = d[offset+i0];
+			for (int i = i0+1; i < i1; i++) {
+				if( d[offset+i] > bestValue ) {
+					bestValue = d[offset+i];
+					bestIndex = i;
+				}
+			}
+			best[block] = bestIndex;
+		});
+
+		int bestIndex = best[0];
+		for (int block = 1; block < best.length; block++) {
+			if( d[offset+best[block]] > d[offset+bestIndex] )
+				bestIndex = best[block];
+		}
+		return bestIndex;
+	}
+
+	/**
+	 * Computes the dot product between two tensors of the same shape
+	 *
+	 * {@code sum( A[i]*B[i] )}
+	 */
+	public static float dot( Tensor_F32 A , Tensor_F32 B ) {
+		TensorOps.checkShape(A,B);
+
+		final float[] a = A.d, b = B.d;
+		final int offA = A.startIndex, offB = B.startIndex;
+		final float[] sums = new float[DeepBoofConcurrency.countBlocks(A.length())];
+		DeepBoofConcurrency.loopBlocks(0, A.length(), (block, i0, i1) -> {
+			float sum = 0;
+			for (int i = i0; i < i1; i++) {
+				sum += a[offA+i]*b[offB+i];
+			}
+			sums[block] = sum;
+		});
+		return sum(sums);
+	}
+
+	/**
+	 * Sum of the absolute value of each element
+	 */
+	public static float normL1( Tensor_F32 tensor ) {
+		final float[] d = tensor.d;
+		final float[] sums = new float[DeepBoofConcurrency.countBlocks(tensor.length())];
+		DeepBoofConcurrency.loopBlocks(tensor.startIndex, tensor.startIndex + tensor.length(), (block, i0, i1) -> {
+			float sum = 0;
+			for (int i = i0; i < i1; i++) {
+				sum += Math.abs(d[i]);
+			}
+			sums[block] = sum;
+		});
+		return sum(sums);
+	}
+
+	/**
+	 * Euclidean norm. Square root of the sum of each element squared
+	 */
+	public static float normL2( Tensor_F32 tensor ) {
+		final float[] d = tensor.d;
+		final float[] sums = new float[DeepBoofConcurrency.countBlocks(tensor.length())];
+		DeepBoofConcurrency.loopBlocks(tensor.startIndex, tensor.startIndex + tensor.length(), (block, i0, i1) -> {
+			float sum = 0;
+			for (int i = i0; i < i1; i++) {
+				sum += d[i]*d[i];
+			}
+			sums[block] = sum;
+		});
+		return (float)Math.sqrt(sum(sums));
+	}
+
+	/**
+	 * Infinity norm. Largest absolute value of any element
+	 */
+	public static float normInf( Tensor_F32 tensor ) {
+		final float[] d = tensor.d;
+		final float[] maxs = new float[DeepBoofConcurrency.countBlocks(tensor.length())];
+		DeepBoofConcurrency.loopBlocks(tensor.startIndex, tensor.startIndex + tensor.length(), (block, i0, i1) -> {
+			float max = 0;
+			for (int i = i0; i < i1; i++) {
+				max = Math.max(max,Math.abs(d[i]));
+			}
+			maxs[block] = max;
+		});
+
+		float max = 0;
+		for (int i = 0; i < maxs.length; i++) {
+			max = Math.max(max,maxs[i]);
+		}
+		return max;
+	}
+
+	/**
+	 * Computes the sum of each channel. Input has a shape of (N,C,...) where N is the mini-batch,
+	 * C the number of channels, and it can have any number of additional dimensions.
+	 *
+	 * @param input Input tensor with at least two dimensions
+	 * @param output Storage for the results. Reshaped to (C)
+	 */
+	public static void channelSum( Tensor_F32 input , Tensor_F32 output ) {
+		final int N = input.length(0);
+		final int C = input.length(1);
+		final int inner = channelInnerLength(input);
+		final float[] in = input.d;
+		final int offIn = input.startIndex;
+		final int strideN = input.strides[0];
+
+		output.reshape(C);
+		final float[] out = output.d;
+		final int offOut = output.startIndex;
+
+		channelLoop(input, channel -> {
+			float sum = 0;
+			for (int batch = 0; batch < N; batch++) {
+				int index = offIn + batch*strideN + channel*inner;
+				int end = index + inner;
+				for (; index < end; index++) {
+					sum += in[index];
+				}
+			}
+			out[offOut+channel] = sum;
+		});
+	}
+
+	/**
+	 * Computes the mean of each channel. See {@link #channelSum}.
+	 *
+	 * @param input Input tensor with at least two dimensions
+	 * @param output Storage for the results. Reshaped to (C)
+	 */
+	public static void channelMean( Tensor_F32 input , Tensor_F32 output ) {
+		channelSum(input,output);
+		int count = input.length(0)*channelInnerLength(input);
+		if( count > 0 )
+			elementMult(output,1.0f/count);
+	}
+
+	/**
+	 * Finds the minimum value in each channel. See {@link #channelSum}.
+	 *
+	 * @param input Input tensor with at least two dimensions and no empty channels
+	 * @param output Storage for the results. Reshaped to (C)
+	 */
+	public static void channelMin( Tensor_F32 input , Tensor_F32 output ) {
+		final int N = input.length(0);
+		final int C = input.length(1);
+		final int inner = channelInnerLength(input);
+		final float[] in = input.d;
+		final int offIn = input.startIndex;
+		final int strideN = input.strides[0];
+		if( N*inner == 0 )
+			throw new IllegalArgumentException("Channels are empty");
+
+		output.reshape(C);
+		final float[] out = output.d;
+		final int offOut = output.startIndex;
+
+		channelLoop(input, channel -> {
+			float min = in[offIn + channel*inner];
+			for (int batch = 0; batch < N; batch++) {
+				int index = offIn + batch*strideN + channel*inner;
+				int end = index + inner;
+				for (; index < end; index++) {
+					min = Math.min(min,in[index]);
+				}
+			}
+			out[offOut+channel] = min;
+		});
+	}
+
+	/**
+	 * Finds the maximum value in each channel. See {@link #channelSum}.
+	 *
+	 * @param input Input tensor with at least two dimensions and no empty channels
+	 * @param output Storage for the results. Reshaped to (C)
+	 */
+	public static void channelMax( Tensor_F32 input , Tensor_F32 output ) {
+		final int N = input.length(0);
+		final int C = input.length(1);
+		final int inner = channelInnerLength(input);
+		final float[] in = input.d;
+		final int offIn = input.startIndex;
+		final int strideN = input.strides[0];
+		if( N*inner == 0 )
+			throw new IllegalArgumentException("Channels are empty");
+
+		output.reshape(C);
+		final float[] out = output.d;
+		final int offOut = output.startIndex;
+
+		channelLoop(input, channel -> {
+			float max = in[offIn + channel*inner];
+			for (int batch = 0; batch < N; batch++) {
+				int index = offIn + batch*strideN + channel*inner;
+				int end = index + inner;
+				for (; index < end; index++) {
+					max = Math.max(max,in[index]);
+				}
+			}
+			out[offOut+channel] = max;
+		});
+	}
+
+	/**
+	 * <p>Converts a tensor of bytes into a normalized floating point tensor in a single pass. Each byte is
+	 * treated as an unsigned value and normalized using its channel's mean and standard deviation. Input can be
+	 * planar (N,C,...) or interleaved (N,...,C). The output is always planar (N,C,...).</p>
+	 *
+	 * {@code output[n,c,...] = (input[n,c,...] - mean[c])/stdev[c]}
+	 *
+	 * @param input Input tensor with unsigned byte values
+	 * @param interleaved true if the input is interleaved and the last axis is the channel
+	 * @param mean Mean of each channel, in the same units as the input
+	 * @param stdev Standard deviation of each channel, in the same units as the input
+	 * @param output Storage for the normalized tensor. Reshaped to (N,C,...)
+	 */
+	public static void normalizeU8( Tensor_U8 input , boolean interleaved ,
+									float[] mean , float[] stdev , Tensor_F32 output ) {
+		if( input.shape.length < 2 )
+			throw new IllegalArgumentException("Input must have at least two axes");
+
+		final int N = input.shape[0];
+		final int C = interleaved ? input.shape[input.shape.length-1] : input.shape[1];
+		if( mean.length != C || stdev.length != C )
+			throw new IllegalArgumentException("Expected mean and stdev for "+C+" channels");
+		final int inner = input.length()/Math.max(1,N*C);
+
+		int[] shapeOut = input.shape.clone();
+		if( interleaved ) {
+			System.arraycopy(input.shape, 1, shapeOut, 2, shapeOut.length - 2);
+			shapeOut[1] = C;
+		}
+		output.reshape(shapeOut);
+
+		// Look up table for every possible value in each channel. Avoids doing any math per element
+		final float[][] tables = new float[C][256];
+		for (int c = 0; c < C; c++) {
+			for (int value = 0; value < 256; value++) {
+				tables[c][value] = (value - mean[c])/stdev[c];
+			}
+		}
+
+		final byte[] in = input.d;
+		final float[] out = output.d;
+		final int offIn = input.startIndex, offOut = output.startIndex;
+
+		if( !interleaved ) {
+			IntConsumer op = plane -> {
+				float[] table = tables[plane % C];
+				int indexIn = offIn + plane*inner;
+				int indexOut = offOut + plane*inner;
+				for (int i = 0; i < inner; i++) {
+					out[indexOut+i] = table[in[indexIn+i] & 0xFF];
+				}
+			};
+			if( DeepBoofConcurrency.isParallel(input.length()) ) {
+				DeepBoofConcurrency.loopFor(0, N*C, op);
+			} else {
+				for (int plane = 0; plane < N*C; plane++) {
+					op.accept(plane);
+				}
 			}
 		} else {
-			while (indexA < endA) {
-				A.d[indexA++] += B.d[indexB++];
+			for (int batch = 0; batch < N; batch++) {
+				final int batchIn = offIn + batch*inner*C;
+				final int batchOut = offOut + batch*inner*C;
+				DeepBoofConcurrency.loopBlocks(0, inner, (block, i0, i1) -> {
+					for (int c = 0; c < C; c++) {
+						float[] table = tables[c];
+						int indexIn = batchIn + i0*C + c;
+						int indexOut = batchOut + c*inner;
+						for (int i = i0; i < i1; i++, indexIn += C) {
+							out[indexOut+i] = table[in[indexIn] & 0xFF];
+						}
+					}
+				});
 			}
 		}
 	}
 
 	/**
-	 * Computes the sum of all the elements in the tensor
-	 * @param tensor Tensor
+	 * Number of elements in each channel for a single item in the mini-batch
 	 */
-	public static float elementSum( Tensor_F32 tensor ) {
-		int index = tensor.startIndex;
-		int end = index + tensor.length();
+	private static int channelInnerLength( Tensor_F32 input ) {
+		if( input.shape.length < 2 )
+			throw new IllegalArgumentException("Tensor must have at least two dimensions (N,C,...)");
+		return input.shape.length == 2 ? 1 : TensorOps.outerLength(input.shape,2);
+	}
 
-		float sum = 0;
-		while( index < end ) {
-			sum += tensor.d[index++];
+	/**
+	 * Processes each channel in parallel if the tensor is large enough
+	 */
+	private static void channelLoop( Tensor_F32 input , IntConsumer op ) {
+		int C = input.length(1);
+		if( DeepBoofConcurrency.isParallel(input.length()) ) {
+			DeepBoofConcurrency.loopFor(0, C, op);
+		} else {
+			for (int channel = 0; channel < C; channel++) {
+				op.accept(channel);
+			}
+		}
+	}
+
+	/**
+	 * Number of blocks a search will use. Throws an exception if there's nothing to search
+	 */
+	private static int countNonEmptyBlocks( int length ) {
+		if( length == 0 )
+			throw new IllegalArgumentException("Tensor is empty");
+		return DeepBoofConcurrency.countBlocks(length);
+	}
+
+	/**
+	 * Adds up partial results in order so that the result doesn't depend on the number of threads
+	 */
+	private static float sum( float[] values ) {
+		float total = 0;
+		for (int i = 0; i < values.length; i++) {
+			total += values[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Adds up partial results in order with Kahan summation
+	 */
+	private static /**/double kahanSum( /**/double[] values ) {
+		/**/double total = 0, error = 0;
+		for (int i = 0; i < values.length; i++) {
+			/**/double y = values[i] - error;
+			/**/double t = total + y;
+			error = (t - total) - y;
+			total = t;
 		}
-		return sum;
+		return total;
 	}
 
 	/**
@@ -334,6 +1123,8 @@ public class TensorOps_F32 {
 	 * @param value fill value
 	 */
 	public static void fill( Tensor_F32 tensor , float value ) {
-		Arrays.fill(tensor.d,tensor.startIndex,tensor.startIndex+tensor.length(),value);
+		final float[] d = tensor.d;
+		DeepBoofConcurrency.loopBlocks(tensor.startIndex, tensor.startIndex + tensor.length(), (block, i0, i1) ->
+				Arrays.fill(d, i0, i1, value));
 	}
 }
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.misc;
+
+import deepboof.Tensor;
+import deepboof.tensors.*;
+
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * <p>Pool of tensor data arrays which are recycled instead of being discarded. Arrays are keyed by their
+ * element type and capacity. When an array is requested the free array with the smallest capacity which is
+ * large enough is returned, provided that it isn't more than {@link #setMaxSlack slack} times larger than
+ * what was requested. Otherwise a new array of the exact size is declared. This keeps the number of distinct
+ * array sizes small when mini-batch sizes vary and avoids the large allocation spikes caused by each tensor
+ * growing its own array.</p>
+ *
+ * <p>Tensors can be acquired and released individually or through a {@link Scope}, which releases everything
+ * acquired through it when closed. The contents of a recycled tensor are undefined, just like after a call
+ * to {@link Tensor#reshape}. Statistics on memory usage, including the high-water mark of memory in use, are
+ * tracked and all counts are in bytes. All functions are thread safe.</p>
+ *
+ * @author Peter Abeles
+ */
+public class TensorPool {
+
+	// Free arrays for each element type. Key of the inner map is the array's capacity
+	protected Map<Class<?>, TreeMap<Integer,ArrayDeque<Object>>> free = new HashMap<>();
+
+	// Arrays which have been handed out by the pool and not yet returned
+	protected Set<Object> outstanding = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	// A free array is only recycled if its capacity is at most this many times larger than requested
+	protected double maxSlack = 2.0;
+
+	// Memory statistics
+	protected long bytesInUse;
+	protected long bytesFree;
+	protected long highWaterMark;
+	protected int totalAllocations;
+	protected long totalBytesAllocated;
+	protected int totalReused;
+
+	/**
+	 * Creates a tensor of the specified type and shape using an array from the pool
+	 *
+	 * @param type Type of tensor, e.g. Tensor_F32
+	 * @param shape Shape of the tensor
+	 * @return A tensor with undefined contents
+	 */
+	public synchronized <T extends Tensor<T>> T acquire( Class<T> type , int ...shape ) {
+		T tensor = createEmpty(type);
+		tensor.setData(acquireArray(tensor.getDataType(), TensorOps.tensorLength(shape)));
+		tensor.reshape(shape);
+		return tensor;
+	}
+
+	/**
+	 * Returns the tensor's data array to the pool. The tensor is reset to an empty tensor and can
+	 * be reshaped and used again, but its old data is gone.
+	 *
+	 * @param tensor The tensor being released. Can't be a sub-tensor.
+	 */
+	public synchronized void release( Tensor<?> tensor ) {
+		if( tensor.isSub() )
+			throw new IllegalArgumentException("Sub-tensors don't own their data and can't be released");
+
+		Object data = tensor.getData();
+		tensor.setData(Array.newInstance(tensor.getDataType(),0));
+		tensor.shape = new int[0];
+		tensor.computeStrides();
+
+		releaseArray(data);
+	}
+
+	/**
+	 * Reshapes the tensor. If the tensor's array is too small then it's returned to the pool and
+	 * replaced with an array from the pool. Use instead of {@link Tensor#reshape} for tensors whose
+	 * size changes often.
+	 *
+	 * @param tensor The tensor which is to be reshaped. Can't be a sub-tensor.
+	 * @param shape The new shape
+	 */
+	public synchronized void reshape( Tensor<?> tensor , int ...shape ) {
+		int N = TensorOps.tensorLength(shape);
+		if( Array.getLength(tensor.getData()) < N + tensor.startIndex ) {
+			if( tensor.isSub() )
+				throw new IllegalArgumentException("Can't reshape sub-tensors if it requires the data array to grow");
+			Object data = tensor.getData();
+			tensor.setData(acquireArray(tensor.getDataType(), N));
+			releaseArray(data);
+		}
+		tensor.reshape(shape);
+	}
+
+	/**
+	 * Creates a new scope. Tensors acquired through the scope are released when it's closed.
+	 *
+	 * <pre>
+	 * try( TensorPool.Scope scope = pool.scope() ) {
+	 *     Tensor_F32 workspace = scope.acquire(Tensor_F32.class,N,C,H,W);
+	 *     ...
+	 * }
+	 * </pre>
+	 */
+	public Scope scope() {
+		return new Scope();
+	}
+
+	/**
+	 * Discards all the free arrays so that the memory can be garbage collected.
+	 */
+	public synchronized void trim() {
+		free.clear();
+		bytesFree = 0;
+	}
+
+	/**
+	 * Resets the high-water mark to the amount of memory currently in use
+	 */
+	public synchronized void resetHighWaterMark() {
+		highWaterMark = bytesInUse;
+	}
+
+	protected Object acquireArray( Class<?> elementType , int length ) {
+		if( length == 0 )
+			return Array.newInstance(elementType, 0);
+
+		TreeMap<Integer,ArrayDeque<Object>> available = free.get(elementType);
+
+		Object data = null;
+		if( available != null ) {
+			Map.Entry<Integer,ArrayDeque<Object>> e = available.ceilingEntry(length);
+			if( e != null && e.getKey() <= length*maxSlack ) {
+				data = e.getValue().pop();
+				if( e.getValue().isEmpty() )
+					available.remove(e.getKey());
+				bytesFree -= bytes(elementType, e.getKey());
+				totalReused++;
+			}
+		}
+
+		if( data == null ) {
+			data = Array.newInstance(elementType, length);
+			totalAllocations++;
+			totalBytesAllocated += bytes(elementType, length);
+		}
+
+		outstanding.add(data);
+		bytesInUse += bytes(elementType, Array.getLength(data));
+		highWaterMark = Math.max(highWaterMark, bytesInUse);
+		return data;
+	}
+
+	protected void releaseArray( Object data ) {
+		int length = Array.getLength(data);
+		if( length == 0 )
+			return;
+
+		Class<?> elementType = data.getClass().getComponentType();
+
+		// Arrays which didn't come from the pool are adopted. Otherwise it can't be released twice
+		if( outstanding.remove(data) ) {
+			bytesInUse -= bytes(elementType, length);
+		} else {
+			for( ArrayDeque<Object> queue : free.getOrDefault(elementType, new TreeMap<>()).values() ) {
+				for( Object o : queue ) {
+					if( o == data )
+						throw new IllegalArgumentException("Array has already been released");
+				}
+			}
+		}
+
+		free.computeIfAbsent(elementType, k -> new TreeMap<>()).
+				computeIfAbsent(length, k -> new ArrayDeque<>()).push(data);
+		bytesFree += bytes(elementType, length);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static <T extends Tensor<T>> T createEmpty( Class<T> type ) {
+		if( type == Tensor_F64.class ) {
+			return (T)new Tensor_F64();
+		} else if( type == Tensor_F32.class ) {
+			return (T)new Tensor_F32();
+		} else if( type == Tensor_U8.class ) {
+			return (T)new Tensor_U8();
+		} else if( type == Tensor_S32.class ) {
+			return (T)new Tensor_S32();
+		} else if( type == Tensor_S64.class ) {
+			return (T)new Tensor_S64();
+		} else {
+			throw new IllegalArgumentException("Unknown/unsupported tensor type "+type.getSimpleName());
+		}
+	}
+
+	/**
+	 * Number of bytes used by an array with the specified element type and length
+	 */
+	public static long bytes( Class<?> elementType , long length ) {
+		if( elementType == double.class || elementType == long.class ) {
+			return 8*length;
+		} else if( elementType == float.class || elementType == int.class ) {
+			return 4*length;
+		} else if( elementType == byte.class ) {
+			return length;
+		} else {
+			throw new IllegalArgumentException("Unknown element type "+elementType.getSimpleName());
+		}
+	}
+
+	/**
+	 * Specifies how much larger than the request a recycled array can be. Must be &ge; 1.
+	 */
+	public synchronized void setMaxSlack( double maxSlack ) {
+		if( maxSlack < 1.0 )
+			throw new IllegalArgumentException("maxSlack must be >= 1");
+		this.maxSlack = maxSlack;
+	}
+
+	public double getMaxSlack() {
+		return maxSlack;
+	}
+
+	/**
+	 * Bytes in arrays which have been handed out and not yet released
+	 */
+	public synchronized long getBytesInUse() {
+		return bytesInUse;
+	}
+
+	/**
+	 * Bytes in arrays which are in the pool and available for reuse
+	 */
+	public synchronized long getBytesFree() {
+		return bytesFree;
+	}
+
+	/**
+	 * The largest value {@link #getBytesInUse()} has reached
+	 */
+	public synchronized long getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * Number of arrays which have been declared by the pool
+	 */
+	public synchronized int getTotalAllocations() {
+		return totalAllocations;
+	}
+
+	/**
+	 * Total number of bytes in all the arrays declared by the pool
+	 */
+	public synchronized long getTotalBytesAllocated() {
+		return totalBytesAllocated;
+	}
+
+	/**
+	 * Number of requests which were satisfied by recycling a free array
+	 */
+	public synchronized int getTotalReused() {
+		return totalReused;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("TensorPool{ in use = %d, free = %d, high-water = %d, allocations = %d (%d bytes), reused = %d }",
+				bytesInUse, bytesFree, highWaterMark, totalAllocations, totalBytesAllocated, totalReused);
+	}
+
+	/**
+	 * Tensors acquired through a scope are all released back into the pool when it's closed.
+	 */
+	public class Scope implements AutoCloseable {
+		List<Tensor<?>> acquired = new ArrayList<>();
+
+		/**
+		 * Acquires a tensor from the pool which will be released when the scope is closed.
+		 *
+		 * @see TensorPool#acquire
+		 */
+		public <T extends Tensor<T>> T acquire( Class<T> type , int ...shape ) {
+			T tensor = TensorPool.this.acquire(type, shape);
+			acquired.add(tensor);
+			return tensor;
+		}
+
+		@Override
+		public void close() {
+			for (int i = acquired.size()-1; i >= 0; i--) {
+				release(acquired.get(i));
+			}
+			acquired.clear();
+		}
+	}
+}
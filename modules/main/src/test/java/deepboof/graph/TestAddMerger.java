@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestAddMerger {
+	Random rand = new Random(234);
+
+	@Test
+	public void combine() {
+		AddMerger<Tensor_F64> alg = new AddMerger<>();
+		alg.initialize(Arrays.asList(new int[]{3,4}, new int[]{3,4}, new int[]{3,4}));
+		assertArrayEquals(new int[]{3,4}, alg.getOutputShape());
+
+		for( boolean sub : new boolean[]{false,true} ) {
+			Tensor_F64 A = TensorFactory_F64.random(rand, sub, 2, 3, 4);
+			Tensor_F64 B = TensorFactory_F64.random(rand, sub, 2, 3, 4);
+			Tensor_F64 C = TensorFactory_F64.random(rand, sub, 2, 3, 4);
+			Tensor_F64 output = TensorFactory_F64.random(rand, sub, 2, 3, 4);
+
+			alg.combine((List)Arrays.asList(A, B, C), output);
+			for (int i = 0; i < 2; i++) {
+				for (int j = 0; j < 3; j++) {
+					for (int k = 0; k < 4; k++) {
+						double expected = A.get(i,j,k) + B.get(i,j,k) + C.get(i,j,k);
+						assertEquals(expected, output.get(i,j,k), DeepBoofConstants.TEST_TOL_F64);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Output is the first input and the others are added to it
+	 */
+	@Test
+	public void combine_inPlace() {
+		AddMerger<Tensor_F64> alg = new AddMerger<>();
+		alg.initialize(Arrays.asList(new int[]{5}, new int[]{5}));
+
+		Tensor_F64 A = TensorFactory_F64.random(rand, false, 2, 5);
+		Tensor_F64 B = TensorFactory_F64.random(rand, false, 2, 5);
+		Tensor_F64 original = A.copy();
+
+		alg.combine((List)Arrays.asList(A, B), A);
+		for (int i = 0; i < A.length(); i++) {
+			assertEquals(original.d[i] + B.d[i], A.d[i], DeepBoofConstants.TEST_TOL_F64);
+		}
+	}
+
+	@Test
+	public void initialize_badShape() {
+		AddMerger<Tensor_F64> alg = new AddMerger<>();
+		assertThrows(IllegalArgumentException.class, () ->
+				alg.initialize(Arrays.asList(new int[]{5}, new int[]{4})));
+	}
+}
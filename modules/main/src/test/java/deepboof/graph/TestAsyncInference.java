@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.DummyFunction;
+import deepboof.Function;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestAsyncInference {
+
+	// forward blocks until this reaches zero
+	CountDownLatch gate = new CountDownLatch(0);
+	// number of times forward has been called
+	AtomicInteger processed = new AtomicInteger();
+
+	@Test
+	public void submit() throws Exception {
+		try( AsyncInference<Tensor_F64,Function<Tensor_F64>> alg = new AsyncInference<>(createModel(), 2, 4) ) {
+			List<CompletableFuture<Tensor_F64>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				Tensor_F64 input = new Tensor_F64(2,3);
+				input.d[0] = i;
+				futures.add(alg.submit(input));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Tensor_F64 found = futures.get(i).get(5, TimeUnit.SECONDS);
+				assertTrue(found.isShape(2,3));
+				assertEquals(i+1, found.d[0], DeepBoofConstants.TEST_TOL_F64);
+				assertEquals(1, found.d[1], DeepBoofConstants.TEST_TOL_F64);
+			}
+			assertTrue(alg.getSessionCount() <= 2);
+			assertEquals(20, processed.get());
+		}
+	}
+
+	/**
+	 * Once the limit has been reached inputs should be rejected by trySubmit
+	 */
+	@Test
+	public void backpressure() throws Exception {
+		gate = new CountDownLatch(1);
+		try( AsyncInference<Tensor_F64,Function<Tensor_F64>> alg = new AsyncInference<>(createModel(), 1, 2) ) {
+			List<CompletableFuture<Tensor_F64>> futures = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				futures.add(alg.trySubmit(new Tensor_F64(1,3)));
+			}
+			assertEquals(3, alg.getPendingCount());
+
+			CompletableFuture<Tensor_F64> rejected = alg.trySubmit(new Tensor_F64(1,3));
+			ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+
+			gate.countDown();
+			for( CompletableFuture<Tensor_F64> f : futures ) {
+				f.get(5, TimeUnit.SECONDS);
+			}
+			waitForPending(alg, 0);
+
+			// there's room again
+			assertNotNull(alg.trySubmit(new Tensor_F64(1,3)).get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	/**
+	 * Inputs which are cancelled before they start should not be processed
+	 */
+	@Test
+	public void cancel() throws Exception {
+		gate = new CountDownLatch(1);
+		try( AsyncInference<Tensor_F64,Function<Tensor_F64>> alg = new AsyncInference<>(createModel(), 1, 4) ) {
+			CompletableFuture<Tensor_F64> first = alg.submit(new Tensor_F64(1,3));
+			CompletableFuture<Tensor_F64> second = alg.submit(new Tensor_F64(1,3));
+			assertTrue(second.cancel(true));
+
+			gate.countDown();
+			first.get(5, TimeUnit.SECONDS);
+			waitForPending(alg, 0);
+			assertEquals(1, processed.get());
+		}
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		gate = new CountDownLatch(1);
+		try( AsyncInference<Tensor_F64,Function<Tensor_F64>> alg = new AsyncInference<>(createModel(), 1, 4) ) {
+			CompletableFuture<Tensor_F64> future = alg.submit(new Tensor_F64(1,3), 20, TimeUnit.MILLISECONDS);
+			ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof TimeoutException);
+			gate.countDown();
+		}
+	}
+
+	@Test
+	public void exception() {
+		try( AsyncInference<Tensor_F64,Function<Tensor_F64>> alg = new AsyncInference<>(createModel(), 1, 1) ) {
+			// input shape doesn't match the model
+			CompletableFuture<Tensor_F64> future = alg.submit(new Tensor_F64(1,5));
+			assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+			assertEquals(0, processed.get());
+		}
+	}
+
+	private static void waitForPending( AsyncInference<?,?> alg , int expected ) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while( alg.getPendingCount() != expected && System.currentTimeMillis() < end ) {
+			Thread.sleep(1);
+		}
+		assertEquals(expected, alg.getPendingCount());
+	}
+
+	private InferenceModel<Tensor_F64,Function<Tensor_F64>> createModel() {
+		return new InferenceModel<>(() -> {
+			List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+			Node<Tensor_F64,Function<Tensor_F64>> n = new Node<>();
+			n.name = "0";
+			n.function = new BlockingFunction();
+			nodes.add(n);
+			return nodes;
+		}, new HashMap<>(), Tensor_F64.class, 3);
+	}
+
+	/**
+	 * Adds one to every element after waiting for the gate to open
+	 */
+	private class BlockingFunction extends DummyFunction<Tensor_F64> {
+		int[] shape;
+
+		@Override
+		public void initialize(int... shapeInput) {
+			shape = shapeInput.clone();
+		}
+
+		@Override
+		public void forward(Tensor_F64 input, Tensor_F64 output) {
+			if( !input.isShape(output.shape) )
+				throw new IllegalArgumentException("Unexpected shape");
+			try {
+				assertTrue(gate.await(10, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			processed.incrementAndGet();
+			for (int i = 0; i < output.length(); i++) {
+				output.d[i] = input.d[i] + 1;
+			}
+		}
+
+		@Override
+		public int[] getOutputShape() {
+			return shape;
+		}
+	}
+}
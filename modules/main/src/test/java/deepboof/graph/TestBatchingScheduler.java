@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.DummyFunction;
+import deepboof.Function;
+import deepboof.impl.forward.standard.ActivationReLU_F64;
+import deepboof.impl.forward.standard.FunctionLinear_F64;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestBatchingScheduler {
+	Random rand = new Random(234);
+
+	/**
+	 * Several threads submit inputs at the same time. Results should be the same as processing each input
+	 * by itself and inputs should be combined into mini-batches.
+	 */
+	@Test
+	public void loadGenerator() throws InterruptedException {
+		InferenceModel<Tensor_F64,Function<Tensor_F64>> model = createModel();
+		InferenceSession<Tensor_F64,Function<Tensor_F64>> reference = model.createSession();
+
+		BatchingScheduler<Tensor_F64,Function<Tensor_F64>> alg = new BatchingScheduler<>(model);
+		alg.setMaxBatch(4);
+		alg.setMaxLatency(20, TimeUnit.MILLISECONDS);
+		alg.start();
+
+		int numThreads = 6;
+		int numRequests = 30;
+		List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			long seed = rand.nextLong();
+			Thread t = new Thread(() -> {
+				Random local = new Random(seed);
+				try {
+					for (int trial = 0; trial < numRequests; trial++) {
+						Tensor_F64 input = TensorFactory_F64.random(local, false, 4);
+						Tensor_F64 found = alg.submit(input).get();
+						assertTrue(found.isShape(3));
+
+						Tensor_F64 expected;
+						input.reshape(1,4);
+						synchronized (reference) {
+							expected = reference.process(input).copy();
+						}
+						for (int j = 0; j < 3; j++) {
+							assertEquals(expected.d[j], found.d[j], DeepBoofConstants.TEST_TOL_F64);
+						}
+						Thread.sleep(local.nextInt(3));
+					}
+				} catch( Throwable e ) {
+					errors.add(e);
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		for( Thread t : threads ) {
+			t.join();
+		}
+		alg.stop();
+		assertTrue(errors.isEmpty(), ""+errors);
+
+		assertEquals(numThreads*numRequests, alg.getTotalRequests());
+		long[] histogram = alg.getBatchSizeHistogram();
+		assertEquals(5, histogram.length);
+		long batches = 0, requests = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			batches += histogram[i];
+			requests += i*histogram[i];
+		}
+		assertEquals(alg.getTotalBatches(), batches);
+		assertEquals(alg.getTotalRequests(), requests);
+		assertTrue(alg.getAverageBatchSize() > 1);
+		assertTrue(alg.getMaxQueueDepth() >= 1);
+		assertEquals(0, alg.getQueueDepth());
+	}
+
+	/**
+	 * A single input should be processed once the latency deadline has passed
+	 */
+	@Test
+	public void deadline() throws Exception {
+		BatchingScheduler<Tensor_F64,Function<Tensor_F64>> alg = new BatchingScheduler<>(createModel());
+		alg.setMaxBatch(8);
+		alg.setMaxLatency(10, TimeUnit.MILLISECONDS);
+		alg.start();
+
+		CompletableFuture<Tensor_F64> future = alg.submit(TensorFactory_F64.random(rand, false, 4));
+		assertTrue(future.get(5, TimeUnit.SECONDS).isShape(3));
+		assertEquals(1, alg.getBatchSizeHistogram()[1]);
+		alg.stop();
+		assertFalse(alg.isRunning());
+	}
+
+	/**
+	 * Inputs which have already been submitted are processed before stopping
+	 */
+	@Test
+	public void stop_finishesQueue() throws Exception {
+		BatchingScheduler<Tensor_F64,Function<Tensor_F64>> alg = new BatchingScheduler<>(createModel());
+		alg.setMaxLatency(1, TimeUnit.SECONDS);
+		alg.start();
+
+		List<CompletableFuture<Tensor_F64>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(alg.submit(TensorFactory_F64.random(rand, false, 4)));
+		}
+		alg.stop();
+		for( CompletableFuture<Tensor_F64> f : futures ) {
+			assertTrue(f.isDone());
+			assertTrue(f.get().isShape(3));
+		}
+	}
+
+	@Test
+	public void submit_badShape() {
+		BatchingScheduler<Tensor_F64,Function<Tensor_F64>> alg = new BatchingScheduler<>(createModel());
+		assertThrows(IllegalStateException.class, () -> alg.submit(new Tensor_F64(4)));
+		alg.start();
+		assertThrows(IllegalArgumentException.class, () -> alg.submit(new Tensor_F64(1,4)));
+		alg.stop();
+	}
+
+	/**
+	 * A failure should be passed to every input in the mini-batch
+	 */
+	@Test
+	public void exception() throws InterruptedException {
+		BatchingScheduler<Tensor_F64,Function<Tensor_F64>> alg = new BatchingScheduler<>(createModel());
+		alg.start();
+		alg.getSession().getSequence().getSequence().get(0).function = new DummyFunction<Tensor_F64>() {
+			@Override
+			public void forward(Tensor_F64 input, Tensor_F64 output) {
+				throw new IllegalArgumentException("Failed");
+			}
+		};
+
+		CompletableFuture<Tensor_F64> future = alg.submit(TensorFactory_F64.random(rand, false, 4));
+		assertThrows(ExecutionException.class, future::get);
+		alg.stop();
+	}
+
+	/**
+	 * An Error while processing should fail the mini-batch without killing the thread
+	 */
+	@Test
+	public void exception_error() throws Exception {
+		BatchingScheduler<Tensor_F64,Function<Tensor_F64>> alg = new BatchingScheduler<>(createModel());
+		alg.setMaxLatency(0, TimeUnit.MILLISECONDS);
+		alg.start();
+		Node<Tensor_F64,Function<Tensor_F64>> node = alg.getSession().getSequence().getSequence().get(0);
+		int[] outputShape = node.function.getOutputShape();
+		node.function = new DummyFunction<Tensor_F64>() {
+			@Override
+			public void forward(Tensor_F64 input, Tensor_F64 output) {
+				throw new AssertionError("Failed");
+			}
+
+			@Override
+			public int[] getOutputShape() {
+				return outputShape;
+			}
+		};
+
+		for (int i = 0; i < 2; i++) {
+			CompletableFuture<Tensor_F64> future = alg.submit(TensorFactory_F64.random(rand, false, 4));
+			ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof AssertionError);
+			assertTrue(alg.isRunning());
+		}
+		alg.stop();
+	}
+
+	/**
+	 * If the thread exits unexpectedly it should stop accepting inputs and can be started again
+	 */
+	@Test
+	public void threadExits() throws Exception {
+		BatchingScheduler<Tensor_F64,Function<Tensor_F64>> alg = new BatchingScheduler<>(createModel());
+		alg.start();
+		Thread thread = alg.thread;
+		thread.interrupt();
+		thread.join();
+
+		assertFalse(alg.isRunning());
+		assertThrows(IllegalStateException.class, () -> alg.submit(TensorFactory_F64.random(rand, false, 4)));
+		alg.stop();
+		assertEquals(0, alg.getQueueDepth());
+
+		alg.start();
+		CompletableFuture<Tensor_F64> future = alg.submit(TensorFactory_F64.random(rand, false, 4));
+		assertTrue(future.get(5, TimeUnit.SECONDS).isShape(3));
+		alg.stop();
+	}
+
+	/**
+	 * Inputs left in the queue when the thread exits are failed instead of never being completed
+	 */
+	@Test
+	public void threadExits_queued() throws Exception {
+		BatchingScheduler<Tensor_F64,Function<Tensor_F64>> alg = new BatchingScheduler<>(createModel());
+		List<CompletableFuture<Tensor_F64>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			BatchingScheduler.Request<Tensor_F64> r = new BatchingScheduler.Request<>(TensorFactory_F64.random(rand, false, 4));
+			futures.add(r.future);
+			alg.queue.add(i == 0 ? alg.STOP : r);
+		}
+		alg.start();
+		alg.stop();
+
+		for( CompletableFuture<Tensor_F64> f : futures.subList(1, 3) ) {
+			assertTrue(f.isCompletedExceptionally());
+		}
+		assertEquals(0, alg.getQueueDepth());
+	}
+
+	private InferenceModel<Tensor_F64,Function<Tensor_F64>> createModel() {
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("0", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 5, 4), TensorFactory_F64.random(rand, false, 5)));
+		parameters.put("2", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 3, 5), TensorFactory_F64.random(rand, false, 3)));
+		return new InferenceModel<>(TestBatchingScheduler::createNodes, parameters, Tensor_F64.class, 4);
+	}
+
+	private static List<Node<Tensor_F64,Function<Tensor_F64>>> createNodes() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("0", new FunctionLinear_F64(5), null));
+		nodes.add(create("1", new ActivationReLU_F64(), "0"));
+		nodes.add(create("2", new FunctionLinear_F64(3), "1"));
+		return nodes;
+	}
+
+	private static Node<Tensor_F64,Function<Tensor_F64>> create( String name , Function<Tensor_F64> function , String source ) {
+		Node<Tensor_F64,Function<Tensor_F64>> n = new Node<>();
+		n.name = name;
+		n.function = function;
+		if( source != null )
+			n.sources.add(new InputAddress(source));
+		return n;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestConcatenateMerger {
+	Random rand = new Random(234);
+
+	@Test
+	public void initialize() {
+		ConcatenateMerger<Tensor_F64> alg = new ConcatenateMerger<>();
+		alg.initialize(Arrays.asList(new int[]{2,4,5}, new int[]{3,4,5}));
+		assertArrayEquals(new int[]{5,4,5}, alg.getOutputShape());
+
+		alg = new ConcatenateMerger<>(1);
+		alg.initialize(Arrays.asList(new int[]{2,4,5}, new int[]{2,1,5}));
+		assertArrayEquals(new int[]{2,5,5}, alg.getOutputShape());
+
+		ConcatenateMerger<Tensor_F64> bad = new ConcatenateMerger<>();
+		assertThrows(IllegalArgumentException.class, () ->
+				bad.initialize(Arrays.asList(new int[]{2,4,5}, new int[]{3,4,6})));
+	}
+
+	@Test
+	public void combine() {
+		for( int axis = 0; axis < 3; axis++ ) {
+			int[] shapeA = new int[]{2,3,4};
+			int[] shapeB = new int[]{2,3,4};
+			shapeB[axis] = 1;
+
+			ConcatenateMerger<Tensor_F64> alg = new ConcatenateMerger<>(axis);
+			alg.initialize(Arrays.asList(shapeA, shapeB));
+
+			for( boolean sub : new boolean[]{false,true} ) {
+				Tensor_F64 A = TensorFactory_F64.random(rand, sub, 3, shapeA[0], shapeA[1], shapeA[2]);
+				Tensor_F64 B = TensorFactory_F64.random(rand, sub, 3, shapeB[0], shapeB[1], shapeB[2]);
+				int[] shapeO = alg.getOutputShape();
+				Tensor_F64 output = TensorFactory_F64.random(rand, sub, 3, shapeO[0], shapeO[1], shapeO[2]);
+
+				alg.combine((List)Arrays.asList(A, B), output);
+
+				for (int n = 0; n < 3; n++) {
+					for (int i = 0; i < shapeO[0]; i++) {
+						for (int j = 0; j < shapeO[1]; j++) {
+							for (int k = 0; k < shapeO[2]; k++) {
+								int[] c = new int[]{i,j,k};
+								double expected;
+								if( c[axis] < shapeA[axis] ) {
+									expected = A.get(n,i,j,k);
+								} else {
+									c[axis] -= shapeA[axis];
+									expected = B.get(n,c[0],c[1],c[2]);
+								}
+								assertEquals(expected, output.get(n,i,j,k), 0.0);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void isContiguous() {
+		assertTrue(new ConcatenateMerger<Tensor_F64>().isContiguous(1));
+		assertFalse(new ConcatenateMerger<Tensor_F64>().isContiguous(2));
+		assertFalse(new ConcatenateMerger<Tensor_F64>(1).isContiguous(1));
+	}
+}
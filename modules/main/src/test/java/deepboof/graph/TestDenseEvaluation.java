@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.Function;
+import deepboof.forward.ConfigConvolve2D;
+import deepboof.forward.ConfigPadding;
+import deepboof.forward.ConfigSpatial;
+import deepboof.impl.forward.standard.*;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestDenseEvaluation {
+	Random rand = new Random(234);
+
+	/**
+	 * Each element in the score map should be the same as processing that window by itself
+	 */
+	@Test
+	public void compareToWindows() {
+		int C = 2, H = 8, W = 8;
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("conv", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 4, C, 3, 3),
+				TensorFactory_F64.random(rand, false, 4)));
+		parameters.put("lin0", Arrays.asList(
+				TensorFactory_F64.random(rand, true, 5, 4*3*3),
+				TensorFactory_F64.random(rand, false, 5)));
+		parameters.put("bn", Collections.singletonList(
+				TensorFactory_F64.randomMM(rand, false, 0.1, 1, 5, 4)));
+		parameters.put("lin1", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 3, 5),
+				TensorFactory_F64.random(rand, false, 3)));
+
+		DenseEvaluation<Tensor_F64> alg = new DenseEvaluation<>(createNetwork(), parameters, Tensor_F64.class, C, H, W);
+		assertEquals(2, alg.getStrideX());
+		assertEquals(2, alg.getStrideY());
+
+		alg.initialize(C, 14, 12);
+		int[] shape = alg.getOutputShape();
+		assertArrayEquals(new int[]{3,4,3}, shape);
+
+		Tensor_F64 image = TensorFactory_F64.random(rand, false, 2, C, 14, 12);
+		Tensor_F64 scores = new Tensor_F64(2, shape[0], shape[1], shape[2]);
+		alg.process(image, scores);
+
+		// process each window separately
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = createNetwork();
+		FunctionSequence<Tensor_F64,Function<Tensor_F64>> sequence = new FunctionSequence<>(
+				(List)new SequenceForwardOrder((List)nodes).putIntoForwardOrder(), Tensor_F64.class);
+		sequence.initialize(new int[]{C,H,W});
+		sequence.setParameters(parameters);
+
+		Tensor_F64 window = new Tensor_F64(1, C, H, W);
+		Tensor_F64 expected = new Tensor_F64(1, 3);
+		for (int batch = 0; batch < 2; batch++) {
+			for (int row = 0; row < shape[1]; row++) {
+				for (int col = 0; col < shape[2]; col++) {
+					int y0 = alg.getWindowY(row), x0 = alg.getWindowX(col);
+					for (int c = 0; c < C; c++) {
+						for (int y = 0; y < H; y++) {
+							for (int x = 0; x < W; x++) {
+								window.d[window.idx(0,c,y,x)] = image.get(batch,c,y0+y,x0+x);
+							}
+						}
+					}
+					sequence.process(window, expected);
+					for (int k = 0; k < 3; k++) {
+						assertEquals(expected.get(0,k), scores.get(batch,k,row,col), DeepBoofConstants.TEST_TOL_F64);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Outputs of linear layers can't be merged
+	 */
+	@Test
+	public void mergeAfterLinear() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("a", new FunctionLinear_F64(2), null));
+		nodes.add(create("b", new ActivationReLU_F64(), "a"));
+		Node<Tensor_F64,Function<Tensor_F64>> merge = create("merge", new ActivationReLU_F64(), "a");
+		merge.sources.add(new InputAddress("b"));
+		merge.combine = new AddMerger<>();
+		nodes.add(merge);
+
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("a", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 2, 1*4*4),
+				TensorFactory_F64.random(rand, false, 2)));
+
+		assertThrows(IllegalArgumentException.class,
+				() -> new DenseEvaluation<>(nodes, parameters, Tensor_F64.class, 1, 4, 4));
+	}
+
+	/**
+	 * conv 3x3 -> relu -> max pool 2x2 -> linear -> batch norm -> relu -> linear
+	 */
+	private static List<Node<Tensor_F64,Function<Tensor_F64>>> createNetwork() {
+		ConfigConvolve2D configConv = new ConfigConvolve2D();
+		configConv.F = 4;
+		configConv.HH = configConv.WW = 3;
+
+		ConfigSpatial configPool = new ConfigSpatial();
+		configPool.HH = configPool.WW = 2;
+		configPool.periodX = configPool.periodY = 2;
+
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("conv", new SpatialConvolve2D_F64(configConv, new ConstantPadding2D_F64(new ConfigPadding())), null));
+		nodes.add(create("relu0", new ActivationReLU_F64(), "conv"));
+		nodes.add(create("pool", new SpatialMaxPooling_F64(configPool, new ConstantPadding2D_F64(new ConfigPadding())), "relu0"));
+		nodes.add(create("lin0", new FunctionLinear_F64(5), "pool"));
+		nodes.add(create("bn", new FunctionBatchNorm_F64(true), "lin0"));
+		nodes.add(create("relu1", new ActivationReLU_F64(), "bn"));
+		nodes.add(create("lin1", new FunctionLinear_F64(3), "relu1"));
+		return nodes;
+	}
+
+	private static Node<Tensor_F64,Function<Tensor_F64>> create( String name , Function<Tensor_F64> function , String source ) {
+		Node<Tensor_F64,Function<Tensor_F64>> n = new Node<>();
+		n.name = name;
+		n.function = function;
+		if( source != null )
+			n.sources.add(new InputAddress(source));
+		return n;
+	}
+}
@@ -20,6 +20,8 @@ package deepboof.graph;
 
 import deepboof.DeepBoofConstants;
 import deepboof.DummyFunction;
+import deepboof.impl.forward.standard.ActivationReLU_F64;
+import deepboof.misc.DeepBoofConcurrency;
 import deepboof.tensors.Tensor_F64;
 import org.ddogleg.struct.Tuple2;
 import org.junit.jupiter.api.Test;
@@ -28,9 +30,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author Peter Abeles
@@ -64,6 +68,395 @@ public class TestForwardSequence {
 		}
 	}
 
+	/**
+	 * Results should be the same when memory is planned and retained nodes should be readable
+	 */
+	@Test
+	public void process_memoryPlanning() {
+		int numBatch = 3;
+		int length = 8;
+
+		Tensor_F64 expected = new Tensor_F64(numBatch,length);
+		Tensor_F64 found = new Tensor_F64(numBatch,length);
+		long[] highWater = new long[2];
+
+		for( boolean planned : new boolean[]{false,true}) {
+			FunctionSequence alg = new FunctionSequence(createLine(length), Tensor_F64.class);
+			alg.setMemoryPlanning(planned);
+			alg.retain("3");
+			alg.initialize(new int[]{1});
+			assertEquals(planned, alg.getMemoryPlan() != null);
+
+			Tensor_F64 input = new Tensor_F64(numBatch,1);
+			Tensor_F64 output = planned ? found : expected;
+			alg.process(input,output);
+
+			Tensor_F64 retained = (Tensor_F64)alg.getNodeOutput(3);
+			assertTrue(retained.isShape(numBatch,5));
+			assertEquals(4, retained.get(0,0), DeepBoofConstants.TEST_TOL_F64);
+
+			highWater[planned?1:0] = alg.getPool().getHighWaterMark();
+		}
+
+		for (int i = 0; i < length; i++) {
+			assertEquals(length, found.get(0,i), DeepBoofConstants.TEST_TOL_F64);
+		}
+		assertTrue(highWater[1] < highWater[0]);
+	}
+
+	/**
+	 * Branches should be processed at the same time and produce the same results as when processed in order
+	 */
+	@Test
+	public void process_concurrent() {
+		ForkJoinPool original = DeepBoofConcurrency.getPool();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		DeepBoofConcurrency.setPool(pool);
+		try {
+			Tensor_F64 expected = new Tensor_F64(1,4);
+			Tensor_F64 found = new Tensor_F64(1,4);
+
+			for( boolean concurrent : new boolean[]{false,true}) {
+				// each branch waits until the other branch has started
+				CountDownLatch latch = concurrent ? new CountDownLatch(2) : null;
+				FunctionSequence alg = new FunctionSequence(createDiamond(latch), Tensor_F64.class);
+				alg.setConcurrent(concurrent);
+				alg.initialize(new int[]{1});
+
+				alg.process(new Tensor_F64(1,1), concurrent ? found : expected);
+			}
+
+			// input = 1, branches = 2, merged = 2+2+1, output = 6
+			for (int i = 0; i < 4; i++) {
+				assertEquals(6, expected.get(0,i), DeepBoofConstants.TEST_TOL_F64);
+				assertEquals(6, found.get(0,i), DeepBoofConstants.TEST_TOL_F64);
+			}
+		} finally {
+			DeepBoofConcurrency.setPool(original);
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * The order nodes are processed in isn't known so memory can't be planned
+	 */
+	@Test
+	public void process_concurrent_memoryPlanning() {
+		FunctionSequence alg = new FunctionSequence(createDiamond(null), Tensor_F64.class);
+		alg.setConcurrent(true);
+		alg.setMemoryPlanning(true);
+		assertThrows(IllegalArgumentException.class, () -> alg.initialize(new int[]{1}));
+	}
+
+	/**
+	 * Branches which are concatenated should write directly into the merged tensor when the mini-batch is one
+	 * and produce the same results as copying when it isn't
+	 */
+	@Test
+	public void process_concatenate() {
+		FunctionSequence alg = new FunctionSequence(createBranches(new ConcatenateMerger<>()), Tensor_F64.class);
+		alg.initialize(new int[]{2});
+		assertArrayEquals(new int[]{4}, alg.getOutputShape());
+
+		for( int numBatch : new int[]{1,2,1} ) {
+			Tensor_F64 input = new Tensor_F64(numBatch,2);
+			for (int i = 0; i < input.length(); i++) {
+				input.d[i] = i;
+			}
+			Tensor_F64 output = new Tensor_F64(numBatch,4);
+			alg.process(input,output);
+
+			for (int batch = 0; batch < numBatch; batch++) {
+				for (int i = 0; i < 2; i++) {
+					double a = input.get(batch,i)+1;
+					assertEquals(2*a, output.get(batch,i), DeepBoofConstants.TEST_TOL_F64);
+					assertEquals(3*a, output.get(batch,i+2), DeepBoofConstants.TEST_TOL_F64);
+				}
+			}
+
+			Tensor_F64 left = (Tensor_F64)alg.getNodeOutput(1);
+			Tensor_F64 right = (Tensor_F64)alg.getNodeOutput(2);
+			Tensor_F64 merged = (Tensor_F64)((Tuple2)alg.outputStorage.get("merge")).d1;
+			assertTrue(merged.isShape(numBatch,4));
+			if( numBatch == 1 ) {
+				assertSame(merged.d, left.d);
+				assertSame(merged.d, right.d);
+				assertEquals(2, right.startIndex);
+			} else {
+				assertNotSame(merged.d, left.d);
+				assertNotSame(merged.d, right.d);
+			}
+		}
+	}
+
+	/**
+	 * The first input to an add should be used as the output when nothing else reads it
+	 */
+	@Test
+	public void process_add() {
+		FunctionSequence alg = new FunctionSequence(createBranches(new AddMerger<>()), Tensor_F64.class);
+		alg.initialize(new int[]{2});
+
+		for( int numBatch : new int[]{1,3} ) {
+			Tensor_F64 input = new Tensor_F64(numBatch,2);
+			for (int i = 0; i < input.length(); i++) {
+				input.d[i] = i;
+			}
+			Tensor_F64 output = new Tensor_F64(numBatch,2);
+			alg.process(input,output);
+
+			for (int batch = 0; batch < numBatch; batch++) {
+				for (int i = 0; i < 2; i++) {
+					double a = input.get(batch,i)+1;
+					assertEquals(5*a, output.get(batch,i), DeepBoofConstants.TEST_TOL_F64);
+				}
+			}
+
+			Tensor_F64 left = (Tensor_F64)alg.getNodeOutput(1);
+			Tensor_F64 merged = (Tensor_F64)((Tuple2)alg.outputStorage.get("merge")).d1;
+			assertSame(merged.d, left.d);
+		}
+	}
+
+	/**
+	 * Only the nodes needed by the targets should be processed
+	 */
+	@Test
+	public void processUntil() {
+		List<Node> nodes = createDiamond(null);
+		FunctionSequence alg = new FunctionSequence(nodes, Tensor_F64.class);
+		alg.initialize(new int[]{1});
+
+		Tensor_F64 input = new Tensor_F64(2,1);
+		alg.processUntil(input, "left");
+		assertArrayEquals(new int[]{1,1,0,0,0}, countCalls(nodes));
+		Tensor_F64 left = (Tensor_F64)alg.getNodeOutput("left");
+		assertTrue(left.isShape(2,3));
+		assertEquals(2, left.get(1,2), DeepBoofConstants.TEST_TOL_F64);
+
+		// without caching everything is processed again
+		alg.processUntil(input, "left", "output");
+		assertArrayEquals(new int[]{2,2,1,1,1}, countCalls(nodes));
+		Tensor_F64 output = (Tensor_F64)alg.getNodeOutput("output");
+		assertTrue(output.isShape(2,5));
+		assertEquals(6, output.get(1,4), DeepBoofConstants.TEST_TOL_F64);
+
+		// the full sequence should still work
+		Tensor_F64 found = new Tensor_F64(2,5);
+		alg.process(input, found);
+		assertEquals(6, found.get(1,4), DeepBoofConstants.TEST_TOL_F64);
+	}
+
+	/**
+	 * Heads which share a backbone should only process the backbone once
+	 */
+	@Test
+	public void processUntil_cache() {
+		List<Node> nodes = createDiamond(null);
+		FunctionSequence alg = new FunctionSequence(nodes, Tensor_F64.class);
+		alg.setCacheOutputs(true);
+		alg.initialize(new int[]{1});
+
+		Tensor_F64 input = new Tensor_F64(1,1);
+		alg.processUntil(input, "left");
+		alg.processUntil(input, "right");
+		alg.processUntil(input, "output");
+		assertArrayEquals(new int[]{1,1,1,1,1}, countCalls(nodes));
+		assertEquals(6, ((Tensor_F64)alg.getNodeOutput("output")).get(0,0), DeepBoofConstants.TEST_TOL_F64);
+
+		// a different input can't use the cache
+		alg.processUntil(new Tensor_F64(1,1), "left");
+		assertArrayEquals(new int[]{2,2,1,1,1}, countCalls(nodes));
+
+		// nor can an input which has been modified
+		alg.invalidateCache();
+		alg.processUntil(input, "right");
+		assertArrayEquals(new int[]{3,2,2,1,1}, countCalls(nodes));
+	}
+
+	/**
+	 * When memory is planned only retained nodes can be targets and be reused
+	 */
+	@Test
+	public void processUntil_memoryPlanning() {
+		List<Node> nodes = createLine(5);
+		FunctionSequence alg = new FunctionSequence(nodes, Tensor_F64.class);
+		alg.setMemoryPlanning(true);
+		alg.setCacheOutputs(true);
+		alg.retain("2");
+		alg.initialize(new int[]{1});
+
+		Tensor_F64 input = new Tensor_F64(1,1);
+		assertThrows(IllegalArgumentException.class, () -> alg.processUntil(input, "1"));
+
+		alg.processUntil(input, "2");
+		assertEquals(3, ((Tensor_F64)alg.getNodeOutput("2")).get(0,0), DeepBoofConstants.TEST_TOL_F64);
+		assertArrayEquals(new int[]{1,1,1,0,0}, countCalls(nodes));
+
+		alg.retain("4");
+		alg.initialize(new int[]{1});
+		alg.processUntil(input, "2");
+		alg.processUntil(input, "4");
+		assertArrayEquals(new int[]{2,2,2,1,1}, countCalls(nodes));
+		assertEquals(5, ((Tensor_F64)alg.getNodeOutput("4")).get(0,0), DeepBoofConstants.TEST_TOL_F64);
+	}
+
+	/**
+	 * Memory given to provided outputs by processUntil() must be returned to the pool
+	 */
+	@Test
+	public void processUntil_releaseStorage() {
+		List<Node> nodes = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Node n = new Node();
+			n.name = i == 2 ? "out" : ""+i;
+			n.function = new ActivationReLU_F64();
+			if( i > 0 )
+				n.sources.add(new InputAddress(""+(i-1)));
+			nodes.add(n);
+		}
+		FunctionSequence alg = new FunctionSequence(nodes, Tensor_F64.class);
+		alg.setMemoryPlanning(true);
+		alg.retain("out");
+		alg.initialize(new int[]{1000});
+
+		Tensor_F64 input = new Tensor_F64(2,1000);
+		long expected = -1;
+		for (int trial = 0; trial < 5; trial++) {
+			alg.processUntil(input, "out");
+			long bytes = alg.getPool().getBytesInUse();
+			if( trial == 0 )
+				expected = bytes;
+			assertEquals(expected, bytes);
+			alg.releaseStorage();
+			assertEquals(0, alg.getPool().getBytesInUse());
+		}
+	}
+
+	private static int[] countCalls( List<Node> nodes ) {
+		int[] calls = new int[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) {
+			calls[i] = ((HelperFunction)nodes.get(i).function).calls;
+		}
+		return calls;
+	}
+
+	/**
+	 * Addresses should be resolved and shapes only checked for tensors which aren't owned by the sequence
+	 */
+	@Test
+	public void compile() {
+		List<Node> nodes = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Node n = new Node();
+			n.name = ""+i;
+			n.function = new ActivationReLU_F64();
+			if( i > 0 )
+				n.sources.add(new InputAddress(""+(i-1)));
+			nodes.add(n);
+		}
+		FunctionSequence alg = new FunctionSequence(nodes, Tensor_F64.class);
+		alg.initialize(new int[]{3});
+		assertNull(alg.program);
+
+		Tensor_F64 input = new Tensor_F64(2,3);
+		input.d[0] = -1; input.d[1] = 2;
+		Tensor_F64 output = new Tensor_F64(2,3);
+		alg.process(input, output);
+		assertEquals(0, output.d[0], DeepBoofConstants.TEST_TOL_F64);
+		assertEquals(2, output.d[1], DeepBoofConstants.TEST_TOL_F64);
+
+		FunctionSequence.Instruction[] program = alg.program;
+		assertEquals(4, program.length);
+		assertFalse(program[0].unchecked);
+		assertTrue(program[1].unchecked);
+		assertTrue(program[2].unchecked);
+		assertFalse(program[3].unchecked);
+		assertArrayEquals(new int[]{1}, program[2].sources);
+		assertSame(alg.getNodeOutput(1), program[2].input);
+
+		// same mini-batch so it isn't compiled again
+		alg.process(input, output);
+		assertSame(program, alg.program);
+
+		// the output is provided so it's still checked
+		assertThrows(IllegalArgumentException.class, () -> alg.process(input, new Tensor_F64(2,4)));
+	}
+
+	/**
+	 * Two inputs are merged into a trunk which feeds two heads. The trunk is also an output.
+	 */
+	@Test
+	public void process_multipleInputsOutputs() {
+		for( int config = 0; config < 3; config++ ) {
+			List<Node> nodes = createMultiHead();
+			FunctionSequence alg = new FunctionSequence(nodes, Tensor_F64.class);
+			alg.setOutputs("head1", "head2", "trunk");
+			alg.setMemoryPlanning(config == 1);
+			alg.setConcurrent(config == 2);
+
+			Map<String,int[]> shapes = new HashMap<>();
+			shapes.put("a", new int[]{3});
+			shapes.put("b", new int[]{3});
+			alg.initialize(shapes);
+			assertEquals(List.of("a","b"), alg.getInputNames());
+			assertEquals(List.of("head1","head2","trunk"), alg.getOutputNames());
+			assertThrows(IllegalArgumentException.class, () -> alg.process(new Tensor_F64(2,3), new Tensor_F64(2,3)));
+
+			Tensor_F64 a = new Tensor_F64(2,3);
+			Tensor_F64 b = new Tensor_F64(2,3);
+			for (int i = 0; i < a.length(); i++) {
+				a.d[i] = i;
+				b.d[i] = 1;
+			}
+			Tensor_F64[] outputs = new Tensor_F64[]{new Tensor_F64(2,3), new Tensor_F64(2,3), new Tensor_F64(2,3)};
+			alg.process(new Tensor_F64[]{a,b}, outputs);
+
+			for (int i = 0; i < a.length(); i++) {
+				double trunk = 2*i + 3;
+				assertEquals(10*trunk, outputs[0].d[i], DeepBoofConstants.TEST_TOL_F64);
+				assertEquals(trunk+1, outputs[1].d[i], DeepBoofConstants.TEST_TOL_F64);
+				assertEquals(trunk, outputs[2].d[i], DeepBoofConstants.TEST_TOL_F64);
+			}
+			// the shared trunk is only processed once
+			for( Node n : nodes ) {
+				assertEquals(1, ((ScaleFunction)n.function).calls);
+			}
+
+			// same thing but using maps
+			Map<String,Tensor_F64> inputMap = new HashMap<>();
+			inputMap.put("a", a);
+			inputMap.put("b", b);
+			Map<String,Tensor_F64> outputMap = new HashMap<>();
+			outputMap.put("head1", new Tensor_F64(2,3));
+			outputMap.put("head2", new Tensor_F64(2,3));
+			outputMap.put("trunk", new Tensor_F64(2,3));
+			alg.process(inputMap, outputMap);
+			assertEquals(outputs[0].d[4], outputMap.get("head1").d[4], DeepBoofConstants.TEST_TOL_F64);
+			assertEquals(outputs[1].d[4], outputMap.get("head2").d[4], DeepBoofConstants.TEST_TOL_F64);
+			assertEquals(outputs[2].d[4], outputMap.get("trunk").d[4], DeepBoofConstants.TEST_TOL_F64);
+		}
+	}
+
+	/**
+	 * Graph with two inputs that are added together into a trunk that feeds two heads
+	 */
+	private static List<Node> createMultiHead() {
+		List<Node> out = new ArrayList<>();
+		out.add(createScale("a",2,0));
+		out.add(createScale("b",3,0));
+		out.add(createScale("trunk",1,0));
+		out.add(createScale("head1",10,0));
+		out.add(createScale("head2",1,1));
+
+		out.get(2).sources.add(new InputAddress("a"));
+		out.get(2).sources.add(new InputAddress("b"));
+		out.get(2).combine = new AddMerger<>();
+		out.get(3).sources.add(new InputAddress("trunk"));
+		out.get(4).sources.add(new InputAddress("trunk"));
+		return out;
+	}
+
 	@Test
 	public void setParameters() {
 		List<Node> sequence = createLine(10);
@@ -120,6 +513,56 @@ public class TestForwardSequence {
 		return out;
 	}
 
+	/**
+	 * Input node which feeds two branches that are merged together
+	 */
+	private static List<Node> createDiamond( CountDownLatch latch ) {
+		List<Node> out = new ArrayList<>();
+		out.add(create("input"));
+		out.add(create("left"));
+		out.add(create("right"));
+		out.add(create("merge"));
+		out.add(create("output"));
+
+		((HelperFunction)out.get(1).function).latch = latch;
+		((HelperFunction)out.get(2).function).latch = latch;
+
+		out.get(1).sources.add(new InputAddress("input"));
+		out.get(2).sources.add(new InputAddress("input"));
+		out.get(3).sources.add(new InputAddress("left"));
+		out.get(3).sources.add(new InputAddress("right"));
+		out.get(3).combine = new SumMerger();
+		out.get(4).sources.add(new InputAddress("merge"));
+
+		return out;
+	}
+
+	/**
+	 * Input node which feeds two branches that scale it by different amounts and are then merged
+	 */
+	private static List<Node> createBranches( TensorMerger merger ) {
+		List<Node> out = new ArrayList<>();
+		out.add(createScale("input",1,1));
+		out.add(createScale("left",2,0));
+		out.add(createScale("right",3,0));
+		out.add(createScale("merge",1,0));
+
+		out.get(1).sources.add(new InputAddress("input"));
+		out.get(2).sources.add(new InputAddress("input"));
+		out.get(3).sources.add(new InputAddress("left"));
+		out.get(3).sources.add(new InputAddress("right"));
+		out.get(3).combine = merger;
+
+		return out;
+	}
+
+	private static Node createScale( String name , double scale , double offset ) {
+		Node n = new Node();
+		n.name = name;
+		n.function = new ScaleFunction(scale, offset);
+		return n;
+	}
+
 	private static Node create( String name ) {
 		Node n = new Node();
 		n.name = name;
@@ -132,6 +575,12 @@ public class TestForwardSequence {
 
 		List<Tensor_F64> parameters;
 
+		// if not null then forward waits until the latch reaches zero
+		CountDownLatch latch;
+
+		// number of times forward has been called
+		int calls;
+
 		@Override
 		public void initialize(int... shapeInput) {
 			output[0] = shapeInput[0]+1;
@@ -144,6 +593,15 @@ public class TestForwardSequence {
 
 		@Override
 		public void forward(Tensor_F64 input, Tensor_F64 output) {
+			calls++;
+			if( latch != null ) {
+				latch.countDown();
+				try {
+					assertTrue(latch.await(10, TimeUnit.SECONDS),"Branches were not processed concurrently");
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
 			double a = input.d[0];
 
 			for (int i = 0; i < output.length(); i++) {
@@ -156,4 +614,60 @@ public class TestForwardSequence {
 			return output;
 		}
 	}
+
+	/**
+	 * output = input*scale + offset
+	 */
+	private static class ScaleFunction extends DummyFunction<Tensor_F64> {
+		int[] shape;
+		double scale, offset;
+		int calls;
+
+		public ScaleFunction(double scale, double offset) {
+			this.scale = scale;
+			this.offset = offset;
+		}
+
+		@Override
+		public void initialize(int... shapeInput) {
+			shape = shapeInput.clone();
+		}
+
+		@Override
+		public void forward(Tensor_F64 input, Tensor_F64 output) {
+			calls++;
+			for (int i = 0; i < output.length(); i++) {
+				output.d[output.startIndex+i] = input.d[input.startIndex+i]*scale + offset;
+			}
+		}
+
+		@Override
+		public int[] getOutputShape() {
+			return shape;
+		}
+	}
+
+	private static class SumMerger implements TensorMerger<Tensor_F64> {
+		int[] shape;
+
+		@Override
+		public void initialize(List<int[]> inputShapes) {
+			shape = inputShapes.get(0);
+		}
+
+		@Override
+		public void combine(List<Tensor_F64> inputs, Tensor_F64 output) {
+			for (int i = 0; i < output.length(); i++) {
+				double sum = 0;
+				for( Tensor_F64 t : inputs )
+					sum += t.d[t.startIndex];
+				output.d[output.startIndex+i] = sum;
+			}
+		}
+
+		@Override
+		public int[] getOutputShape() {
+			return shape;
+		}
+	}
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.Function;
+import deepboof.impl.forward.standard.ActivationReLU_F64;
+import deepboof.impl.forward.standard.FunctionBatchNorm_F64;
+import deepboof.impl.forward.standard.FunctionLinear_F64;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+@SuppressWarnings("unchecked")
+public class TestInferenceModel {
+	Random rand = new Random(234);
+
+	/**
+	 * Sessions should produce the same results as a sequence and reference the model's parameters
+	 */
+	@Test
+	public void process() {
+		Map<String,List<Tensor_F64>> parameters = createParameters();
+		InferenceModel<Tensor_F64,Function<Tensor_F64>> model =
+				new InferenceModel<>(TestInferenceModel::createNodes, parameters, Tensor_F64.class, 4);
+		assertArrayEquals(new int[]{3}, model.getOutputShape());
+
+		List<Node<?,?>> ordered = new SequenceForwardOrder((List)createNodes()).putIntoForwardOrder();
+		FunctionSequence<Tensor_F64,Function<Tensor_F64>> sequence = new FunctionSequence(ordered, Tensor_F64.class);
+		sequence.initialize(new int[]{4});
+		sequence.setParameters(parameters);
+
+		Tensor_F64 input = TensorFactory_F64.random(rand, false, 2, 4);
+		Tensor_F64 expected = new Tensor_F64(2, 3);
+		sequence.process(input, expected);
+
+		InferenceSession<Tensor_F64,Function<Tensor_F64>> sessionA = model.createSession();
+		InferenceSession<Tensor_F64,Function<Tensor_F64>> sessionB = model.createSession();
+
+		Tensor_F64 found = sessionA.process(input);
+		assertTrue(found.isShape(2, 3));
+		for (int i = 0; i < expected.length(); i++) {
+			assertEquals(expected.d[i], found.d[i], DeepBoofConstants.TEST_TOL_F64);
+		}
+
+		// functions are not shared but parameters are
+		for (int i = 0; i < 3; i++) {
+			Function<Tensor_F64> a = sessionA.getSequence().getSequence().get(i).function;
+			Function<Tensor_F64> b = sessionB.getSequence().getSequence().get(i).function;
+			assertNotSame(a, b);
+			if( i != 1 ) {
+				assertSame(a.getParameters().get(0), b.getParameters().get(0));
+				assertSame(parameters.get(""+i).get(0), a.getParameters().get(0));
+			}
+		}
+	}
+
+	/**
+	 * Batch norm keeps its own copy of the parameters. Each session should still produce the correct output and
+	 * the model's parameters must not be modified
+	 */
+	@Test
+	public void batchNorm() {
+		Map<String,List<Tensor_F64>> parameters = createParameters();
+		parameters.put("1", Collections.singletonList(TensorFactory_F64.randomMM(rand, false, 0.1, 1.0, 5, 4)));
+		Tensor_F64 original = parameters.get("1").get(0).copy();
+
+		InferenceModel<Tensor_F64,Function<Tensor_F64>> model =
+				new InferenceModel<>(TestInferenceModel::createNodesBatchNorm, parameters, Tensor_F64.class, 4);
+
+		List<Node<?,?>> ordered = new SequenceForwardOrder((List)createNodesBatchNorm()).putIntoForwardOrder();
+		FunctionSequence<Tensor_F64,Function<Tensor_F64>> sequence = new FunctionSequence(ordered, Tensor_F64.class);
+		sequence.initialize(new int[]{4});
+		sequence.setParameters(parameters);
+
+		Tensor_F64 input = TensorFactory_F64.random(rand, false, 2, 4);
+		Tensor_F64 expected = new Tensor_F64(2, 3);
+		sequence.process(input, expected);
+
+		InferenceSession<Tensor_F64,Function<Tensor_F64>> sessionA = model.createSession();
+		InferenceSession<Tensor_F64,Function<Tensor_F64>> sessionB = model.createSession();
+
+		for( InferenceSession<Tensor_F64,Function<Tensor_F64>> session : Arrays.asList(sessionA, sessionB, sessionA) ) {
+			Tensor_F64 found = session.process(input);
+			for (int i = 0; i < expected.length(); i++) {
+				assertEquals(expected.d[i], found.d[i], DeepBoofConstants.TEST_TOL_F64);
+			}
+		}
+
+		Tensor_F64 after = model.getParameters().get("1").get(0);
+		for (int i = 0; i < original.length(); i++) {
+			assertEquals(original.d[i], after.d[i], 0.0);
+		}
+	}
+
+	/**
+	 * Several threads process inputs at the same time, each with its own session
+	 */
+	@Test
+	public void concurrentSessions() throws InterruptedException {
+		InferenceModel<Tensor_F64,Function<Tensor_F64>> model =
+				new InferenceModel<>(TestInferenceModel::createNodes, createParameters(), Tensor_F64.class, 4);
+
+		int numThreads = 4;
+		List<Tensor_F64> inputs = new ArrayList<>();
+		List<Tensor_F64> expected = new ArrayList<>();
+		InferenceSession<Tensor_F64,Function<Tensor_F64>> reference = model.createSession();
+		for (int i = 0; i < numThreads; i++) {
+			inputs.add(TensorFactory_F64.random(rand, false, 3, 4));
+			expected.add(reference.process(inputs.get(i)).copy());
+		}
+
+		List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			final int index = i;
+			Thread t = new Thread(() -> {
+				try {
+					InferenceSession<Tensor_F64,Function<Tensor_F64>> session = model.createSession();
+					for (int trial = 0; trial < 50; trial++) {
+						Tensor_F64 found = session.process(inputs.get(index));
+						for (int j = 0; j < found.length(); j++) {
+							assertEquals(expected.get(index).d[j], found.d[j], DeepBoofConstants.TEST_TOL_F64);
+						}
+					}
+				} catch( Throwable e ) {
+					errors.add(e);
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		for( Thread t : threads ) {
+			t.join();
+		}
+		assertTrue(errors.isEmpty(), ""+errors);
+	}
+
+	/**
+	 * Model must not be modified by changes to the map it was created from
+	 */
+	@Test
+	public void parametersAreCopied() {
+		Map<String,List<Tensor_F64>> parameters = createParameters();
+		InferenceModel<Tensor_F64,Function<Tensor_F64>> model =
+				new InferenceModel<>(TestInferenceModel::createNodes, parameters, Tensor_F64.class, 4);
+
+		parameters.remove("0");
+		assertTrue(model.getParameters().containsKey("0"));
+		assertThrows(UnsupportedOperationException.class, () -> model.getParameters().remove("0"));
+		assertThrows(UnsupportedOperationException.class, () -> model.getParameters().get("0").clear());
+	}
+
+	/**
+	 * Functions must be created for each session
+	 */
+	@Test
+	public void sharedFunctions() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = createNodes();
+		InferenceModel<Tensor_F64,Function<Tensor_F64>> model =
+				new InferenceModel<>(() -> nodes, createParameters(), Tensor_F64.class, 4);
+		assertThrows(IllegalArgumentException.class, model::createSession);
+	}
+
+	private Map<String,List<Tensor_F64>> createParameters() {
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("0", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 5, 4), TensorFactory_F64.random(rand, false, 5)));
+		parameters.put("2", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 3, 5), TensorFactory_F64.random(rand, false, 3)));
+		return parameters;
+	}
+
+	/**
+	 * linear -> relu -> linear. Nodes are intentionally not in forward order
+	 */
+	private static List<Node<Tensor_F64,Function<Tensor_F64>>> createNodes() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("2", new FunctionLinear_F64(3), "1"));
+		nodes.add(create("0", new FunctionLinear_F64(5), null));
+		nodes.add(create("1", new ActivationReLU_F64(), "0"));
+		return nodes;
+	}
+
+	/**
+	 * linear -> batch norm -> linear
+	 */
+	private static List<Node<Tensor_F64,Function<Tensor_F64>>> createNodesBatchNorm() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("0", new FunctionLinear_F64(5), null));
+		nodes.add(create("1", new FunctionBatchNorm_F64(true), "0"));
+		nodes.add(create("2", new FunctionLinear_F64(3), "1"));
+		return nodes;
+	}
+
+	private static Node<Tensor_F64,Function<Tensor_F64>> create( String name , Function<Tensor_F64> function , String source ) {
+		Node<Tensor_F64,Function<Tensor_F64>> n = new Node<>();
+		n.name = name;
+		n.function = function;
+		if( source != null )
+			n.sources.add(new InputAddress(source));
+		return n;
+	}
+}
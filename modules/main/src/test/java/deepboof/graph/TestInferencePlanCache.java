@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.Function;
+import deepboof.impl.forward.standard.ActivationReLU_F64;
+import deepboof.impl.forward.standard.ActivationTanH_F64;
+import deepboof.impl.forward.standard.FunctionElementWiseMult_F64;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestInferencePlanCache {
+	Random rand = new Random(234);
+
+	/**
+	 * Inputs with different shapes should be processed correctly and each shape only planned once
+	 */
+	@Test
+	public void process() {
+		InferencePlanCache<Tensor_F64,Function<Tensor_F64>> alg = new InferencePlanCache<>(createModel());
+
+		int[][] shapes = new int[][]{{1,3,5},{2,3,5},{1,4,6},{2,3,5},{1,3,5}};
+		for( int[] shape : shapes ) {
+			Tensor_F64 input = TensorFactory_F64.randomMM(rand, false, -1, 1, shape);
+			Tensor_F64 output = new Tensor_F64(alg.getOutputShape(shape));
+			assertTrue(output.isShape(shape));
+
+			alg.process(input, output);
+			for (int i = 0; i < input.length(); i++) {
+				assertEquals(Math.tanh(Math.max(0, 2*input.d[i])), output.d[i], DeepBoofConstants.TEST_TOL_F64);
+			}
+		}
+
+		assertEquals(3, alg.size());
+		assertEquals(3, alg.getMisses());
+		assertEquals(0, alg.getEvictions());
+		assertTrue(alg.getTotalBytes() > 0);
+		assertTrue(alg.contains(1,4,6));
+	}
+
+	/**
+	 * Processing the same shape again shouldn't allocate any memory
+	 */
+	@Test
+	public void process_noAllocation() {
+		InferencePlanCache<Tensor_F64,Function<Tensor_F64>> alg = new InferencePlanCache<>(createModel());
+
+		Tensor_F64 inputA = TensorFactory_F64.random(rand, false, 2, 3, 5);
+		Tensor_F64 inputB = TensorFactory_F64.random(rand, false, 1, 4, 6);
+		alg.process(inputA, new Tensor_F64(2,3,5));
+		alg.process(inputB, new Tensor_F64(1,4,6));
+
+		FunctionSequence sequence = alg.entries.get(new InferencePlanCache.ShapeKey(new int[]{2,3,5})).sequence;
+		int allocations = sequence.getPool().getTotalAllocations();
+		alg.process(inputA, new Tensor_F64(2,3,5));
+		alg.process(inputB, new Tensor_F64(1,4,6));
+		alg.process(inputA, new Tensor_F64(2,3,5));
+		assertEquals(allocations, sequence.getPool().getTotalAllocations());
+		assertEquals(2, alg.getMisses());
+		assertEquals(3, alg.getHits());
+	}
+
+	/**
+	 * The least recently used plan should be discarded first
+	 */
+	@Test
+	public void evict_maxEntries() {
+		InferencePlanCache<Tensor_F64,Function<Tensor_F64>> alg = new InferencePlanCache<>(createModel());
+		alg.setMaxEntries(2);
+
+		process(alg, 1,3,5);
+		process(alg, 1,4,5);
+		process(alg, 1,3,5);
+		process(alg, 1,5,5);
+
+		assertEquals(2, alg.size());
+		assertEquals(1, alg.getEvictions());
+		assertTrue(alg.contains(1,3,5));
+		assertFalse(alg.contains(1,4,5));
+		assertTrue(alg.contains(1,5,5));
+	}
+
+	/**
+	 * Plans should be discarded when they use too much memory, but the one just used is always kept
+	 */
+	@Test
+	public void evict_maxBytes() {
+		InferencePlanCache<Tensor_F64,Function<Tensor_F64>> alg = new InferencePlanCache<>(createModel());
+
+		process(alg, 1,3,5);
+		long bytes = alg.getTotalBytes();
+		alg.setMaxBytes(bytes);
+		process(alg, 1,3,5);
+		assertEquals(1, alg.size());
+
+		// too large to keep both
+		process(alg, 1,6,5);
+		assertEquals(1, alg.size());
+		assertTrue(alg.contains(1,6,5));
+		assertTrue(alg.getTotalBytes() > bytes);
+		assertEquals(1, alg.getEvictions());
+	}
+
+	private void process( InferencePlanCache<Tensor_F64,Function<Tensor_F64>> alg , int ...shape ) {
+		alg.process(TensorFactory_F64.random(rand, false, shape), new Tensor_F64(shape));
+	}
+
+	private static InferenceModel<Tensor_F64,Function<Tensor_F64>> createModel() {
+		return new InferenceModel<>(TestInferencePlanCache::createNodes, new HashMap<>(), Tensor_F64.class, 3, 5);
+	}
+
+	/**
+	 * scale -> relu -> tanh. Works with inputs of any shape
+	 */
+	private static List<Node<Tensor_F64,Function<Tensor_F64>>> createNodes() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("0", new FunctionElementWiseMult_F64(2), null));
+		nodes.add(create("1", new ActivationReLU_F64(), "0"));
+		nodes.add(create("2", new ActivationTanH_F64(), "1"));
+		return nodes;
+	}
+
+	private static Node<Tensor_F64,Function<Tensor_F64>> create( String name , Function<Tensor_F64> function , String source ) {
+		Node<Tensor_F64,Function<Tensor_F64>> n = new Node<>();
+		n.name = name;
+		n.function = function;
+		if( source != null )
+			n.sources.add(new InputAddress(source));
+		return n;
+	}
+}
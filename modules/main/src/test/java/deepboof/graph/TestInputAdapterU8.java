@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.DummyFunction;
+import deepboof.tensors.Tensor_F32;
+import deepboof.tensors.Tensor_U8;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Peter Abeles
+ */
+@SuppressWarnings("unchecked")
+public class TestInputAdapterU8 {
+
+	Random rand = new Random(234);
+
+	/**
+	 * Interleaved bytes should be normalized and passed in to the sequence as planar
+	 */
+	@Test
+	public void process_interleaved() {
+		CopyFunction function = new CopyFunction();
+		List<Node> nodes = new ArrayList<>();
+		Node node = new Node();
+		node.name = "copy";
+		node.function = function;
+		nodes.add(node);
+
+		FunctionSequence sequence = new FunctionSequence(nodes, Tensor_F32.class);
+		InputAdapterU8<Tensor_F32> alg = new InputAdapterU8<>(sequence, new double[]{100,50}, new double[]{2,4}, true);
+
+		alg.initialize(new int[]{4,5,2});
+		assertArrayEquals(new int[]{2,4,5}, function.shapeInput);
+
+		Tensor_U8 input = new Tensor_U8(3,4,5,2);
+		rand.nextBytes(input.d);
+		Tensor_F32 output = new Tensor_F32(3,2,4,5);
+
+		alg.process(input, output);
+
+		for (int n = 0; n < 3; n++) {
+			for (int y = 0; y < 4; y++) {
+				for (int x = 0; x < 5; x++) {
+					assertEquals(((input.d[input.idx(n,y,x,0)] & 0xFF) - 100)/2.0, output.get(n,0,y,x), DeepBoofConstants.TEST_TOL_F32);
+					assertEquals(((input.d[input.idx(n,y,x,1)] & 0xFF) - 50)/4.0, output.get(n,1,y,x), DeepBoofConstants.TEST_TOL_F32);
+				}
+			}
+		}
+	}
+
+	private static class CopyFunction extends DummyFunction<Tensor_F32> {
+		int[] shapeInput;
+
+		@Override
+		public void initialize(int... shapeInput) {
+			this.shapeInput = shapeInput.clone();
+		}
+
+		@Override
+		public void forward(Tensor_F32 input, Tensor_F32 output) {
+			output.setTo(input);
+		}
+
+		@Override
+		public int[] getOutputShape() {
+			return shapeInput;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.DummyFunction;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestPipelinedSequence {
+
+	@Test
+	public void partition() {
+		// equal costs are split evenly
+		assertArrayEquals(new int[]{0,2,4,6}, PipelinedSequence.partition(new double[]{1,1,1,1,1,1}, 3));
+
+		// one expensive element gets a stage to itself
+		assertArrayEquals(new int[]{0,1,5}, PipelinedSequence.partition(new double[]{10,1,1,1,1}, 2));
+		assertArrayEquals(new int[]{0,4,5}, PipelinedSequence.partition(new double[]{1,1,1,1,10}, 2));
+
+		// every element in its own stage
+		assertArrayEquals(new int[]{0,1,2,3}, PipelinedSequence.partition(new double[]{5,1,3}, 3));
+
+		assertThrows(IllegalArgumentException.class, () -> PipelinedSequence.partition(new double[]{1,1}, 3));
+	}
+
+	/**
+	 * Results should be the same as processing each input one at a time and in the same order
+	 */
+	@Test
+	public void stream() {
+		for (int numStages = 1; numStages <= 4; numStages++) {
+			FunctionSequence<Tensor_F64,AddFunction> sequence = createLine(6);
+			PipelinedSequence<Tensor_F64,AddFunction> alg = new PipelinedSequence<>(sequence, numStages);
+			alg.start();
+
+			int total = 25;
+			int taken = 0;
+			for (int i = 0; i < total; i++) {
+				Tensor_F64 input = new Tensor_F64(2,3);
+				input.d[0] = i;
+				alg.push(input, new Tensor_F64(2,3));
+
+				// let the pipeline fill up before taking results
+				if( alg.getPendingCount() == alg.getCapacity() ) {
+					checkOutput(alg.take(), taken++);
+				}
+			}
+			while( alg.getPendingCount() > 0 ) {
+				checkOutput(alg.take(), taken++);
+			}
+			assertEquals(total, taken);
+			alg.stop();
+			assertFalse(alg.isRunning());
+		}
+	}
+
+	/**
+	 * Outputs which skip over stages and merges should be read from the stage which computed them
+	 */
+	@Test
+	public void skipConnections() {
+		for (int numStages = 1; numStages <= 4; numStages++) {
+			FunctionSequence<Tensor_F64,AddFunction> sequence = createSkip();
+			PipelinedSequence<Tensor_F64,AddFunction> alg = new PipelinedSequence<>(sequence, numStages);
+			alg.start();
+
+			int total = 12;
+			List<Tensor_F64> inputs = new ArrayList<>();
+			for (int i = 0; i < total; i++) {
+				Tensor_F64 input = new Tensor_F64(2,3);
+				for (int j = 0; j < input.d.length; j++) {
+					input.d[j] = i*10+j;
+				}
+				inputs.add(input);
+			}
+
+			int taken = 0;
+			for (int i = 0; i < total; i++) {
+				alg.push(inputs.get(i), new Tensor_F64(2,3));
+				if( alg.getPendingCount() == alg.getCapacity() ) {
+					checkSkip(sequence, inputs.get(taken++), alg.take());
+				}
+			}
+			while( alg.getPendingCount() > 0 ) {
+				checkSkip(sequence, inputs.get(taken++), alg.take());
+			}
+			alg.stop();
+		}
+	}
+
+	private static void checkSkip( FunctionSequence<Tensor_F64,AddFunction> sequence ,
+								   Tensor_F64 input , Tensor_F64 found ) {
+		Tensor_F64 expected = new Tensor_F64(2,3);
+		sequence.process(input, expected);
+		for (int i = 0; i < expected.length(); i++) {
+			assertEquals(expected.d[i], found.d[i], DeepBoofConstants.TEST_TOL_F64);
+		}
+	}
+
+	/**
+	 * Only outputs which are read by later stages should be double buffered
+	 */
+	@Test
+	public void storageAtStageBoundaries() {
+		FunctionSequence<Tensor_F64,AddFunction> sequence = createLine(6);
+		PipelinedSequence<Tensor_F64,AddFunction> alg = new PipelinedSequence<>(sequence, 3);
+		alg.start();
+		alg.push(new Tensor_F64(1,3), new Tensor_F64(1,3));
+		alg.take();
+		alg.stop();
+
+		for (int stage = 0; stage < 2; stage++) {
+			PipelinedSequence<Tensor_F64,AddFunction>.Stage s = alg.stages.get(stage);
+			assertEquals(2, s.free.size());
+			for( PipelinedSequence<Tensor_F64,AddFunction>.Exports e : s.free ) {
+				// only the last node in the stage is read by the next stage
+				assertNull(e.outputs.get(0));
+				assertNotNull(e.outputs.get(1));
+			}
+			// the first node's output stays inside the stage
+			assertEquals(1, s.plan.getBufferCount());
+		}
+		// the last stage writes into the provided output
+		assertNull(alg.stages.get(2).free);
+		assertEquals(1, alg.stages.get(2).plan.getBufferCount());
+	}
+
+	private static void checkOutput( Tensor_F64 output , int index ) {
+		// each of the 6 nodes adds one
+		assertEquals(index+6, output.d[0], DeepBoofConstants.TEST_TOL_F64);
+		assertEquals(6, output.d[1], DeepBoofConstants.TEST_TOL_F64);
+	}
+
+	/**
+	 * Each stage should be processed by a different thread
+	 */
+	@Test
+	public void stagesInDifferentThreads() {
+		FunctionSequence<Tensor_F64,AddFunction> sequence = createLine(4);
+		PipelinedSequence<Tensor_F64,AddFunction> alg = new PipelinedSequence<>(sequence, 2);
+		alg.start();
+		alg.push(new Tensor_F64(1,3), new Tensor_F64(1,3));
+		alg.take();
+		alg.stop();
+
+		List<Node<Tensor_F64,AddFunction>> nodes = sequence.getSequence();
+		assertSame(nodes.get(0).function.thread, nodes.get(1).function.thread);
+		assertSame(nodes.get(2).function.thread, nodes.get(3).function.thread);
+		assertNotSame(nodes.get(1).function.thread, nodes.get(2).function.thread);
+		assertNotSame(Thread.currentThread(), nodes.get(0).function.thread);
+	}
+
+	@Test
+	public void calibrate() {
+		FunctionSequence<Tensor_F64,AddFunction> sequence = createLine(5);
+		sequence.getSequence().get(4).function.sleep = 20;
+
+		PipelinedSequence<Tensor_F64,AddFunction> alg = new PipelinedSequence<>(sequence, 2);
+		double[] cost = alg.calibrate(new Tensor_F64(1,3), 2);
+		assertEquals(5, cost.length);
+
+		// the slow node should be in its own stage
+		assertArrayEquals(new int[]{0,4,5}, alg.getStageStart());
+	}
+
+	/**
+	 * An exception in a stage should be thrown when that input is taken and not stop the pipeline
+	 */
+	@Test
+	public void exception() {
+		FunctionSequence<Tensor_F64,AddFunction> sequence = createLine(4);
+		sequence.getSequence().get(2).function.failOn = 4;
+
+		PipelinedSequence<Tensor_F64,AddFunction> alg = new PipelinedSequence<>(sequence, 2);
+		alg.start();
+		for (int i = 0; i < 3; i++) {
+			Tensor_F64 input = new Tensor_F64(1,3);
+			input.d[0] = i;
+			alg.push(input, new Tensor_F64(1,3));
+		}
+		assertEquals(4, alg.take().d[0], DeepBoofConstants.TEST_TOL_F64);
+		// node 2 sees 1 + 2 = 3 and fails
+		assertThrows(RuntimeException.class, alg::take);
+		assertEquals(6, alg.take().d[0], DeepBoofConstants.TEST_TOL_F64);
+		alg.stop();
+	}
+
+	private static FunctionSequence<Tensor_F64,AddFunction> createLine( int length ) {
+		List<Node<Tensor_F64,AddFunction>> nodes = new ArrayList<>();
+		for (int i = 0; i < length; i++) {
+			Node<Tensor_F64,AddFunction> n = new Node<>();
+			n.name = ""+i;
+			n.function = new AddFunction();
+			if( i > 0 )
+				n.sources.add(new InputAddress(""+(i-1)));
+			nodes.add(n);
+		}
+		FunctionSequence<Tensor_F64,AddFunction> sequence = new FunctionSequence<>(nodes, Tensor_F64.class);
+		sequence.initialize(new int[]{3});
+		return sequence;
+	}
+
+	/**
+	 * 0 -> 1 -> 2 -> 3 = 1 + 2 -> 4 -> 5 = 0 + 4
+	 */
+	private static FunctionSequence<Tensor_F64,AddFunction> createSkip() {
+		FunctionSequence<Tensor_F64,AddFunction> line = createLine(6);
+		List<Node<Tensor_F64,AddFunction>> nodes = line.getSequence();
+		nodes.get(3).sources.add(new InputAddress("1"));
+		nodes.get(3).combine = new AddMerger<>();
+		nodes.get(5).sources.add(new InputAddress("0"));
+		nodes.get(5).combine = new AddMerger<>();
+
+		FunctionSequence<Tensor_F64,AddFunction> sequence = new FunctionSequence<>(nodes, Tensor_F64.class);
+		sequence.initialize(new int[]{3});
+		return sequence;
+	}
+
+	/**
+	 * Adds one to every element
+	 */
+	private static class AddFunction extends DummyFunction<Tensor_F64> {
+		int[] shape;
+		volatile Thread thread;
+		long sleep = 0;
+		double failOn = -1;
+
+		@Override
+		public void initialize(int... shapeInput) {
+			shape = shapeInput.clone();
+		}
+
+		@Override
+		public void forward(Tensor_F64 input, Tensor_F64 output) {
+			thread = Thread.currentThread();
+			if( input.d[0] + 1 == failOn )
+				throw new IllegalArgumentException("Failed");
+			if( sleep > 0 ) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException ignore) {}
+			}
+			for (int i = 0; i < output.length(); i++) {
+				output.d[i] = input.d[i] + 1;
+			}
+		}
+
+		@Override
+		public int[] getOutputShape() {
+			return shape;
+		}
+	}
+}
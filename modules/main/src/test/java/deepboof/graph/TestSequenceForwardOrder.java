@@ -187,11 +187,38 @@ public class TestSequenceForwardOrder {
 		return ordered;
 	}
 
+	/**
+	 * Graph with two inputs where one input feeds a node deeper in the graph
+	 */
+	@Test
+	public void putIntoForwardOrder_multipleInputs() {
+		List<Node> nodes = new ArrayList<>();
+		nodes.add( create("merge") );
+		nodes.add( create("a") );
+		nodes.add( create("a1") );
+		nodes.add( create("b") );
+		nodes.add( create("a2") );
+
+		nodes.get(0).sources.add( new InputAddress("a2"));
+		nodes.get(0).sources.add( new InputAddress("b"));
+		nodes.get(2).sources.add( new InputAddress("a"));
+		nodes.get(4).sources.add( new InputAddress("a1"));
+
+		SequenceForwardOrder alg = new SequenceForwardOrder((List)nodes);
+		List<Node<?,?>> ordered = alg.putIntoForwardOrder();
+
+		assertEquals(2, alg.findInputs().size());
+		assertEquals(3, alg.sequence.get(0).depth);
+		assertEquals("merge", ordered.get(4).name);
+		assertTrue(ordered.indexOf(nodes.get(4)) < 4);
+		assertTrue(ordered.get(0).sources.isEmpty());
+	}
+
 	/**
 	 * See if it can find the first node in sequences of various lengths
 	 */
 	@Test
-	public void findInput() {
+	public void findInputs() {
 		for (int i = 1; i < 4; i++) {
 			List<Node> list = createLineSequence(i);
 			Node first = list.get(0);
@@ -199,7 +226,9 @@ public class TestSequenceForwardOrder {
 
 			SequenceForwardOrder alg = new SequenceForwardOrder((List)list);
 
-			assertTrue(first == alg.findInput().node);
+			List<SequenceForwardOrder.NodeData> found = alg.findInputs();
+			assertEquals(1, found.size());
+			assertTrue(first == found.get(0).node);
 		}
 	}
 
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+@SuppressWarnings("unchecked")
+public class TestSequenceMemoryPlan {
+
+	/**
+	 * In a chain only two buffers are needed
+	 */
+	@Test
+	public void chain() {
+		List<Node> sequence = createLine(6);
+		SequenceMemoryPlan plan = compute(sequence, new int[]{5,5,5,5,5,5}, new HashSet<>());
+
+		assertEquals(2, plan.getBufferCount());
+		assertEquals(-1, plan.outputBuffer[5]);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i+1, plan.lastUse[i]);
+			assertEquals(i%2, plan.outputBuffer[i]);
+		}
+		checkValid(sequence, plan);
+	}
+
+	@Test
+	public void retained() {
+		List<Node> sequence = createLine(6);
+		SequenceMemoryPlan plan = compute(sequence, new int[]{5,5,5,5,5,5}, new HashSet<>(Arrays.asList("2")));
+
+		assertEquals(3, plan.getBufferCount());
+		assertEquals(6, plan.lastUse[2]);
+		// nodes after it can't reuse its buffer
+		for (int i = 3; i < 5; i++) {
+			assertNotEquals(plan.outputBuffer[2], plan.outputBuffer[i]);
+		}
+		checkValid(sequence, plan);
+	}
+
+	/**
+	 * Graph which branches and merges. Output of a node is needed by multiple nodes.
+	 */
+	@Test
+	public void branches() {
+		List<Node> sequence = createLine(6);
+		// 0 -> 1 , 0 -> 2 , 1 + 2 -> 3 , 0 + 3 -> 4 , 4 -> 5
+		sequence.get(2).sources.clear();
+		sequence.get(2).sources.add(new InputAddress("0"));
+		sequence.get(3).sources.add(new InputAddress("1"));
+		sequence.get(4).sources.add(new InputAddress("0"));
+
+		int[] lengths = {10,3,4,12,2,1};
+		int[] merge = {0,0,0,7,14,0};
+		SequenceMemoryPlan plan = SequenceMemoryPlan.compute((List)sequence, lengths, merge, new HashSet<>());
+
+		assertEquals(4, plan.lastUse[0]);
+		assertEquals(3, plan.lastUse[1]);
+		assertTrue(plan.mergeBuffer[3] >= 0);
+		assertTrue(plan.mergeBuffer[4] >= 0);
+		assertEquals(-1, plan.mergeBuffer[1]);
+		checkValid(sequence, plan);
+
+		// buffers should be large enough
+		for (int i = 0; i < sequence.size(); i++) {
+			if( plan.outputBuffer[i] >= 0 )
+				assertTrue(plan.bufferLength[plan.outputBuffer[i]] >= lengths[i]);
+			if( plan.mergeBuffer[i] >= 0 )
+				assertTrue(plan.bufferLength[plan.mergeBuffer[i]] >= merge[i]);
+		}
+
+		// memory should be less than giving every tensor its own buffer
+		assertTrue(plan.getTotalLength() < 10+3+4+12+2+7+14);
+	}
+
+	/**
+	 * The smallest buffer which is large enough should be selected
+	 */
+	@Test
+	public void bestFit() {
+		List<Node> sequence = createLine(5);
+		// 0 and 1 are both used by 2, then freed. 3 should use the smaller of the two
+		sequence.get(2).sources.add(new InputAddress("0"));
+
+		int[] lengths = {100,10,50,8,1};
+		int[] merge = {0,0,1,0,0};
+		SequenceMemoryPlan plan = SequenceMemoryPlan.compute((List)sequence, lengths, merge, new HashSet<>());
+
+		assertEquals(plan.outputBuffer[1], plan.outputBuffer[3]);
+		checkValid(sequence, plan);
+	}
+
+	/**
+	 * Makes sure that tensors which are live at the same time never share a buffer
+	 */
+	private static void checkValid( List<Node> sequence , SequenceMemoryPlan plan ) {
+		int N = sequence.size();
+		for (int i = 0; i < N; i++) {
+			Map<Integer,String> used = new HashMap<>();
+			for (int j = 0; j <= i && j < N-1; j++) {
+				if( plan.lastUse[j] >= i )
+					assertNull(used.put(plan.outputBuffer[j], "output "+j), "step "+i);
+			}
+			if( plan.mergeBuffer[i] >= 0 )
+				assertNull(used.put(plan.mergeBuffer[i], "merge"), "step "+i);
+		}
+	}
+
+	private static SequenceMemoryPlan compute( List<Node> sequence , int[] lengths , Set<String> retained ) {
+		return SequenceMemoryPlan.compute((List)sequence, lengths, new int[lengths.length], retained);
+	}
+
+	private static List<Node> createLine( int length ) {
+		List<Node> out = new ArrayList<>();
+		for (int i = 0; i < length; i++) {
+			Node n = new Node();
+			n.name = ""+i;
+			out.add(n);
+		}
+		for (int j = 1; j < length; j++) {
+			out.get(j).sources.add( new InputAddress(""+(j-1)));
+		}
+		return out;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph;
+
+import deepboof.Function;
+import deepboof.impl.forward.standard.ActivationReLU_F64;
+import deepboof.impl.forward.standard.FunctionLinear_F64;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestSequenceProfiler {
+	Random rand = new Random(234);
+
+	@Test
+	public void process() {
+		FunctionSequence<Tensor_F64,Function<Tensor_F64>> sequence = createSequence();
+		SequenceProfiler<Tensor_F64> profiler = new SequenceProfiler<>();
+		sequence.setListener(profiler);
+
+		Tensor_F64 input = TensorFactory_F64.random(rand, false, 2, 4);
+		Tensor_F64 output = new Tensor_F64(2, 3);
+		for (int i = 0; i < 3; i++) {
+			sequence.process(input, output);
+		}
+
+		List<SequenceProfiler.NodeStats> ranked = profiler.getRanked();
+		assertEquals(3, ranked.size());
+		for (int i = 0; i < ranked.size(); i++) {
+			SequenceProfiler.NodeStats s = ranked.get(i);
+			assertEquals(3, s.calls);
+			assertTrue(s.minNanos <= s.maxNanos);
+			if( i > 0 )
+				assertTrue(ranked.get(i-1).totalNanos >= s.totalNanos);
+		}
+
+		// linear = 2*N*M*D operations. Reads the input, weights, and bias then writes the output
+		SequenceProfiler.NodeStats linear = profiler.getStats("0");
+		assertEquals("FunctionLinear_F64", linear.type);
+		assertEquals(3*2*2*5*4, linear.totalFlops, 1e-8);
+		assertEquals(3*8*(2*4 + 5*4 + 5 + 2*5), linear.totalBytes);
+
+		// relu has no parameters. One operation per element
+		SequenceProfiler.NodeStats relu = profiler.getStats("1");
+		assertEquals(3*2*5, relu.totalFlops, 1e-8);
+		assertEquals(3*8*(2*5 + 2*5), relu.totalBytes);
+
+		String report = profiler.report();
+		assertTrue(report.contains("FunctionLinear_F64"));
+		assertTrue(report.contains("ActivationReLU_F64"));
+
+		profiler.reset();
+		assertTrue(profiler.getRanked().isEmpty());
+		assertNull(profiler.getStats("0"));
+
+		// nothing should be recorded once the listener is removed
+		sequence.setListener(null);
+		sequence.process(input, output);
+		assertTrue(profiler.getRanked().isEmpty());
+	}
+
+	private FunctionSequence<Tensor_F64,Function<Tensor_F64>> createSequence() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("0", new FunctionLinear_F64(5), null));
+		nodes.add(create("1", new ActivationReLU_F64(), "0"));
+		nodes.add(create("2", new FunctionLinear_F64(3), "1"));
+
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("0", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 5, 4), TensorFactory_F64.random(rand, false, 5)));
+		parameters.put("2", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 3, 5), TensorFactory_F64.random(rand, false, 3)));
+
+		FunctionSequence<Tensor_F64,Function<Tensor_F64>> sequence = new FunctionSequence<>(nodes, Tensor_F64.class);
+		sequence.initialize(new int[]{4});
+		sequence.setParameters(parameters);
+		return sequence;
+	}
+
+	private static Node<Tensor_F64,Function<Tensor_F64>> create( String name , Function<Tensor_F64> function , String source ) {
+		Node<Tensor_F64,Function<Tensor_F64>> n = new Node<>();
+		n.name = name;
+		n.function = function;
+		if( source != null )
+			n.sources.add(new InputAddress(source));
+		return n;
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.graph;
+
+import deepboof.DeepBoofConstants;
+import deepboof.Function;
+import deepboof.PaddingType;
+import deepboof.forward.ConfigConvolve2D;
+import deepboof.forward.ConfigPadding;
+import deepboof.forward.ConfigSpatial;
+import deepboof.impl.forward.standard.*;
+import deepboof.misc.DeepBoofConcurrency;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestTiledInference {
+	Random rand = new Random(234);
+
+	/**
+	 * Stitched tiles should be the same as processing the entire image at once
+	 */
+	@Test
+	public void compareToEntireImage() {
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("conv0", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 3, 2, 3, 3),
+				TensorFactory_F64.random(rand, false, 3)));
+		parameters.put("conv1", Arrays.asList(
+				TensorFactory_F64.random(rand, false, 4, 3, 3, 3),
+				TensorFactory_F64.random(rand, false, 4)));
+		parameters.put("bn", Collections.singletonList(
+				TensorFactory_F64.randomMM(rand, false, 0.1, 1, 4, 4)));
+
+		Tensor_F64 input = TensorFactory_F64.random(rand, false, 2, 2, 23, 19);
+
+		FunctionSequence<Tensor_F64,Function<Tensor_F64>> sequence = new FunctionSequence<>(
+				(List)new SequenceForwardOrder((List)createNetwork()).putIntoForwardOrder(), Tensor_F64.class);
+		sequence.initialize(new int[]{2,23,19});
+		sequence.setParameters(parameters);
+		int[] shape = sequence.getOutputShape();
+		Tensor_F64 expected = new Tensor_F64(2, shape[0], shape[1], shape[2]);
+		sequence.process(input, expected);
+
+		int[][] tileSizes = new int[][]{{1,1},{3,2},{4,5},{100,100}};
+		boolean before = DeepBoofConcurrency.USE_CONCURRENT;
+		try {
+			// serial fallback and the library's pool should both produce the same output
+			for( int trial = 0; trial < 2; trial++ ) {
+				DeepBoofConcurrency.USE_CONCURRENT = trial == 0;
+				for( int threads : new int[]{1,3} ) {
+					for( int[] tile : tileSizes ) {
+						TiledInference<Tensor_F64,Function<Tensor_F64>> alg =
+								new TiledInference<>(TestTiledInference::createNetwork, parameters, Tensor_F64.class);
+						alg.setTileSize(tile[0], tile[1]);
+						alg.setThreads(threads);
+						alg.initialize(2, 23, 19);
+						assertArrayEquals(shape, alg.getOutputShape());
+
+						Tensor_F64 found = new Tensor_F64(2, shape[0], shape[1], shape[2]);
+						alg.process(input, found);
+						for (int i = 0; i < expected.length(); i++) {
+							assertEquals(expected.d[i], found.d[i], DeepBoofConstants.TEST_TOL_F64);
+						}
+					}
+				}
+			}
+		} finally {
+			DeepBoofConcurrency.USE_CONCURRENT = before;
+		}
+	}
+
+	@Test
+	public void receptiveField() {
+		TiledInference<Tensor_F64,Function<Tensor_F64>> alg =
+				new TiledInference<>(TestTiledInference::createNetwork, new HashMap<>(), Tensor_F64.class);
+
+		// conv 3x3, pool 2x2 period 2, conv 3x3 period 2, pool 3x3
+		assertEquals(16, alg.getReceptiveFieldY());
+		assertEquals(16, alg.getReceptiveFieldX());
+	}
+
+	/**
+	 * Layers whose parameters depend on the input's size can't be tiled
+	 */
+	@Test
+	public void unsupportedLayer() {
+		TiledInference<Tensor_F64,Function<Tensor_F64>> alg = new TiledInference<>(() -> {
+			List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+			nodes.add(create("relu", new ActivationReLU_F64(), null));
+			nodes.add(create("linear", new FunctionLinear_F64(3), "relu"));
+			return nodes;
+		}, new HashMap<>(), Tensor_F64.class);
+
+		assertThrows(IllegalArgumentException.class, () -> alg.initialize(2, 10, 10));
+	}
+
+	/**
+	 * conv 3x3 pad 1 -> relu -> max pool 2x2 -> conv 3x3 period 2 pad 1 -> average pool 3x3 pad 1 ->
+	 * spatial batch norm -> tanh
+	 */
+	private static List<Node<Tensor_F64,Function<Tensor_F64>>> createNetwork() {
+		ConfigPadding configPadding = new ConfigPadding();
+		configPadding.x0 = configPadding.x1 = configPadding.y0 = configPadding.y1 = 1;
+
+		ConfigConvolve2D configConv0 = new ConfigConvolve2D();
+		configConv0.F = 3;
+		configConv0.HH = configConv0.WW = 3;
+
+		ConfigSpatial configMax = new ConfigSpatial();
+		configMax.HH = configMax.WW = 2;
+		configMax.periodX = configMax.periodY = 2;
+		ConfigPadding configMaxPadding = new ConfigPadding();
+		configMaxPadding.type = PaddingType.MAX_NEGATIVE;
+
+		ConfigConvolve2D configConv1 = new ConfigConvolve2D();
+		configConv1.F = 4;
+		configConv1.HH = configConv1.WW = 3;
+		configConv1.periodX = configConv1.periodY = 2;
+
+		ConfigSpatial configAve = new ConfigSpatial();
+		configAve.HH = configAve.WW = 3;
+
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("conv0", new SpatialConvolve2D_F64(configConv0, new ConstantPadding2D_F64(configPadding)), null));
+		nodes.add(create("relu", new ActivationReLU_F64(), "conv0"));
+		nodes.add(create("max", new SpatialMaxPooling_F64(configMax, new ConstantPadding2D_F64(configMaxPadding)), "relu"));
+		nodes.add(create("conv1", new SpatialConvolve2D_F64(configConv1, new ConstantPadding2D_F64(configPadding)), "max"));
+		nodes.add(create("ave", new SpatialAveragePooling_F64(configAve, new ConstantPadding2D_F64(configPadding)), "conv1"));
+		nodes.add(create("bn", new SpatialBatchNorm_F64(true), "ave"));
+		nodes.add(create("tanh", new ActivationTanH_F64(), "bn"));
+		return nodes;
+	}
+
+	private static Node<Tensor_F64,Function<Tensor_F64>> create( String name , Function<Tensor_F64> function , String source ) {
+		Node<Tensor_F64,Function<Tensor_F64>> n = new Node<>();
+		n.name = name;
+		n.function = function;
+		if( source != null )
+			n.sources.add(new InputAddress(source));
+		return n;
+	}
+}
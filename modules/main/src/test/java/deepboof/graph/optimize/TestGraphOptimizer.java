@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package deepboof.graph.optimize;
+
+import deepboof.Function;
+import deepboof.forward.ConfigConvolve2D;
+import deepboof.forward.ConfigPadding;
+import deepboof.graph.FunctionSequence;
+import deepboof.graph.InputAddress;
+import deepboof.graph.Node;
+import deepboof.impl.forward.standard.*;
+import deepboof.misc.TensorFactory_F64;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestGraphOptimizer {
+	Random rand = new Random(234);
+
+	/**
+	 * Identity removal, constant folding, and folding into linear layers on either side
+	 */
+	@Test
+	public void linear() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("lin0", new FunctionLinear_F64(5), null));
+		nodes.add(create("dropout", new FunctionElementWiseMult_F64(0.5), "lin0"));
+		nodes.add(create("relu", new ActivationReLU_F64(), "dropout"));
+		nodes.add(create("one", new FunctionElementWiseMult_F64(1.0), "relu"));
+		nodes.add(create("two", new FunctionElementWiseMult_F64(2.0), "one"));
+		nodes.add(create("three", new FunctionElementWiseMult_F64(3.0), "two"));
+		nodes.add(create("lin1", new FunctionLinear_F64(3), "three"));
+
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("lin0", linearParameters(5, 4));
+		parameters.put("lin1", linearParameters(3, 5));
+		Tensor_F64 originalWeight = parameters.get("lin0").get(0).copy();
+
+		Tensor_F64 input = TensorFactory_F64.random(rand, false, 2, 4);
+		Tensor_F64 expected = process(nodes, parameters, input, 4);
+
+		int changes = GraphOptimizer.<Tensor_F64>standard().optimize(nodes, parameters);
+		assertTrue(changes > 0);
+
+		assertEquals(3, nodes.size());
+		assertEquals("lin0", nodes.get(0).name);
+		assertEquals("relu", nodes.get(1).name);
+		assertEquals("lin1", nodes.get(2).name);
+		assertEquals("relu", nodes.get(2).sources.get(0).nodeName);
+
+		checkEquals(expected, process(nodes, parameters, input, 4));
+
+		// the original tensors should not be modified
+		assertNotSame(originalWeight, parameters.get("lin0").get(0));
+		assertEquals(originalWeight.d[0]*0.5, parameters.get("lin0").get(0).d[0], 1e-12);
+	}
+
+	/**
+	 * Multiplication before a convolution can only be folded when the padding is zero
+	 */
+	@Test
+	public void convolution() {
+		for( double paddingValue : new double[]{0,1} ) {
+			List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+			nodes.add(create("scale", new FunctionElementWiseMult_F64(0.25), null));
+			nodes.add(create("conv", createConv(paddingValue), "scale"));
+
+			Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+			parameters.put("conv", Arrays.asList(
+					TensorFactory_F64.random(rand, false, 3, 2, 3, 3),
+					TensorFactory_F64.random(rand, false, 3)));
+
+			Tensor_F64 input = TensorFactory_F64.random(rand, false, 2, 2, 6, 5);
+			Tensor_F64 expected = process(nodes, parameters, input, 2, 6, 5);
+
+			GraphOptimizer.<Tensor_F64>standard().optimize(nodes, parameters);
+			assertEquals(paddingValue == 0 ? 1 : 2, nodes.size());
+			assertTrue(nodes.get(0).sources.isEmpty());
+
+			checkEquals(expected, process(nodes, parameters, input, 2, 6, 5));
+		}
+	}
+
+	@Test
+	public void deadNodes() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("in", new ActivationReLU_F64(), null));
+		nodes.add(create("out", new FunctionLinear_F64(2), "in"));
+		nodes.add(create("unused", new FunctionLinear_F64(2), "in"));
+
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("out", linearParameters(2, 3));
+		parameters.put("unused", linearParameters(2, 3));
+		parameters.put("missing", linearParameters(2, 3));
+
+		// without specifying the output both sinks are kept but unknown parameters are removed
+		assertTrue(new RemoveDeadNodesPass<Tensor_F64>().apply(nodes, parameters, Collections.emptySet()));
+		assertEquals(3, nodes.size());
+		assertEquals(2, parameters.size());
+
+		assertTrue(new RemoveDeadNodesPass<Tensor_F64>().apply(nodes, parameters, Collections.singleton("out")));
+		assertEquals(2, nodes.size());
+		assertNull(GraphEdits.find(nodes, "unused"));
+		assertFalse(parameters.containsKey("unused"));
+		assertTrue(parameters.containsKey("out"));
+
+		// nothing left to change
+		assertFalse(new RemoveDeadNodesPass<Tensor_F64>().apply(nodes, parameters, Collections.singleton("out")));
+	}
+
+	/**
+	 * A layer whose output is used by more than one node can't absorb the scalar
+	 */
+	@Test
+	public void sharedOutputNotFolded() {
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("lin", new FunctionLinear_F64(3), null));
+		nodes.add(create("scale", new FunctionElementWiseMult_F64(2), "lin"));
+		nodes.add(create("other", new ActivationReLU_F64(), "lin"));
+
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("lin", linearParameters(3, 2));
+
+		assertFalse(new FoldScaleIntoWeightsPass<Tensor_F64>().apply(nodes, parameters, Collections.emptySet()));
+		assertEquals(3, nodes.size());
+	}
+
+	/**
+	 * Output nodes must not be removed or have their value changed, even when next to a foldable scale
+	 */
+	@Test
+	public void namedOutputs() {
+		// the scale is the output and can't be folded into the layer before it
+		List<Node<Tensor_F64,Function<Tensor_F64>>> nodes = new ArrayList<>();
+		nodes.add(create("lin", new FunctionLinear_F64(3), null));
+		nodes.add(create("out", new FunctionElementWiseMult_F64(0.5), "lin"));
+
+		Map<String,List<Tensor_F64>> parameters = new HashMap<>();
+		parameters.put("lin", linearParameters(3, 2));
+		Tensor_F64 weights = parameters.get("lin").get(0);
+
+		GraphOptimizer.<Tensor_F64>standard("out").optimize(nodes, parameters);
+		assertEquals(2, nodes.size());
+		assertNotNull(GraphEdits.find(nodes, "out"));
+		assertSame(weights, parameters.get("lin").get(0));
+
+		// the layer is an output, so the scale after it can't be folded into its weights
+		nodes = new ArrayList<>();
+		nodes.add(create("lin", new FunctionLinear_F64(3), null));
+		nodes.add(create("scale", new FunctionElementWiseMult_F64(0.5), "lin"));
+		nodes.add(create("relu", new ActivationReLU_F64(), "scale"));
+
+		parameters = new HashMap<>();
+		parameters.put("lin", linearParameters(3, 2));
+		weights = parameters.get("lin").get(0);
+
+		GraphOptimizer.<Tensor_F64>standard("lin","relu").optimize(nodes, parameters);
+		assertEquals(3, nodes.size());
+		assertSame(weights, parameters.get("lin").get(0));
+
+		// chained scales where the first one is an output. The identity and the second scale can be removed but
+		// the output can't
+		nodes = new ArrayList<>();
+		nodes.add(create("in", new ActivationReLU_F64(), null));
+		nodes.add(create("out", new FunctionElementWiseMult_F64(2.0), "in"));
+		nodes.add(create("one", new FunctionElementWiseMult_F64(1.0), "out"));
+		nodes.add(create("last", new FunctionElementWiseMult_F64(3.0), "one"));
+
+		parameters = new HashMap<>();
+		Tensor_F64 input = TensorFactory_F64.random(rand, false, 2, 4);
+		Tensor_F64 expected = process(nodes, parameters, input, 4);
+
+		GraphOptimizer.<Tensor_F64>standard("out","last").optimize(nodes, parameters);
+		assertEquals(3, nodes.size());
+		assertNull(GraphEdits.find(nodes, "one"));
+		assertEquals(2.0, ((FunctionElementWiseMult_F64)GraphEdits.find(nodes, "out").function).getScalar(), 0.0);
+		checkEquals(expected, process(nodes, parameters, input, 4));
+	}
+
+	private List<Tensor_F64> linearParameters( int M , int D ) {
+		return Arrays.asList(TensorFactory_F64.random(rand, false, M, D), TensorFactory_F64.random(rand, false, M));
+	}
+
+	private static SpatialConvolve2D_F64 createConv( double paddingValue ) {
+		ConfigConvolve2D config = new ConfigConvolve2D();
+		config.F = 3;
+		config.HH = 3;
+		config.WW = 3;
+		ConfigPadding configPadding = new ConfigPadding();
+		configPadding.x0 = configPadding.x1 = configPadding.y0 = configPadding.y1 = 1;
+		return new SpatialConvolve2D_F64(config, new ConstantPadding2D_F64(configPadding, paddingValue));
+	}
+
+	private static Tensor_F64 process( List<Node<Tensor_F64,Function<Tensor_F64>>> nodes ,
+									   Map<String,List<Tensor_F64>> parameters ,
+									   Tensor_F64 input , int ...inputShape ) {
+		FunctionSequence<Tensor_F64,Function<Tensor_F64>> sequence = new FunctionSequence<>(nodes, Tensor_F64.class);
+		sequence.initialize(inputShape);
+		sequence.setParameters(parameters);
+		int[] shape = sequence.getOutputShape();
+		int[] outputShape = new int[shape.length+1];
+		outputShape[0] = input.length(0);
+		System.arraycopy(shape, 0, outputShape, 1, shape.length);
+		Tensor_F64 output = new Tensor_F64(outputShape);
+		sequence.process(input, output);
+		return output;
+	}
+
+	private static void checkEquals( Tensor_F64 expected , Tensor_F64 found ) {
+		assertArrayEquals(expected.shape, found.shape);
+		for (int i = 0; i < expected.length(); i++) {
+			assertEquals(expected.d[i], found.d[i], 1e-10);
+		}
+	}
+
+	private static Node<Tensor_F64,Function<Tensor_F64>> create( String name , Function<Tensor_F64> function , String source ) {
+		Node<Tensor_F64,Function<Tensor_F64>> n = new Node<>();
+		n.name = name;
+		n.function = function;
+		if( source != null )
+			n.sources.add(new InputAddress(source));
+		return n;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.misc;
+
+import deepboof.DeepUnitTest;
+import org.junit.jupiter.api.Test;
+
+import static deepboof.misc.TensorOps.WI;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestTensorBroadcast {
+
+	@Test
+	public void broadcastShape() {
+		DeepUnitTest.assertEquals(WI(2,3,4,5), TensorBroadcast.broadcastShape(WI(2,3,4,5),WI(3,1,1)));
+		DeepUnitTest.assertEquals(WI(2,3,4,5), TensorBroadcast.broadcastShape(WI(3,1,1),WI(2,3,4,5)));
+		DeepUnitTest.assertEquals(WI(4,3), TensorBroadcast.broadcastShape(WI(4,1),WI(3)));
+		DeepUnitTest.assertEquals(WI(2,3), TensorBroadcast.broadcastShape(WI(2,3),WI(2,3)));
+
+		try {
+			TensorBroadcast.broadcastShape(WI(2,3),WI(4,3));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+	}
+
+	@Test
+	public void isBroadcastableTo() {
+		assertTrue(TensorBroadcast.isBroadcastableTo(WI(3,1,1),WI(2,3,4,5)));
+		assertTrue(TensorBroadcast.isBroadcastableTo(WI(5),WI(2,3,4,5)));
+		assertFalse(TensorBroadcast.isBroadcastableTo(WI(2,3,4,5),WI(3,1,1)));
+		assertFalse(TensorBroadcast.isBroadcastableTo(WI(4,1),WI(3)));
+	}
+
+	/**
+	 * Dimensions should be merged together when possible
+	 */
+	@Test
+	public void compile_merge() {
+		// per channel bias on spatial tensors
+		TensorBroadcast plan = TensorBroadcast.compile(WI(2,3,4,5),WI(3,1,1));
+		DeepUnitTest.assertEquals(WI(2,3,20), plan.loops);
+		DeepUnitTest.assertEquals(WI(60,20,1), plan.strideA);
+		DeepUnitTest.assertEquals(WI(0,1,0), plan.strideB);
+		DeepUnitTest.assertEquals(WI(60,20,1), plan.strideOut);
+		assertEquals(6, plan.rows());
+		assertEquals(20, plan.innerLength());
+
+		// identical shapes become a single loop
+		plan = TensorBroadcast.compile(WI(2,3,4),WI(2,3,4));
+		DeepUnitTest.assertEquals(WI(24), plan.loops);
+
+		// dimensions of size 1 are skipped
+		plan = TensorBroadcast.compile(WI(2,1,4),WI(1,1,4));
+		DeepUnitTest.assertEquals(WI(2,4), plan.loops);
+		DeepUnitTest.assertEquals(WI(4,1), plan.strideA);
+		DeepUnitTest.assertEquals(WI(0,1), plan.strideB);
+
+		// scalars
+		plan = TensorBroadcast.compile(WI(1,1),WI(1));
+		DeepUnitTest.assertEquals(WI(1), plan.loops);
+	}
+
+	/**
+	 * Walk through all the rows using seek and next and see if they produce the same offsets
+	 */
+	@Test
+	public void seekRow_nextRow() {
+		TensorBroadcast plan = TensorBroadcast.compile(WI(2,1,4,5),WI(3,1,5));
+
+		int rows = plan.rows();
+		int[] countersA = new int[plan.loops.length];
+		int[] offsetsA = new int[3];
+		int[] countersB = new int[plan.loops.length];
+		int[] offsetsB = new int[3];
+
+		plan.seekRow(0,countersA,offsetsA);
+		for (int row = 0; row < rows; row++) {
+			plan.seekRow(row,countersB,offsetsB);
+			DeepUnitTest.assertEquals(offsetsB,offsetsA);
+			DeepUnitTest.assertEquals(countersB,countersA);
+			plan.nextRow(countersA,offsetsA);
+		}
+	}
+}
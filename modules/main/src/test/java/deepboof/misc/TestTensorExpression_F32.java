@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.misc;
+
+import deepboof.DeepBoofConstants;
+import deepboof.DeepUnitTest;
+import deepboof.tensors.Tensor_F32;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestTensorExpression_F32 {
+
+	Random rand = new Random(234);
+
+	@Test
+	public void scalarOperations() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 input = TensorFactory_F32.randomMM(rand, sub, 0.1f, 2, 3, 4, 5);
+			Tensor_F32 found = TensorExpression_F32.from(input).
+					add(0.5f).sub(0.2f).mult(1.5f).div(2.0f).scale(2,-1).sqrt().exp().log().abs().clamp(0.2f, 1.2f).relu().
+					compute();
+
+			for (int i = 0; i < input.length(); i++) {
+				float v = input.getAtIndex(i);
+				v = Math.abs((float)Math.log((float)Math.exp((float)Math.sqrt(2*((v + 0.5f - 0.2f)*1.5f/2.0f) - 1))));
+				v = Math.max(0.2f, Math.min(1.2f, v));
+				assertEquals(v, found.getAtIndex(i), DeepBoofConstants.TEST_TOL_F32);
+			}
+		}
+	}
+
+	@Test
+	public void tensorOperations() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 input = TensorFactory_F32.randomMM(rand, sub, -1, 1, 3, 4, 5);
+			Tensor_F32 A = TensorFactory_F32.randomMM(rand, sub, -1, 1, 3, 4, 5);
+			Tensor_F32 B = TensorFactory_F32.randomMM(rand, sub, 1, 2, 3, 4, 5);
+			Tensor_F32 found = TensorFactory_F32.random(rand, sub, 3, 4, 5);
+
+			TensorExpression_F32.from(input).add(A).mult(B).sub(A).div(B).multAdd(A, B).compute(found);
+
+			for (int i = 0; i < input.length(); i++) {
+				float a = A.getAtIndex(i), b = B.getAtIndex(i);
+				float v = ((input.getAtIndex(i) + a)*b - a)/b*a + b;
+				assertEquals(v, found.getAtIndex(i), DeepBoofConstants.TEST_TOL_F32);
+			}
+		}
+	}
+
+	/**
+	 * The output is the same tensor as the input and one of the operands
+	 */
+	@Test
+	public void inPlace() {
+		Tensor_F32 input = TensorFactory_F32.randomMM(rand, false, -1, 1, 3, 4, 5);
+		Tensor_F32 original = input.copy();
+
+		TensorExpression_F32.from(input).mult(input).add(1).compute(input);
+
+		for (int i = 0; i < input.length(); i++) {
+			float v = original.getAtIndex(i);
+			assertEquals(v*v + 1, input.getAtIndex(i), DeepBoofConstants.TEST_TOL_F32);
+		}
+	}
+
+	/**
+	 * An expression can be computed again after its tensors change. Also checks a tensor large enough to
+	 * be split into multiple blocks.
+	 */
+	@Test
+	public void reuse() {
+		Tensor_F32 input = TensorFactory_F32.randomMM(rand, true, -1, 1, 4, 3, 100, 101);
+		Tensor_F32 bias = TensorFactory_F32.randomMM(rand, true, -1, 1, 4, 3, 100, 101);
+		TensorExpression_F32 expression = TensorExpression_F32.from(input).add(bias).mult(2);
+
+		for (int trial = 0; trial < 2; trial++) {
+			Tensor_F32 expected = new Tensor_F32(input.shape);
+			TensorOps_F32.elementAdd(input, bias, expected);
+			TensorOps_F32.elementMult(expected, 2);
+
+			DeepUnitTest.assertEquals(expected, expression.compute(), DeepBoofConstants.TEST_TOL_F32);
+
+			TensorOps_F32.fill(input, 0.5f);
+		}
+	}
+
+	/**
+	 * A tensor operand which is reshaped after being added to the expression must be detected when computed
+	 */
+	@Test
+	public void reshapedOperand() {
+		Tensor_F32 input = TensorFactory_F32.randomMM(rand, false, -1, 1, 3, 4);
+		Tensor_F32 bias = TensorFactory_F32.randomMM(rand, false, -1, 1, 3, 4);
+		Tensor_F32 scale = TensorFactory_F32.randomMM(rand, false, -1, 1, 3, 4);
+		TensorExpression_F32 expression = TensorExpression_F32.from(input).add(bias).multAdd(scale, bias);
+		expression.compute();
+
+		scale.reshape(2, 4);
+		assertThrows(IllegalArgumentException.class, expression::compute);
+		scale.reshape(3, 4);
+		expression.compute();
+
+		bias.reshape(3, 3);
+		assertThrows(IllegalArgumentException.class, expression::compute);
+	}
+
+	@Test
+	public void badShape() {
+		Tensor_F32 input = new Tensor_F32(3, 4);
+		try {
+			TensorExpression_F32.from(input).add(new Tensor_F32(4, 3));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+
+		try {
+			TensorExpression_F32.from(input).add(1).compute(new Tensor_F32(12));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+	}
+}
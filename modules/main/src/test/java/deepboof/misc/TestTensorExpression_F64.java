@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.misc;
+
+import deepboof.DeepBoofConstants;
+import deepboof.DeepUnitTest;
+import deepboof.tensors.Tensor_F64;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestTensorExpression_F64 {
+
+	Random rand = new Random(234);
+
+	@Test
+	public void scalarOperations() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 input = TensorFactory_F64.randomMM(rand, sub, 0.1, 2, 3, 4, 5);
+			Tensor_F64 found = TensorExpression_F64.from(input).
+					add(0.5).sub(0.2).mult(1.5).div(2.0).scale(2,-1).sqrt().exp().log().abs().clamp(0.2, 1.2).relu().
+					compute();
+
+			for (int i = 0; i < input.length(); i++) {
+				double v = input.getAtIndex(i);
+				v = Math.abs(Math.log(Math.exp(Math.sqrt(2*((v + 0.5 - 0.2)*1.5/2.0) - 1))));
+				v = Math.max(0.2, Math.min(1.2, v));
+				assertEquals(v, found.getAtIndex(i), DeepBoofConstants.TEST_TOL_F64);
+			}
+		}
+	}
+
+	@Test
+	public void tensorOperations() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 input = TensorFactory_F64.randomMM(rand, sub, -1, 1, 3, 4, 5);
+			Tensor_F64 A = TensorFactory_F64.randomMM(rand, sub, -1, 1, 3, 4, 5);
+			Tensor_F64 B = TensorFactory_F64.randomMM(rand, sub, 1, 2, 3, 4, 5);
+			Tensor_F64 found = TensorFactory_F64.random(rand, sub, 3, 4, 5);
+
+			TensorExpression_F64.from(input).add(A).mult(B).sub(A).div(B).multAdd(A, B).compute(found);
+
+			for (int i = 0; i < input.length(); i++) {
+				double a = A.getAtIndex(i), b = B.getAtIndex(i);
+				double v = ((input.getAtIndex(i) + a)*b - a)/b*a + b;
+				assertEquals(v, found.getAtIndex(i), DeepBoofConstants.TEST_TOL_F64);
+			}
+		}
+	}
+
+	/**
+	 * The output is the same tensor as the input and one of the operands
+	 */
+	@Test
+	public void inPlace() {
+		Tensor_F64 input = TensorFactory_F64.randomMM(rand, false, -1, 1, 3, 4, 5);
+		Tensor_F64 original = input.copy();
+
+		TensorExpression_F64.from(input).mult(input).add(1).compute(input);
+
+		for (int i = 0; i < input.length(); i++) {
+			double v = original.getAtIndex(i);
+			assertEquals(v*v + 1, input.getAtIndex(i), DeepBoofConstants.TEST_TOL_F64);
+		}
+	}
+
+	/**
+	 * An expression can be computed again after its tensors change. Also checks a tensor large enough to
+	 * be split into multiple blocks.
+	 */
+	@Test
+	public void reuse() {
+		Tensor_F64 input = TensorFactory_F64.randomMM(rand, true, -1, 1, 4, 3, 100, 101);
+		Tensor_F64 bias = TensorFactory_F64.randomMM(rand, true, -1, 1, 4, 3, 100, 101);
+		TensorExpression_F64 expression = TensorExpression_F64.from(input).add(bias).mult(2);
+
+		for (int trial = 0; trial < 2; trial++) {
+			Tensor_F64 expected = new Tensor_F64(input.shape);
+			TensorOps_F64.elementAdd(input, bias, expected);
+			TensorOps_F64.elementMult(expected, 2);
+
+			DeepUnitTest.assertEquals(expected, expression.compute(), DeepBoofConstants.TEST_TOL_F64);
+
+			TensorOps_F64.fill(input, 0.5);
+		}
+	}
+
+	/**
+	 * A tensor operand which is reshaped after being added to the expression must be detected when computed
+	 */
+	@Test
+	public void reshapedOperand() {
+		Tensor_F64 input = TensorFactory_F64.randomMM(rand, false, -1, 1, 3, 4);
+		Tensor_F64 bias = TensorFactory_F64.randomMM(rand, false, -1, 1, 3, 4);
+		Tensor_F64 scale = TensorFactory_F64.randomMM(rand, false, -1, 1, 3, 4);
+		TensorExpression_F64 expression = TensorExpression_F64.from(input).add(bias).multAdd(scale, bias);
+		expression.compute();
+
+		scale.reshape(2, 4);
+		assertThrows(IllegalArgumentException.class, expression::compute);
+		scale.reshape(3, 4);
+		expression.compute();
+
+		bias.reshape(3, 3);
+		assertThrows(IllegalArgumentException.class, expression::compute);
+	}
+
+	@Test
+	public void badShape() {
+		Tensor_F64 input = new Tensor_F64(3, 4);
+		try {
+			TensorExpression_F64.from(input).add(new Tensor_F64(4, 3));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+
+		try {
+			TensorExpression_F64.from(input).add(1).compute(new Tensor_F64(12));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+	}
+}
@@ -21,6 +21,7 @@ package deepboof.misc;
 import deepboof.DeepBoofConstants;
 import deepboof.DeepUnitTest;
 import deepboof.tensors.Tensor_F32;
+import deepboof.tensors.Tensor_U8;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
@@ -28,6 +29,7 @@ import java.util.List;
 import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 /**
@@ -310,4 +312,431 @@ public class TestTensorOps_F32 {
 		}
 	}
 
+	@Test
+	public void axpy() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 X = TensorFactory_F32.random(rand,sub, 5,3,2);
+			Tensor_F32 Y = TensorFactory_F32.random(rand,sub, 5,3,2);
+			Tensor_F32 original = Y.copy();
+
+			TensorOps_F32.axpy(1.5f,X,Y);
+
+			for (int i = 0; i < X.length(); i++) {
+				assertEquals( 1.5f*X.getAtIndex(i)+original.getAtIndex(i), Y.getAtIndex(i), DeepBoofConstants.TEST_TOL_F32);
+			}
+		}
+	}
+
+	@Test
+	public void scale() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 T = TensorFactory_F32.random(rand,sub, 5,3,2);
+			Tensor_F32 original = T.copy();
+
+			TensorOps_F32.scale(T,2.0f,-0.5f);
+
+			for (int i = 0; i < T.length(); i++) {
+				assertEquals( 2.0f*original.getAtIndex(i)-0.5f, T.getAtIndex(i), DeepBoofConstants.TEST_TOL_F32);
+			}
+		}
+	}
+
+	@Test
+	public void fma() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 A = TensorFactory_F32.random(rand,sub, 5,3,2);
+			Tensor_F32 B = TensorFactory_F32.random(rand,sub, 5,3,2);
+			Tensor_F32 C = TensorFactory_F32.random(rand,sub, 5,3,2);
+			Tensor_F32 O = TensorFactory_F32.random(rand,sub, 5,3,2);
+
+			TensorOps_F32.fma(A,B,C,O);
+
+			for (int i = 0; i < A.length(); i++) {
+				float expected = A.getAtIndex(i)*B.getAtIndex(i) + C.getAtIndex(i);
+				assertEquals( expected, O.getAtIndex(i), DeepBoofConstants.TEST_TOL_F32);
+			}
+
+			// output is the same as one of the inputs
+			Tensor_F32 original = C.copy();
+			TensorOps_F32.fma(A,B,C,C);
+			for (int i = 0; i < A.length(); i++) {
+				float expected = A.getAtIndex(i)*B.getAtIndex(i) + original.getAtIndex(i);
+				assertEquals( expected, C.getAtIndex(i), DeepBoofConstants.TEST_TOL_F32);
+			}
+		}
+	}
+
+	@Test
+	public void clamp() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 T = TensorFactory_F32.randomMM(rand,sub,-2,2,5,3,2);
+			Tensor_F32 O = TensorFactory_F32.random(rand,sub, 5,3,2);
+
+			TensorOps_F32.clamp(T,-1,0.5f,O);
+
+			for (int i = 0; i < T.length(); i++) {
+				float expected = Math.max(-1,Math.min(0.5f,T.getAtIndex(i)));
+				assertEquals( expected, O.getAtIndex(i), DeepBoofConstants.TEST_TOL_F32);
+			}
+
+			TensorOps_F32.clamp(T,-1,0.5f);
+			DeepUnitTest.assertEquals(O,T,DeepBoofConstants.TEST_TOL_F32);
+		}
+	}
+
+	@Test
+	public void argMin_argMax() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 T = TensorFactory_F32.random(rand,sub, 5,3,2);
+
+			int expectedMin = 0, expectedMax = 0;
+			for (int i = 1; i < T.length(); i++) {
+				if( T.getAtIndex(i) < T.getAtIndex(expectedMin))
+					expectedMin = i;
+				if( T.getAtIndex(i) > T.getAtIndex(expectedMax))
+					expectedMax = i;
+			}
+
+			assertEquals(expectedMin, TensorOps_F32.argMin(T));
+			assertEquals(expectedMax, TensorOps_F32.argMax(T));
+			assertEquals(T.getAtIndex(expectedMin), TensorOps_F32.elementMin(T), DeepBoofConstants.TEST_TOL_F32);
+			assertEquals(T.getAtIndex(expectedMax), TensorOps_F32.elementMax(T), DeepBoofConstants.TEST_TOL_F32);
+		}
+	}
+
+	/**
+	 * When there's a tie the first element should be returned
+	 */
+	@Test
+	public void argMax_tie() {
+		Tensor_F32 T = new Tensor_F32(20000);
+		T.d[9000] = 2;
+		T.d[19000] = 2;
+
+		assertEquals(9000, TensorOps_F32.argMax(T));
+		assertEquals(0, TensorOps_F32.argMin(T));
+	}
+
+	@Test
+	public void dot() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 A = TensorFactory_F32.random(rand,sub, 5,3,2);
+			Tensor_F32 B = TensorFactory_F32.random(rand,sub, 5,3,2);
+
+			float expected = 0;
+			for (int i = 0; i < A.length(); i++) {
+				expected += A.getAtIndex(i)*B.getAtIndex(i);
+			}
+
+			assertEquals( expected, TensorOps_F32.dot(A,B), DeepBoofConstants.TEST_TOL_F32);
+		}
+	}
+
+	@Test
+	public void norms() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F32 T = TensorFactory_F32.randomMM(rand,sub,-1,1,5,3,2);
+
+			float l1 = 0, l2 = 0, inf = 0;
+			for (int i = 0; i < T.length(); i++) {
+				float v = T.getAtIndex(i);
+				l1 += Math.abs(v);
+				l2 += v*v;
+				inf = Math.max(inf,Math.abs(v));
+			}
+
+			assertEquals( l1, TensorOps_F32.normL1(T), DeepBoofConstants.TEST_TOL_F32);
+			assertEquals( (float)Math.sqrt(l2), TensorOps_F32.normL2(T), DeepBoofConstants.TEST_TOL_F32);
+			assertEquals( inf, TensorOps_F32.normInf(T), DeepBoofConstants.TEST_TOL_F32);
+		}
+	}
+
+	@Test
+	public void channelReductions() {
+		List<int[]> shapes = new ArrayList<>();
+		shapes.add(new int[]{4,3});
+		shapes.add(new int[]{4,3,5,2});
+
+		for( boolean sub : new boolean[]{false,true}) {
+			for( int[] shape : shapes ) {
+				Tensor_F32 T = TensorFactory_F32.randomMM(rand,sub,-1,1, shape);
+				int N = shape[0], C = shape[1], inner = T.length()/(N*C);
+
+				Tensor_F32 sum = new Tensor_F32(1);
+				Tensor_F32 mean = new Tensor_F32(1);
+				Tensor_F32 min = new Tensor_F32(1);
+				Tensor_F32 max = new Tensor_F32(1);
+				TensorOps_F32.channelSum(T, sum);
+				TensorOps_F32.channelMean(T, mean);
+				TensorOps_F32.channelMin(T, min);
+				TensorOps_F32.channelMax(T, max);
+
+				for (int c = 0; c < C; c++) {
+					float expectedSum = 0;
+					float expectedMin = Float.MAX_VALUE, expectedMax = -Float.MAX_VALUE;
+					for (int n = 0; n < N; n++) {
+						for (int i = 0; i < inner; i++) {
+							float v = T.getAtIndex((n*C + c)*inner + i);
+							expectedSum += v;
+							expectedMin = Math.min(expectedMin, v);
+							expectedMax = Math.max(expectedMax, v);
+						}
+					}
+					assertEquals(expectedSum, sum.get(c), DeepBoofConstants.TEST_TOL_F32);
+					assertEquals(expectedSum/(N*inner), mean.get(c), DeepBoofConstants.TEST_TOL_F32);
+					assertEquals(expectedMin, min.get(c), DeepBoofConstants.TEST_TOL_F32);
+					assertEquals(expectedMax, max.get(c), DeepBoofConstants.TEST_TOL_F32);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tensors large enough to be processed in parallel should produce the same results as when concurrency
+	 * is turned off
+	 */
+	@Test
+	public void concurrent_matchesSingleThread() {
+		boolean before = DeepBoofConcurrency.USE_CONCURRENT;
+		try {
+			Tensor_F32 A = TensorFactory_F32.randomMM(rand,true,-1,1, 4, 3, 100, 101);
+			Tensor_F32 B = TensorFactory_F32.randomMM(rand,true,-1,1, 4, 3, 100, 101);
+			assertTrue(DeepBoofConcurrency.isParallel(A.length()));
+
+			float[][] results = new float[2][];
+			Tensor_F32[] outputs = new Tensor_F32[2];
+			for (int trial = 0; trial < 2; trial++) {
+				DeepBoofConcurrency.USE_CONCURRENT = trial == 0;
+
+				Tensor_F32 Y = B.copy();
+				TensorOps_F32.axpy(0.5f, A, Y);
+				TensorOps_F32.clamp(Y, -0.9f, 0.9f);
+				outputs[trial] = Y;
+
+				Tensor_F32 channels = new Tensor_F32(1);
+				TensorOps_F32.channelSum(A, channels);
+
+				results[trial] = new float[]{
+						TensorOps_F32.elementSum(A), TensorOps_F32.dot(A, B), TensorOps_F32.normL2(A),
+						TensorOps_F32.argMax(A), TensorOps_F32.argMin(A), channels.get(2)};
+			}
+
+			DeepUnitTest.assertEquals(outputs[0], outputs[1], 0);
+			for (int i = 0; i < results[0].length; i++) {
+				assertEquals(results[0][i], results[1][i], 0);
+			}
+		} finally {
+			DeepBoofConcurrency.USE_CONCURRENT = before;
+		}
+	}
+
+	@Test
+	public void elementAdd_broadcast() {
+		checkBroadcast(true);
+	}
+
+	@Test
+	public void elementMult_broadcast() {
+		checkBroadcast(false);
+	}
+
+	private void checkBroadcast( boolean add ) {
+		List<int[][]> cases = new ArrayList<>();
+		cases.add(new int[][]{{2,3,4,5},{3,1,1}});
+		cases.add(new int[][]{{3,1,1},{2,3,4,5}});
+		cases.add(new int[][]{{4,3},{3}});
+		cases.add(new int[][]{{4,1},{1,3}});
+		cases.add(new int[][]{{2,3,4},{2,1,4}});
+		cases.add(new int[][]{{2,3,4},{1}});
+		cases.add(new int[][]{{20,3,40,50},{3,1,50}}); // large enough to be processed in parallel
+
+		for( boolean sub : new boolean[]{false,true}) {
+			for( int[][] c : cases ) {
+				Tensor_F32 A = TensorFactory_F32.random(rand, sub, c[0]);
+				Tensor_F32 B = TensorFactory_F32.random(rand, sub, c[1]);
+				int[] shapeOut = TensorBroadcast.broadcastShape(c[0],c[1]);
+				Tensor_F32 O = TensorFactory_F32.random(rand, sub, shapeOut);
+
+				if( add )
+					TensorOps_F32.elementAdd(A, B, O);
+				else
+					TensorOps_F32.elementMult(A, B, O);
+
+				int[] coor = new int[shapeOut.length];
+				for (int i = 0; i < O.length(); i++) {
+					int index = i;
+					for (int k = shapeOut.length-1; k >= 0; k--) {
+						coor[k] = index % shapeOut[k];
+						index /= shapeOut[k];
+					}
+					float a = A.get(broadcastCoordinate(coor, A.shape));
+					float b = B.get(broadcastCoordinate(coor, B.shape));
+					float expected = add ? a + b : a*b;
+					assertEquals(expected, O.get(coor), DeepBoofConstants.TEST_TOL_F32);
+				}
+
+				// In-place is allowed for the input which has the same shape as the output
+				if( A.isShape(shapeOut) ) {
+					Tensor_F32 expected = O.copy();
+					if( add )
+						TensorOps_F32.elementAdd(A, B, A);
+					else
+						TensorOps_F32.elementMult(A, B, A);
+					DeepUnitTest.assertEquals(expected, A, DeepBoofConstants.TEST_TOL_F32);
+				}
+			}
+		}
+	}
+
+	private static int[] broadcastCoordinate( int[] coor , int[] shape ) {
+		int[] out = new int[shape.length];
+		for (int i = 0; i < shape.length; i++) {
+			int k = coor.length - shape.length + i;
+			out[i] = shape[i] == 1 ? 0 : coor[k];
+		}
+		return out;
+	}
+
+	@Test
+	public void elementAdd_broadcast_badShape() {
+		Tensor_F32 A = new Tensor_F32(2,3,4);
+		Tensor_F32 B = new Tensor_F32(3,1);
+
+		try {
+			TensorOps_F32.elementAdd(A, B, new Tensor_F32(2,3));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+
+		try {
+			TensorOps_F32.elementAdd(A, new Tensor_F32(2,4), new Tensor_F32(2,3,4));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+
+		// output can't share data with the input which is broadcast
+		Tensor_F32 O = new Tensor_F32(3,3);
+		try {
+			TensorOps_F32.elementMult(new Tensor_F32(3,3), O.subtensor(3,new int[]{3}), O);
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+	}
+
+	@Test
+	public void normalizeU8() {
+		float[] mean = {10, 120.5f, 200};
+		float[] stdev = {2, 60, 0.5f};
+
+		// the last shape is large enough to be processed in parallel
+		for( int[] spatial : new int[][]{{4,5},{110,120}} ) {
+			for( boolean interleaved : new boolean[]{false,true} ) {
+				int N = 2, C = 3, H = spatial[0], W = spatial[1];
+				Tensor_U8 input = interleaved ? new Tensor_U8(N,H,W,C) : new Tensor_U8(N,C,H,W);
+				rand.nextBytes(input.d);
+
+				Tensor_F32 output = new Tensor_F32(1);
+				TensorOps_F32.normalizeU8(input, interleaved, mean, stdev, output);
+
+				assertTrue(output.isShape(N,C,H,W));
+				for (int n = 0; n < N; n++) {
+					for (int c = 0; c < C; c++) {
+						for (int y = 0; y < H; y++) {
+							for (int x = 0; x < W; x++) {
+								int value = interleaved ? input.d[input.idx(n,y,x,c)] & 0xFF : input.d[input.idx(n,c,y,x)] & 0xFF;
+								float expected = (value - mean[c])/stdev[c];
+								assertEquals(expected, output.get(n,c,y,x), DeepBoofConstants.TEST_TOL_F32);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sum a large number of values which can't be exactly represented. Naive accumulation will drift
+	 */
+	@Test
+	public void elementSum_precision() {
+		Tensor_F32 tensor = new Tensor_F32(2_000_000);
+		TensorOps_F32.fill(tensor, 0.1f);
+
+		assertEquals(200_000.0, TensorOps_F32.elementSum(tensor), 200_000.0*DeepBoofConstants.TEST_TOL_F32);
+	}
+
+	@Test
+	public void elementMean_elementVariance() {
+		// large offset makes a naive E[x^2] - E[x]^2 computation fail
+		for( int N : new int[]{50, 100_000} ) {
+			Tensor_F32 tensor = TensorFactory_F32.randomMM(rand, true, -1, 1, N);
+			TensorOps_F32.scale(tensor, 1.0f, 1000.0f);
+
+			float mean = 0;
+			for (int i = 0; i < N; i++) {
+				mean += tensor.getAtIndex(i);
+			}
+			mean /= N;
+			float variance = 0;
+			for (int i = 0; i < N; i++) {
+				float delta = tensor.getAtIndex(i) - mean;
+				variance += delta*delta;
+			}
+			variance /= N;
+
+			assertEquals(mean, TensorOps_F32.elementMean(tensor), mean*DeepBoofConstants.TEST_TOL_F32);
+			assertEquals(variance, TensorOps_F32.elementVariance(tensor), DeepBoofConstants.TEST_TOL_B_F32);
+		}
+	}
+
+	@Test
+	public void reduceAxis() {
+		// the last shape is large enough to be processed in parallel
+		for( int[] shape : new int[][]{{5},{3,4},{3,4,5},{3,100,120}} ) {
+			Tensor_F32 input = TensorFactory_F32.randomMM(rand, true, -1, 1, shape);
+
+			for (int axis = 0; axis < shape.length; axis++) {
+				Tensor_F32 sum = new Tensor_F32(1);
+				Tensor_F32 mean = new Tensor_F32(1);
+				Tensor_F32 variance = new Tensor_F32(1);
+				Tensor_F32 min = new Tensor_F32(1);
+				Tensor_F32 max = new Tensor_F32(1);
+
+				TensorOps_F32.sum(input, axis, sum);
+				TensorOps_F32.mean(input, axis, mean);
+				TensorOps_F32.variance(input, axis, variance);
+				TensorOps_F32.min(input, axis, min);
+				TensorOps_F32.max(input, axis, max);
+
+				int L = shape[axis];
+				int inner = 1;
+				for (int i = axis+1; i < shape.length; i++) {
+					inner *= shape[i];
+				}
+				assertEquals(Math.max(1,input.length()/L), sum.length());
+
+				for (int index = 0; index < sum.length(); index++) {
+					int o = index / inner, i = index % inner;
+					float expectedSum = 0;
+					float expectedMin = Float.MAX_VALUE, expectedMax = -Float.MAX_VALUE;
+					for (int k = 0; k < L; k++) {
+						float v = input.getAtIndex((o*L + k)*inner + i);
+						expectedSum += v;
+						expectedMin = Math.min(expectedMin, v);
+						expectedMax = Math.max(expectedMax, v);
+					}
+					float expectedMean = expectedSum/L;
+					float expectedVariance = 0;
+					for (int k = 0; k < L; k++) {
+						float delta = input.getAtIndex((o*L + k)*inner + i) - expectedMean;
+						expectedVariance += delta*delta;
+					}
+					expectedVariance /= L;
+
+					assertEquals(expectedSum, sum.getAtIndex(index), DeepBoofConstants.TEST_TOL_F32);
+					assertEquals(expectedMean, mean.getAtIndex(index), DeepBoofConstants.TEST_TOL_F32);
+					assertEquals(expectedVariance, variance.getAtIndex(index), DeepBoofConstants.TEST_TOL_F32);
+					assertEquals(expectedMin, min.getAtIndex(index), DeepBoofConstants.TEST_TOL_F32);
+					assertEquals(expectedMax, max.getAtIndex(index), DeepBoofConstants.TEST_TOL_F32);
+				}
+			}
+		}
+	}
 }
@@ -21,6 +21,7 @@ package deepboof.misc;
 import deepboof.DeepBoofConstants;
 import deepboof.DeepUnitTest;
 import deepboof.tensors.Tensor_F64;
+import deepboof.tensors.Tensor_U8;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
@@ -28,6 +29,7 @@ import java.util.List;
 import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 /**
@@ -310,4 +312,431 @@ public class TestTensorOps_F64 {
 		}
 	}
 
+	@Test
+	public void axpy() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 X = TensorFactory_F64.random(rand,sub, 5,3,2);
+			Tensor_F64 Y = TensorFactory_F64.random(rand,sub, 5,3,2);
+			Tensor_F64 original = Y.copy();
+
+			TensorOps_F64.axpy(1.5,X,Y);
+
+			for (int i = 0; i < X.length(); i++) {
+				assertEquals( 1.5*X.getAtIndex(i)+original.getAtIndex(i), Y.getAtIndex(i), DeepBoofConstants.TEST_TOL_F64);
+			}
+		}
+	}
+
+	@Test
+	public void scale() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 T = TensorFactory_F64.random(rand,sub, 5,3,2);
+			Tensor_F64 original = T.copy();
+
+			TensorOps_F64.scale(T,2.0,-0.5);
+
+			for (int i = 0; i < T.length(); i++) {
+				assertEquals( 2.0*original.getAtIndex(i)-0.5, T.getAtIndex(i), DeepBoofConstants.TEST_TOL_F64);
+			}
+		}
+	}
+
+	@Test
+	public void fma() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 A = TensorFactory_F64.random(rand,sub, 5,3,2);
+			Tensor_F64 B = TensorFactory_F64.random(rand,sub, 5,3,2);
+			Tensor_F64 C = TensorFactory_F64.random(rand,sub, 5,3,2);
+			Tensor_F64 O = TensorFactory_F64.random(rand,sub, 5,3,2);
+
+			TensorOps_F64.fma(A,B,C,O);
+
+			for (int i = 0; i < A.length(); i++) {
+				double expected = A.getAtIndex(i)*B.getAtIndex(i) + C.getAtIndex(i);
+				assertEquals( expected, O.getAtIndex(i), DeepBoofConstants.TEST_TOL_F64);
+			}
+
+			// output is the same as one of the inputs
+			Tensor_F64 original = C.copy();
+			TensorOps_F64.fma(A,B,C,C);
+			for (int i = 0; i < A.length(); i++) {
+				double expected = A.getAtIndex(i)*B.getAtIndex(i) + original.getAtIndex(i);
+				assertEquals( expected, C.getAtIndex(i), DeepBoofConstants.TEST_TOL_F64);
+			}
+		}
+	}
+
+	@Test
+	public void clamp() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 T = TensorFactory_F64.randomMM(rand,sub,-2,2,5,3,2);
+			Tensor_F64 O = TensorFactory_F64.random(rand,sub, 5,3,2);
+
+			TensorOps_F64.clamp(T,-1,0.5,O);
+
+			for (int i = 0; i < T.length(); i++) {
+				double expected = Math.max(-1,Math.min(0.5,T.getAtIndex(i)));
+				assertEquals( expected, O.getAtIndex(i), DeepBoofConstants.TEST_TOL_F64);
+			}
+
+			TensorOps_F64.clamp(T,-1,0.5);
+			DeepUnitTest.assertEquals(O,T,DeepBoofConstants.TEST_TOL_F64);
+		}
+	}
+
+	@Test
+	public void argMin_argMax() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 T = TensorFactory_F64.random(rand,sub, 5,3,2);
+
+			int expectedMin = 0, expectedMax = 0;
+			for (int i = 1; i < T.length(); i++) {
+				if( T.getAtIndex(i) < T.getAtIndex(expectedMin))
+					expectedMin = i;
+				if( T.getAtIndex(i) > T.getAtIndex(expectedMax))
+					expectedMax = i;
+			}
+
+			assertEquals(expectedMin, TensorOps_F64.argMin(T));
+			assertEquals(expectedMax, TensorOps_F64.argMax(T));
+			assertEquals(T.getAtIndex(expectedMin), TensorOps_F64.elementMin(T), DeepBoofConstants.TEST_TOL_F64);
+			assertEquals(T.getAtIndex(expectedMax), TensorOps_F64.elementMax(T), DeepBoofConstants.TEST_TOL_F64);
+		}
+	}
+
+	/**
+	 * When there's a tie the first element should be returned
+	 */
+	@Test
+	public void argMax_tie() {
+		Tensor_F64 T = new Tensor_F64(20000);
+		T.d[9000] = 2;
+		T.d[19000] = 2;
+
+		assertEquals(9000, TensorOps_F64.argMax(T));
+		assertEquals(0, TensorOps_F64.argMin(T));
+	}
+
+	@Test
+	public void dot() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 A = TensorFactory_F64.random(rand,sub, 5,3,2);
+			Tensor_F64 B = TensorFactory_F64.random(rand,sub, 5,3,2);
+
+			double expected = 0;
+			for (int i = 0; i < A.length(); i++) {
+				expected += A.getAtIndex(i)*B.getAtIndex(i);
+			}
+
+			assertEquals( expected, TensorOps_F64.dot(A,B), DeepBoofConstants.TEST_TOL_F64);
+		}
+	}
+
+	@Test
+	public void norms() {
+		for( boolean sub : new boolean[]{false,true}) {
+			Tensor_F64 T = TensorFactory_F64.randomMM(rand,sub,-1,1,5,3,2);
+
+			double l1 = 0, l2 = 0, inf = 0;
+			for (int i = 0; i < T.length(); i++) {
+				double v = T.getAtIndex(i);
+				l1 += Math.abs(v);
+				l2 += v*v;
+				inf = Math.max(inf,Math.abs(v));
+			}
+
+			assertEquals( l1, TensorOps_F64.normL1(T), DeepBoofConstants.TEST_TOL_F64);
+			assertEquals( Math.sqrt(l2), TensorOps_F64.normL2(T), DeepBoofConstants.TEST_TOL_F64);
+			assertEquals( inf, TensorOps_F64.normInf(T), DeepBoofConstants.TEST_TOL_F64);
+		}
+	}
+
+	@Test
+	public void channelReductions() {
+		List<int[]> shapes = new ArrayList<>();
+		shapes.add(new int[]{4,3});
+		shapes.add(new int[]{4,3,5,2});
+
+		for( boolean sub : new boolean[]{false,true}) {
+			for( int[] shape : shapes ) {
+				Tensor_F64 T = TensorFactory_F64.randomMM(rand,sub,-1,1, shape);
+				int N = shape[0], C = shape[1], inner = T.length()/(N*C);
+
+				Tensor_F64 sum = new Tensor_F64(1);
+				Tensor_F64 mean = new Tensor_F64(1);
+				Tensor_F64 min = new Tensor_F64(1);
+				Tensor_F64 max = new Tensor_F64(1);
+				TensorOps_F64.channelSum(T, sum);
+				TensorOps_F64.channelMean(T, mean);
+				TensorOps_F64.channelMin(T, min);
+				TensorOps_F64.channelMax(T, max);
+
+				for (int c = 0; c < C; c++) {
+					double expectedSum = 0;
+					double expectedMin = Double.MAX_VALUE, expectedMax = -Double.MAX_VALUE;
+					for (int n = 0; n < N; n++) {
+						for (int i = 0; i < inner; i++) {
+							double v = T.getAtIndex((n*C + c)*inner + i);
+							expectedSum += v;
+							expectedMin = Math.min(expectedMin, v);
+							expectedMax = Math.max(expectedMax, v);
+						}
+					}
+					assertEquals(expectedSum, sum.get(c), DeepBoofConstants.TEST_TOL_F64);
+					assertEquals(expectedSum/(N*inner), mean.get(c), DeepBoofConstants.TEST_TOL_F64);
+					assertEquals(expectedMin, min.get(c), DeepBoofConstants.TEST_TOL_F64);
+					assertEquals(expectedMax, max.get(c), DeepBoofConstants.TEST_TOL_F64);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tensors large enough to be processed in parallel should produce the same results as when concurrency
+	 * is turned off
+	 */
+	@Test
+	public void concurrent_matchesSingleThread() {
+		boolean before = DeepBoofConcurrency.USE_CONCURRENT;
+		try {
+			Tensor_F64 A = TensorFactory_F64.randomMM(rand,true,-1,1, 4, 3, 100, 101);
+			Tensor_F64 B = TensorFactory_F64.randomMM(rand,true,-1,1, 4, 3, 100, 101);
+			assertTrue(DeepBoofConcurrency.isParallel(A.length()));
+
+			double[][] results = new double[2][];
+			Tensor_F64[] outputs = new Tensor_F64[2];
+			for (int trial = 0; trial < 2; trial++) {
+				DeepBoofConcurrency.USE_CONCURRENT = trial == 0;
+
+				Tensor_F64 Y = B.copy();
+				TensorOps_F64.axpy(0.5, A, Y);
+				TensorOps_F64.clamp(Y, -0.9, 0.9);
+				outputs[trial] = Y;
+
+				Tensor_F64 channels = new Tensor_F64(1);
+				TensorOps_F64.channelSum(A, channels);
+
+				results[trial] = new double[]{
+						TensorOps_F64.elementSum(A), TensorOps_F64.dot(A, B), TensorOps_F64.normL2(A),
+						TensorOps_F64.argMax(A), TensorOps_F64.argMin(A), channels.get(2)};
+			}
+
+			DeepUnitTest.assertEquals(outputs[0], outputs[1], 0);
+			for (int i = 0; i < results[0].length; i++) {
+				assertEquals(results[0][i], results[1][i], 0);
+			}
+		} finally {
+			DeepBoofConcurrency.USE_CONCURRENT = before;
+		}
+	}
+
+	@Test
+	public void elementAdd_broadcast() {
+		checkBroadcast(true);
+	}
+
+	@Test
+	public void elementMult_broadcast() {
+		checkBroadcast(false);
+	}
+
+	private void checkBroadcast( boolean add ) {
+		List<int[][]> cases = new ArrayList<>();
+		cases.add(new int[][]{{2,3,4,5},{3,1,1}});
+		cases.add(new int[][]{{3,1,1},{2,3,4,5}});
+		cases.add(new int[][]{{4,3},{3}});
+		cases.add(new int[][]{{4,1},{1,3}});
+		cases.add(new int[][]{{2,3,4},{2,1,4}});
+		cases.add(new int[][]{{2,3,4},{1}});
+		cases.add(new int[][]{{20,3,40,50},{3,1,50}}); // large enough to be processed in parallel
+
+		for( boolean sub : new boolean[]{false,true}) {
+			for( int[][] c : cases ) {
+				Tensor_F64 A = TensorFactory_F64.random(rand, sub, c[0]);
+				Tensor_F64 B = TensorFactory_F64.random(rand, sub, c[1]);
+				int[] shapeOut = TensorBroadcast.broadcastShape(c[0],c[1]);
+				Tensor_F64 O = TensorFactory_F64.random(rand, sub, shapeOut);
+
+				if( add )
+					TensorOps_F64.elementAdd(A, B, O);
+				else
+					TensorOps_F64.elementMult(A, B, O);
+
+				int[] coor = new int[shapeOut.length];
+				for (int i = 0; i < O.length(); i++) {
+					int index = i;
+					for (int k = shapeOut.length-1; k >= 0; k--) {
+						coor[k] = index % shapeOut[k];
+						index /= shapeOut[k];
+					}
+					double a = A.get(broadcastCoordinate(coor, A.shape));
+					double b = B.get(broadcastCoordinate(coor, B.shape));
+					double expected = add ? a + b : a*b;
+					assertEquals(expected, O.get(coor), DeepBoofConstants.TEST_TOL_F64);
+				}
+
+				// In-place is allowed for the input which has the same shape as the output
+				if( A.isShape(shapeOut) ) {
+					Tensor_F64 expected = O.copy();
+					if( add )
+						TensorOps_F64.elementAdd(A, B, A);
+					else
+						TensorOps_F64.elementMult(A, B, A);
+					DeepUnitTest.assertEquals(expected, A, DeepBoofConstants.TEST_TOL_F64);
+				}
+			}
+		}
+	}
+
+	private static int[] broadcastCoordinate( int[] coor , int[] shape ) {
+		int[] out = new int[shape.length];
+		for (int i = 0; i < shape.length; i++) {
+			int k = coor.length - shape.length + i;
+			out[i] = shape[i] == 1 ? 0 : coor[k];
+		}
+		return out;
+	}
+
+	@Test
+	public void elementAdd_broadcast_badShape() {
+		Tensor_F64 A = new Tensor_F64(2,3,4);
+		Tensor_F64 B = new Tensor_F64(3,1);
+
+		try {
+			TensorOps_F64.elementAdd(A, B, new Tensor_F64(2,3));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+
+		try {
+			TensorOps_F64.elementAdd(A, new Tensor_F64(2,4), new Tensor_F64(2,3,4));
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+
+		// output can't share data with the input which is broadcast
+		Tensor_F64 O = new Tensor_F64(3,3);
+		try {
+			TensorOps_F64.elementMult(new Tensor_F64(3,3), O.subtensor(3,new int[]{3}), O);
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+	}
+
+	@Test
+	public void normalizeU8() {
+		double[] mean = {10, 120.5, 200};
+		double[] stdev = {2, 60, 0.5};
+
+		// the last shape is large enough to be processed in parallel
+		for( int[] spatial : new int[][]{{4,5},{110,120}} ) {
+			for( boolean interleaved : new boolean[]{false,true} ) {
+				int N = 2, C = 3, H = spatial[0], W = spatial[1];
+				Tensor_U8 input = interleaved ? new Tensor_U8(N,H,W,C) : new Tensor_U8(N,C,H,W);
+				rand.nextBytes(input.d);
+
+				Tensor_F64 output = new Tensor_F64(1);
+				TensorOps_F64.normalizeU8(input, interleaved, mean, stdev, output);
+
+				assertTrue(output.isShape(N,C,H,W));
+				for (int n = 0; n < N; n++) {
+					for (int c = 0; c < C; c++) {
+						for (int y = 0; y < H; y++) {
+							for (int x = 0; x < W; x++) {
+								int value = interleaved ? input.d[input.idx(n,y,x,c)] & 0xFF : input.d[input.idx(n,c,y,x)] & 0xFF;
+								double expected = (value - mean[c])/stdev[c];
+								assertEquals(expected, output.get(n,c,y,x), DeepBoofConstants.TEST_TOL_F64);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sum a large number of values which can't be exactly represented. Naive accumulation will drift
+	 */
+	@Test
+	public void elementSum_precision() {
+		Tensor_F64 tensor = new Tensor_F64(2_000_000);
+		TensorOps_F64.fill(tensor, 0.1);
+
+		assertEquals(200_000.0, TensorOps_F64.elementSum(tensor), 200_000.0*DeepBoofConstants.TEST_TOL_F64);
+	}
+
+	@Test
+	public void elementMean_elementVariance() {
+		// large offset makes a naive E[x^2] - E[x]^2 computation fail
+		for( int N : new int[]{50, 100_000} ) {
+			Tensor_F64 tensor = TensorFactory_F64.randomMM(rand, true, -1, 1, N);
+			TensorOps_F64.scale(tensor, 1.0, 1000.0);
+
+			double mean = 0;
+			for (int i = 0; i < N; i++) {
+				mean += tensor.getAtIndex(i);
+			}
+			mean /= N;
+			double variance = 0;
+			for (int i = 0; i < N; i++) {
+				double delta = tensor.getAtIndex(i) - mean;
+				variance += delta*delta;
+			}
+			variance /= N;
+
+			assertEquals(mean, TensorOps_F64.elementMean(tensor), mean*DeepBoofConstants.TEST_TOL_F64);
+			assertEquals(variance, TensorOps_F64.elementVariance(tensor), DeepBoofConstants.TEST_TOL_B_F64);
+		}
+	}
+
+	@Test
+	public void reduceAxis() {
+		// the last shape is large enough to be processed in parallel
+		for( int[] shape : new int[][]{{5},{3,4},{3,4,5},{3,100,120}} ) {
+			Tensor_F64 input = TensorFactory_F64.randomMM(rand, true, -1, 1, shape);
+
+			for (int axis = 0; axis < shape.length; axis++) {
+				Tensor_F64 sum = new Tensor_F64(1);
+				Tensor_F64 mean = new Tensor_F64(1);
+				Tensor_F64 variance = new Tensor_F64(1);
+				Tensor_F64 min = new Tensor_F64(1);
+				Tensor_F64 max = new Tensor_F64(1);
+
+				TensorOps_F64.sum(input, axis, sum);
+				TensorOps_F64.mean(input, axis, mean);
+				TensorOps_F64.variance(input, axis, variance);
+				TensorOps_F64.min(input, axis, min);
+				TensorOps_F64.max(input, axis, max);
+
+				int L = shape[axis];
+				int inner = 1;
+				for (int i = axis+1; i < shape.length; i++) {
+					inner *= shape[i];
+				}
+				assertEquals(Math.max(1,input.length()/L), sum.length());
+
+				for (int index = 0; index < sum.length(); index++) {
+					int o = index / inner, i = index % inner;
+					double expectedSum = 0;
+					double expectedMin = Double.MAX_VALUE, expectedMax = -Double.MAX_VALUE;
+					for (int k = 0; k < L; k++) {
+						double v = input.getAtIndex((o*L + k)*inner + i);
+						expectedSum += v;
+						expectedMin = Math.min(expectedMin, v);
+						expectedMax = Math.max(expectedMax, v);
+					}
+					double expectedMean = expectedSum/L;
+					double expectedVariance = 0;
+					for (int k = 0; k < L; k++) {
+						double delta = input.getAtIndex((o*L + k)*inner + i) - expectedMean;
+						expectedVariance += delta*delta;
+					}
+					expectedVariance /= L;
+
+					assertEquals(expectedSum, sum.getAtIndex(index), DeepBoofConstants.TEST_TOL_F64);
+					assertEquals(expectedMean, mean.getAtIndex(index), DeepBoofConstants.TEST_TOL_F64);
+					assertEquals(expectedVariance, variance.getAtIndex(index), DeepBoofConstants.TEST_TOL_F64);
+					assertEquals(expectedMin, min.getAtIndex(index), DeepBoofConstants.TEST_TOL_F64);
+					assertEquals(expectedMax, max.getAtIndex(index), DeepBoofConstants.TEST_TOL_F64);
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016, Peter Abeles. All Rights Reserved.
+ *
+ * This file is part of DeepBoof
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deepboof.misc;
+
+import deepboof.tensors.Tensor_F32;
+import deepboof.tensors.Tensor_F64;
+import deepboof.tensors.Tensor_U8;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestTensorPool {
+
+	@Test
+	public void acquire_release_recycle() {
+		TensorPool alg = new TensorPool();
+
+		Tensor_F64 a = alg.acquire(Tensor_F64.class,2,3,4);
+		assertTrue(a.isShape(2,3,4));
+		assertEquals(24,a.d.length);
+		assertEquals(1,alg.getTotalAllocations());
+		assertEquals(24*8,alg.getBytesInUse());
+
+		double[] original = a.d;
+		alg.release(a);
+		assertEquals(0,a.d.length);
+		assertEquals(0,alg.getBytesInUse());
+		assertEquals(24*8,alg.getBytesFree());
+
+		// should get the same array back since it's large enough
+		Tensor_F64 b = alg.acquire(Tensor_F64.class,20);
+		assertSame(original,b.d);
+		assertEquals(1,alg.getTotalAllocations());
+		assertEquals(1,alg.getTotalReused());
+		assertEquals(0,alg.getBytesFree());
+	}
+
+	@Test
+	public void acquire_keyedByType() {
+		TensorPool alg = new TensorPool();
+
+		alg.release(alg.acquire(Tensor_F64.class,10));
+		Tensor_F32 a = alg.acquire(Tensor_F32.class,10);
+		Tensor_U8 b = alg.acquire(Tensor_U8.class,10);
+
+		assertEquals(3,alg.getTotalAllocations());
+		assertEquals(10*4+10,alg.getBytesInUse());
+		assertEquals(10*8,alg.getBytesFree());
+		assertEquals(10,a.d.length);
+		assertEquals(10,b.d.length);
+	}
+
+	/**
+	 * Free arrays which are much larger than the request should not be used
+	 */
+	@Test
+	public void acquire_maxSlack() {
+		TensorPool alg = new TensorPool();
+
+		Tensor_F32 large = alg.acquire(Tensor_F32.class,100);
+		Tensor_F32 medium = alg.acquire(Tensor_F32.class,60);
+		alg.release(large);
+
+		Tensor_F32 a = alg.acquire(Tensor_F32.class,20);
+		assertEquals(20,a.d.length);
+		assertEquals(3,alg.getTotalAllocations());
+
+		// pick the smallest array which is large enough
+		alg.release(medium);
+		Tensor_F32 b = alg.acquire(Tensor_F32.class,55);
+		assertEquals(60,b.d.length);
+		assertEquals(3,alg.getTotalAllocations());
+		assertEquals(100*4,alg.getBytesFree());
+	}
+
+	@Test
+	public void reshape() {
+		TensorPool alg = new TensorPool();
+
+		Tensor_F32 a = new Tensor_F32(2,3);
+		float[] original = a.d;
+
+		// no need to grow so nothing should change
+		alg.reshape(a,3,2);
+		assertTrue(a.isShape(3,2));
+		assertSame(original,a.d);
+		assertEquals(0,alg.getTotalAllocations());
+
+		// grow. The original array should be adopted by the pool
+		alg.reshape(a,4,5);
+		assertTrue(a.isShape(4,5));
+		assertEquals(20,a.d.length);
+		assertEquals(1,alg.getTotalAllocations());
+		assertEquals(6*4,alg.getBytesFree());
+
+		// the adopted array can now be used
+		Tensor_F32 b = alg.acquire(Tensor_F32.class,6);
+		assertSame(original,b.d);
+	}
+
+	@Test
+	public void highWaterMark() {
+		TensorPool alg = new TensorPool();
+
+		try( TensorPool.Scope scope = alg.scope() ) {
+			scope.acquire(Tensor_F64.class,10);
+			scope.acquire(Tensor_F64.class,5);
+			assertEquals(15*8,alg.getHighWaterMark());
+		}
+		assertEquals(0,alg.getBytesInUse());
+		assertEquals(15*8,alg.getHighWaterMark());
+
+		alg.resetHighWaterMark();
+		assertEquals(0,alg.getHighWaterMark());
+
+		// the smallest free array which can hold it is used
+		alg.acquire(Tensor_F64.class,3);
+		assertEquals(5*8,alg.getHighWaterMark());
+	}
+
+	@Test
+	public void scope() {
+		TensorPool alg = new TensorPool();
+
+		Tensor_F32 a;
+		try( TensorPool.Scope scope = alg.scope() ) {
+			a = scope.acquire(Tensor_F32.class,10);
+			assertEquals(10*4,alg.getBytesInUse());
+		}
+		assertEquals(0,alg.getBytesInUse());
+		assertEquals(0,a.d.length);
+	}
+
+	@Test
+	public void trim() {
+		TensorPool alg = new TensorPool();
+
+		alg.release(alg.acquire(Tensor_F32.class,10));
+		assertEquals(10*4,alg.getBytesFree());
+		alg.trim();
+		assertEquals(0,alg.getBytesFree());
+
+		alg.acquire(Tensor_F32.class,10);
+		assertEquals(2,alg.getTotalAllocations());
+	}
+
+	@Test
+	public void release_twice() {
+		TensorPool alg = new TensorPool();
+
+		Tensor_F32 a = alg.acquire(Tensor_F32.class,10);
+		float[] data = a.d;
+		alg.release(a);
+
+		a.d = data;
+		try {
+			alg.release(a);
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+	}
+
+	@Test
+	public void release_subtensor() {
+		TensorPool alg = new TensorPool();
+
+		Tensor_F32 a = alg.acquire(Tensor_F32.class,10);
+		Tensor_F32 sub = a.subtensor(2,new int[]{4});
+		try {
+			alg.release(sub);
+			fail("Exception expected");
+		} catch( IllegalArgumentException ignore ){}
+	}
+}